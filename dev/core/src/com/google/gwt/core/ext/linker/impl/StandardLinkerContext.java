@@ -51,6 +51,8 @@ import com.google.gwt.dev.js.ast.JsProgram;
 import com.google.gwt.dev.js.ast.JsScope;
 import com.google.gwt.dev.util.DefaultTextOutput;
 import com.google.gwt.dev.util.OutputFileSet;
+import com.google.gwt.dev.util.Parallel;
+import com.google.gwt.dev.util.Parallel.ChunkTask;
 
 import java.io.File;
 import java.io.IOException;
@@ -61,10 +63,12 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
 
 /**
  * An implementation of {@link LinkerContext} that is initialized from a
@@ -109,10 +113,19 @@ public class StandardLinkerContext extends Linker implements LinkerContext {
     }
   };
 
+  /**
+   * The default number of threads used to link permutations and emit
+   * artifacts. The default of 1 does everything on the calling thread.
+   */
+  private static final int LINK_THREADS = Parallel.getThreadCount(
+      "gwt.linker.threads", 1);
+
   private final SortedSet<ConfigurationProperty> configurationProperties;
 
   private final JJSOptions jjsOptions;
 
+  private int linkThreads = LINK_THREADS;
+
   private final List<Class<? extends Linker>> linkerClasses;
   private Linker[] linkers;
   private final Map<Class<? extends Linker>, String> linkerShortNames = new HashMap<Class<? extends Linker>, String>();
@@ -298,6 +311,14 @@ public class StandardLinkerContext extends Linker implements LinkerContext {
     return linkerShortNames.get(linkerType) + '/' + partialPath;
   }
 
+  /**
+   * Returns the number of threads used to link permutations and emit
+   * artifacts.
+   */
+  public int getLinkThreads() {
+    return linkThreads;
+  }
+
   public String getModuleFunctionName() {
     return moduleFunctionName;
   }
@@ -355,7 +376,9 @@ public class StandardLinkerContext extends Linker implements LinkerContext {
 
   /**
    * Invoke the shardable linkers on one permutation result. Those linkers run
-   * with the precompile artifacts as input.
+   * with the precompile artifacts as input. Each call uses new linker
+   * instances, so that linkers don't carry any state across permutations, and
+   * several permutations may be linked at once on different threads.
    */
   public ArtifactSet invokeLinkForOnePermutation(TreeLogger logger,
       StandardCompilationResult permResult, ArtifactSet permArtifacts)
@@ -363,7 +386,7 @@ public class StandardLinkerContext extends Linker implements LinkerContext {
     ArtifactSet workingArtifacts = new ArtifactSet(permArtifacts);
     workingArtifacts.add(permResult);
 
-    for (Linker linker : linkers) {
+    for (Linker linker : createLinkers(logger)) {
       if (linker.isShardable()) {
         TreeLogger linkerLogger = logger.branch(TreeLogger.TRACE,
             "Invoking Linker " + linker.getDescription(), null);
@@ -377,12 +400,6 @@ public class StandardLinkerContext extends Linker implements LinkerContext {
       }
     }
 
-    /*
-     * Reset linkers so that they don't accidentally carry any state across
-     * permutations
-     */
-    resetLinkers(logger);
-
     workingArtifacts.freeze();
     return workingArtifacts;
   }
@@ -473,7 +490,10 @@ public class StandardLinkerContext extends Linker implements LinkerContext {
 
   /**
    * Emit EmittedArtifacts artifacts onto <code>out</code>. Does not close
-   * <code>out</code>.
+   * <code>out</code>. If <code>out</code> supports concurrent writes, and
+   * {@link #getLinkThreads()} is more than one, artifacts are written on
+   * several threads. Artifacts which have the same path are still written one
+   * after the other in order, so the output is the same.
    * 
    * @param logger where to log progress
    * @param artifacts the artifacts to emit
@@ -481,15 +501,15 @@ public class StandardLinkerContext extends Linker implements LinkerContext {
    * @param out where to emit the artifact contents
    */
   public void produceOutput(TreeLogger logger, ArtifactSet artifacts,
-      Visibility visibility, OutputFileSet out)
+      Visibility visibility, final OutputFileSet out)
       throws UnableToCompleteException {
-    logger = logger.branch(TreeLogger.TRACE, "Linking " + visibility
-        + " artifacts into " + out.getPathDescription(), null);
+    final TreeLogger branch = logger.branch(TreeLogger.TRACE, "Linking "
+        + visibility + " artifacts into " + out.getPathDescription(), null);
 
+    // Group the artifacts by path, in order.
+    Map<String, List<EmittedArtifact>> artifactsByPath =
+        new LinkedHashMap<String, List<EmittedArtifact>>();
     for (EmittedArtifact artifact : artifacts.find(EmittedArtifact.class)) {
-      TreeLogger artifactLogger = logger.branch(TreeLogger.DEBUG,
-          "Emitting resource " + artifact.getPartialPath(), null);
-
       if (!artifact.getVisibility().matches(visibility)) {
         continue;
       }
@@ -503,27 +523,57 @@ public class StandardLinkerContext extends Linker implements LinkerContext {
           partialPath = partialPath.substring(1);
         }
       }
-      try {
-        OutputStream artifactStream = out.openForWrite(partialPath,
-            artifact.getLastModified());
-        artifact.writeTo(artifactLogger, artifactStream);
-        artifactStream.close();
-      } catch (IOException e) {
-        artifactLogger.log(TreeLogger.ERROR,
-            "Fatal error emitting this artifact", e);
+      List<EmittedArtifact> group = artifactsByPath.get(partialPath);
+      if (group == null) {
+        group = new ArrayList<EmittedArtifact>(1);
+        artifactsByPath.put(partialPath, group);
+      }
+      group.add(artifact);
+    }
+
+    int numThreads = out.supportsConcurrentWrites() ? linkThreads : 1;
+    try {
+      Parallel.mapChunks(numThreads, new ArrayList<Map.Entry<String, List<EmittedArtifact>>>(
+          artifactsByPath.entrySet()),
+          new ChunkTask<Map.Entry<String, List<EmittedArtifact>>, Void>() {
+            public Void run(List<Map.Entry<String, List<EmittedArtifact>>> chunk)
+                throws UnableToCompleteException {
+              for (Map.Entry<String, List<EmittedArtifact>> entry : chunk) {
+                for (EmittedArtifact artifact : entry.getValue()) {
+                  emitArtifact(branch, artifact, entry.getKey(), out);
+                }
+              }
+              return null;
+            }
+          });
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof UnableToCompleteException) {
+        throw (UnableToCompleteException) e.getCause();
       }
+      branch.log(TreeLogger.ERROR, "Unexpected error emitting artifacts",
+          e.getCause());
+      throw new UnableToCompleteException();
     }
   }
 
   /**
-   * (Re)instantiate all linkers.
+   * Sets the number of threads used to link permutations and emit artifacts.
+   * Values below 1 are treated as 1.
    */
-  private void resetLinkers(TreeLogger logger) throws UnableToCompleteException {
-    linkers = new Linker[linkerClasses.size()];
+  public void setLinkThreads(int linkThreads) {
+    this.linkThreads = Math.max(1, linkThreads);
+  }
+
+  /**
+   * Creates new instances of the linkers, in the order they run.
+   */
+  private Linker[] createLinkers(TreeLogger logger)
+      throws UnableToCompleteException {
+    Linker[] newLinkers = new Linker[linkerClasses.size()];
     int i = 0;
     for (Class<? extends Linker> linkerClass : linkerClasses) {
       try {
-        linkers[i++] = linkerClass.newInstance();
+        newLinkers[i++] = linkerClass.newInstance();
       } catch (InstantiationException e) {
         logger.log(TreeLogger.ERROR, "Unable to create Linker", e);
         throw new UnableToCompleteException();
@@ -532,5 +582,28 @@ public class StandardLinkerContext extends Linker implements LinkerContext {
         throw new UnableToCompleteException();
       }
     }
+    return newLinkers;
+  }
+
+  private void emitArtifact(TreeLogger logger, EmittedArtifact artifact,
+      String partialPath, OutputFileSet out) throws UnableToCompleteException {
+    TreeLogger artifactLogger = logger.branch(TreeLogger.DEBUG,
+        "Emitting resource " + artifact.getPartialPath(), null);
+    try {
+      OutputStream artifactStream = out.openForWrite(partialPath,
+          artifact.getLastModified());
+      artifact.writeTo(artifactLogger, artifactStream);
+      artifactStream.close();
+    } catch (IOException e) {
+      artifactLogger.log(TreeLogger.ERROR,
+          "Fatal error emitting this artifact", e);
+    }
+  }
+
+  /**
+   * (Re)instantiate all linkers.
+   */
+  private void resetLinkers(TreeLogger logger) throws UnableToCompleteException {
+    linkers = createLinkers(logger);
   }
 }
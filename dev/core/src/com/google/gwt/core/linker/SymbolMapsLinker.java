@@ -23,6 +23,7 @@ import com.google.gwt.core.ext.linker.AbstractLinker;
 import com.google.gwt.core.ext.linker.Artifact;
 import com.google.gwt.core.ext.linker.ArtifactSet;
 import com.google.gwt.core.ext.linker.CompilationResult;
+import com.google.gwt.core.ext.linker.ConfigurationProperty;
 import com.google.gwt.core.ext.linker.EmittedArtifact;
 import com.google.gwt.core.ext.linker.EmittedArtifact.Visibility;
 import com.google.gwt.core.ext.linker.LinkerOrder;
@@ -34,8 +35,10 @@ import com.google.gwt.core.ext.linker.SymbolData;
 import com.google.gwt.core.ext.linker.SyntheticArtifact;
 import com.google.gwt.dev.util.Util;
 import com.google.gwt.dev.util.collect.HashMap;
+import com.google.gwt.util.tools.shared.BinarySymbolMap;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
@@ -47,7 +50,9 @@ import java.util.SortedMap;
 /**
  * This Linker exports the symbol maps associated with each compilation result as a private file.
  * The names of the symbol maps files are computed by appending {@value #STRONG_NAME_SUFFIX} to the
- * value returned by {@link CompilationResult#getStrongName()}.
+ * value returned by {@link CompilationResult#getStrongName()}. If the {@value #BINARY_SYMBOL_MAPS}
+ * configuration property is true, a {@link BinarySymbolMap} is exported as well, whose name ends
+ * with {@value BinarySymbolMap#SUFFIX}.
  */
 @LinkerOrder(Order.POST)
 @Shardable
@@ -55,6 +60,11 @@ public class SymbolMapsLinker extends AbstractLinker {
 
   public static final String MAKE_SYMBOL_MAPS = "compiler.useSymbolMaps";
 
+  /**
+   * The configuration property which enables binary symbol maps.
+   */
+  public static final String BINARY_SYMBOL_MAPS = "symbolMaps.binary";
+
   /**
    * Artifact to record insertions or deletions made to Javascript fragments.
    */
@@ -240,6 +250,12 @@ public class SymbolMapsLinker extends AbstractLinker {
     if (onePermutation) {
       artifacts = new ArtifactSet(artifacts);
       Map<Integer, String> permMap = new HashMap<Integer, String>();
+      boolean makeBinarySymbolMaps = false;
+      for (ConfigurationProperty prop : context.getConfigurationProperties()) {
+        if (prop.getName().equals(BINARY_SYMBOL_MAPS)) {
+          makeBinarySymbolMaps = Boolean.valueOf(prop.getValues().get(0));
+        }
+      }
 
       ByteArrayOutputStream out = new ByteArrayOutputStream();
       for (CompilationResult result : artifacts.find(CompilationResult.class)) {
@@ -262,6 +278,10 @@ public class SymbolMapsLinker extends AbstractLinker {
 
           doEmitSymbolMap(logger, artifacts, result, out);
           out.reset();
+
+          if (makeBinarySymbolMaps) {
+            doEmitBinarySymbolMap(logger, artifacts, result);
+          }
         }
       }
 
@@ -311,6 +331,38 @@ public class SymbolMapsLinker extends AbstractLinker {
     return artifacts;
   }
 
+  /**
+   * Override to change the manner in which the binary symbol map is emitted.
+   */
+  protected void doEmitBinarySymbolMap(TreeLogger logger,
+      ArtifactSet artifacts, CompilationResult result)
+      throws UnableToCompleteException {
+    BinarySymbolMap.Builder builder = new BinarySymbolMap.Builder();
+    builder.addComment(" { " + result.getPermutationId() + " }");
+    for (SortedMap<SelectionProperty, String> map : result.getPropertyMap()) {
+      builder.addComment(" { " + propertyMapToString(map) + " }");
+    }
+    builder.addComment(" jsName, jsniIdent, className, memberName, sourceUri, sourceLine, "
+        + "fragmentNumber");
+    for (SymbolData symbol : result.getSymbolMap()) {
+      builder.addSymbol(symbol.getSymbolName(), symbol.getJsniIdent(),
+          symbol.getClassName(), symbol.getMemberName(), symbol.getSourceUri(),
+          symbol.getSourceLine(), symbol.getFragmentNumber());
+    }
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      builder.write(out);
+    } catch (IOException e) {
+      logger.log(TreeLogger.ERROR, "Unable to write binary symbol map", e);
+      throw new UnableToCompleteException();
+    }
+    EmittedArtifact symbolMapArtifact = emitBytes(logger, out.toByteArray(),
+        result.getStrongName() + BinarySymbolMap.SUFFIX);
+    symbolMapArtifact.setVisibility(Visibility.LegacyDeploy);
+    artifacts.add(symbolMapArtifact);
+  }
+
   /**
    * Override to change the manner in which the symbol map is emitted.
    */
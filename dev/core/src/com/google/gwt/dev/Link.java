@@ -40,6 +40,8 @@ import com.google.gwt.dev.util.NullOutputFileSet;
 import com.google.gwt.dev.util.OutputFileSet;
 import com.google.gwt.dev.util.OutputFileSetOnDirectory;
 import com.google.gwt.dev.util.OutputFileSetOnJar;
+import com.google.gwt.dev.util.Parallel;
+import com.google.gwt.dev.util.Parallel.ChunkTask;
 import com.google.gwt.dev.util.Util;
 import com.google.gwt.dev.util.arg.ArgHandlerDeployDir;
 import com.google.gwt.dev.util.arg.ArgHandlerExtraDir;
@@ -61,6 +63,7 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.JarOutputStream;
@@ -441,18 +444,47 @@ public class Link {
   /**
    * This link operation simulates sharded linking even though all generating
    * and linking is happening on the same computer. It can tolerate
-   * non-shardable linkers.
+   * non-shardable linkers. Permutations are linked on
+   * {@link StandardLinkerContext#getLinkThreads()} threads, and their
+   * artifacts are combined in permutation order.
    */
-  private static ArtifactSet doSimulatedShardingLink(TreeLogger logger,
-      ModuleDef module, StandardLinkerContext linkerContext,
-      ArtifactSet generatedArtifacts, Permutation[] perms,
-      List<FileBackedObject<PermutationResult>> resultFiles)
+  private static ArtifactSet doSimulatedShardingLink(final TreeLogger logger,
+      ModuleDef module, final StandardLinkerContext linkerContext,
+      final ArtifactSet generatedArtifacts, final Permutation[] perms,
+      final List<FileBackedObject<PermutationResult>> resultFiles)
       throws UnableToCompleteException {
-    ArtifactSet combinedArtifacts = new ArtifactSet();
+    List<Integer> permIndexes = new ArrayList<Integer>(perms.length);
     for (int i = 0; i < perms.length; ++i) {
-      ArtifactSet newArtifacts = finishPermutation(logger, perms[i],
-          resultFiles.get(i), linkerContext, generatedArtifacts);
-      combinedArtifacts.addAll(newArtifacts);
+      permIndexes.add(i);
+    }
+    List<List<ArtifactSet>> linkedPerChunk;
+    try {
+      linkedPerChunk = Parallel.mapChunks(linkerContext.getLinkThreads(),
+          permIndexes, new ChunkTask<Integer, List<ArtifactSet>>() {
+            public List<ArtifactSet> run(List<Integer> chunk)
+                throws UnableToCompleteException {
+              List<ArtifactSet> linked = new ArrayList<ArtifactSet>(chunk.size());
+              for (int i : chunk) {
+                linked.add(finishPermutation(logger, perms[i],
+                    resultFiles.get(i), linkerContext, generatedArtifacts));
+              }
+              return linked;
+            }
+          });
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof UnableToCompleteException) {
+        throw (UnableToCompleteException) e.getCause();
+      }
+      logger.log(TreeLogger.ERROR, "Unexpected error linking permutations",
+          e.getCause());
+      throw new UnableToCompleteException();
+    }
+
+    ArtifactSet combinedArtifacts = new ArtifactSet();
+    for (List<ArtifactSet> linked : linkedPerChunk) {
+      for (ArtifactSet newArtifacts : linked) {
+        combinedArtifacts.addAll(newArtifacts);
+      }
     }
 
     combinedArtifacts.addAll(linkerContext.getArtifactsForPublicResources(
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev;
+
+import com.google.gwt.core.ext.TreeLogger;
+import com.google.gwt.dev.cfg.BindingProperty;
+import com.google.gwt.dev.cfg.StaticPropertyOracle;
+import com.google.gwt.dev.util.Util;
+import com.google.gwt.util.tools.Utility;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The time each permutation took to compile in earlier builds, kept in a
+ * properties file that outlives the compiler's work directory. Used to compile
+ * the most expensive permutations first.
+ *
+ * <p>
+ * The file is named by the {@value #HISTORY_FILE_PROPERTY} system property. If
+ * it isn't set but the permutation cache is enabled, the history is kept in
+ * the cache directory. Otherwise, no history is kept.
+ * </p>
+ *
+ * <p>
+ * A permutation is identified by its property values only, which survive
+ * source changes, including new rebind requests. Costs of permutations that
+ * are not part of the current build are dropped when the file is saved, so a
+ * file should not be shared by several modules.
+ * </p>
+ */
+class PermutationCostHistory {
+
+  static final String HISTORY_FILE_PROPERTY = "gwt.jjs.permutationCostFile";
+
+  private static final String DEFAULT_FILE_NAME = "permutation-costs.properties";
+
+  /**
+   * Returns the history file to use, or <code>null</code> if no history is
+   * kept.
+   */
+  static File getHistoryFile() {
+    String fileName = System.getProperty(HISTORY_FILE_PROPERTY);
+    if (fileName != null && fileName.length() > 0) {
+      return new File(fileName);
+    }
+    String cacheDirName = System.getProperty(PermutationResultCache.CACHE_DIR_PROPERTY);
+    if (cacheDirName != null && cacheDirName.length() > 0) {
+      return new File(cacheDirName, DEFAULT_FILE_NAME);
+    }
+    return null;
+  }
+
+  /**
+   * Returns the key under which the cost of a permutation is kept.
+   */
+  static String computeKey(Permutation permutation) {
+    StringBuilder key = new StringBuilder();
+    for (StaticPropertyOracle oracle : permutation.getPropertyOracles()) {
+      BindingProperty[] props = oracle.getOrderedProps();
+      String[] values = oracle.getOrderedPropValues();
+      for (int i = 0; i < props.length; i++) {
+        key.append(props[i].getName()).append('=').append(values[i]).append('\n');
+      }
+      key.append(';');
+    }
+    return Util.computeStrongName(Util.getBytes(key.toString()));
+  }
+
+  /**
+   * Reads the history from <code>file</code>. A missing or unreadable file is
+   * an empty history.
+   */
+  static PermutationCostHistory load(TreeLogger logger, File file) {
+    Properties costs = new Properties();
+    if (file.isFile()) {
+      InputStream in = null;
+      try {
+        in = new FileInputStream(file);
+        costs.load(in);
+      } catch (IOException e) {
+        logger.log(TreeLogger.WARN, "Unable to read permutation costs from " + file, e);
+        costs.clear();
+      } finally {
+        Utility.close(in);
+      }
+    }
+    return new PermutationCostHistory(file, costs);
+  }
+
+  private final Properties costs;
+
+  private final File file;
+
+  private final Map<String, Long> newCosts = new TreeMap<String, Long>();
+
+  private PermutationCostHistory(File file, Properties costs) {
+    this.file = file;
+    this.costs = costs;
+  }
+
+  /**
+   * Returns the milliseconds <code>permutation</code> took to compile in the
+   * last build that compiled it, or <code>-1</code> if that is unknown.
+   */
+  long getCost(Permutation permutation) {
+    String value = costs.getProperty(computeKey(permutation));
+    if (value == null) {
+      return -1;
+    }
+    try {
+      long millis = Long.parseLong(value.trim());
+      return millis >= 0 ? millis : -1;
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Records the milliseconds <code>permutation</code> took to compile.
+   */
+  synchronized void record(Permutation permutation, long millis) {
+    newCosts.put(computeKey(permutation), millis);
+  }
+
+  /**
+   * Merges the recorded costs into the history file, dropping the costs of
+   * permutations that are not in <code>buildPermutations</code>. Errors are
+   * logged and otherwise ignored, since the build does not depend on them.
+   */
+  synchronized void save(TreeLogger logger, Permutation[] buildPermutations) {
+    if (newCosts.isEmpty()) {
+      return;
+    }
+    // Re-read the file, since another build may have updated it meanwhile.
+    Properties merged = load(TreeLogger.NULL, file).costs;
+    Set<String> buildKeys = new HashSet<String>();
+    for (Permutation permutation : buildPermutations) {
+      buildKeys.add(computeKey(permutation));
+    }
+    merged.keySet().retainAll(buildKeys);
+    for (Map.Entry<String, Long> entry : newCosts.entrySet()) {
+      merged.setProperty(entry.getKey(), String.valueOf(entry.getValue()));
+    }
+    File dir = file.getAbsoluteFile().getParentFile();
+    File tempFile = null;
+    OutputStream out = null;
+    try {
+      if (!dir.isDirectory() && !dir.mkdirs()) {
+        throw new IOException("Unable to create " + dir);
+      }
+      tempFile = File.createTempFile(file.getName(), ".tmp", dir);
+      out = new FileOutputStream(tempFile);
+      merged.store(out, "Milliseconds to compile each permutation");
+      out.close();
+      out = null;
+      file.delete();
+      if (!tempFile.renameTo(file)) {
+        throw new IOException("Unable to rename " + tempFile + " to " + file);
+      }
+    } catch (IOException e) {
+      logger.log(TreeLogger.WARN, "Unable to write permutation costs to " + file, e);
+    } finally {
+      Utility.close(out);
+      if (tempFile != null) {
+        tempFile.delete();
+      }
+    }
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev;
+
+import com.google.gwt.core.ext.TreeLogger;
+import com.google.gwt.dev.cfg.BindingProperty;
+import com.google.gwt.dev.cfg.ConfigurationProperty;
+import com.google.gwt.dev.cfg.StaticPropertyOracle;
+import com.google.gwt.dev.jjs.PermutationResult;
+import com.google.gwt.dev.jjs.UnifiedAst;
+import com.google.gwt.dev.util.FileBackedObject;
+import com.google.gwt.dev.util.Util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * An on-disk cache of compiled permutations that is shared between builds.
+ *
+ * <p>
+ * Each entry is a serialized {@link PermutationResult}, stored under a strong
+ * hash of {@link UnifiedAst#getInputsHash()} and everything that distinguishes
+ * one permutation from another: its id, its property values and its rebind
+ * answers. When an entry exists, its file is copied to the permutation's result
+ * file and the permutation is not compiled again. Link reads it like any other
+ * result.
+ * </p>
+ *
+ * <p>
+ * The cache is enabled by setting the {@value #CACHE_DIR_PROPERTY} system
+ * property to a directory, which may be shared by several modules and builds.
+ * Entries that have not been used for
+ * {@value #MAX_UNUSED_DAYS_PROPERTY} days (30 by default) are deleted.
+ * </p>
+ */
+class PermutationResultCache {
+
+  static final String CACHE_DIR_PROPERTY = "gwt.jjs.permutationCacheDir";
+
+  static final String MAX_UNUSED_DAYS_PROPERTY = "gwt.jjs.permutationCacheMaxUnusedDays";
+
+  private static final String CACHE_FILE_SUFFIX = ".perm";
+
+  private static final long MAX_UNUSED_MILLIS =
+      Long.getLong(MAX_UNUSED_DAYS_PROPERTY, 30) * 24 * 60 * 60 * 1000;
+
+  /**
+   * Returns the cache for the given AST, or <code>null</code> if caching is
+   * disabled or the AST's inputs are unknown.
+   */
+  static PermutationResultCache create(TreeLogger logger, UnifiedAst unifiedAst) {
+    String cacheDirName = System.getProperty(CACHE_DIR_PROPERTY);
+    String inputsHash = unifiedAst.getInputsHash();
+    if (cacheDirName == null || inputsHash == null) {
+      return null;
+    }
+    File cacheDir = new File(cacheDirName);
+    if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+      logger.log(TreeLogger.WARN, "Unable to create permutation cache directory " + cacheDir
+          + "; permutations will not be cached");
+      return null;
+    }
+    PermutationResultCache cache = new PermutationResultCache(cacheDir, inputsHash);
+    cache.deleteUnusedEntries(logger);
+    return cache;
+  }
+
+  /**
+   * Returns the key of a permutation compiled from an AST with the given
+   * inputs hash.
+   */
+  static String computeKey(String inputsHash, Permutation permutation) {
+    List<byte[]> contents = new ArrayList<byte[]>();
+    contents.add(Util.getBytes(inputsHash));
+    contents.add(Util.getBytes(String.valueOf(permutation.getId())));
+    for (StaticPropertyOracle oracle : permutation.getPropertyOracles()) {
+      StringBuilder props = new StringBuilder();
+      BindingProperty[] bindingProps = oracle.getOrderedProps();
+      String[] values = oracle.getOrderedPropValues();
+      for (int i = 0; i < bindingProps.length; i++) {
+        props.append(bindingProps[i].getName()).append('=').append(values[i]).append('\n');
+      }
+      for (ConfigurationProperty prop : oracle.getConfigurationProperties()) {
+        props.append(prop.getName()).append(':').append(prop.getValues()).append('\n');
+      }
+      contents.add(Util.getBytes(props.toString()));
+    }
+    for (SortedMap<String, String> answers : permutation.getOrderedRebindAnswers()) {
+      StringBuilder rebinds = new StringBuilder();
+      for (Map.Entry<String, String> entry : answers.entrySet()) {
+        rebinds.append(entry.getKey()).append("->").append(entry.getValue()).append('\n');
+      }
+      contents.add(Util.getBytes(rebinds.toString()));
+    }
+    return Util.computeStrongName(contents.toArray(new byte[contents.size()][]));
+  }
+
+  private final File cacheDir;
+
+  private final String inputsHash;
+
+  private PermutationResultCache(File cacheDir, String inputsHash) {
+    this.cacheDir = cacheDir;
+    this.inputsHash = inputsHash;
+  }
+
+  /**
+   * Copies the cached result of <code>permutation</code>, if there is one, to
+   * <code>resultFile</code>.
+   *
+   * @return <code>true</code> if the result was found in the cache
+   */
+  boolean load(TreeLogger logger, Permutation permutation,
+      FileBackedObject<PermutationResult> resultFile) {
+    File cacheFile = getCacheFile(permutation);
+    if (!cacheFile.isFile()) {
+      return false;
+    }
+    try {
+      Util.copy(new FileInputStream(cacheFile), new FileOutputStream(resultFile.getFile()));
+    } catch (IOException e) {
+      logger.log(TreeLogger.WARN, "Unable to read cached permutation " + cacheFile, e);
+      return false;
+    }
+    // Keep the entry from being considered unused.
+    cacheFile.setLastModified(System.currentTimeMillis());
+    return true;
+  }
+
+  /**
+   * Adds the compiled result of <code>permutation</code> to the cache. Errors
+   * are logged and otherwise ignored, since the build does not depend on them.
+   */
+  void store(TreeLogger logger, Permutation permutation,
+      FileBackedObject<PermutationResult> resultFile) {
+    File cacheFile = getCacheFile(permutation);
+    File tempFile = null;
+    try {
+      // Write to a temporary file first so that concurrent builds never see a
+      // partial entry.
+      tempFile = File.createTempFile(cacheFile.getName(), ".tmp", cacheDir);
+      Util.copy(new FileInputStream(resultFile.getFile()), new FileOutputStream(tempFile));
+      if (!tempFile.renameTo(cacheFile) && !cacheFile.isFile()) {
+        logger.log(TreeLogger.WARN, "Unable to create cached permutation " + cacheFile);
+      }
+    } catch (IOException e) {
+      logger.log(TreeLogger.WARN, "Unable to cache permutation " + permutation.getId(), e);
+    } finally {
+      if (tempFile != null) {
+        tempFile.delete();
+      }
+    }
+  }
+
+  private void deleteUnusedEntries(TreeLogger logger) {
+    long oldest = System.currentTimeMillis() - MAX_UNUSED_MILLIS;
+    File[] files = cacheDir.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      if (file.getName().endsWith(CACHE_FILE_SUFFIX) && file.lastModified() < oldest) {
+        if (logger.isLoggable(TreeLogger.TRACE)) {
+          logger.log(TreeLogger.TRACE, "Deleting unused cached permutation " + file);
+        }
+        file.delete();
+      }
+    }
+  }
+
+  private File getCacheFile(Permutation permutation) {
+    return new File(cacheDir, computeKey(inputsHash, permutation) + CACHE_FILE_SUFFIX);
+  }
+}
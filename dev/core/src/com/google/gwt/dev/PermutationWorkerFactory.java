@@ -24,13 +24,16 @@ import com.google.gwt.dev.util.log.speedtracer.CompilerEventType;
 import com.google.gwt.dev.util.log.speedtracer.SpeedTracerLogger;
 import com.google.gwt.dev.util.log.speedtracer.SpeedTracerLogger.Event;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
 
 /**
  * Represents a factory for implementations of an endpoint that will invoke
@@ -42,7 +45,10 @@ public abstract class PermutationWorkerFactory {
 
   /**
    * Coordinates the actions of a set of {@link PermutationWorker}s, running
-   * each in its own thread.
+   * each in its own thread. All workers take work from a single queue, most
+   * expensive work first, so that a worker that finishes early picks up the
+   * next permutation instead of waiting for slower workers, and the slowest
+   * permutations do not end up running alone at the end of the compile.
    */
   private static class Manager {
 
@@ -70,7 +76,9 @@ public abstract class PermutationWorkerFactory {
             }
             TreeLogger logger = work.getLogger();
             try {
+              long startMillis = System.currentTimeMillis();
               worker.compile(logger, work.getPerm(), work.getResultFile());
+              work.elapsedMillis = System.currentTimeMillis() - startMillis;
               logger.log(TreeLogger.DEBUG, "Successfully compiled permutation");
               resultsQueue.put(Result.SUCCESS);
             } catch (TransientWorkerException e) {
@@ -97,7 +105,7 @@ public abstract class PermutationWorkerFactory {
       }
     }
 
-    private static final Work POISON_PILL = new Work(null, null, null);
+    private static final Work POISON_PILL = new Work(null, null, null, -1, 0);
 
     public static void run(TreeLogger logger, List<Work> work,
         List<PermutationWorker> workers) throws UnableToCompleteException {
@@ -121,7 +129,9 @@ public abstract class PermutationWorkerFactory {
         List<PermutationWorker> workers) throws UnableToCompleteException {
 
       // Initialize state.
-      workQueue = new LinkedBlockingQueue<Work>(work);
+      workQueue =
+          new PriorityBlockingQueue<Work>(Math.max(1, work.size()), Work.MOST_EXPENSIVE_FIRST);
+      workQueue.addAll(work);
       resultsQueue = new LinkedBlockingQueue<Result>();
 
       List<Thread> threads = new ArrayList<Thread>(workers.size());
@@ -180,15 +190,36 @@ public abstract class PermutationWorkerFactory {
    * Represents work to do.
    */
   private static class Work {
+    /**
+     * Orders work by decreasing estimated cost, then by the order in which it
+     * was requested.
+     */
+    static final Comparator<Work> MOST_EXPENSIVE_FIRST = new Comparator<Work>() {
+      public int compare(Work a, Work b) {
+        if (a.estimatedCost != b.estimatedCost) {
+          return a.estimatedCost > b.estimatedCost ? -1 : 1;
+        }
+        return a.index - b.index;
+      }
+    };
+
+    /**
+     * The milliseconds it took to compile, or -1 if it wasn't compiled.
+     */
+    private volatile long elapsedMillis = -1;
+    private final long estimatedCost;
+    private final int index;
     private final TreeLogger logger;
     private final Permutation perm;
     private final FileBackedObject<PermutationResult> resultFile;
 
     public Work(TreeLogger logger, Permutation perm,
-        FileBackedObject<PermutationResult> resultFile) {
+        FileBackedObject<PermutationResult> resultFile, long estimatedCost, int index) {
       this.logger = logger;
       this.perm = perm;
       this.resultFile = resultFile;
+      this.estimatedCost = estimatedCost;
+      this.index = index;
     }
 
     public TreeLogger getLogger() {
@@ -250,15 +281,33 @@ public abstract class PermutationWorkerFactory {
     assert Arrays.asList(precompilation.getPermutations()).containsAll(
         Arrays.asList(permutations));
 
+    PermutationResultCache cache =
+        PermutationResultCache.create(logger, precompilation.getUnifiedAst());
+    File historyFile = PermutationCostHistory.getHistoryFile();
+    PermutationCostHistory history =
+        historyFile == null ? null : PermutationCostHistory.load(logger, historyFile);
+
     // Create the work.
     List<Work> work = new ArrayList<Work>(permutations.length);
     for (int i = 0; i < permutations.length; ++i) {
       Permutation perm = permutations[i];
+      if (cache != null && cache.load(logger, perm, resultFiles.get(i))) {
+        if (logger.isLoggable(TreeLogger.DEBUG)) {
+          logger.log(TreeLogger.DEBUG, "Reusing cached result for permutation " + perm.getId());
+        }
+        continue;
+      }
+      long estimatedCost = estimateCost(history, perm);
       if (logger.isLoggable(TreeLogger.DEBUG)) {
         logger.log(TreeLogger.DEBUG,
-            "Creating worker permutation " + perm.getId() + " of " + permutations.length);
+            "Creating worker permutation " + perm.getId() + " of " + permutations.length
+                + (estimatedCost == Long.MAX_VALUE ? "" : ", estimated cost " + estimatedCost));
       }
-      work.add(new Work(logger, perm, resultFiles.get(i)));
+      work.add(new Work(logger, perm, resultFiles.get(i), estimatedCost, i));
+    }
+    if (work.isEmpty()) {
+      logger.log(TreeLogger.INFO, "All permutations were found in the permutation cache");
+      return;
     }
 
     // Create the workers.
@@ -269,6 +318,21 @@ public abstract class PermutationWorkerFactory {
 
       // Get it done!
       Manager.run(logger, work, workers);
+
+      if (history != null) {
+        for (Work compiled : work) {
+          if (compiled.elapsedMillis >= 0) {
+            history.record(compiled.getPerm(), compiled.elapsedMillis);
+          }
+        }
+        history.save(logger, precompilation.getPermutations());
+      }
+
+      if (cache != null) {
+        for (Work compiled : work) {
+          cache.store(logger, compiled.getPerm(), compiled.getResultFile());
+        }
+      }
     } finally {
       Throwable caught = null;
       for (PermutationWorker worker : workers) {
@@ -285,6 +349,17 @@ public abstract class PermutationWorkerFactory {
     }
   }
 
+  /**
+   * Estimates the cost of compiling a permutation from the time it took in an
+   * earlier build, as kept by {@link PermutationCostHistory}. Permutations
+   * without a known cost are assumed to be the most expensive, so that they
+   * are not left until the end.
+   */
+  private static long estimateCost(PermutationCostHistory history, Permutation perm) {
+    long cost = history == null ? -1 : history.getCost(perm);
+    return cost >= 0 ? cost : Long.MAX_VALUE;
+  }
+
   /**
    * Creates one or more implementations of worker factories. This will treat
    * the value of the {@value #FACTORY_IMPL_PROPERTY} system property as a
@@ -386,6 +386,13 @@ public class ModuleDef {
     return getName().replace('.', '_');
   }
 
+  /**
+   * Returns the module XML files this module was loaded from.
+   */
+  public Set<File> getGwtXmlFiles() {
+    return Collections.unmodifiableSet(gwtXmlFiles);
+  }
+
   public Class<? extends Linker> getLinker(String name) {
     return linkerTypesByName.get(name);
   }
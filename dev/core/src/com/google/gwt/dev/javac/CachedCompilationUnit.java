@@ -117,6 +117,37 @@ public class CachedCompilationUnit extends CompilationUnit {
     this.astToken = new DiskCacheToken(astToken);
     this.astVersion = GwtAstBuilder.getSerializationVersion();
   }
+
+  /**
+   * Recreates a unit read by {@link CompilationUnitCodec}.
+   */
+  CachedCompilationUnit(String typeName, String resourcePath, String resourceLocation,
+      ContentId contentId, long lastModified, boolean isError, boolean isGenerated,
+      boolean isSuperSource, Collection<CompiledClass> compiledClasses,
+      Dependencies dependencies, List<JsniMethod> jsniMethods,
+      MethodArgNamesLookup methodArgNamesLookup, CategorizedProblem[] problems, long astToken,
+      long astVersion) {
+    this.typeName = typeName;
+    this.resourcePath = resourcePath;
+    this.resourceLocation = resourceLocation;
+    this.contentId = contentId;
+    this.lastModified = lastModified;
+    this.isError = isError;
+    this.isGenerated = isGenerated;
+    this.isSuperSource = isSuperSource;
+    this.compiledClasses = compiledClasses;
+    if (compiledClasses != null) {
+      for (CompiledClass compiledClass : compiledClasses) {
+        compiledClass.initUnit(this);
+      }
+    }
+    this.dependencies = dependencies;
+    this.jsniMethods = jsniMethods;
+    this.methodArgNamesLookup = methodArgNamesLookup;
+    this.problems = problems;
+    this.astToken = new DiskCacheToken(astToken);
+    this.astVersion = astVersion;
+  }
   
   @Override
   public CachedCompilationUnit asCachedCompilationUnit() {
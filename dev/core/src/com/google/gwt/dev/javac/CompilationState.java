@@ -18,13 +18,16 @@ package com.google.gwt.dev.javac;
 import com.google.gwt.core.ext.TreeLogger;
 import com.google.gwt.dev.javac.CompilationStateBuilder.CompileMoreLater;
 import com.google.gwt.dev.javac.typemodel.TypeOracle;
+import com.google.gwt.dev.util.Util;
 import com.google.gwt.dev.util.log.speedtracer.DevModeEventType;
 import com.google.gwt.dev.util.log.speedtracer.SpeedTracerLogger;
 import com.google.gwt.dev.util.log.speedtracer.SpeedTracerLogger.Event;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -112,6 +115,22 @@ public class CompilationState {
     return exposedClassFileMapBySource;
   }
 
+  /**
+   * Returns a strong hash of the resource paths and contents of all units,
+   * including generated units. Two compilation states with the same hash were
+   * built from the same sources.
+   */
+  public String getContentHash() {
+    List<CompilationUnit> units = new ArrayList<CompilationUnit>(unitMap.values());
+    Collections.sort(units, CompilationUnit.COMPARATOR);
+    byte[][] contents = new byte[units.size()][];
+    for (int i = 0; i < contents.length; i++) {
+      CompilationUnit unit = units.get(i);
+      contents[i] = Util.getBytes(unit.getResourcePath() + ":" + unit.getContentId().get());
+    }
+    return Util.computeStrongName(contents);
+  }
+
   /**
    * Returns an unmodifiable view of the set of compilation units, mapped by the
    * main type's qualified source name.
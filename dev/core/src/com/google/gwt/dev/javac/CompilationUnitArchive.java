@@ -52,9 +52,27 @@ public class CompilationUnitArchive implements Serializable {
     return createFromStream(new FileInputStream(location));
   }
 
+  /**
+   * Reads an archive written in either Java serialization format or the
+   * {@link CompilationUnitCodec} format.
+   */
   public static CompilationUnitArchive createFromStream(InputStream stream) throws IOException,
       ClassNotFoundException {
-    ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(stream));
+    BufferedInputStream bis = new BufferedInputStream(stream);
+    if (CompilationUnitCodec.isEncoded(bis)) {
+      try {
+        CompilationUnitCodec.Decoder decoder = new CompilationUnitCodec.Decoder(bis);
+        CompilationUnitArchive result = new CompilationUnitArchive(decoder.readString());
+        int numUnits = decoder.readInt();
+        for (int i = 0; i < numUnits; i++) {
+          result.addUnit(decoder.readUnit());
+        }
+        return result;
+      } finally {
+        bis.close();
+      }
+    }
+    ObjectInputStream ois = new ObjectInputStream(bis);
     CompilationUnitArchive result = (CompilationUnitArchive) ois.readObject();
     ois.close();
     return result;
@@ -108,9 +126,22 @@ public class CompilationUnitArchive implements Serializable {
 
   /**
    * Persists the units currently stored in the archive to the specified file.  The file
-   * is immediately closed. 
+   * is immediately closed. Uses {@link CompilationUnitCodec} if it is enabled.
    */
   public void writeToFile(File location) throws IOException {
+    if (CompilationUnitCodec.isEnabled()) {
+      CompilationUnitCodec.Encoder encoder = new CompilationUnitCodec.Encoder(
+          new BufferedOutputStream(new FileOutputStream(location)),
+          CompilationUnitCodec.shouldCompress());
+      encoder.writeString(topModuleName);
+      encoder.writeInt(units.size());
+      // units is sorted by resource path, so the output is deterministic.
+      for (CachedCompilationUnit unit : units.values()) {
+        encoder.writeUnit(unit);
+      }
+      encoder.close();
+      return;
+    }
     ObjectOutputStream oos =
         new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(location)));
     oos.writeObject(this);
@@ -0,0 +1,539 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.javac;
+
+import com.google.gwt.dev.javac.Dependencies.Ref;
+import com.google.gwt.dev.util.DiskCache;
+import com.google.gwt.dev.util.StringInterner;
+
+import org.eclipse.jdt.core.compiler.CategorizedProblem;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A compact binary format for {@link CachedCompilationUnit}, used instead of
+ * Java serialization when the system property
+ * <code>gwt.compilationUnitFormat</code> is set to <code>binary</code>.
+ *
+ * <p>
+ * A stream starts with a magic number, a format version and a flags byte. The
+ * rest of the stream, which may be compressed, holds any number of units and
+ * other values written by the caller. Every string is written once; later
+ * occurrences refer back to the first one, so names shared by many units and
+ * classes, such as package and type names, are only stored once per stream.
+ * The bytecode of compiled classes and the serialized GWT AST are stored as raw
+ * bytes. JSNI methods and compile problems, which are rare, are stored using
+ * Java serialization.
+ * </p>
+ *
+ * <p>
+ * The stream can be read back with {@link Decoder} whether or not it is
+ * compressed, so the writer alone decides the format.
+ * </p>
+ */
+class CompilationUnitCodec {
+
+  /**
+   * Reads units and values written by an {@link Encoder}.
+   */
+  static class Decoder {
+    private final DataInputStream in;
+    private final List<String> strings = new ArrayList<String>();
+
+    /**
+     * Reads the stream header from <code>in</code>.
+     *
+     * @throws IOException if <code>in</code> does not start with a supported
+     *           header
+     */
+    Decoder(InputStream in) throws IOException {
+      DataInputStream header = new DataInputStream(in);
+      if (header.readInt() != MAGIC) {
+        throw new IOException("Not a compilation unit stream");
+      }
+      int version = header.readInt();
+      if (version != FORMAT_VERSION) {
+        throw new IOException("Unsupported compilation unit stream version " + version);
+      }
+      int flags = header.readByte();
+      if ((flags & FLAG_COMPRESSED) != 0) {
+        in = new InflaterInputStream(in);
+      }
+      this.in = new DataInputStream(new BufferedInputStream(in));
+    }
+
+    int readInt() throws IOException {
+      int result = 0;
+      int shift = 0;
+      int b;
+      do {
+        b = in.readUnsignedByte();
+        result |= (b & 0x7F) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0);
+      return result;
+    }
+
+    String readString() throws IOException {
+      int index = readInt();
+      if (index == NULL_STRING) {
+        return null;
+      }
+      if (index == NEW_STRING) {
+        String string = StringInterner.get().intern(in.readUTF());
+        strings.add(string);
+        return string;
+      }
+      return strings.get(index - FIRST_STRING_INDEX);
+    }
+
+    CachedCompilationUnit readUnit() throws IOException {
+      String typeName = readString();
+      String resourcePath = readString();
+      String resourceLocation = readString();
+      ContentId contentId = new ContentId(readString());
+      long lastModified = in.readLong();
+      int flags = in.readByte();
+      long astVersion = in.readLong();
+      long astToken = DiskCache.INSTANCE.writeByteArray(readBytes());
+      List<CompiledClass> compiledClasses = readCompiledClasses();
+      Dependencies dependencies = readDependencies();
+      MethodArgNamesLookup methodArgs = readMethodArgs();
+      List<JsniMethod> jsniMethods = readSerialized(List.class);
+      CategorizedProblem[] problems = readSerialized(CategorizedProblem[].class);
+      return new CachedCompilationUnit(typeName, resourcePath, resourceLocation, contentId,
+          lastModified, (flags & UNIT_IS_ERROR) != 0, (flags & UNIT_IS_GENERATED) != 0,
+          (flags & UNIT_IS_SUPER_SOURCE) != 0, compiledClasses, dependencies, jsniMethods,
+          methodArgs, problems, astToken, astVersion);
+    }
+
+    private byte[] readBytes() throws IOException {
+      byte[] bytes = new byte[readInt()];
+      in.readFully(bytes);
+      return bytes;
+    }
+
+    private List<CompiledClass> readCompiledClasses() throws IOException {
+      int count = readInt() - 1;
+      if (count < 0) {
+        return null;
+      }
+      List<CompiledClass> compiledClasses = new ArrayList<CompiledClass>(count);
+      for (int i = 0; i < count; ++i) {
+        String internalName = readString();
+        String signatureHash = readString();
+        boolean isLocal = in.readBoolean();
+        // Enclosing classes are always written before the classes they enclose.
+        int enclosingIndex = readInt() - 1;
+        CompiledClass enclosingClass =
+            enclosingIndex < 0 ? null : compiledClasses.get(enclosingIndex);
+        compiledClasses.add(new CompiledClass(readBytes(), enclosingClass, isLocal, internalName,
+            signatureHash));
+      }
+      return Collections.unmodifiableList(compiledClasses);
+    }
+
+    private Dependencies readDependencies() throws IOException {
+      if (!in.readBoolean()) {
+        return null;
+      }
+      String packagePrefix = readString();
+      int numApiRefs = readInt();
+      List<String> apiRefs = new ArrayList<String>(numApiRefs);
+      for (int i = 0; i < numApiRefs; ++i) {
+        apiRefs.add(readString());
+      }
+      Dependencies dependencies = new Dependencies(packagePrefix, apiRefs);
+      readRefs(dependencies.qualified);
+      readRefs(dependencies.simple);
+      return dependencies;
+    }
+
+    private MethodArgNamesLookup readMethodArgs() throws IOException {
+      int count = readInt() - 1;
+      if (count < 0) {
+        return null;
+      }
+      MethodArgNamesLookup methodArgs = new MethodArgNamesLookup();
+      for (int i = 0; i < count; ++i) {
+        String method = readString();
+        String[] argNames = new String[readInt()];
+        for (int j = 0; j < argNames.length; ++j) {
+          argNames[j] = readString();
+        }
+        methodArgs.put(method, argNames);
+      }
+      methodArgs.freeze();
+      return methodArgs;
+    }
+
+    private void readRefs(Map<String, Ref> refs) throws IOException {
+      int count = readInt();
+      for (int i = 0; i < count; ++i) {
+        String name = readString();
+        String internalName = readString();
+        refs.put(name, internalName == null ? null : new Ref(internalName, readString()));
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T readSerialized(Class<? super T> type) throws IOException {
+      if (!in.readBoolean()) {
+        return null;
+      }
+      ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(readBytes()));
+      try {
+        return (T) type.cast(objectIn.readObject());
+      } catch (ClassNotFoundException e) {
+        throw new IOException("Unable to read compilation unit: " + e.getMessage());
+      } finally {
+        objectIn.close();
+      }
+    }
+  }
+
+  /**
+   * Writes units and other values to a stream. {@link #close()} must be called
+   * to finish the stream.
+   */
+  static class Encoder {
+    private final DataOutputStream out;
+    private final Map<String, Integer> strings = new HashMap<String, Integer>();
+
+    /**
+     * Writes the stream header to <code>out</code>.
+     *
+     * @param compress whether to compress everything after the header
+     */
+    Encoder(OutputStream out, boolean compress) throws IOException {
+      DataOutputStream header = new DataOutputStream(out);
+      header.writeInt(MAGIC);
+      header.writeInt(FORMAT_VERSION);
+      header.writeByte(compress ? FLAG_COMPRESSED : 0);
+      header.flush();
+      if (compress) {
+        out = new DeflaterOutputStream(out, new Deflater(Deflater.BEST_SPEED), BUFFER_SIZE);
+      }
+      this.out = new DataOutputStream(out);
+    }
+
+    /**
+     * Finishes the stream and closes the underlying stream.
+     */
+    void close() throws IOException {
+      out.close();
+    }
+
+    void writeInt(int value) throws IOException {
+      assert value >= 0;
+      while ((value & ~0x7F) != 0) {
+        out.writeByte((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      out.writeByte(value);
+    }
+
+    void writeString(String string) throws IOException {
+      if (string == null) {
+        writeInt(NULL_STRING);
+        return;
+      }
+      Integer index = strings.get(string);
+      if (index != null) {
+        writeInt(index);
+        return;
+      }
+      strings.put(string, strings.size() + FIRST_STRING_INDEX);
+      writeInt(NEW_STRING);
+      out.writeUTF(string);
+    }
+
+    @SuppressWarnings("deprecation")
+    void writeUnit(CachedCompilationUnit unit) throws IOException {
+      writeString(unit.getTypeName());
+      writeString(unit.getResourcePath());
+      writeString(unit.getResourceLocation());
+      writeString(unit.getContentId().get());
+      out.writeLong(unit.getLastModified());
+      int flags = 0;
+      if (unit.isError()) {
+        flags |= UNIT_IS_ERROR;
+      }
+      if (unit.isGenerated()) {
+        flags |= UNIT_IS_GENERATED;
+      }
+      if (unit.isSuperSource()) {
+        flags |= UNIT_IS_SUPER_SOURCE;
+      }
+      out.writeByte(flags);
+      out.writeLong(unit.getTypesSerializedVersion());
+      writeBytes(unit.getTypesSerialized());
+      writeCompiledClasses(unit.getCompiledClasses());
+      writeDependencies(unit.getDependencies());
+      writeMethodArgs(unit.getMethodArgs());
+      List<JsniMethod> jsniMethods = unit.getJsniMethods();
+      if (jsniMethods != null) {
+        // Sort so that the output does not depend on the order of compilation.
+        jsniMethods = new ArrayList<JsniMethod>(jsniMethods);
+        Collections.sort(jsniMethods, new Comparator<JsniMethod>() {
+          @Override
+          public int compare(JsniMethod o1, JsniMethod o2) {
+            return o1.name().compareTo(o2.name());
+          }
+        });
+      }
+      writeSerialized(jsniMethods);
+      writeSerialized(unit.getProblems());
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+      writeInt(bytes.length);
+      out.write(bytes);
+    }
+
+    private void writeCompiledClasses(Collection<CompiledClass> compiledClasses)
+        throws IOException {
+      if (compiledClasses == null) {
+        writeInt(0);
+        return;
+      }
+      List<CompiledClass> sorted = sortEnclosingFirst(compiledClasses);
+      Map<CompiledClass, Integer> indices = new IdentityHashMap<CompiledClass, Integer>();
+      writeInt(sorted.size() + 1);
+      for (CompiledClass compiledClass : sorted) {
+        writeString(compiledClass.getInternalName());
+        writeString(compiledClass.getSignatureHash());
+        out.writeBoolean(compiledClass.isLocal());
+        CompiledClass enclosingClass = compiledClass.getEnclosingClass();
+        writeInt(enclosingClass == null ? 0 : indices.get(enclosingClass) + 1);
+        writeBytes(compiledClass.getBytes());
+        indices.put(compiledClass, indices.size());
+      }
+    }
+
+    private void writeDependencies(Dependencies dependencies) throws IOException {
+      out.writeBoolean(dependencies != null);
+      if (dependencies == null) {
+        return;
+      }
+      writeString(dependencies.getPackagePrefix());
+      List<String> apiRefs = dependencies.getApiRefs();
+      writeInt(apiRefs.size());
+      for (String apiRef : apiRefs) {
+        writeString(apiRef);
+      }
+      writeRefs(dependencies.qualified);
+      writeRefs(dependencies.simple);
+    }
+
+    private void writeMethodArgs(MethodArgNamesLookup methodArgs) throws IOException {
+      if (methodArgs == null) {
+        writeInt(0);
+        return;
+      }
+      String[] methods = methodArgs.getMethods();
+      Arrays.sort(methods);
+      writeInt(methods.length + 1);
+      for (String method : methods) {
+        writeString(method);
+        String[] argNames = methodArgs.lookup(method);
+        writeInt(argNames.length);
+        for (String argName : argNames) {
+          writeString(argName);
+        }
+      }
+    }
+
+    private void writeRefs(Map<String, Ref> refs) throws IOException {
+      // Sort so that the output does not depend on the iteration order.
+      Map<String, Ref> sorted = new TreeMap<String, Ref>(refs);
+      writeInt(sorted.size());
+      for (Entry<String, Ref> entry : sorted.entrySet()) {
+        writeString(entry.getKey());
+        Ref ref = entry.getValue();
+        if (ref == null) {
+          writeString(null);
+        } else {
+          writeString(ref.getInternalName());
+          writeString(ref.getSignatureHash());
+        }
+      }
+    }
+
+    private void writeSerialized(Object object) throws IOException {
+      boolean isEmpty = object == null;
+      out.writeBoolean(!isEmpty);
+      if (isEmpty) {
+        return;
+      }
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ObjectOutputStream objectOut = new ObjectOutputStream(bytes);
+      objectOut.writeObject(object);
+      objectOut.close();
+      writeBytes(bytes.toByteArray());
+    }
+  }
+
+  /**
+   * The system property that selects the format used to write units.
+   */
+  static final String FORMAT_PROPERTY = "gwt.compilationUnitFormat";
+
+  /**
+   * The system property that disables compression of the binary format.
+   */
+  static final String COMPRESS_PROPERTY = "gwt.compilationUnitFormat.compress";
+
+  /**
+   * Distinguishes this format from a Java serialization stream.
+   */
+  static final int MAGIC = 0x47575442;
+
+  /**
+   * Incremented whenever the layout of the stream changes.
+   */
+  static final int FORMAT_VERSION = 1;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final int FLAG_COMPRESSED = 1;
+
+  private static final int FIRST_STRING_INDEX = 2;
+  private static final int NEW_STRING = 1;
+  private static final int NULL_STRING = 0;
+
+  private static final int UNIT_IS_ERROR = 1;
+  private static final int UNIT_IS_GENERATED = 2;
+  private static final int UNIT_IS_SUPER_SOURCE = 4;
+
+  /**
+   * Returns <code>true</code> if <code>bytes</code> start with the header of
+   * this format.
+   */
+  static boolean isEncoded(byte[] bytes) {
+    return bytes.length >= 4
+        && ((bytes[0] & 0xFF) << 24 | (bytes[1] & 0xFF) << 16 | (bytes[2] & 0xFF) << 8
+            | (bytes[3] & 0xFF)) == MAGIC;
+  }
+
+  /**
+   * Returns <code>true</code> if <code>in</code> starts with the header of this
+   * format, without consuming any bytes.
+   */
+  static boolean isEncoded(BufferedInputStream in) throws IOException {
+    byte[] bytes = new byte[4];
+    in.mark(bytes.length);
+    try {
+      int read = 0;
+      while (read < bytes.length) {
+        int n = in.read(bytes, read, bytes.length - read);
+        if (n < 0) {
+          return false;
+        }
+        read += n;
+      }
+      return isEncoded(bytes);
+    } finally {
+      in.reset();
+    }
+  }
+
+  /**
+   * Returns <code>true</code> if units should be written in this format rather
+   * than with Java serialization.
+   */
+  static boolean isEnabled() {
+    return "binary".equals(System.getProperty(FORMAT_PROPERTY));
+  }
+
+  /**
+   * Returns <code>true</code> if the binary format should be compressed.
+   */
+  static boolean shouldCompress() {
+    return Boolean.parseBoolean(System.getProperty(COMPRESS_PROPERTY, "true"));
+  }
+
+  /**
+   * Reads a single unit written by {@link #toBytes(CachedCompilationUnit)}.
+   */
+  static CachedCompilationUnit fromBytes(byte[] bytes) throws IOException {
+    return new Decoder(new ByteArrayInputStream(bytes)).readUnit();
+  }
+
+  /**
+   * Writes a single unit to a byte array.
+   */
+  static byte[] toBytes(CachedCompilationUnit unit) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    Encoder encoder = new Encoder(bytes, shouldCompress());
+    encoder.writeUnit(unit);
+    encoder.close();
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Orders compiled classes by source name, except that enclosing classes
+   * always come before the classes they enclose.
+   */
+  private static List<CompiledClass> sortEnclosingFirst(Collection<CompiledClass> compiledClasses) {
+    List<CompiledClass> bySourceName = new ArrayList<CompiledClass>(compiledClasses);
+    Collections.sort(bySourceName, new Comparator<CompiledClass>() {
+      @Override
+      public int compare(CompiledClass o1, CompiledClass o2) {
+        return o1.getSourceName().compareTo(o2.getSourceName());
+      }
+    });
+    List<CompiledClass> sorted = new ArrayList<CompiledClass>(bySourceName.size());
+    Map<CompiledClass, Boolean> added = new IdentityHashMap<CompiledClass, Boolean>();
+    for (CompiledClass compiledClass : bySourceName) {
+      addEnclosingFirst(compiledClass, sorted, added);
+    }
+    return sorted;
+  }
+
+  private static void addEnclosingFirst(CompiledClass compiledClass, List<CompiledClass> sorted,
+      Map<CompiledClass, Boolean> added) {
+    if (compiledClass == null || added.containsKey(compiledClass)) {
+      return;
+    }
+    addEnclosingFirst(compiledClass.getEnclosingClass(), sorted, added);
+    added.put(compiledClass, Boolean.TRUE);
+    sorted.add(compiledClass);
+  }
+}
@@ -107,6 +107,15 @@ public final class CompiledClass implements Serializable {
     this.isLocal = isLocal;
   }
 
+  /**
+   * Recreates a compiled class read by {@link CompilationUnitCodec}.
+   */
+  CompiledClass(byte[] classBytes, CompiledClass enclosingClass, boolean isLocal,
+      String internalName, String signatureHash) {
+    this(classBytes, enclosingClass, isLocal, internalName);
+    this.signatureHash = signatureHash;
+  }
+
   /**
    * Used for cloning all compiled classes in one compilation unit.
    */
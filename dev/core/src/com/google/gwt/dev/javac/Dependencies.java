@@ -42,7 +42,7 @@ class Dependencies implements Serializable {
       this(cc.getInternalName(), cc.getSignatureHash());
     }
 
-    private Ref(String internalName, String hash) {
+    Ref(String internalName, String hash) {
       this.internalName = internalName;
       this.hash = hash;
     }
@@ -83,6 +83,17 @@ class Dependencies implements Serializable {
     this.apiRefs = apiRefs;
   }
 
+  /**
+   * Recreates dependencies read by {@link CompilationUnitCodec}, which fills in
+   * the qualified and simple references.
+   *
+   * @param packagePrefix the value returned by {@link #getPackagePrefix()}
+   */
+  Dependencies(String packagePrefix, List<String> apiRefs) {
+    this.myPackage = StringInterner.get().intern(packagePrefix);
+    this.apiRefs = apiRefs;
+  }
+
   /**
    * Returns the list of API references used by {@link TypeOracle} to determine type availability.
    */
@@ -90,6 +101,14 @@ class Dependencies implements Serializable {
     return apiRefs;
   }
 
+  /**
+   * Returns the name of the package of the unit followed by a dot, or the
+   * empty string for the default package.
+   */
+  String getPackagePrefix() {
+    return myPackage;
+  }
+
   /**
    * Returns the list of deps that cannot be resolved at all.
    */
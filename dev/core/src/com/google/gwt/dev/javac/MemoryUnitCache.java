@@ -42,10 +42,25 @@ class MemoryUnitCache implements UnitCache {
       this.origin = source;
     }
 
+    public ContentId getContentId() {
+      return unit.getContentId();
+    }
+
+    public long getLastModified() {
+      return unit.getLastModified();
+    }
+
     public UnitOrigin getOrigin() {
       return origin;
     }
 
+    public String getResourcePath() {
+      return unit.getResourcePath();
+    }
+
+    /**
+     * Returns the unit, or <code>null</code> if it is no longer available.
+     */
     public CompilationUnit getUnit() {
       return unit;
     }
@@ -136,8 +151,15 @@ class MemoryUnitCache implements UnitCache {
 
   @Override
   public void remove(CompilationUnit unit) {
-    unitMap.remove(unit.getResourcePath());
-    unitMapByContentId.remove(unit.getContentId());
+    remove(unit.getResourcePath(), unit.getContentId());
+  }
+
+  /**
+   * Removes an entry without requiring its unit to be available.
+   */
+  protected void remove(String resourcePath, ContentId contentId) {
+    unitMap.remove(resourcePath);
+    unitMapByContentId.remove(contentId);
   }
 
   private void add(CompilationUnit newUnit, UnitOrigin origin) {
@@ -145,7 +167,7 @@ class MemoryUnitCache implements UnitCache {
     String resourcePath = newUnit.getResourcePath();
     UnitCacheEntry oldEntry = unitMap.get(resourcePath);
     if (oldEntry != null) {
-      remove(oldEntry.getUnit());
+      remove(oldEntry.getResourcePath(), oldEntry.getContentId());
     }
     unitMap.put(resourcePath, newEntry);
     unitMapByContentId.put(newUnit.getContentId(), newEntry);
@@ -73,6 +73,14 @@ public class MethodArgNamesLookup implements Serializable {
     methodArgs.putAll(other.methodArgs);
   }
 
+  /**
+   * Store the argument names for a method, given the key returned by
+   * {@link #getMethods()}.
+   */
+  void put(String methodKey, String[] argNames) {
+    methodArgs.put(methodKey, argNames);
+  }
+
   /**
    * Store the argument names for a method.
    * <p>
@@ -100,15 +108,14 @@ public class MethodArgNamesLookup implements Serializable {
   }
 
   /**
-   * For Unit Testing: returns an array of methods with arguments.
+   * Returns an array of methods with arguments.
    */
   String[] getMethods() {
     return methodArgs.keySet().toArray(new String[0]);
   }
 
   /**
-   * For Unit Testing: returns an array of argument names for the specified
-   * method.
+   * Returns an array of argument names for the specified method.
    */
   String[] lookup(String methodName) {
     return methodArgs.get(methodName);
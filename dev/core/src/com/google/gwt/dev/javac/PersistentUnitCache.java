@@ -26,6 +26,10 @@ import com.google.gwt.util.tools.Utility;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
@@ -33,9 +37,14 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -56,14 +65,32 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * intended to support only a single PersistentUnitCache instance in the
  * compiler at a time.
  * <p>
- * As new units are compiled, the cache data is appended to a log. This allows
- * Java serialization to efficiently store references. The next time the cache
- * is started, all logs are replayed and loaded into the cache in chronological
- * order, with newer units taking precedence. A new cache file is created for
- * any newly compiled units in this session. After a threshold of a certain
- * number of files in the directory is reached
+ * As new units are compiled, the cache data is appended to a log. Each log
+ * starts with a header identifying the format, followed by one record per
+ * unit. A record holds the unit's resource path, {@link ContentId}, timestamps
+ * and the length of the serialized unit, followed by the unit itself,
+ * serialized on its own so that it can be read without reading the rest of the
+ * log.
+ * <p>
+ * The next time the cache is started, only the record headers of all logs are
+ * read, in chronological order, to build an index from resource path and
+ * {@link ContentId} to a location in a log, with newer units taking
+ * precedence. A unit is deserialized the first time it is looked up with
+ * find(). Loaded units are kept in memory in least recently used order until
+ * their serialized size exceeds a budget, after which the least recently used
+ * ones are dropped and read again on demand.
+ * <p>
+ * A new cache file is created for any newly compiled units in this session.
+ * After a threshold of a certain number of files in the directory is reached
  * {@link PersistentUnitCache#CACHE_FILE_THRESHOLD} , the cache files are
- * consolidated back into a single file.
+ * consolidated back into a single file. Units that have not been looked up for
+ * a while are considered stale and dropped at that point. Records are copied
+ * without being deserialized. So that a unit used in a session without a
+ * consolidation is not considered stale later on, its record is copied to the
+ * current log when the last use saved in it is older than half of that period.
+ * <p>
+ * Log files written by older versions of this class, which consist of a single
+ * Java serialization stream, are still read, but are loaded eagerly.
  * 
  * <p>
  * System Properties (see {@link UnitCacheFactory}).
@@ -72,22 +99,19 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * <li>gwt.persistentunitcache : enables the persistent cache (eventually will
  * be default)</li>
  * <li>gwt.persistentunitcachedir=<dir>: sets or overrides the cache directory</li>
+ * <li>gwt.persistentunitcache.memoryBudgetMb=<n>: the total serialized size of
+ * units kept loaded in memory, in megabytes (default 32)</li>
+ * <li>gwt.persistentunitcache.maxUnusedDays=<n>: units not looked up for this
+ * many days are dropped when the cache files are consolidated (default 30)</li>
+ * <li>gwt.compilationUnitFormat=binary: writes units with
+ * {@link CompilationUnitCodec} instead of Java serialization. Units in either
+ * format are read.</li>
  * </ul>
  * 
  * <p>
  * Known Issues:
  * 
  * <ul>
- * <li>This design uses an eager cache to load every unit in the cache on the
- * first reference to find() or add(). When the cache is large (10000 units), it
- * uses lots of heap and takes 5-10 seconds. Once the PersistentUnitCache is
- * created, it starts eagerly loading the cache in a background thread).</li>
- * 
- * <li>Although units logged to disk with the same resource path are eventually
- * cleaned up, the most recently compiled unit stays in the cache forever. This
- * means that stale units that are no longer referenced will never be purged,
- * unless by some external action (e.g. ant clean).</li>
- * 
  * <li>Unless ant builds are made aware of the cache directory, the cache will
  * persist if a user does an ant clean.</li>
  * </ul>
@@ -107,6 +131,30 @@ class PersistentUnitCache extends MemoryUnitCache {
   static final String UNIT_CACHE_PREFIX = "gwt-unitCache";
   static final String CACHE_FILE_PREFIX = UNIT_CACHE_PREFIX + "-";
 
+  /**
+   * Identifies a cache file written in the indexed format. Older cache files
+   * start with a Java serialization stream header instead.
+   */
+  static final int CACHE_FILE_MAGIC = 0x47574355;
+
+  /**
+   * Incremented whenever the layout of the records in a cache file changes.
+   */
+  static final int CACHE_FILE_FORMAT_VERSION = 1;
+
+  /**
+   * The total serialized size of the units kept loaded in memory.
+   */
+  private static final long MEMORY_BUDGET_BYTES = Long.getLong(
+      "gwt.persistentunitcache.memoryBudgetMb", 32) * 1024 * 1024;
+
+  /**
+   * Units that have not been looked up for this long are dropped when the
+   * cache files are consolidated.
+   */
+  private static final long MAX_UNUSED_MILLIS = Long.getLong(
+      "gwt.persistentunitcache.maxUnusedDays", 30) * 24 * 60 * 60 * 1000;
+
   /**
    * Creates a new file with a name based on the current system time.
    */
@@ -155,6 +203,127 @@ class PersistentUnitCache extends MemoryUnitCache {
     return new File[0];
   }
 
+  /**
+   * A unit stored in a cache file, which is only deserialized when it is
+   * needed.
+   */
+  private class IndexedUnitCacheEntry extends UnitCacheEntry {
+    private final ContentId contentId;
+    private File file;
+    private final long lastModified;
+    private long lastUsed;
+    private final int length;
+    private long offset;
+    private long persistedLastUsed;
+    private final String resourcePath;
+    private CompilationUnit unit;
+
+    IndexedUnitCacheEntry(String resourcePath, ContentId contentId, long lastModified,
+        long lastUsed, File file, long offset, int length) {
+      super(null, UnitOrigin.PERSISTENT);
+      this.resourcePath = resourcePath;
+      this.contentId = contentId;
+      this.lastModified = lastModified;
+      this.lastUsed = lastUsed;
+      this.persistedLastUsed = lastUsed;
+      this.file = file;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    @Override
+    public ContentId getContentId() {
+      return contentId;
+    }
+
+    @Override
+    public long getLastModified() {
+      return lastModified;
+    }
+
+    public synchronized long getLastUsed() {
+      return lastUsed;
+    }
+
+    @Override
+    public String getResourcePath() {
+      return resourcePath;
+    }
+
+    @Override
+    public CompilationUnit getUnit() {
+      CompilationUnit result;
+      synchronized (this) {
+        if (unit == null) {
+          unit = readUnit();
+        }
+        lastUsed = System.currentTimeMillis();
+        result = unit;
+      }
+      if (result == null) {
+        removeEntry(this);
+      } else {
+        markLoaded(this);
+      }
+      return result;
+    }
+
+    /**
+     * Returns true if the unit was used after the last use saved in its record,
+     * and that record is older than <code>savedBefore</code>.
+     */
+    synchronized boolean hasUnsavedUse(long savedBefore) {
+      return lastUsed > persistedLastUsed && persistedLastUsed < savedBefore;
+    }
+
+    synchronized byte[] readBytes() throws IOException {
+      RandomAccessFile in = new RandomAccessFile(file, "r");
+      try {
+        byte[] bytes = new byte[length];
+        in.seek(offset);
+        in.readFully(bytes);
+        return bytes;
+      } finally {
+        Utility.close(in);
+      }
+    }
+
+    synchronized void relocate(File newFile, long newOffset, long newPersistedLastUsed) {
+      this.file = newFile;
+      this.offset = newOffset;
+      this.persistedLastUsed = newPersistedLastUsed;
+    }
+
+    synchronized void unload() {
+      unit = null;
+    }
+
+    private CompilationUnit readUnit() {
+      ObjectInputStream inputStream = null;
+      try {
+        byte[] unitBytes = readBytes();
+        if (CompilationUnitCodec.isEncoded(unitBytes)) {
+          return CompilationUnitCodec.fromBytes(unitBytes);
+        }
+        inputStream = new ObjectInputStream(new ByteArrayInputStream(unitBytes));
+        return (CachedCompilationUnit) inputStream.readObject();
+      } catch (IOException ex) {
+        if (logger.isLoggable(TreeLogger.TRACE)) {
+          logger.log(TreeLogger.TRACE, "Ignoring cached unit " + resourcePath + " in "
+              + file.getAbsolutePath() + " due to read error.", ex);
+        }
+      } catch (ClassNotFoundException ex) {
+        if (logger.isLoggable(TreeLogger.TRACE)) {
+          logger.log(TreeLogger.TRACE, "Ignoring cached unit " + resourcePath + " in "
+              + file.getAbsolutePath() + " due to deserialization error.", ex);
+        }
+      } finally {
+        Utility.close(inputStream);
+      }
+      return null;
+    }
+  }
+
   /**
    * There is no significance in the return value, we just want to be able
    * to tell if the purgeOldCacheFilesTask has completed.
@@ -232,6 +401,15 @@ class PersistentUnitCache extends MemoryUnitCache {
 
   private int addedSinceLastCleanup = 0;
 
+  /**
+   * Indexed entries whose unit is currently loaded, in least recently used
+   * order, mapped to the serialized size of the unit.
+   */
+  private final LinkedHashMap<IndexedUnitCacheEntry, Integer> loadedEntries =
+      new LinkedHashMap<IndexedUnitCacheEntry, Integer>(16, 0.75f, true);
+
+  private long loadedBytes = 0;
+
   /**
    * A directory to store the cache files that should persist between
    * invocations.
@@ -242,13 +420,26 @@ class PersistentUnitCache extends MemoryUnitCache {
    * Current file and stream being written to.
    */
   private File currentCacheFile;
-  private ObjectOutputStream currentCacheFileStream;
+  private DataOutputStream currentCacheFileStream;
+  private long currentCacheFileOffset;
 
   private final TreeLogger logger;
 
-  PersistentUnitCache(final TreeLogger logger, File cacheDir) throws UnableToCompleteException {
+  /**
+   * The total serialized size of the units kept loaded in memory.
+   */
+  private final long memoryBudgetBytes;
+
+  PersistentUnitCache(TreeLogger logger, File cacheDir) throws UnableToCompleteException {
+    this(logger, cacheDir, MEMORY_BUDGET_BYTES);
+  }
+
+  // @VisibleForTesting
+  PersistentUnitCache(final TreeLogger logger, File cacheDir, long memoryBudgetBytes)
+      throws UnableToCompleteException {
     assert cacheDir != null;
     this.logger = logger;
+    this.memoryBudgetBytes = memoryBudgetBytes;
     this.cacheDirectory = new File(cacheDir, UNIT_CACHE_PREFIX);
     if (logger.isLoggable(TreeLogger.TRACE)) {
       logger.log(TreeLogger.TRACE, "Persistent unit cache dir set to: "
@@ -298,7 +489,7 @@ class PersistentUnitCache extends MemoryUnitCache {
     try {
       fstream = new FileOutputStream(currentCacheFile);
       bstream = new BufferedOutputStream(fstream);
-      currentCacheFileStream = new ObjectOutputStream(bstream);
+      openCurrentCacheFileStream(bstream);
     } catch (IOException ex) {
       closeCurrentCacheFile(currentCacheFile, currentCacheFileStream);
       logger.log(TreeLogger.ERROR, "Error creating cache " + currentCacheFile
@@ -340,6 +531,7 @@ class PersistentUnitCache extends MemoryUnitCache {
     try {
       File[] cacheFiles = getCacheFiles(cacheDirectory);
       if (cacheFiles.length < CACHE_FILE_THRESHOLD) {
+        saveRecentUses(logger);
         if (shouldRotate) {
           backgroundService.execute(rotateCacheFilesTask);
         }
@@ -362,14 +554,24 @@ class PersistentUnitCache extends MemoryUnitCache {
       /*
        * Resend all units read in from the in-memory cache to the background
        * thread. They will be re-written out and the old cache files removed.
+       * Units that have not been used for a long time are dropped instead.
        */
+      long staleBefore = System.currentTimeMillis() - MAX_UNUSED_MILLIS;
+      List<UnitCacheEntry> staleEntries = new ArrayList<UnitCacheEntry>();
       synchronized (unitMap) {
         for (UnitCacheEntry unitCacheEntry : unitMap.values()) {
-          if (unitCacheEntry.getOrigin() == UnitOrigin.PERSISTENT) {
+          if (unitCacheEntry instanceof IndexedUnitCacheEntry
+              && ((IndexedUnitCacheEntry) unitCacheEntry).getLastUsed() < staleBefore) {
+            staleEntries.add(unitCacheEntry);
+          } else if (unitCacheEntry.getOrigin() == UnitOrigin.PERSISTENT) {
             addImpl(unitCacheEntry);
           }
         }
       }
+      for (UnitCacheEntry staleEntry : staleEntries) {
+        removeEntry(staleEntry);
+      }
+      logger.log(TreeLogger.TRACE, "Purging " + staleEntries.size() + " stale units from cache.");
 
       purgeTaskStatus = backgroundService.submit(purgeOldCacheFilesTask, Boolean.TRUE);
 
@@ -407,7 +609,7 @@ class PersistentUnitCache extends MemoryUnitCache {
     try {
       fstream = new FileOutputStream(currentCacheFile);
       bstream = new BufferedOutputStream(fstream);
-      currentCacheFileStream = new ObjectOutputStream(bstream);
+      openCurrentCacheFileStream(bstream);
     } catch (IOException ex) {
       // Close all 3 streams, not sure where the exception occurred.
       Utility.close(bstream);
@@ -441,10 +643,13 @@ class PersistentUnitCache extends MemoryUnitCache {
         public void run() {
           try {
             assert entry.getOrigin() != UnitOrigin.ARCHIVE;
-            CompilationUnit unit = entry.getUnit();
-            assert unit != null;
-            currentCacheFileStream.writeObject(unit);
-            unitsWritten++;
+            if (entry instanceof IndexedUnitCacheEntry) {
+              copyRecord((IndexedUnitCacheEntry) entry);
+            } else {
+              CompilationUnit unit = entry.getUnit();
+              assert unit != null;
+              writeUnit(unit);
+            }
           } catch (IOException ex) {
             backgroundService.shutdownNow();
             if (logger.isLoggable(TreeLogger.TRACE)) {
@@ -476,7 +681,29 @@ class PersistentUnitCache extends MemoryUnitCache {
     }
   }
 
-  private void closeCurrentCacheFile(File openFile, ObjectOutputStream stream) {
+  /**
+   * Adds an entry read from a cache file to the in-memory maps.
+   */
+  private void addLoadedEntry(UnitCacheEntry entry) {
+    UnitCacheEntry existingEntry = unitMap.get(entry.getResourcePath());
+    /*
+     * Don't assume that an existing entry is stale - an entry might have been
+     * loaded already from another source like a CompilationUnitArchive that is
+     * more up to date. If the timestamps are the same, accept the latest
+     * version. If it turns out to be stale, it will be recompiled and the
+     * updated unit will win this test the next time the session starts.
+     */
+    if (existingEntry != null && entry.getLastModified() >= existingEntry.getLastModified()) {
+      super.remove(existingEntry.getResourcePath(), existingEntry.getContentId());
+      unitMap.put(entry.getResourcePath(), entry);
+      unitMapByContentId.put(entry.getContentId(), entry);
+    } else if (existingEntry == null) {
+      unitMap.put(entry.getResourcePath(), entry);
+      unitMapByContentId.put(entry.getContentId(), entry);
+    }
+  }
+
+  private void closeCurrentCacheFile(File openFile, OutputStream stream) {
     Utility.close(stream);
     if (unitsWritten == 0) {
       // Remove useless empty file.
@@ -485,7 +712,164 @@ class PersistentUnitCache extends MemoryUnitCache {
   }
 
   /**
-   * Load everything cached on disk into memory.
+   * Copies the record of an entry from an old cache file to the current one,
+   * without deserializing the unit.
+   */
+  private void copyRecord(IndexedUnitCacheEntry entry) throws IOException {
+    byte[] unitBytes;
+    try {
+      unitBytes = entry.readBytes();
+    } catch (IOException ex) {
+      // Only this unit is lost, keep writing the others.
+      removeEntry(entry);
+      if (logger.isLoggable(TreeLogger.TRACE)) {
+        logger.log(TreeLogger.TRACE, "Dropping unreadable cached unit " + entry.getResourcePath(),
+            ex);
+      }
+      return;
+    }
+    long lastUsed = entry.getLastUsed();
+    long unitOffset =
+        writeRecord(entry.getResourcePath(), entry.getContentId(), entry.getLastModified(),
+            lastUsed, unitBytes);
+    // The old file is deleted after consolidation, so the entry must point to
+    // the new record, which has to be readable before it does.
+    currentCacheFileStream.flush();
+    entry.relocate(currentCacheFile, unitOffset, lastUsed);
+  }
+
+  /**
+   * Reads the record headers of a cache file into the in-memory maps. Cache
+   * files in the old format are loaded eagerly instead.
+   */
+  private void indexCacheFile(TreeLogger logger, File cacheFile) {
+    DataInputStream inputStream = null;
+    boolean deleteCacheFile = false;
+    List<IndexedUnitCacheEntry> entries = new ArrayList<IndexedUnitCacheEntry>();
+    try {
+      inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+      if (inputStream.readInt() != CACHE_FILE_MAGIC) {
+        Utility.close(inputStream);
+        inputStream = null;
+        loadLegacyCacheFile(logger, cacheFile);
+        return;
+      }
+      if (inputStream.readInt() != CACHE_FILE_FORMAT_VERSION) {
+        throw new IOException("Unsupported cache file format");
+      }
+      long fileLength = cacheFile.length();
+      long offset = 8;
+      while (true) {
+        int headerLength = inputStream.readInt();
+        if (headerLength < 0) {
+          throw new IOException("Corrupt record header");
+        }
+        byte[] header = new byte[headerLength];
+        inputStream.readFully(header);
+        int unitLength = inputStream.readInt();
+        long unitOffset = offset + 4 + headerLength + 4;
+        offset = unitOffset + unitLength;
+        if (unitLength < 0 || offset > fileLength) {
+          // The last record was not completely written.
+          break;
+        }
+        if (inputStream.skipBytes(unitLength) != unitLength) {
+          throw new EOFException();
+        }
+
+        DataInputStream headerStream = new DataInputStream(new ByteArrayInputStream(header));
+        String resourcePath = headerStream.readUTF();
+        ContentId contentId = new ContentId(headerStream.readUTF());
+        long lastModified = headerStream.readLong();
+        long typesSerializedVersion = headerStream.readLong();
+        long lastUsed = headerStream.readLong();
+        if (typesSerializedVersion != GwtAstBuilder.getSerializationVersion()) {
+          continue;
+        }
+        entries.add(new IndexedUnitCacheEntry(resourcePath, contentId, lastModified, lastUsed,
+            cacheFile, unitOffset, unitLength));
+      }
+    } catch (EOFException ex) {
+      // Go on to the next file.
+    } catch (IOException ex) {
+      deleteCacheFile = true;
+      if (logger.isLoggable(TreeLogger.TRACE)) {
+        logger.log(TreeLogger.TRACE, "Ignoring and deleting cache log "
+            + cacheFile.getAbsolutePath() + " due to read error.", ex);
+      }
+    } finally {
+      Utility.close(inputStream);
+    }
+    if (deleteCacheFile) {
+      cacheFile.delete();
+      return;
+    }
+    for (IndexedUnitCacheEntry entry : entries) {
+      addLoadedEntry(entry);
+    }
+    if (logger.isLoggable(TreeLogger.TRACE)) {
+      logger.log(TreeLogger.TRACE, cacheFile.getName() + ": Indexed " + entries.size()
+          + " units");
+    }
+  }
+
+  /**
+   * Eagerly loads a cache file written in the old format, which is a single
+   * Java serialization stream of units.
+   */
+  private void loadLegacyCacheFile(TreeLogger logger, File cacheFile) {
+    FileInputStream fis = null;
+    BufferedInputStream bis = null;
+    ObjectInputStream inputStream = null;
+    boolean deleteCacheFile = false;
+    try {
+      fis = new FileInputStream(cacheFile);
+      bis = new BufferedInputStream(fis);
+      /*
+       * It is possible for the next call to throw an exception, leaving
+       * inputStream null and fis still live.
+       */
+      inputStream = new ObjectInputStream(bis);
+      while (true) {
+        CachedCompilationUnit unit = (CachedCompilationUnit) inputStream.readObject();
+        if (unit == null) {
+          break;
+        }
+        if (unit.getTypesSerializedVersion() != GwtAstBuilder.getSerializationVersion()) {
+          continue;
+        }
+        addLoadedEntry(new UnitCacheEntry(unit, UnitOrigin.PERSISTENT));
+      }
+    } catch (EOFException ex) {
+      // Go on to the next file.
+    } catch (IOException ex) {
+      deleteCacheFile = true;
+      if (logger.isLoggable(TreeLogger.TRACE)) {
+        logger.log(TreeLogger.TRACE, "Ignoring and deleting cache log "
+            + cacheFile.getAbsolutePath() + " due to read error.", ex);
+      }
+    } catch (ClassNotFoundException ex) {
+      deleteCacheFile = true;
+      if (logger.isLoggable(TreeLogger.TRACE)) {
+        logger.log(TreeLogger.TRACE, "Ignoring and deleting cache log "
+            + cacheFile.getAbsolutePath() + " due to deserialization error.", ex);
+      }
+    } finally {
+      Utility.close(inputStream);
+      Utility.close(bis);
+      Utility.close(fis);
+    }
+    if (deleteCacheFile) {
+      cacheFile.delete();
+    } else {
+      if (logger.isLoggable(TreeLogger.TRACE)) {
+        logger.log(TreeLogger.TRACE, cacheFile.getName() + ": Load complete");
+      }
+    }
+  }
+
+  /**
+   * Index everything cached on disk.
    */
   private void loadUnitMap(TreeLogger logger, File currentCacheFile) {
     Event loadPersistentUnitEvent =
@@ -498,74 +882,8 @@ class PersistentUnitCache extends MemoryUnitCache {
       if (cacheDirectory.isDirectory() && cacheDirectory.canRead()) {
         File[] files = getCacheFiles(cacheDirectory);
         for (File cacheFile : files) {
-          FileInputStream fis = null;
-          BufferedInputStream bis = null;
-          ObjectInputStream inputStream = null;
-          if (cacheFile.equals(currentCacheFile)) {
-            continue;
-          }
-          boolean deleteCacheFile = false;
-          try {
-            fis = new FileInputStream(cacheFile);
-            bis = new BufferedInputStream(fis);
-            /*
-             * It is possible for the next call to throw an exception, leaving
-             * inputStream null and fis still live.
-             */
-            inputStream = new ObjectInputStream(bis);
-            while (true) {
-              CachedCompilationUnit unit = (CachedCompilationUnit) inputStream.readObject();
-              if (unit == null) {
-                break;
-              }
-              if (unit.getTypesSerializedVersion() != GwtAstBuilder.getSerializationVersion()) {
-                continue;
-              }
-              UnitCacheEntry entry = new UnitCacheEntry(unit, UnitOrigin.PERSISTENT);
-              UnitCacheEntry existingEntry = unitMap.get(unit.getResourcePath());
-              /*
-               * Don't assume that an existing entry is stale - an entry might
-               * have been loaded already from another source like a
-               * CompilationUnitArchive that is more up to date. If the
-               * timestamps are the same, accept the latest version. If it turns
-               * out to be stale, it will be recompiled and the updated unit
-               * will win this test the next time the session starts.
-               */
-              if (existingEntry != null
-                  && unit.getLastModified() >= existingEntry.getUnit().getLastModified()) {
-                super.remove(existingEntry.getUnit());
-                unitMap.put(unit.getResourcePath(), entry);
-                unitMapByContentId.put(unit.getContentId(), entry);
-              } else if (existingEntry == null) {
-                unitMap.put(unit.getResourcePath(), entry);
-                unitMapByContentId.put(unit.getContentId(), entry);
-              }
-            }
-          } catch (EOFException ex) {
-            // Go on to the next file.
-          } catch (IOException ex) {
-            deleteCacheFile = true;
-            if (logger.isLoggable(TreeLogger.TRACE)) {
-              logger.log(TreeLogger.TRACE, "Ignoring and deleting cache log "
-                  + cacheFile.getAbsolutePath() + " due to read error.", ex);
-            }
-          } catch (ClassNotFoundException ex) {
-            deleteCacheFile = true;
-            if (logger.isLoggable(TreeLogger.TRACE)) {
-              logger.log(TreeLogger.TRACE, "Ignoring and deleting cache log "
-                  + cacheFile.getAbsolutePath() + " due to deserialization error.", ex);
-            }
-          } finally {
-            Utility.close(inputStream);
-            Utility.close(bis);
-            Utility.close(fis);
-          }
-          if (deleteCacheFile) {
-            cacheFile.delete();
-          } else {
-            if (logger.isLoggable(TreeLogger.TRACE)) {
-              logger.log(TreeLogger.TRACE, cacheFile.getName() + ": Load complete");
-            }
+          if (!cacheFile.equals(currentCacheFile)) {
+            indexCacheFile(logger, cacheFile);
           }
         }
       } else {
@@ -577,4 +895,116 @@ class PersistentUnitCache extends MemoryUnitCache {
       loadPersistentUnitEvent.end();
     }
   }
+
+  /**
+   * Records that the unit of an entry was used, and unloads the least recently
+   * used units if too many are loaded.
+   */
+  private void markLoaded(IndexedUnitCacheEntry entry) {
+    synchronized (loadedEntries) {
+      if (loadedEntries.put(entry, entry.length) == null) {
+        loadedBytes += entry.length;
+      }
+      Iterator<Map.Entry<IndexedUnitCacheEntry, Integer>> it =
+          loadedEntries.entrySet().iterator();
+      // The entry just used is the last one, so it is never unloaded here.
+      while (loadedBytes > memoryBudgetBytes && loadedEntries.size() > 1) {
+        Map.Entry<IndexedUnitCacheEntry, Integer> eldest = it.next();
+        it.remove();
+        loadedBytes -= eldest.getValue();
+        eldest.getKey().unload();
+      }
+    }
+  }
+
+  private void openCurrentCacheFileStream(OutputStream out) throws IOException {
+    currentCacheFileStream = new DataOutputStream(out);
+    currentCacheFileStream.writeInt(CACHE_FILE_MAGIC);
+    currentCacheFileStream.writeInt(CACHE_FILE_FORMAT_VERSION);
+    currentCacheFileOffset = 8;
+  }
+
+  /**
+   * Removes an entry, unless it has already been replaced by a newer one.
+   */
+  private void removeEntry(UnitCacheEntry entry) {
+    synchronized (unitMap) {
+      if (unitMap.get(entry.getResourcePath()) == entry) {
+        unitMap.remove(entry.getResourcePath());
+      }
+    }
+    synchronized (unitMapByContentId) {
+      if (unitMapByContentId.get(entry.getContentId()) == entry) {
+        unitMapByContentId.remove(entry.getContentId());
+      }
+    }
+  }
+
+  /**
+   * Copies the records of units used in this session to the current cache file
+   * if the last use saved in them is old, so that a later consolidation does
+   * not drop them as stale. Each record is rewritten at most once in half of
+   * the max unused period.
+   */
+  private void saveRecentUses(TreeLogger logger) {
+    long savedBefore = System.currentTimeMillis() - MAX_UNUSED_MILLIS / 2;
+    int count = 0;
+    synchronized (unitMap) {
+      for (UnitCacheEntry unitCacheEntry : unitMap.values()) {
+        if (unitCacheEntry instanceof IndexedUnitCacheEntry
+            && ((IndexedUnitCacheEntry) unitCacheEntry).hasUnsavedUse(savedBefore)) {
+          addImpl(unitCacheEntry);
+          count++;
+        }
+      }
+    }
+    if (count > 0) {
+      logger.log(TreeLogger.TRACE, "Saving the last use of " + count + " units to cache.");
+    }
+  }
+
+  /**
+   * Appends a record to the current cache file.
+   * 
+   * @return the offset of the serialized unit in the file
+   */
+  private long writeRecord(String resourcePath, ContentId contentId, long lastModified,
+      long lastUsed, byte[] unitBytes) throws IOException {
+    ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+    DataOutputStream header = new DataOutputStream(headerBytes);
+    header.writeUTF(resourcePath);
+    header.writeUTF(contentId.get());
+    header.writeLong(lastModified);
+    header.writeLong(GwtAstBuilder.getSerializationVersion());
+    header.writeLong(lastUsed);
+    header.close();
+
+    currentCacheFileStream.writeInt(headerBytes.size());
+    headerBytes.writeTo(currentCacheFileStream);
+    currentCacheFileStream.writeInt(unitBytes.length);
+    currentCacheFileStream.write(unitBytes);
+    long unitOffset = currentCacheFileOffset + 4 + headerBytes.size() + 4;
+    currentCacheFileOffset = unitOffset + unitBytes.length;
+    unitsWritten++;
+    return unitOffset;
+  }
+
+  /**
+   * Serializes a unit on its own and appends it to the current cache file.
+   * Uses {@link CompilationUnitCodec} if it is enabled.
+   */
+  private void writeUnit(CompilationUnit unit) throws IOException {
+    byte[] unitBytes;
+    if (CompilationUnitCodec.isEnabled()) {
+      unitBytes = CompilationUnitCodec.toBytes(unit.asCachedCompilationUnit());
+    } else {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ObjectOutputStream outputStream = new ObjectOutputStream(bytes);
+      outputStream.writeObject(unit);
+      outputStream.close();
+      unitBytes = bytes.toByteArray();
+    }
+    writeRecord(unit.getResourcePath(), unit.getContentId(), unit.getLastModified(),
+        System.currentTimeMillis(), unitBytes);
+  }
 }
@@ -38,6 +38,7 @@ import com.google.gwt.core.ext.soyc.impl.SizeMapRecorder;
 import com.google.gwt.core.ext.soyc.impl.SplitPointRecorder;
 import com.google.gwt.core.ext.soyc.impl.StoryRecorder;
 import com.google.gwt.core.linker.SoycReportLinker;
+import com.google.gwt.dev.About;
 import com.google.gwt.dev.Permutation;
 import com.google.gwt.dev.cfg.ConfigurationProperty;
 import com.google.gwt.dev.cfg.ModuleDef;
@@ -89,6 +90,7 @@ import com.google.gwt.dev.jjs.impl.LongEmulationNormalizer;
 import com.google.gwt.dev.jjs.impl.MakeCallsStatic;
 import com.google.gwt.dev.jjs.impl.MethodCallTightener;
 import com.google.gwt.dev.jjs.impl.MethodInliner;
+import com.google.gwt.dev.jjs.impl.OptimizerContext;
 import com.google.gwt.dev.jjs.impl.OptimizerStats;
 import com.google.gwt.dev.jjs.impl.PostOptimizationCompoundAssignmentNormalizer;
 import com.google.gwt.dev.jjs.impl.Pruner;
@@ -128,9 +130,11 @@ import com.google.gwt.dev.js.ast.JsFunction;
 import com.google.gwt.dev.js.ast.JsName;
 import com.google.gwt.dev.js.ast.JsProgram;
 import com.google.gwt.dev.js.ast.JsVisitor;
+import com.google.gwt.dev.util.CodeSourceHash;
 import com.google.gwt.dev.util.DefaultTextOutput;
 import com.google.gwt.dev.util.Empty;
 import com.google.gwt.dev.util.Memory;
+import com.google.gwt.dev.util.Parallel;
 import com.google.gwt.dev.util.Util;
 import com.google.gwt.dev.util.arg.OptionOptimize;
 import com.google.gwt.dev.util.collect.Lists;
@@ -148,6 +152,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -239,6 +244,20 @@ public class JavaToJavaScriptCompiler {
 
   private static final String ENUM_NAME_OBFUSCATION_PROPERTY = "compiler.enum.obfuscate.names";
 
+  /**
+   * When set, iterations of the optimization loop after the first revisit only
+   * the methods affected by the previous iteration's changes.
+   */
+  private static final boolean INCREMENTAL_OPTIMIZER =
+      Boolean.parseBoolean(System.getProperty("gwt.jjs.incrementalOptimizer"));
+
+  /**
+   * The number of threads used by the intra-procedural optimizer passes for
+   * each permutation. The default of 1 runs them on the compiling thread.
+   */
+  private static final int OPTIMIZER_THREADS = Parallel.getThreadCount("gwt.jjs.optimizerThreads",
+      1);
+
   /**
    * Compiles a particular permutation, based on a precompiled unified AST.
    *
@@ -589,6 +608,10 @@ public class JavaToJavaScriptCompiler {
         precompilationMetrics.setFinalTypeOracleTypes(finalTypeOracleTypes);
       }
 
+      // All generated units exist now; hash them before they are thrown away.
+      String inputsHash =
+          computeInputsHash(rpo, declEntryPts, additionalRootTypes, options, singlePermutation);
+
       // Free up memory.
       rpo.clear();
 
@@ -676,6 +699,7 @@ public class JavaToJavaScriptCompiler {
       Event createUnifiedAstEvent = SpeedTracerLogger.start(CompilerEventType.CREATE_UNIFIED_AST);
       UnifiedAst result =
           new UnifiedAst(options, new AST(jprogram, jsProgram), singlePermutation, rebindRequests);
+      result.setInputsHash(inputsHash);
       createUnifiedAstEvent.end();
       return result;
     } catch (Throwable e) {
@@ -704,29 +728,18 @@ public class JavaToJavaScriptCompiler {
     Event optimizeEvent = SpeedTracerLogger.start(CompilerEventType.OPTIMIZE);
 
     List<OptimizerStats> allOptimizerStats = new ArrayList<OptimizerStats>();
-    int counter = 0;
-    int optimizationLevel = options.getOptimizationLevel();
-    while (true) {
-      counter++;
-      if (optimizationLevel < OptionOptimize.OPTIMIZE_LEVEL_MAX && counter > optimizationLevel) {
-        break;
-      }
-      if (Thread.interrupted()) {
-        optimizeEvent.end();
-        throw new InterruptedException();
-      }
-      AstDumper.maybeDumpAST(jprogram);
-      OptimizerStats stats =
-          optimizeLoop("Pass " + counter, jprogram, options.isAggressivelyOptimize());
-      allOptimizerStats.add(stats);
-      if (!stats.didChange()) {
-        break;
-      }
+    OptimizerContext optimizerCtx = INCREMENTAL_OPTIMIZER ? new OptimizerContext(jprogram) : null;
+    try {
+      optimizeLoops(jprogram, options.getOptimizationLevel(), options.isAggressivelyOptimize(),
+          optimizerCtx, getOptimizerThreads(options), allOptimizerStats);
+    } catch (InterruptedException e) {
+      optimizeEvent.end();
+      throw e;
     }
 
     if (options.isAggressivelyOptimize()) {
       // Just run it once, because it is very time consuming
-      allOptimizerStats.add(DataflowOptimizer.exec(jprogram));
+      allOptimizerStats.add(DataflowOptimizer.exec(jprogram, getOptimizerThreads(options)));
     }
 
     if (JProgram.isTracingEnabled()) {
@@ -755,7 +768,7 @@ public class JavaToJavaScriptCompiler {
       OptimizerStats stats = new OptimizerStats("Pass " + counter);
 
       // Remove unused functions, possible
-      stats.add(JsStaticEval.exec(jsProgram));
+      stats.add(JsStaticEval.exec(jsProgram, getOptimizerThreads(options)));
       // Inline JavaScript function invocations
       stats.add(JsInliner.exec(jsProgram));
       // Remove unused functions, possible
@@ -782,15 +795,70 @@ public class JavaToJavaScriptCompiler {
     }
   }
 
+  /**
+   * Runs {@link #optimizeLoop} until an iteration changes nothing, or the
+   * optimization level is reached. With an <code>optimizerCtx</code>, the
+   * loop only stops once a full pass confirms that the incremental passes
+   * reached a fixed point, so both modes optimize the program equally.
+   */
+  // @VisibleForTesting
+  static void optimizeLoops(JProgram jprogram, int optimizationLevel,
+      boolean isAggressivelyOptimize, OptimizerContext optimizerCtx, int numThreads,
+      List<OptimizerStats> allOptimizerStats) throws InterruptedException {
+    int counter = 0;
+    while (true) {
+      counter++;
+      if (optimizationLevel < OptionOptimize.OPTIMIZE_LEVEL_MAX && counter > optimizationLevel) {
+        break;
+      }
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      AstDumper.maybeDumpAST(jprogram);
+      OptimizerStats stats =
+          optimizeLoop("Pass " + counter, jprogram, isAggressivelyOptimize, optimizerCtx,
+              numThreads);
+      allOptimizerStats.add(stats);
+      if (!stats.didChange()) {
+        if (optimizerCtx == null || optimizerCtx.isFullPass()) {
+          break;
+        }
+        // Only stop once a full pass confirms the incremental fixed point.
+        optimizerCtx.requestFullPass();
+      }
+    }
+  }
+
   protected static OptimizerStats optimizeLoop(String passName, JProgram jprogram,
       boolean isAggressivelyOptimize) {
+    return optimizeLoop(passName, jprogram, isAggressivelyOptimize, null, 1);
+  }
+
+  /**
+   * Runs one iteration of the optimization loop. If <code>optimizerCtx</code>
+   * is not <code>null</code>, the passes record the methods and fields they
+   * modify, and unless this iteration is a full pass the intra-procedural
+   * passes visit only the methods affected by earlier changes. Those passes
+   * run on up to <code>numThreads</code> threads.
+   */
+  protected static OptimizerStats optimizeLoop(String passName, JProgram jprogram,
+      boolean isAggressivelyOptimize, OptimizerContext optimizerCtx, int numThreads) {
+    if (optimizerCtx != null) {
+      optimizerCtx.beginIteration();
+    }
     Event optimizeEvent = SpeedTracerLogger.start(CompilerEventType.OPTIMIZE, "phase", "loop");
 
     // Count the number of nodes in the AST so we can measure the efficiency of
     // the optimizers.
     Event countEvent = SpeedTracerLogger.start(CompilerEventType.OPTIMIZE, "phase", "countNodes");
     TreeStatistics treeStats = new TreeStatistics();
-    treeStats.accept(jprogram);
+    if (optimizerCtx == null || optimizerCtx.isFullPass()) {
+      treeStats.accept(jprogram);
+    } else {
+      for (JMethod method : optimizerCtx.getMethodsToVisit()) {
+        treeStats.accept(method);
+      }
+    }
     int numNodes = treeStats.getNodeCount();
     countEvent.end();
 
@@ -801,13 +869,13 @@ public class JavaToJavaScriptCompiler {
     OptimizerStats stats = new OptimizerStats(passName);
 
     // Remove unreferenced types, fields, methods, [params, locals]
-    stats.add(Pruner.exec(jprogram, true).recordVisits(numNodes));
+    stats.add(Pruner.exec(jprogram, true, optimizerCtx).recordVisits(numNodes));
 
     // finalize locals, params, fields, methods, classes
-    stats.add(Finalizer.exec(jprogram).recordVisits(numNodes));
+    stats.add(Finalizer.exec(jprogram, optimizerCtx).recordVisits(numNodes));
 
     // rewrite non-polymorphic calls as static calls; update all call sites
-    stats.add(MakeCallsStatic.exec(jprogram).recordVisits(numNodes));
+    stats.add(MakeCallsStatic.exec(jprogram, optimizerCtx).recordVisits(numNodes));
 
     // type flow tightening
     // - fields, locals based on assignment
@@ -815,20 +883,23 @@ public class JavaToJavaScriptCompiler {
     // - method bodies based on return statements
     // - polymorphic methods based on return types of all implementors
     // - optimize casts and instance of
-    stats.add(TypeTightener.exec(jprogram).recordVisits(numNodes));
+    stats.add(TypeTightener.exec(jprogram, optimizerCtx).recordVisits(numNodes));
 
     // tighten method call bindings
-    stats.add(MethodCallTightener.exec(jprogram).recordVisits(numNodes));
+    stats.add(MethodCallTightener.exec(jprogram, optimizerCtx, numThreads).recordVisits(
+        numNodes));
 
     // dead code removal??
-    stats.add(DeadCodeElimination.exec(jprogram).recordVisits(numNodes));
+    stats.add(DeadCodeElimination.exec(jprogram, optimizerCtx, numThreads).recordVisits(
+        numNodes));
 
     // inlining
-    stats.add(MethodInliner.exec(jprogram).recordVisits(numNodes));
+    stats.add(MethodInliner.exec(jprogram, optimizerCtx).recordVisits(numNodes));
 
     if (isAggressivelyOptimize) {
       // remove same parameters value
-      stats.add(SameParameterValueOptimizer.exec(jprogram).recordVisits(numNodes));
+      OptimizerStats sameParameterStats = SameParameterValueOptimizer.exec(jprogram);
+      stats.add(sameParameterStats.recordVisits(numNodes));
 
       /*
        * Enum ordinalization.
@@ -836,7 +907,14 @@ public class JavaToJavaScriptCompiler {
        * TODO(jbrosenberg): graduate this out of the 'isAggressivelyOptimize'
        * block, over time.
        */
-      stats.add(EnumOrdinalizer.exec(jprogram).recordVisits(numNodes));
+      OptimizerStats enumOrdinalizerStats = EnumOrdinalizer.exec(jprogram);
+      stats.add(enumOrdinalizerStats.recordVisits(numNodes));
+
+      if (optimizerCtx != null
+          && (sameParameterStats.didChange() || enumOrdinalizerStats.didChange())) {
+        // These passes don't record which methods they modified.
+        optimizerCtx.requestFullPass();
+      }
     }
 
     // prove that any types that have been culled from the main tree are
@@ -846,6 +924,17 @@ public class JavaToJavaScriptCompiler {
     return stats;
   }
 
+  /**
+   * Story of your compile records where nodes came from by mutating shared
+   * source info, so the optimizers stay on one thread when it is enabled.
+   */
+  private static int getOptimizerThreads(JJSOptions options) {
+    if (options.isSoycEnabled()) {
+      return 1;
+    }
+    return OPTIMIZER_THREADS;
+  }
+
   private static MultipleDependencyGraphRecorder chooseDependencyRecorder(boolean soycEnabled,
       OutputStream out) {
     MultipleDependencyGraphRecorder dependencyRecorder = CodeSplitter.NULL_RECORDER;
@@ -855,6 +944,31 @@ public class JavaToJavaScriptCompiler {
     return dependencyRecorder;
   }
 
+  /**
+   * Computes a hash of everything that goes into the unified AST and of the
+   * compiler itself, or returns <code>null</code> if the compiler's classes
+   * can't be read. The serialized AST itself is not stable between builds, so
+   * it cannot be hashed directly; the GWT version is the same for every
+   * development build, so the compiler's jar or class directory is hashed
+   * instead.
+   */
+  private static String computeInputsHash(RebindPermutationOracle rpo, String[] declEntryPts,
+      String[] additionalRootTypes, JJSOptions options, boolean singlePermutation)
+      throws IOException {
+    String compilerHash = CodeSourceHash.get(JavaToJavaScriptCompiler.class);
+    if (compilerHash == null) {
+      return null;
+    }
+    ByteArrayOutputStream serializedOptions = new ByteArrayOutputStream();
+    Util.writeObjectToStream(serializedOptions, new JJSOptionsImpl(options));
+    return Util.computeStrongName(new byte[][] {
+        Util.getBytes(About.getGwtVersionNum()), Util.getBytes(compilerHash),
+        Util.getBytes(rpo.getCompilationState().getContentHash()),
+        Util.getBytes(Arrays.toString(declEntryPts)),
+        Util.getBytes(Arrays.toString(additionalRootTypes)),
+        Util.getBytes(String.valueOf(singlePermutation)), serializedOptions.toByteArray()});
+  }
+
   private static JMethodCall createReboundModuleLoad(TreeLogger logger, SourceInfo info,
       JDeclaredType reboundEntryType, String originalMainClassName, JDeclaredType enclosingType)
       throws UnableToCompleteException {
@@ -23,6 +23,7 @@ import com.google.gwt.dev.Permutation;
 import com.google.gwt.dev.jjs.ast.JProgram;
 import com.google.gwt.dev.js.ast.JsProgram;
 import com.google.gwt.dev.util.DiskCache;
+import com.google.gwt.dev.util.Parallel;
 import com.google.gwt.dev.util.Util;
 
 import java.io.IOException;
@@ -33,6 +34,7 @@ import java.util.Collections;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.Semaphore;
 
 /**
  * Represents a unified, non-permutation specific AST. This AST is used to drive
@@ -61,14 +63,33 @@ public class UnifiedAst implements Serializable {
     }
   }
 
+  /**
+   * The name of the system property that bounds how many permutations may
+   * deserialize their copy of the AST at the same time, 2 by default. While an
+   * AST is being deserialized, it is held in memory next to the copies already
+   * being compiled, so raising the bound trades peak heap for less waiting
+   * between permutations compiled in parallel.
+   */
+  public static final String DESERIALIZATION_THREADS_PROPERTY =
+      "gwt.jjs.astDeserializationThreads";
+
   private static final DiskCache diskCache = DiskCache.INSTANCE;
 
+  private static final Semaphore deserializationPermits = new Semaphore(
+      Parallel.getThreadCount(DESERIALIZATION_THREADS_PROPERTY, 2));
+
   /**
    * The original AST; nulled out once consumed (by the first call to
    * {@link #getFreshAst()}.
    */
   private transient AST initialAst;
 
+  /**
+   * A strong hash of everything the AST was built from, or <code>null</code>
+   * if it is unknown.
+   */
+  private String inputsHash;
+
   /**
    * Metrics for the module load phase. Stored here so they can be written out
    * as artifacts in the compile phase.
@@ -118,6 +139,7 @@ public class UnifiedAst implements Serializable {
     other.initialAst = null; // steal its copy
     this.rebindRequests = other.rebindRequests;
     this.serializedAstToken = other.serializedAstToken;
+    this.inputsHash = other.inputsHash;
   }
 
   /**
@@ -141,21 +163,42 @@ public class UnifiedAst implements Serializable {
    * @return the current AST object holding the Java and JavaScript trees.
    */
   public AST getFreshAst() {
+    long token;
     synchronized (myLockObject) {
       if (initialAst != null) {
         AST result = initialAst;
         initialAst = null;
         return result;
-      } else {
-        if (serializedAstToken < 0) {
-          throw new IllegalStateException(
-              "No serialized AST was cached and AST was already consumed.");
-        }
-        return diskCache.readObject(serializedAstToken, AST.class);
       }
+      if (serializedAstToken < 0) {
+        throw new IllegalStateException(
+            "No serialized AST was cached and AST was already consumed.");
+      }
+      token = serializedAstToken;
+    }
+    /*
+     * Every caller gets its own copy of the shared serialized AST. Deserialize
+     * outside of the lock so that several permutations compiling in parallel
+     * do not wait for each other, but only a few at a time to bound the heap.
+     */
+    deserializationPermits.acquireUninterruptibly();
+    try {
+      return diskCache.readObject(token, AST.class);
+    } finally {
+      deserializationPermits.release();
     }
   }
 
+  /**
+   * Returns a strong hash of the sources, entry points, options and compiler
+   * classes the AST was built from, or <code>null</code> if it is unknown. Two
+   * ASTs with the same hash produce the same output for the same permutation.
+   * Unlike the serialized AST, the hash is stable between builds.
+   */
+  public String getInputsHash() {
+    return inputsHash;
+  }
+
   /**
    * Returns metrics about the module load portion of the build.
    */
@@ -196,6 +239,13 @@ public class UnifiedAst implements Serializable {
     }
   }
 
+  /**
+   * Record the hash of the inputs the AST was built from.
+   */
+  public void setInputsHash(String inputsHash) {
+    this.inputsHash = inputsHash;
+  }
+
   /**
    * Save some module load metrics in the AST.
    */
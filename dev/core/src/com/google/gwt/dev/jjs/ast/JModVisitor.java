@@ -85,7 +85,7 @@ public class JModVisitor extends JVisitor {
       try {
         for (index = 0; index < list.size(); ++index) {
           removed = replaced = false;
-          list.get(index).traverse(JModVisitor.this, this);
+          JModVisitor.this.traverse(list.get(index), this);
         }
         return list;
       } catch (Throwable e) {
@@ -167,7 +167,7 @@ public class JModVisitor extends JVisitor {
       try {
         for (index = 0; index < list.size(); ++index) {
           removed = replaced = false;
-          list.get(index).traverse(JModVisitor.this, this);
+          JModVisitor.this.traverse(list.get(index), this);
         }
         return list;
       } catch (Throwable e) {
@@ -357,6 +357,11 @@ public class JModVisitor extends JVisitor {
     ++numVisitorChanges;
   }
 
+  /**
+   * Traverses a node. Every node this visitor reaches, including the members
+   * of lists, is traversed through this method, so subclasses may override it
+   * to observe the traversal of particular nodes.
+   */
   protected void traverse(JNode node, Context context) {
     node.traverse(this, context);
   }
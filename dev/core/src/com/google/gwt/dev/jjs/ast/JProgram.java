@@ -20,6 +20,7 @@ import com.google.gwt.dev.jjs.InternalCompilerException;
 import com.google.gwt.dev.jjs.SourceInfo;
 import com.google.gwt.dev.jjs.SourceOrigin;
 import com.google.gwt.dev.jjs.ast.js.JsCastMap;
+import com.google.gwt.dev.jjs.impl.AtomIndex;
 import com.google.gwt.dev.jjs.impl.CodeSplitter;
 import com.google.gwt.dev.jjs.impl.CodeSplitter2.FragmentPartitioningResult;
 import com.google.gwt.dev.util.collect.Lists;
@@ -354,6 +355,11 @@ public class JProgram extends JNode {
 
   private final HashMap<JType, JArrayType> arrayTypes = new HashMap<JType, JArrayType>();
 
+  /**
+   * Created on demand, and not serialized.
+   */
+  private transient AtomIndex atomIndex;
+
   private IdentityHashMap<JReferenceType, JsCastMap> castMaps;
 
   private Map<JType, JField> classLiteralFields;
@@ -652,6 +658,17 @@ public class JProgram extends JNode {
     return result;
   }
 
+  /**
+   * Returns the index which gives the atoms of this program dense ids, for
+   * bit set based liveness.
+   */
+  public synchronized AtomIndex getAtomIndex() {
+    if (atomIndex == null) {
+      atomIndex = new AtomIndex();
+    }
+    return atomIndex;
+  }
+
   public JsCastMap getCastMap(JReferenceType referenceType) {
     // ensure jsonCastableTypeMaps has been initialized
     // it might not have been if the CastNormalizer has not been run
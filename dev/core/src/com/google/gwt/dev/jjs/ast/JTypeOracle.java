@@ -573,6 +573,19 @@ public class JTypeOracle implements Serializable {
     return getOrCreatePolyMap(type).get(signature);
   }
 
+  /**
+   * Computes the polymorphic method maps of every class ahead of time, so that
+   * {@link #getPolyMethod(JClassType, String)} does not modify this oracle and
+   * may be called from several threads at once.
+   */
+  public void computePolyMethodMaps() {
+    for (JDeclaredType type : program.getDeclaredTypes()) {
+      if (type instanceof JClassType) {
+        getOrCreatePolyMap((JClassType) type);
+      }
+    }
+  }
+
   public JClassType getSingleJsoImpl(JReferenceType maybeSingleJsoIntf) {
     return jsoSingleImpls.get(maybeSingleJsoIntf.getUnderlyingType());
   }
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.jjs.impl;
+
+import java.util.AbstractSet;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A set of program atoms stored as a bit set of their {@link AtomIndex} ids.
+ * Copying a set copies its bits, and {@link #addAll}, {@link #retainAll} and
+ * {@link #removeAll} with another set of the same index are bitwise operations.
+ * Atoms are iterated in the order their ids were assigned. Null is not allowed.
+ * 
+ * <p>
+ * Like {@link java.util.HashSet}, this class is not thread-safe.
+ * </p>
+ * 
+ * @param <T> the type of the atoms
+ */
+public class AtomBitSet<T> extends AbstractSet<T> {
+  private final BitSet bits;
+
+  private final AtomIndex index;
+
+  private int modCount;
+
+  private int size;
+
+  /**
+   * Creates an empty set.
+   */
+  public AtomBitSet(AtomIndex index) {
+    this.index = index;
+    bits = new BitSet(index.size());
+  }
+
+  /**
+   * Creates a copy of a set.
+   */
+  public AtomBitSet(AtomBitSet<? extends T> set) {
+    index = set.index;
+    bits = (BitSet) set.bits.clone();
+    size = set.size;
+  }
+
+  @Override
+  public boolean add(T atom) {
+    if (atom == null) {
+      throw new NullPointerException();
+    }
+    int id = index.getId(atom);
+    if (bits.get(id)) {
+      return false;
+    }
+    bits.set(id);
+    ++size;
+    ++modCount;
+    return true;
+  }
+
+  @Override
+  public boolean addAll(Collection<? extends T> c) {
+    if (!isSameIndex(c)) {
+      return super.addAll(c);
+    }
+    bits.or(((AtomBitSet<?>) c).bits);
+    return update();
+  }
+
+  @Override
+  public void clear() {
+    bits.clear();
+    size = 0;
+    ++modCount;
+  }
+
+  @Override
+  public boolean contains(Object atom) {
+    int id = index.findId(atom);
+    return id >= 0 && bits.get(id);
+  }
+
+  @Override
+  public Iterator<T> iterator() {
+    return new Iterator<T>() {
+      private int expectedModCount = modCount;
+      private int last = -1;
+      private int next = bits.nextSetBit(0);
+
+      public boolean hasNext() {
+        return next >= 0;
+      }
+
+      @SuppressWarnings("unchecked")
+      public T next() {
+        if (next < 0) {
+          throw new NoSuchElementException();
+        }
+        if (modCount != expectedModCount) {
+          throw new ConcurrentModificationException();
+        }
+        last = next;
+        next = bits.nextSetBit(next + 1);
+        return (T) index.getAtom(last);
+      }
+
+      public void remove() {
+        if (last < 0) {
+          throw new IllegalStateException();
+        }
+        if (modCount != expectedModCount) {
+          throw new ConcurrentModificationException();
+        }
+        bits.clear(last);
+        --size;
+        last = -1;
+      }
+    };
+  }
+
+  @Override
+  public boolean remove(Object atom) {
+    int id = index.findId(atom);
+    if (id < 0 || !bits.get(id)) {
+      return false;
+    }
+    bits.clear(id);
+    --size;
+    ++modCount;
+    return true;
+  }
+
+  @Override
+  public boolean removeAll(Collection<?> c) {
+    if (!isSameIndex(c)) {
+      return super.removeAll(c);
+    }
+    bits.andNot(((AtomBitSet<?>) c).bits);
+    return update();
+  }
+
+  @Override
+  public boolean retainAll(Collection<?> c) {
+    if (!isSameIndex(c)) {
+      return super.retainAll(c);
+    }
+    bits.and(((AtomBitSet<?>) c).bits);
+    return update();
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  private boolean isSameIndex(Collection<?> c) {
+    return c instanceof AtomBitSet<?> && ((AtomBitSet<?>) c).index == index;
+  }
+
+  /**
+   * Recounts the set after a bitwise operation.
+   * 
+   * @return whether the set changed
+   */
+  private boolean update() {
+    int oldSize = size;
+    size = bits.cardinality();
+    if (size == oldSize) {
+      // Each operation only adds or only removes atoms.
+      return false;
+    }
+    ++modCount;
+    return true;
+  }
+}
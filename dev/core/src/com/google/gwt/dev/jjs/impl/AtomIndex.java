@@ -0,0 +1,86 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.jjs.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns dense integer ids to the atoms of a program, i.e. its types, fields,
+ * methods and string literals, so that sets of them can be stored as
+ * {@link AtomBitSet}s. Ids are assigned on first use and never change. There is
+ * one index per {@link com.google.gwt.dev.jjs.ast.JProgram}.
+ * 
+ * <p>
+ * Instances may be used by several threads.
+ * </p>
+ */
+public class AtomIndex {
+  private Object[] atoms = new Object[1024];
+
+  private int count;
+
+  private final ConcurrentHashMap<Object, Integer> ids = new ConcurrentHashMap<Object, Integer>();
+
+  /**
+   * Returns the id of <code>atom</code>, or -1 if it has none yet.
+   */
+  public int findId(Object atom) {
+    if (atom == null) {
+      return -1;
+    }
+    Integer id = ids.get(atom);
+    return id == null ? -1 : id;
+  }
+
+  /**
+   * Returns the atom with the given id.
+   */
+  public synchronized Object getAtom(int id) {
+    assert id < count;
+    return atoms[id];
+  }
+
+  /**
+   * Returns the id of <code>atom</code>, assigning one if needed.
+   */
+  public int getId(Object atom) {
+    Integer id = ids.get(atom);
+    if (id != null) {
+      return id;
+    }
+    synchronized (this) {
+      id = ids.get(atom);
+      if (id == null) {
+        if (count == atoms.length) {
+          Object[] newAtoms = new Object[count * 2];
+          System.arraycopy(atoms, 0, newAtoms, 0, count);
+          atoms = newAtoms;
+        }
+        atoms[count] = atom;
+        id = count++;
+        ids.put(atom, id);
+      }
+      return id;
+    }
+  }
+
+  /**
+   * Returns the number of atoms with an id.
+   */
+  public synchronized int size() {
+    return count;
+  }
+}
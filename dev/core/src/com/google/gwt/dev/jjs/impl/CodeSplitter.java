@@ -53,6 +53,8 @@ import com.google.gwt.dev.js.ast.JsStatement;
 import com.google.gwt.dev.js.ast.JsVars;
 import com.google.gwt.dev.js.ast.JsVars.JsVar;
 import com.google.gwt.dev.util.JsniRef;
+import com.google.gwt.dev.util.Parallel;
+import com.google.gwt.dev.util.Parallel.ChunkTask;
 import com.google.gwt.dev.util.collect.HashMap;
 import com.google.gwt.dev.util.collect.HashSet;
 import com.google.gwt.dev.util.collect.Lists;
@@ -67,6 +69,7 @@ import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
 
 /**
  * <p>
@@ -166,13 +169,79 @@ public class CodeSplitter {
    * not included has not been proven to be exclusive. Also, note that the
    * initial load sequence is assumed to already be loaded.
    */
-  private static class ExclusivityMap {
+  static class ExclusivityMap {
     public Map<JField, Integer> fields = new HashMap<JField, Integer>();
     public Map<JMethod, Integer> methods = new HashMap<JMethod, Integer>();
     public Map<String, Integer> strings = new HashMap<String, Integer>();
     public Map<JDeclaredType, Integer> types = new HashMap<JDeclaredType, Integer>();
   }
 
+  /**
+   * Program atoms that might be exclusive to a split point. An atom can only be
+   * exclusive to split points whose all-but-one CFA doesn't reach it.
+   */
+  private static class ExclusivityCandidates {
+    public final List<JField> fields = new ArrayList<JField>();
+    public final List<JMethod> methods = new ArrayList<JMethod>();
+    public final List<String> strings = new ArrayList<String>();
+    public final List<JDeclaredType> types = new ArrayList<JDeclaredType>();
+
+    public boolean isEmpty() {
+      return fields.isEmpty() && methods.isEmpty() && strings.isEmpty() && types.isEmpty();
+    }
+
+    /**
+     * Maps the candidates to a split point. Note that it is fine to overwrite a
+     * preexisting entry in the map. If an atom is dead until split point i has
+     * been reached, and is also dead until entry j has been reached, then it is
+     * dead until both have been reached. Thus, it can be downloaded along with
+     * either i's or j's code.
+     */
+    public void mapTo(int splitPoint, ExclusivityMap fragmentMap) {
+      for (JField field : fields) {
+        fragmentMap.fields.put(field, splitPoint);
+      }
+      for (JMethod method : methods) {
+        fragmentMap.methods.put(method, splitPoint);
+      }
+      for (String string : strings) {
+        fragmentMap.strings.put(string, splitPoint);
+      }
+      for (JDeclaredType type : types) {
+        fragmentMap.types.put(type, splitPoint);
+      }
+    }
+
+    /**
+     * Returns the candidates that are not live in <code>cfa</code>.
+     */
+    public ExclusivityCandidates notLiveIn(ControlFlowAnalyzer cfa) {
+      ExclusivityCandidates result = new ExclusivityCandidates();
+      Set<? extends JNode> liveFieldsAndMethods = cfa.getLiveFieldsAndMethods();
+      for (JField field : fields) {
+        if (!liveFieldsAndMethods.contains(field) && !cfa.getFieldsWritten().contains(field)) {
+          result.fields.add(field);
+        }
+      }
+      for (JMethod method : methods) {
+        if (!liveFieldsAndMethods.contains(method)) {
+          result.methods.add(method);
+        }
+      }
+      for (String string : strings) {
+        if (!cfa.getLiveStrings().contains(string)) {
+          result.strings.add(string);
+        }
+      }
+      for (JDeclaredType type : types) {
+        if (!cfa.getInstantiatedTypes().contains(type)) {
+          result.types.add(type);
+        }
+      }
+      return result;
+    }
+  }
+
   /**
    * A liveness predicate that is based on an exclusivity map.
    */
@@ -237,6 +306,21 @@ public class CodeSplitter {
         }
       };
 
+  /**
+   * The number of threads used to compute all-but-one CFAs, when
+   * {@link #PROP_ALL_BUT_ONE_EXCLUSIVITY} is set and dependencies are not
+   * recorded.
+   */
+  private static final int ALL_BUT_ONE_THREADS = Parallel.getThreadCount(
+      "gwt.jjs.codeSplitterThreads", 1);
+
+  /**
+   * A Java property that causes exclusivity to be computed with one complete
+   * CFA per split point, as it used to be, rather than by halving the set of
+   * split points. Both compute the same fragments.
+   */
+  private static final String PROP_ALL_BUT_ONE_EXCLUSIVITY = "gwt.jjs.allButOneExclusivity";
+
   private static final String PROP_INITIAL_SEQUENCE = "compiler.splitpoint.initial.sequence";
 
   /**
@@ -431,6 +515,26 @@ public class CodeSplitter {
     return maxTotalSize;
   }
 
+  /**
+   * Maps the atoms of <code>jprogram</code> that are exclusive to a split point
+   * once its initial load sequence has loaded, with one all-but-one CFA per
+   * split point if <code>allButOne</code> is set, and by halving otherwise.
+   * No JavaScript is needed, since no fragments are extracted.
+   */
+  // @VisibleForTesting
+  static ExclusivityMap computeExclusivityMap(TreeLogger logger, JProgram jprogram,
+      boolean allButOne) {
+    CodeSplitter splitter =
+        new CodeSplitter(logger, jprogram, new JsProgram(), null, NULL_RECORDER);
+    splitter.liveAfterInitialSequence = new ControlFlowAnalyzer(splitter.initiallyLive);
+    for (int sp : splitter.initialLoadSequence) {
+      splitter.liveAfterInitialSequence.traverseFromRunAsync(jprogram.getRunAsyncs().get(sp - 1));
+    }
+    ExclusivityMap fragmentMap = new ExclusivityMap();
+    splitter.mapExclusiveAtoms(fragmentMap, allButOne);
+    return fragmentMap;
+  }
+
   private static Map<JField, JClassLiteral> buildFieldToClassLiteralMap(JProgram jprogram) {
     final Map<JField, JClassLiteral> map = new HashMap<JField, JClassLiteral>();
     class BuildFieldToLiteralVisitor extends JVisitor {
@@ -451,7 +555,7 @@ public class CodeSplitter {
       MultipleDependencyGraphRecorder dependencyRecorder) {
     dependencyRecorder.startDependencyGraph("initial", null);
 
-    ControlFlowAnalyzer cfa = new ControlFlowAnalyzer(jprogram);
+    ControlFlowAnalyzer cfa = new ControlFlowAnalyzer(jprogram, true);
     cfa.setDependencyRecorder(dependencyRecorder);
     cfa.traverseEntryMethods();
     traverseClassArray(jprogram, cfa);
@@ -596,29 +700,6 @@ public class CodeSplitter {
     }
   }
 
-  private static <T> Set<T> union(Set<? extends T> set1, Set<? extends T> set2) {
-    Set<T> union = new HashSet<T>();
-    union.addAll(set1);
-    union.addAll(set2);
-    return union;
-  }
-
-  private static <T> void updateMap(int entry, Map<T, Integer> map, Set<?> liveWithoutEntry,
-      Iterable<T> all) {
-    for (T each : all) {
-      if (!liveWithoutEntry.contains(each)) {
-        /*
-         * Note that it is fine to overwrite a preexisting entry in the map. If
-         * an atom is dead until split point i has been reached, and is also
-         * dead until entry j has been reached, then it is dead until both have
-         * been reached. Thus, it can be downloaded along with either i's or j's
-         * code.
-         */
-        map.put(each, entry);
-      }
-    }
-  }
-
   private final MultipleDependencyGraphRecorder dependencyRecorder;
   private final Map<JField, JClassLiteral> fieldToLiteralOfClass;
   private final FragmentExtractor fragmentExtractor;
@@ -688,38 +769,25 @@ public class CodeSplitter {
   }
 
   /**
-   * For each split point other than those in the initial load sequence, compute
-   * a CFA that traces every other split point. For those that are in the
-   * initial load sequence, add a <code>null</code> to the list.
+   * Compute a CFA that traces every split point other than
+   * <code>runAsync</code> and those in the initial load sequence.
    */
-  private List<ControlFlowAnalyzer> computeAllButOneCfas() {
-    String dependencyGraphNameAfterInitialSequence = dependencyGraphNameAfterInitialSequence();
-
-    List<ControlFlowAnalyzer> allButOnes = new ArrayList<ControlFlowAnalyzer>();
-    for (JRunAsync runAsync : jprogram.getRunAsyncs()) {
-      int splitPoint = runAsync.getSplitPoint();
-      if (isInitial(splitPoint)) {
-        allButOnes.add(null);
+  private ControlFlowAnalyzer computeAllButOneCfa(JRunAsync runAsync) {
+    dependencyRecorder.startDependencyGraph("sp" + runAsync.getSplitPoint(),
+        dependencyGraphNameAfterInitialSequence());
+    ControlFlowAnalyzer cfa = new ControlFlowAnalyzer(liveAfterInitialSequence);
+    cfa.setDependencyRecorder(dependencyRecorder);
+    for (JRunAsync otherRunAsync : jprogram.getRunAsyncs()) {
+      if (isInitial(otherRunAsync.getSplitPoint())) {
         continue;
       }
-      dependencyRecorder.startDependencyGraph("sp" + splitPoint,
-          dependencyGraphNameAfterInitialSequence);
-      ControlFlowAnalyzer cfa = new ControlFlowAnalyzer(liveAfterInitialSequence);
-      cfa.setDependencyRecorder(dependencyRecorder);
-      for (JRunAsync otherRunAsync : jprogram.getRunAsyncs()) {
-        if (isInitial(otherRunAsync.getSplitPoint())) {
-          continue;
-        }
-        if (otherRunAsync == runAsync) {
-          continue;
-        }
-        cfa.traverseFromRunAsync(otherRunAsync);
+      if (otherRunAsync == runAsync) {
+        continue;
       }
-      dependencyRecorder.endDependencyGraph();
-      allButOnes.add(cfa);
+      cfa.traverseFromRunAsync(otherRunAsync);
     }
-
-    return allButOnes;
+    dependencyRecorder.endDependencyGraph();
+    return cfa;
   }
 
   /**
@@ -727,7 +795,7 @@ public class CodeSplitter {
    */
   private ControlFlowAnalyzer computeCompleteCfa() {
     dependencyRecorder.startDependencyGraph("total", null);
-    ControlFlowAnalyzer everything = new ControlFlowAnalyzer(jprogram);
+    ControlFlowAnalyzer everything = new ControlFlowAnalyzer(jprogram, true);
     everything.setDependencyRecorder(dependencyRecorder);
     everything.traverseEverything();
     dependencyRecorder.endDependencyGraph();
@@ -973,38 +1041,159 @@ public class CodeSplitter {
    * exclusively live fragment associated with that split point.
    */
   private void mapExclusiveAtoms(ExclusivityMap fragmentMap) {
-    List<ControlFlowAnalyzer> allButOnes = computeAllButOneCfas();
+    /*
+     * The dependency graphs of the split points extend the one after the
+     * initial sequence, so recording them needs one all-but-one CFA per split
+     * point.
+     */
+    mapExclusiveAtoms(fragmentMap, Boolean.getBoolean(PROP_ALL_BUT_ONE_EXCLUSIVITY)
+        || dependencyRecorder != NULL_RECORDER);
+  }
 
-    ControlFlowAnalyzer everything = computeCompleteCfa();
+  private void mapExclusiveAtoms(ExclusivityMap fragmentMap, boolean allButOne) {
+    List<JRunAsync> exclusiveRunAsyncs = new ArrayList<JRunAsync>();
+    for (JRunAsync runAsync : jprogram.getRunAsyncs()) {
+      if (!isInitial(runAsync.getSplitPoint())) {
+        exclusiveRunAsyncs.add(runAsync);
+      }
+    }
 
-    Set<JField> allFields = new HashSet<JField>();
-    Set<JMethod> allMethods = new HashSet<JMethod>();
+    if (allButOne) {
+      // Record the split point graphs before the total one, as they used to be.
+      mapExclusiveAtomsByAllButOneCfas(fragmentMap, exclusiveRunAsyncs);
+    } else {
+      ExclusivityCandidates candidates =
+          exclusivityCandidates().notLiveIn(liveAfterInitialSequence);
+      if (!candidates.isEmpty() && !exclusiveRunAsyncs.isEmpty()) {
+        mapExclusiveAtomsByHalving(fragmentMap, liveAfterInitialSequence, exclusiveRunAsyncs,
+            candidates);
+      }
+    }
+  }
 
+  /**
+   * Maps the atoms that are not live in the all-but-one CFA of each split
+   * point to that split point. The CFAs are independent, so they are computed
+   * on several threads when no dependencies are recorded.
+   */
+  private void mapExclusiveAtomsByAllButOneCfas(ExclusivityMap fragmentMap,
+      final List<JRunAsync> exclusiveRunAsyncs) {
+    List<ExclusivityCandidates> notLiveBySplitPoint = new ArrayList<ExclusivityCandidates>();
+    if (dependencyRecorder != NULL_RECORDER || ALL_BUT_ONE_THREADS == 1) {
+      List<ControlFlowAnalyzer> allButOnes = new ArrayList<ControlFlowAnalyzer>();
+      for (JRunAsync runAsync : exclusiveRunAsyncs) {
+        allButOnes.add(computeAllButOneCfa(runAsync));
+      }
+      ExclusivityCandidates candidates = exclusivityCandidates();
+      for (ControlFlowAnalyzer allButOne : allButOnes) {
+        notLiveBySplitPoint.add(candidates.notLiveIn(allButOne));
+      }
+    } else {
+      /*
+       * The complete CFA is computed first, so that the array types the
+       * all-but-one CFAs look up already exist, and the program is only read
+       * while they run.
+       */
+      final ExclusivityCandidates candidates = exclusivityCandidates();
+      List<List<ExclusivityCandidates>> chunks;
+      try {
+        chunks =
+            Parallel.mapChunks(ALL_BUT_ONE_THREADS, exclusiveRunAsyncs,
+                new ChunkTask<JRunAsync, List<ExclusivityCandidates>>() {
+                  public List<ExclusivityCandidates> run(List<JRunAsync> chunk) {
+                    List<ExclusivityCandidates> results = new ArrayList<ExclusivityCandidates>();
+                    for (JRunAsync runAsync : chunk) {
+                      results.add(candidates.notLiveIn(computeAllButOneCfa(runAsync)));
+                    }
+                    return results;
+                  }
+                });
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        throw new InternalCompilerException("Unexpected error during code splitting", cause);
+      }
+      for (List<ExclusivityCandidates> chunk : chunks) {
+        notLiveBySplitPoint.addAll(chunk);
+      }
+    }
+
+    for (int i = 0; i < exclusiveRunAsyncs.size(); i++) {
+      notLiveBySplitPoint.get(i).mapTo(exclusiveRunAsyncs.get(i).getSplitPoint(), fragmentMap);
+    }
+  }
+
+  /**
+   * <p>
+   * Maps the candidates to the split points whose all-but-one CFA doesn't reach
+   * them, without computing every all-but-one CFA from scratch.
+   * <code>base</code> is a CFA that traces every split point but those in
+   * <code>runAsyncs</code>. Each half of <code>runAsyncs</code> is handled by
+   * extending <code>base</code> with the other half, and dropping the
+   * candidates which that reaches. With a single split point left,
+   * <code>base</code> is its all-but-one CFA.
+   * </p>
+   * 
+   * <p>
+   * Each atom is traced about log2(N) times rather than N times, and only the
+   * candidates left unreached are looked at below the top. The result is the
+   * same as {@link #mapExclusiveAtomsByAllButOneCfas}, including the split point
+   * chosen for an atom that several of them exclude. Tracing the split points
+   * separately and combining what each reaches would not be, because an atom
+   * can be live only once two split points have both been reached.
+   * </p>
+   */
+  private void mapExclusiveAtomsByHalving(ExclusivityMap fragmentMap, ControlFlowAnalyzer base,
+      List<JRunAsync> runAsyncs, ExclusivityCandidates candidates) {
+    if (runAsyncs.size() == 1) {
+      candidates.mapTo(runAsyncs.get(0).getSplitPoint(), fragmentMap);
+      return;
+    }
+
+    int middle = runAsyncs.size() / 2;
+    List<JRunAsync> firstHalf = runAsyncs.subList(0, middle);
+    List<JRunAsync> secondHalf = runAsyncs.subList(middle, runAsyncs.size());
+    // The first half first, so that later split points overwrite earlier ones.
+    mapExclusiveAtomsInHalf(fragmentMap, base, firstHalf, secondHalf, candidates);
+    mapExclusiveAtomsInHalf(fragmentMap, base, secondHalf, firstHalf, candidates);
+  }
+
+  private void mapExclusiveAtomsInHalf(ExclusivityMap fragmentMap, ControlFlowAnalyzer base,
+      List<JRunAsync> half, List<JRunAsync> otherHalf, ExclusivityCandidates candidates) {
+    ControlFlowAnalyzer cfa = new ControlFlowAnalyzer(base);
+    for (JRunAsync runAsync : otherHalf) {
+      cfa.traverseFromRunAsync(runAsync);
+    }
+    ExclusivityCandidates notLive = candidates.notLiveIn(cfa);
+    if (!notLive.isEmpty()) {
+      mapExclusiveAtomsByHalving(fragmentMap, cfa, half, notLive);
+    }
+  }
+
+  /**
+   * Returns every atom of the complete CFA, which are all the atoms that could
+   * be exclusive to a split point.
+   */
+  private ExclusivityCandidates exclusivityCandidates() {
+    ControlFlowAnalyzer everything = computeCompleteCfa();
+
+    ExclusivityCandidates candidates = new ExclusivityCandidates();
+    Set<JField> allFields = new LinkedHashSet<JField>();
     for (JNode node : everything.getLiveFieldsAndMethods()) {
       if (node instanceof JField) {
         allFields.add((JField) node);
       }
       if (node instanceof JMethod) {
-        allMethods.add((JMethod) node);
+        candidates.methods.add((JMethod) node);
       }
     }
     allFields.addAll(everything.getFieldsWritten());
-
-    for (JRunAsync runAsync : jprogram.getRunAsyncs()) {
-      int splitPoint = runAsync.getSplitPoint();
-      if (isInitial(splitPoint)) {
-        continue;
-      }
-      ControlFlowAnalyzer allButOne = allButOnes.get(splitPoint - 1);
-      Set<JNode> allLiveNodes =
-          union(allButOne.getLiveFieldsAndMethods(), allButOne.getFieldsWritten());
-      updateMap(splitPoint, fragmentMap.fields, allLiveNodes, allFields);
-      updateMap(splitPoint, fragmentMap.methods, allButOne.getLiveFieldsAndMethods(), allMethods);
-      updateMap(splitPoint, fragmentMap.strings, allButOne.getLiveStrings(), everything
-          .getLiveStrings());
-      updateMap(splitPoint, fragmentMap.types, declaredTypesIn(allButOne.getInstantiatedTypes()),
-          declaredTypesIn(everything.getInstantiatedTypes()));
-    }
+    candidates.fields.addAll(allFields);
+    candidates.strings.addAll(everything.getLiveStrings());
+    candidates.types.addAll(declaredTypesIn(everything.getInstantiatedTypes()));
+    return candidates;
   }
 
   /**
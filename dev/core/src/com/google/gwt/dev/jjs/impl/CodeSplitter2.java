@@ -286,7 +286,7 @@ public class CodeSplitter2 {
       JProgram jprogram, MultipleDependencyGraphRecorder dependencyRecorder) {
     dependencyRecorder.startDependencyGraph("initial", null);
     
-    ControlFlowAnalyzer cfa = new ControlFlowAnalyzer(jprogram); 
+    ControlFlowAnalyzer cfa = new ControlFlowAnalyzer(jprogram, true); 
     cfa.setDependencyRecorder(dependencyRecorder);
     cfa.traverseEntryMethods();
     traverseClassArray(jprogram, cfa);
@@ -719,7 +719,7 @@ public class CodeSplitter2 {
    * Compute a CFA that covers the entire live code of the program.
    */
   private ControlFlowAnalyzer computeCompleteCfa() {
-    ControlFlowAnalyzer everything = new ControlFlowAnalyzer(jprogram);
+    ControlFlowAnalyzer everything = new ControlFlowAnalyzer(jprogram, true);
     everything.traverseEverything();
     return everything;
   }
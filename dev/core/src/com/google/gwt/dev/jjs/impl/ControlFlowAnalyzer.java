@@ -843,13 +843,13 @@ public class ControlFlowAnalyzer {
    * Schrodinger set of classLiterals to be rescued if type is instantiated AND getClass()
    * is live.
    */
-  private Set<JReferenceType> classLiteralsToBeRescuedIfGetClassIsLive = new HashSet<JReferenceType>();
+  private Set<JReferenceType> classLiteralsToBeRescuedIfGetClassIsLive;
 
   private DependencyRecorder dependencyRecorder;
-  private Set<JField> fieldsWritten = new HashSet<JField>();
-  private Set<JReferenceType> instantiatedTypes = new HashSet<JReferenceType>();
-  private Set<JNode> liveFieldsAndMethods = new HashSet<JNode>();
-  private Set<String> liveStrings = new HashSet<String>();
+  private Set<JField> fieldsWritten;
+  private Set<JReferenceType> instantiatedTypes;
+  private Set<JNode> liveFieldsAndMethods;
+  private Set<String> liveStrings;
 
   /**
    * Schrodinger's members... aka "limbo". :) These are instance methods and
@@ -857,7 +857,7 @@ public class ControlFlowAnalyzer {
    * uninstantiable. We place these methods into purgatory until/unless the
    * enclosing type is found to be instantiable.
    */
-  private Set<JNode> membersToRescueIfTypeIsInstantiated = new HashSet<JNode>();
+  private Set<JNode> membersToRescueIfTypeIsInstantiated;
 
   /**
    * A precomputed map of all instance methods onto a set of methods that
@@ -868,24 +868,34 @@ public class ControlFlowAnalyzer {
   private final JField getClassField;
   private final JMethod getClassMethod;
   private final JProgram program;
-  private Set<JReferenceType> referencedTypes = new HashSet<JReferenceType>();
+  private Set<JReferenceType> referencedTypes;
   private final RescueVisitor rescuer = new RescueVisitor();
   private final JMethod runAsyncOnsuccess;
   private JMethod stringValueOfChar = null;
 
+  /**
+   * The index of the atoms in the bit sets, or <code>null</code> if the sets
+   * are hash sets.
+   */
+  private final AtomIndex atomIndex;
+
+  /**
+   * Copies a CFA, including whether it uses bit sets.
+   */
   public ControlFlowAnalyzer(ControlFlowAnalyzer cfa) {
     program = cfa.program;
+    atomIndex = cfa.atomIndex;
     asyncFragmentOnLoad = cfa.asyncFragmentOnLoad;
     runAsyncOnsuccess = cfa.runAsyncOnsuccess;
     baseArrayType = cfa.baseArrayType;
-    fieldsWritten = new HashSet<JField>(cfa.fieldsWritten);
-    instantiatedTypes = new HashSet<JReferenceType>(cfa.instantiatedTypes);
-    liveFieldsAndMethods = new HashSet<JNode>(cfa.liveFieldsAndMethods);
-    referencedTypes = new HashSet<JReferenceType>(cfa.referencedTypes);
+    classLiteralsToBeRescuedIfGetClassIsLive = newSet();
+    fieldsWritten = copySet(cfa.fieldsWritten);
+    instantiatedTypes = copySet(cfa.instantiatedTypes);
+    liveFieldsAndMethods = copySet(cfa.liveFieldsAndMethods);
+    referencedTypes = copySet(cfa.referencedTypes);
     stringValueOfChar = cfa.stringValueOfChar;
-    liveStrings = new HashSet<String>(cfa.liveStrings);
-    membersToRescueIfTypeIsInstantiated =
-        new HashSet<JNode>(cfa.membersToRescueIfTypeIsInstantiated);
+    liveStrings = copySet(cfa.liveStrings);
+    membersToRescueIfTypeIsInstantiated = copySet(cfa.membersToRescueIfTypeIsInstantiated);
     if (cfa.argsToRescueIfParameterRead != null) {
       argsToRescueIfParameterRead =
           new HashMap<JParameter, List<JExpression>>(cfa.argsToRescueIfParameterRead);
@@ -896,7 +906,27 @@ public class ControlFlowAnalyzer {
   }
 
   public ControlFlowAnalyzer(JProgram program) {
+    this(program, false);
+  }
+
+  /**
+   * Creates a CFA which stores its liveness sets as {@link AtomBitSet}s of the
+   * program's {@link AtomIndex} if <code>useBitSets</code> is true, and as hash
+   * sets otherwise. Bit sets are much cheaper to copy, which matters when many
+   * CFAs are copied from one, as in code splitting. The sets returned by the
+   * getters are then {@link AtomBitSet}s, and can be combined with each other
+   * bitwise.
+   */
+  public ControlFlowAnalyzer(JProgram program, boolean useBitSets) {
     this.program = program;
+    atomIndex = useBitSets ? program.getAtomIndex() : null;
+    classLiteralsToBeRescuedIfGetClassIsLive = newSet();
+    fieldsWritten = newSet();
+    instantiatedTypes = newSet();
+    liveFieldsAndMethods = newSet();
+    liveStrings = newSet();
+    membersToRescueIfTypeIsInstantiated = newSet();
+    referencedTypes = newSet();
     asyncFragmentOnLoad = program.getIndexedMethod("AsyncFragmentLoader.onLoad");
     runAsyncOnsuccess = program.getIndexedMethod("RunAsyncCallback.onSuccess");
     baseArrayType = program.getIndexedType("Array");
@@ -1017,6 +1047,20 @@ public class ControlFlowAnalyzer {
     }
   }
 
+  private <T> Set<T> copySet(Set<T> set) {
+    if (set instanceof AtomBitSet<?>) {
+      return new AtomBitSet<T>((AtomBitSet<T>) set);
+    }
+    return new HashSet<T>(set);
+  }
+
+  private <T> Set<T> newSet() {
+    if (atomIndex != null) {
+      return new AtomBitSet<T>(atomIndex);
+    }
+    return new HashSet<T>();
+  }
+
   private void buildMethodsOverriding() {
     methodsThatOverrideMe = new HashMap<JMethod, List<JMethod>>();
     for (JDeclaredType type : program.getDeclaredTypes()) {
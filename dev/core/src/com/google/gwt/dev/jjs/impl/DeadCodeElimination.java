@@ -27,6 +27,7 @@ import com.google.gwt.dev.jjs.ast.JCastOperation;
 import com.google.gwt.dev.jjs.ast.JCharLiteral;
 import com.google.gwt.dev.jjs.ast.JClassType;
 import com.google.gwt.dev.jjs.ast.JConditional;
+import com.google.gwt.dev.jjs.ast.JConstructor;
 import com.google.gwt.dev.jjs.ast.JContinueStatement;
 import com.google.gwt.dev.jjs.ast.JDeclarationStatement;
 import com.google.gwt.dev.jjs.ast.JDeclaredType;
@@ -34,6 +35,7 @@ import com.google.gwt.dev.jjs.ast.JDoStatement;
 import com.google.gwt.dev.jjs.ast.JDoubleLiteral;
 import com.google.gwt.dev.jjs.ast.JExpression;
 import com.google.gwt.dev.jjs.ast.JExpressionStatement;
+import com.google.gwt.dev.jjs.ast.JField;
 import com.google.gwt.dev.jjs.ast.JFieldRef;
 import com.google.gwt.dev.jjs.ast.JForStatement;
 import com.google.gwt.dev.jjs.ast.JIfStatement;
@@ -59,6 +61,7 @@ import com.google.gwt.dev.jjs.ast.JTryStatement;
 import com.google.gwt.dev.jjs.ast.JType;
 import com.google.gwt.dev.jjs.ast.JUnaryOperator;
 import com.google.gwt.dev.jjs.ast.JValueLiteral;
+import com.google.gwt.dev.jjs.ast.JVariable;
 import com.google.gwt.dev.jjs.ast.JVariableRef;
 import com.google.gwt.dev.jjs.ast.JVisitor;
 import com.google.gwt.dev.jjs.ast.JWhileStatement;
@@ -69,6 +72,8 @@ import com.google.gwt.dev.util.log.speedtracer.SpeedTracerLogger.Event;
 
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
@@ -102,7 +107,7 @@ public class DeadCodeElimination {
    * {@link #cast(JExpression, SourceInfo, JType, JExpression) simplifyCast}, so
    * that more simplifications can be made on a single pass through a tree.
    */
-  public class DeadCodeVisitor extends JModVisitor {
+  public class DeadCodeVisitor extends JChangeTrackingVisitor {
     private JMethod currentMethod = null;
 
     /**
@@ -129,6 +134,31 @@ public class DeadCodeElimination {
 
     private final Set<JBlock> switchBlocks = new HashSet<JBlock>();
 
+    /**
+     * If not <code>null</code>, the constant initializers of fields. Used
+     * instead of {@link JVariable#getConstInitializer()} when other threads
+     * may be modifying field initializers.
+     */
+    private final Map<JField, JLiteral> constantFields;
+
+    /**
+     * If not <code>null</code>, the constructors known to be empty. Used
+     * instead of {@link JConstructor#isEmpty()} when other threads may be
+     * modifying constructor bodies.
+     */
+    private final Set<JConstructor> emptyConstructors;
+
+    public DeadCodeVisitor() {
+      this(optimizerCtx, null, null);
+    }
+
+    private DeadCodeVisitor(OptimizerContext optimizerCtx, Set<JConstructor> emptyConstructors,
+        Map<JField, JLiteral> constantFields) {
+      super(optimizerCtx);
+      this.emptyConstructors = emptyConstructors;
+      this.constantFields = constantFields;
+    }
+
     /**
      * Short circuit binary operations.
      */
@@ -471,7 +501,7 @@ public class DeadCodeElimination {
        * / it has no side effects.
        */
       if (ignoringExpressionOutput.contains(x)) {
-        if (!x.getTarget().isEmpty()) {
+        if (!isEmpty(x.getTarget())) {
           return;
         }
         JMultiExpression multi = new JMultiExpression(x.getSourceInfo());
@@ -1084,6 +1114,13 @@ public class DeadCodeElimination {
       return true;
     }
 
+    private boolean isEmpty(JConstructor constructor) {
+      if (emptyConstructors != null) {
+        return emptyConstructors.contains(constructor);
+      }
+      return constructor.isEmpty();
+    }
+
     private boolean isLiteralNegativeOne(JExpression exp) {
       if (exp instanceof JValueLiteral) {
         JValueLiteral lit = (JValueLiteral) exp;
@@ -1535,7 +1572,10 @@ public class DeadCodeElimination {
 
     private JLiteral tryGetConstant(JVariableRef x) {
       if (!lvalues.contains(x)) {
-        JLiteral lit = x.getTarget().getConstInitializer();
+        JVariable target = x.getTarget();
+        JLiteral lit =
+            constantFields != null && target instanceof JField ? constantFields.get(target)
+                : target.getConstInitializer();
         if (lit != null) {
           /*
            * Upcast the initializer so that the semantics of any arithmetic on
@@ -1762,13 +1802,51 @@ public class DeadCodeElimination {
     return new DeadCodeElimination(program).execImpl(node);
   }
 
+  /**
+   * Runs dead code elimination, reporting changes to <code>optimizerCtx</code>.
+   * Unless this is a full pass, only the methods that could be affected by
+   * earlier changes are visited.
+   */
+  public static OptimizerStats exec(JProgram program, OptimizerContext optimizerCtx) {
+    return exec(program, optimizerCtx, 1);
+  }
+
+  /**
+   * Like {@link #exec(JProgram, OptimizerContext)}, but visits methods on up to
+   * <code>numThreads</code> threads. Every thread sees constructors that were
+   * empty when the pass started as empty, and the constant initializers fields
+   * had when the pass started; constructors that become empty and initializers
+   * that become constant during the pass are picked up by the next pass.
+   */
+  public static OptimizerStats exec(JProgram program, OptimizerContext optimizerCtx,
+      int numThreads) {
+    DeadCodeElimination dce = new DeadCodeElimination(program, optimizerCtx);
+    boolean fullPass = optimizerCtx == null || optimizerCtx.isFullPass();
+    if (numThreads > 1) {
+      Collection<JMethod> methods =
+          fullPass ? ParallelMethodRunner.getMethodsToOptimize(program) : optimizerCtx
+              .getMethodsToVisit();
+      return dce.execInParallel(methods, numThreads);
+    }
+    if (fullPass) {
+      return dce.execImpl(program);
+    }
+    return dce.execImpl(optimizerCtx.getMethodsToVisit());
+  }
+
+  private final OptimizerContext optimizerCtx;
   private final JProgram program;
   private final Simplifier simplifier;
 
   private final Map<JType, Class<?>> typeClassMap = new IdentityHashMap<JType, Class<?>>();
 
   public DeadCodeElimination(JProgram program) {
+    this(program, null);
+  }
+
+  private DeadCodeElimination(JProgram program, OptimizerContext optimizerCtx) {
     this.program = program;
+    this.optimizerCtx = optimizerCtx;
     simplifier = new Simplifier(program);
     typeClassMap.put(program.getTypeJavaLangObject(), Object.class);
     typeClassMap.put(program.getTypeJavaLangString(), String.class);
@@ -1783,13 +1861,52 @@ public class DeadCodeElimination {
   }
 
   private OptimizerStats execImpl(JNode node) {
+    return execImpl(Collections.singleton(node));
+  }
+
+  private OptimizerStats execImpl(Iterable<? extends JNode> nodes) {
     OptimizerStats stats = new OptimizerStats(NAME);
     Event optimizeEvent = SpeedTracerLogger.start(CompilerEventType.OPTIMIZE, "optimizer", NAME);
 
     DeadCodeVisitor deadCodeVisitor = new DeadCodeVisitor();
-    deadCodeVisitor.accept(node);
+    for (JNode node : nodes) {
+      deadCodeVisitor.accept(node);
+    }
     stats.recordModified(deadCodeVisitor.getNumMods());
     optimizeEvent.end("didChange", "" + stats.didChange());
     return stats;
   }
+
+  private OptimizerStats execInParallel(Collection<JMethod> methods, int numThreads) {
+    OptimizerStats stats = new OptimizerStats(NAME);
+    Event optimizeEvent =
+        SpeedTracerLogger.start(CompilerEventType.OPTIMIZE, "optimizer", NAME, "threads", ""
+            + numThreads);
+
+    final Set<JConstructor> emptyConstructors = new HashSet<JConstructor>();
+    for (JMethod method : ParallelMethodRunner.getMethodsToOptimize(program)) {
+      if (method instanceof JConstructor && ((JConstructor) method).isEmpty()) {
+        emptyConstructors.add((JConstructor) method);
+      }
+    }
+    final Map<JField, JLiteral> constantFields = new IdentityHashMap<JField, JLiteral>();
+    for (JDeclaredType type : program.getDeclaredTypes()) {
+      for (JField field : type.getFields()) {
+        JLiteral lit = field.getConstInitializer();
+        if (lit != null) {
+          constantFields.put(field, lit);
+        }
+      }
+    }
+    int numMods =
+        ParallelMethodRunner.exec(methods, numThreads, optimizerCtx,
+            new ParallelMethodRunner.VisitorFactory() {
+              public JModVisitor create() {
+                return new DeadCodeVisitor(null, emptyConstructors, constantFields);
+              }
+            });
+    stats.recordModified(numMods);
+    optimizeEvent.end("didChange", "" + stats.didChange());
+    return stats;
+  }
 }
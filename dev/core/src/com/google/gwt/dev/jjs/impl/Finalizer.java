@@ -26,7 +26,6 @@ import com.google.gwt.dev.jjs.ast.JField;
 import com.google.gwt.dev.jjs.ast.JLocal;
 import com.google.gwt.dev.jjs.ast.JMethod;
 import com.google.gwt.dev.jjs.ast.JMethodBody;
-import com.google.gwt.dev.jjs.ast.JModVisitor;
 import com.google.gwt.dev.jjs.ast.JParameter;
 import com.google.gwt.dev.jjs.ast.JPostfixOperation;
 import com.google.gwt.dev.jjs.ast.JPrefixOperation;
@@ -58,7 +57,11 @@ public class Finalizer {
    * program. But if it wasn't implemented, then the enclosing class should have
    * come up as not instantiated and been culled. So I think it's not possible.
    */
-  private class FinalizeVisitor extends JModVisitor {
+  private class FinalizeVisitor extends JChangeTrackingVisitor {
+
+    public FinalizeVisitor() {
+      super(optimizerCtx);
+    }
 
     @Override
     public void endVisit(JClassType x, Context ctx) {
@@ -201,7 +204,18 @@ public class Finalizer {
 
   public static OptimizerStats exec(JProgram program) {
     Event optimizeEvent = SpeedTracerLogger.start(CompilerEventType.OPTIMIZE, "optimizer", NAME);
-    OptimizerStats stats = new Finalizer().execImpl(program);
+    OptimizerStats stats = new Finalizer(null).execImpl(program);
+    optimizeEvent.end("didChange", "" + stats.didChange());
+    return stats;
+  }
+
+  /**
+   * Finalizes the program, reporting the methods and fields that were changed
+   * to <code>optimizerCtx</code>.
+   */
+  public static OptimizerStats exec(JProgram program, OptimizerContext optimizerCtx) {
+    Event optimizeEvent = SpeedTracerLogger.start(CompilerEventType.OPTIMIZE, "optimizer", NAME);
+    OptimizerStats stats = new Finalizer(optimizerCtx).execImpl(program);
     optimizeEvent.end("didChange", "" + stats.didChange());
     return stats;
   }
@@ -212,7 +226,10 @@ public class Finalizer {
 
   private final Set<JClassType> isSubclassed = new HashSet<JClassType>();
 
-  private Finalizer() {
+  private final OptimizerContext optimizerCtx;
+
+  private Finalizer(OptimizerContext optimizerCtx) {
+    this.optimizerCtx = optimizerCtx;
   }
 
   private OptimizerStats execImpl(JProgram program) {
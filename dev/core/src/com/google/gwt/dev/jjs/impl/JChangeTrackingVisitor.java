@@ -0,0 +1,53 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.jjs.impl;
+
+import com.google.gwt.dev.jjs.ast.Context;
+import com.google.gwt.dev.jjs.ast.JField;
+import com.google.gwt.dev.jjs.ast.JMethod;
+import com.google.gwt.dev.jjs.ast.JModVisitor;
+import com.google.gwt.dev.jjs.ast.JNode;
+
+/**
+ * A {@link JModVisitor} that reports every method and field it modifies to an
+ * {@link OptimizerContext}. A change is attributed to the innermost method or
+ * field being traversed when it is made.
+ */
+public class JChangeTrackingVisitor extends JModVisitor {
+
+  private final OptimizerContext optimizerCtx;
+
+  /**
+   * @param optimizerCtx the context to report changes to, or <code>null</code>
+   *          if changes need not be tracked
+   */
+  public JChangeTrackingVisitor(OptimizerContext optimizerCtx) {
+    this.optimizerCtx = optimizerCtx;
+  }
+
+  @Override
+  protected void traverse(JNode node, Context context) {
+    if (optimizerCtx == null || !(node instanceof JMethod || node instanceof JField)) {
+      super.traverse(node, context);
+      return;
+    }
+    int numModsBefore = getNumMods();
+    super.traverse(node, context);
+    if (getNumMods() > numModsBefore) {
+      optimizerCtx.markModified(node);
+    }
+  }
+}
@@ -275,10 +275,14 @@ public class MakeCallsStatic {
    * CreateStaticMethodVisitor, go and rewrite the call sites to call the static
    * method instead.
    */
-  private class RewriteCallSites extends JModVisitor {
+  private class RewriteCallSites extends JChangeTrackingVisitor {
     private boolean currentMethodIsInitiallyLive;
     private ControlFlowAnalyzer initiallyLive;
 
+    public RewriteCallSites() {
+      super(optimizerCtx);
+    }
+
     /**
      * In cases where callers are directly referencing (effectively) final
      * instance methods, rewrite the call site to reference the newly-generated
@@ -324,7 +328,18 @@ public class MakeCallsStatic {
 
   public static OptimizerStats exec(JProgram program) {
     Event optimizeEvent = SpeedTracerLogger.start(CompilerEventType.OPTIMIZE, "optimizer", NAME);
-    OptimizerStats stats = new MakeCallsStatic(program).execImpl();
+    OptimizerStats stats = new MakeCallsStatic(program, null).execImpl();
+    optimizeEvent.end("didChange", "" + stats.didChange());
+    return stats;
+  }
+
+  /**
+   * Makes calls static, reporting the new static implementations and every
+   * method with a rewritten call site to <code>optimizerCtx</code>.
+   */
+  public static OptimizerStats exec(JProgram program, OptimizerContext optimizerCtx) {
+    Event optimizeEvent = SpeedTracerLogger.start(CompilerEventType.OPTIMIZE, "optimizer", NAME);
+    OptimizerStats stats = new MakeCallsStatic(program, optimizerCtx).execImpl();
     optimizeEvent.end("didChange", "" + stats.didChange());
     return stats;
   }
@@ -357,10 +372,13 @@ public class MakeCallsStatic {
 
   protected Set<JMethod> toBeMadeStatic = new HashSet<JMethod>();
 
+  private final OptimizerContext optimizerCtx;
+
   private final JProgram program;
 
-  private MakeCallsStatic(JProgram program) {
+  private MakeCallsStatic(JProgram program, OptimizerContext optimizerCtx) {
     this.program = program;
+    this.optimizerCtx = optimizerCtx;
   }
 
   private OptimizerStats execImpl() {
@@ -371,6 +389,11 @@ public class MakeCallsStatic {
     CreateStaticImplsVisitor creator = new CreateStaticImplsVisitor(program);
     for (JMethod method : toBeMadeStatic) {
       creator.accept(method);
+      if (optimizerCtx != null) {
+        // The body has moved to the new static impl.
+        optimizerCtx.markModified(method);
+        optimizerCtx.markModified(program.getStaticImpl(method));
+      }
     }
 
     /*
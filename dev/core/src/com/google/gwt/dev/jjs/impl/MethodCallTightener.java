@@ -21,6 +21,7 @@ import com.google.gwt.dev.jjs.ast.JMethod;
 import com.google.gwt.dev.jjs.ast.JMethodCall;
 import com.google.gwt.dev.jjs.ast.JModVisitor;
 import com.google.gwt.dev.jjs.ast.JNewInstance;
+import com.google.gwt.dev.jjs.ast.JNode;
 import com.google.gwt.dev.jjs.ast.JProgram;
 import com.google.gwt.dev.jjs.ast.JReferenceType;
 import com.google.gwt.dev.jjs.ast.JRunAsync;
@@ -28,6 +29,9 @@ import com.google.gwt.dev.util.log.speedtracer.CompilerEventType;
 import com.google.gwt.dev.util.log.speedtracer.SpeedTracerLogger;
 import com.google.gwt.dev.util.log.speedtracer.SpeedTracerLogger.Event;
 
+import java.util.Collection;
+import java.util.Collections;
+
 /**
  * Update polymorphic method calls to tighter bindings based on the type of the
  * qualifier. For a given polymorphic method call to a non-final target, see if
@@ -52,7 +56,15 @@ public class MethodCallTightener {
    * Updates polymorphic method calls to tighter bindings based on the type of
    * the qualifier.
    */
-  public class MethodCallTighteningVisitor extends JModVisitor {
+  public class MethodCallTighteningVisitor extends JChangeTrackingVisitor {
+
+    public MethodCallTighteningVisitor() {
+      this(optimizerCtx);
+    }
+
+    private MethodCallTighteningVisitor(OptimizerContext optimizerCtx) {
+      super(optimizerCtx);
+    }
 
     @Override
     public void endVisit(JMethodCall x, Context ctx) {
@@ -111,20 +123,71 @@ public class MethodCallTightener {
 
   public static OptimizerStats exec(JProgram program) {
     Event optimizeEvent = SpeedTracerLogger.start(CompilerEventType.OPTIMIZE, "optimizer", NAME);
-    OptimizerStats stats = new MethodCallTightener(program).execImpl();
+    OptimizerStats stats =
+        new MethodCallTightener(program, null).execImpl(Collections.singleton(program));
+    optimizeEvent.end("didChange", "" + stats.didChange());
+    return stats;
+  }
+
+  /**
+   * Tightens method calls, reporting changes to <code>optimizerCtx</code>.
+   * Unless this is a full pass, only the methods that could be affected by
+   * earlier changes are visited.
+   */
+  public static OptimizerStats exec(JProgram program, OptimizerContext optimizerCtx) {
+    return exec(program, optimizerCtx, 1);
+  }
+
+  /**
+   * Like {@link #exec(JProgram, OptimizerContext)}, but visits methods on up to
+   * <code>numThreads</code> threads.
+   */
+  public static OptimizerStats exec(JProgram program, OptimizerContext optimizerCtx,
+      int numThreads) {
+    Event optimizeEvent = SpeedTracerLogger.start(CompilerEventType.OPTIMIZE, "optimizer", NAME);
+    boolean fullPass = optimizerCtx == null || optimizerCtx.isFullPass();
+    MethodCallTightener tightener = new MethodCallTightener(program, optimizerCtx);
+    OptimizerStats stats;
+    if (numThreads > 1) {
+      Collection<JMethod> methods =
+          fullPass ? ParallelMethodRunner.getMethodsToOptimize(program) : optimizerCtx
+              .getMethodsToVisit();
+      stats = tightener.execInParallel(methods, numThreads);
+    } else {
+      Collection<? extends JNode> nodes =
+          fullPass ? Collections.singleton(program) : optimizerCtx.getMethodsToVisit();
+      stats = tightener.execImpl(nodes);
+    }
     optimizeEvent.end("didChange", "" + stats.didChange());
     return stats;
   }
 
+  private final OptimizerContext optimizerCtx;
   private final JProgram program;
 
-  private MethodCallTightener(JProgram program) {
+  private MethodCallTightener(JProgram program, OptimizerContext optimizerCtx) {
     this.program = program;
+    this.optimizerCtx = optimizerCtx;
   }
 
-  private OptimizerStats execImpl() {
+  private OptimizerStats execImpl(Collection<? extends JNode> nodes) {
     MethodCallTighteningVisitor tightener = new MethodCallTighteningVisitor();
-    tightener.accept(program);
+    for (JNode node : nodes) {
+      tightener.accept(node);
+    }
     return new OptimizerStats(NAME).recordModified(tightener.getNumMods());
   }
+
+  private OptimizerStats execInParallel(Collection<JMethod> methods, int numThreads) {
+    // Make the type oracle read-only for the worker threads.
+    program.typeOracle.computePolyMethodMaps();
+    int numMods =
+        ParallelMethodRunner.exec(methods, numThreads, optimizerCtx,
+            new ParallelMethodRunner.VisitorFactory() {
+              public JModVisitor create() {
+                return new MethodCallTighteningVisitor(null);
+              }
+            });
+    return new OptimizerStats(NAME).recordModified(numMods);
+  }
 }
\ No newline at end of file
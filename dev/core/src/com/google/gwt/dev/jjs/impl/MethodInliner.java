@@ -75,7 +75,7 @@ public class MethodInliner {
   /**
    * Method inlining visitor.
    */
-  private class InliningVisitor extends JModVisitor {
+  private class InliningVisitor extends JChangeTrackingVisitor {
     protected final Set<JMethod> modifiedMethods = new HashSet<JMethod>();
 
     /**
@@ -85,6 +85,10 @@ public class MethodInliner {
     private final Set<JMethod> cannotInline = new HashSet<JMethod>();
     private JExpression ignoringReturnValueFor;
 
+    public InliningVisitor() {
+      super(optimizerCtx);
+    }
+
     @Override
     public void endVisit(JMethod x, Context ctx) {
       currentMethod = null;
@@ -501,24 +505,45 @@ public class MethodInliner {
 
   public static OptimizerStats exec(JProgram program) {
     Event optimizeEvent = SpeedTracerLogger.start(CompilerEventType.OPTIMIZE, "optimizer", NAME);
-    OptimizerStats stats = new MethodInliner(program).execImpl();
+    OptimizerStats stats = new MethodInliner(program, null).execImpl();
+    optimizeEvent.end("didChange", "" + stats.didChange());
+    return stats;
+  }
+
+  /**
+   * Inlines methods, reporting changes to <code>optimizerCtx</code>. Unless
+   * this is a full pass, only call sites in methods that could be affected by
+   * earlier changes are considered.
+   */
+  public static OptimizerStats exec(JProgram program, OptimizerContext optimizerCtx) {
+    Event optimizeEvent = SpeedTracerLogger.start(CompilerEventType.OPTIMIZE, "optimizer", NAME);
+    OptimizerStats stats = new MethodInliner(program, optimizerCtx).execImpl();
     optimizeEvent.end("didChange", "" + stats.didChange());
     return stats;
   }
 
   private JMethod currentMethod;
 
+  private final OptimizerContext optimizerCtx;
+
   private final JProgram program;
 
-  private MethodInliner(JProgram program) {
+  private MethodInliner(JProgram program, OptimizerContext optimizerCtx) {
     this.program = program;
+    this.optimizerCtx = optimizerCtx;
   }
 
   private OptimizerStats execImpl() {
     OptimizerStats stats = new OptimizerStats(NAME);
     while (true) {
       InliningVisitor inliner = new InliningVisitor();
-      inliner.accept(program);
+      if (optimizerCtx == null || optimizerCtx.isFullPass()) {
+        inliner.accept(program);
+      } else {
+        for (JMethod method : optimizerCtx.getMethodsToVisit()) {
+          inliner.accept(method);
+        }
+      }
       stats.recordModified(inliner.getNumMods());
       if (!inliner.didChange()) {
         break;
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.jjs.impl;
+
+import com.google.gwt.dev.jjs.ast.Context;
+import com.google.gwt.dev.jjs.ast.JField;
+import com.google.gwt.dev.jjs.ast.JFieldRef;
+import com.google.gwt.dev.jjs.ast.JMethod;
+import com.google.gwt.dev.jjs.ast.JMethodCall;
+import com.google.gwt.dev.jjs.ast.JNode;
+import com.google.gwt.dev.jjs.ast.JProgram;
+import com.google.gwt.dev.jjs.ast.JVisitor;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tracks which methods and fields the optimizer passes have modified, so that
+ * later iterations of the optimization loop can revisit only the methods that
+ * could be affected by those changes instead of the whole program.
+ *
+ * <p>
+ * Passes report modifications through {@link JChangeTrackingVisitor}. Passes
+ * that are purely intra-procedural can then restrict their work to
+ * {@link #getMethodsToVisit()}, which is the set of modified methods plus their
+ * callers, their callees and the methods that reference modified fields.
+ * </p>
+ *
+ * <p>
+ * The first iteration, and any iteration after {@link #requestFullPass()}, is a
+ * full pass in which every pass visits the whole program.
+ * </p>
+ */
+public class OptimizerContext {
+
+  /**
+   * Records the methods called and fields referenced by each method.
+   */
+  private class ReferenceRecorder extends JVisitor {
+    private JMethod currentMethod;
+
+    @Override
+    public void endVisit(JFieldRef x, Context ctx) {
+      if (currentMethod != null) {
+        add(currentMethod, x.getField(), fieldsReferencedBy);
+        add(x.getField(), currentMethod, referrers);
+      }
+    }
+
+    @Override
+    public void endVisit(JMethod x, Context ctx) {
+      currentMethod = null;
+    }
+
+    @Override
+    public void endVisit(JMethodCall x, Context ctx) {
+      if (currentMethod != null) {
+        add(currentMethod, x.getTarget(), callees);
+        add(x.getTarget(), currentMethod, callers);
+      }
+    }
+
+    @Override
+    public boolean visit(JMethod x, Context ctx) {
+      currentMethod = x;
+      return true;
+    }
+  }
+
+  private static <K, V> void add(K key, V value, Map<K, Set<V>> map) {
+    Set<V> set = map.get(key);
+    if (set == null) {
+      set = new LinkedHashSet<V>();
+      map.put(key, set);
+    }
+    set.add(value);
+  }
+
+  private static <K, V> Set<V> get(K key, Map<K, Set<V>> map) {
+    Set<V> set = map.get(key);
+    if (set == null) {
+      return Collections.emptySet();
+    }
+    return set;
+  }
+
+  private final Map<JMethod, Set<JMethod>> callees = new IdentityHashMap<JMethod, Set<JMethod>>();
+
+  private final Map<JMethod, Set<JMethod>> callers = new IdentityHashMap<JMethod, Set<JMethod>>();
+
+  private final Map<JMethod, Set<JField>> fieldsReferencedBy =
+      new IdentityHashMap<JMethod, Set<JField>>();
+
+  private boolean fullPass = false;
+
+  private boolean fullPassRequested = true;
+
+  /**
+   * Changes made during the previous iteration.
+   */
+  private Set<JField> lastModifiedFields = Collections.emptySet();
+  private Set<JMethod> lastModifiedMethods = Collections.emptySet();
+
+  /**
+   * Changes made during the current iteration.
+   */
+  private Set<JField> modifiedFields = new LinkedHashSet<JField>();
+  private Set<JMethod> modifiedMethods = new LinkedHashSet<JMethod>();
+
+  private final JProgram program;
+
+  private final Map<JField, Set<JMethod>> referrers = new IdentityHashMap<JField, Set<JMethod>>();
+
+  /**
+   * Methods whose entries in the reference maps are out of date.
+   */
+  private final Set<JMethod> staleReferences = new LinkedHashSet<JMethod>();
+
+  public OptimizerContext(JProgram program) {
+    this.program = program;
+  }
+
+  /**
+   * Starts a new iteration of the optimization loop. Returns <code>true</code>
+   * if the new iteration is a full pass.
+   */
+  public boolean beginIteration() {
+    fullPass = fullPassRequested;
+    fullPassRequested = false;
+    lastModifiedMethods = modifiedMethods;
+    lastModifiedFields = modifiedFields;
+    modifiedMethods = new LinkedHashSet<JMethod>();
+    modifiedFields = new LinkedHashSet<JField>();
+    if (fullPass) {
+      rebuildReferences();
+    }
+    return fullPass;
+  }
+
+  /**
+   * Returns the methods modified during the current iteration. Visible for
+   * testing.
+   */
+  Set<JMethod> getModifiedMethods() {
+    return Collections.unmodifiableSet(modifiedMethods);
+  }
+
+  /**
+   * Returns the methods that an intra-procedural pass must visit in the current
+   * iteration: every method modified during the previous or current iteration,
+   * together with its callers and callees, and every method that references a
+   * modified field. Only meaningful when {@link #isFullPass()} is
+   * <code>false</code>.
+   */
+  public Set<JMethod> getMethodsToVisit() {
+    updateReferences();
+    Set<JMethod> result = new LinkedHashSet<JMethod>();
+    addAffectedMethods(lastModifiedMethods, lastModifiedFields, result);
+    addAffectedMethods(modifiedMethods, modifiedFields, result);
+    return result;
+  }
+
+  /**
+   * Returns <code>true</code> if any method or field was modified during the
+   * current iteration.
+   */
+  public boolean hasModifications() {
+    return !modifiedMethods.isEmpty() || !modifiedFields.isEmpty();
+  }
+
+  /**
+   * Returns <code>true</code> if every pass must visit the whole program during
+   * the current iteration.
+   */
+  public boolean isFullPass() {
+    return fullPass;
+  }
+
+  public void markModified(JField field) {
+    modifiedFields.add(field);
+  }
+
+  public void markModified(JMethod method) {
+    modifiedMethods.add(method);
+    staleReferences.add(method);
+  }
+
+  /**
+   * Called by the tracking visitors for any modified method or field.
+   */
+  public void markModified(JNode node) {
+    if (node instanceof JMethod) {
+      markModified((JMethod) node);
+    } else if (node instanceof JField) {
+      markModified((JField) node);
+    }
+  }
+
+  /**
+   * Forces the next iteration to be a full pass. Used when a change was made
+   * that cannot be attributed to particular methods, and to verify that a
+   * fixed point reached incrementally is also a fixed point of a full pass.
+   */
+  public void requestFullPass() {
+    fullPassRequested = true;
+  }
+
+  private void addAffectedMethods(Set<JMethod> methods, Set<JField> fields, Set<JMethod> result) {
+    for (JMethod method : methods) {
+      result.add(method);
+      result.addAll(get(method, callers));
+      result.addAll(get(method, callees));
+    }
+    for (JField field : fields) {
+      result.addAll(get(field, referrers));
+    }
+  }
+
+  private void rebuildReferences() {
+    callees.clear();
+    callers.clear();
+    fieldsReferencedBy.clear();
+    referrers.clear();
+    staleReferences.clear();
+    new ReferenceRecorder().accept(program);
+  }
+
+  private void removeReferences(JMethod method) {
+    Set<JMethod> oldCallees = callees.remove(method);
+    if (oldCallees != null) {
+      for (JMethod callee : oldCallees) {
+        get(callee, callers).remove(method);
+      }
+    }
+    Set<JField> oldFields = fieldsReferencedBy.remove(method);
+    if (oldFields != null) {
+      for (JField field : oldFields) {
+        get(field, referrers).remove(method);
+      }
+    }
+  }
+
+  /**
+   * Rescans the methods that were modified since the reference maps were last
+   * updated. The callers recorded for a modified method are kept, since a
+   * method cannot remove calls made by other methods.
+   */
+  private void updateReferences() {
+    if (staleReferences.isEmpty()) {
+      return;
+    }
+    ReferenceRecorder recorder = new ReferenceRecorder();
+    for (JMethod method : staleReferences) {
+      removeReferences(method);
+      recorder.accept(method);
+    }
+    staleReferences.clear();
+  }
+}
@@ -17,13 +17,23 @@
 package com.google.gwt.dev.jjs.impl;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Stores statistics on the results of running an optimizer pass.
  */
 public class OptimizerStats {
+  /**
+   * The number of slowest methods shown by {@link #prettyPrint()}.
+   */
+  private static final int SLOWEST_METHODS_TO_PRINT = 3;
+
   private final List<OptimizerStats> children = new ArrayList<OptimizerStats>();
+  private final Map<String, Long> methodNanos = new LinkedHashMap<String, Long>();
   private final String name;
   private int numMods = 0;
   private int numVisits = 0;
@@ -61,6 +71,20 @@ public class OptimizerStats {
     return children;
   }
 
+  /**
+   * Returns the time spent on each method, in nanoseconds, by this pass and its
+   * children, in the order the methods were first recorded.
+   */
+  public Map<String, Long> getMethodTimes() {
+    Map<String, Long> result = new LinkedHashMap<String, Long>(methodNanos);
+    for (OptimizerStats child : children) {
+      for (Map.Entry<String, Long> entry : child.getMethodTimes().entrySet()) {
+        addTime(result, entry.getKey(), entry.getValue());
+      }
+    }
+    return result;
+  }
+
   public String getName() {
     return name;
   }
@@ -96,6 +120,18 @@ public class OptimizerStats {
     return builder.toString();
   }
 
+  /**
+   * Record the time spent optimizing one method. Times recorded for the same
+   * method are added up.
+   *
+   * @param methodName a name that identifies the method
+   * @param nanos the elapsed time, in nanoseconds
+   */
+  public OptimizerStats recordMethodTime(String methodName, long nanos) {
+    addTime(methodNanos, methodName, nanos);
+    return this;
+  }
+
   /**
    * Increment the number of times the tree was modified.
    */
@@ -130,6 +166,22 @@ public class OptimizerStats {
     return this;
   }
 
+  private static void addTime(Map<String, Long> times, String methodName, long nanos) {
+    Long previous = times.get(methodName);
+    times.put(methodName, previous == null ? nanos : previous + nanos);
+  }
+
+  private List<Map.Entry<String, Long>> getSlowestMethods(int count) {
+    List<Map.Entry<String, Long>> methods =
+        new ArrayList<Map.Entry<String, Long>>(methodNanos.entrySet());
+    Collections.sort(methods, new Comparator<Map.Entry<String, Long>>() {
+      public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+        return b.getValue().compareTo(a.getValue());
+      }
+    });
+    return methods.subList(0, Math.min(count, methods.size()));
+  }
+
   private void prettyPrint(StringBuilder builder, int level) {
     int visits = getNumVisits();
     int mods = getNumMods();
@@ -139,6 +191,13 @@ public class OptimizerStats {
     }
     String entry = String.format("%-6s%% (%6d/%6d)", ratioString, mods, visits);
     builder.append(String.format("%12s: %-22s  ", name, entry));
+    if (!methodNanos.isEmpty()) {
+      builder.append("slowest:");
+      for (Map.Entry<String, Long> method : getSlowestMethods(SLOWEST_METHODS_TO_PRINT)) {
+        builder.append(String.format(" %s (%d ms)", method.getKey(), method.getValue() / 1000000));
+      }
+      builder.append("  ");
+    }
 
     if (children.size() > 0) {
       builder.append("\n      ");
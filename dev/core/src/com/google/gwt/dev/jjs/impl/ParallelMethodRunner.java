@@ -0,0 +1,112 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.jjs.impl;
+
+import com.google.gwt.dev.jjs.InternalCompilerException;
+import com.google.gwt.dev.jjs.ast.JClassType;
+import com.google.gwt.dev.jjs.ast.JDeclaredType;
+import com.google.gwt.dev.jjs.ast.JMethod;
+import com.google.gwt.dev.jjs.ast.JModVisitor;
+import com.google.gwt.dev.jjs.ast.JProgram;
+import com.google.gwt.dev.util.Parallel;
+import com.google.gwt.dev.util.Parallel.ChunkTask;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Runs a method-local {@link JModVisitor} over many methods on several threads.
+ *
+ * <p>
+ * Each thread gets its own visitor, and each method is visited by exactly one
+ * thread. The visitors must only modify the method they are visiting; anything
+ * else they read, such as the {@link com.google.gwt.dev.jjs.ast.JTypeOracle},
+ * must not be modified while they run.
+ * </p>
+ */
+public class ParallelMethodRunner {
+
+  /**
+   * Creates a visitor for one thread.
+   */
+  interface VisitorFactory {
+    JModVisitor create();
+  }
+
+  /**
+   * Returns every method whose body can be optimized, in program order.
+   */
+  public static List<JMethod> getMethodsToOptimize(JProgram program) {
+    List<JMethod> methods = new ArrayList<JMethod>();
+    for (JDeclaredType type : program.getDeclaredTypes()) {
+      if (type instanceof JClassType && type.isExternal()) {
+        continue;
+      }
+      methods.addAll(type.getMethods());
+    }
+    return methods;
+  }
+
+  /**
+   * Visits <code>methods</code> on up to <code>numThreads</code> threads and
+   * returns the total number of modifications. Modified methods are reported to
+   * <code>optimizerCtx</code>, if it is not <code>null</code>, in the order of
+   * <code>methods</code>.
+   */
+  public static int exec(Collection<JMethod> methods, int numThreads,
+      OptimizerContext optimizerCtx, final VisitorFactory factory) {
+    List<List<JMethod>> modifiedPerChunk;
+    final int[] numMods = new int[1];
+    try {
+      modifiedPerChunk =
+          Parallel.mapChunks(numThreads, new ArrayList<JMethod>(methods),
+              new ChunkTask<JMethod, List<JMethod>>() {
+                public List<JMethod> run(List<JMethod> chunk) {
+                  JModVisitor visitor = factory.create();
+                  List<JMethod> modified = new ArrayList<JMethod>();
+                  for (JMethod method : chunk) {
+                    int numModsBefore = visitor.getNumMods();
+                    visitor.accept(method);
+                    if (visitor.getNumMods() > numModsBefore) {
+                      modified.add(method);
+                    }
+                  }
+                  synchronized (numMods) {
+                    numMods[0] += visitor.getNumMods();
+                  }
+                  return modified;
+                }
+              });
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof InternalCompilerException) {
+        throw (InternalCompilerException) cause;
+      }
+      throw new InternalCompilerException("Unexpected error during parallel optimization", cause);
+    }
+
+    if (optimizerCtx != null) {
+      for (List<JMethod> modified : modifiedPerChunk) {
+        for (JMethod method : modified) {
+          optimizerCtx.markModified(method);
+        }
+      }
+    }
+    return numMods[0];
+  }
+}
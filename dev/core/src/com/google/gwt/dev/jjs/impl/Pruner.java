@@ -34,7 +34,6 @@ import com.google.gwt.dev.jjs.ast.JInterfaceType;
 import com.google.gwt.dev.jjs.ast.JMethod;
 import com.google.gwt.dev.jjs.ast.JMethodBody;
 import com.google.gwt.dev.jjs.ast.JMethodCall;
-import com.google.gwt.dev.jjs.ast.JModVisitor;
 import com.google.gwt.dev.jjs.ast.JNameOf;
 import com.google.gwt.dev.jjs.ast.JNewInstance;
 import com.google.gwt.dev.jjs.ast.JNode;
@@ -88,7 +87,7 @@ public class Pruner {
    * references to pruned variables and methods by references to the null field
    * and null method, and drop assignments to pruned variables.
    */
-  private class CleanupRefsVisitor extends JModVisitor {
+  private class CleanupRefsVisitor extends JChangeTrackingVisitor {
     private final Stack<JExpression> lValues = new Stack<JExpression>();
     private final Map<JMethod, ArrayList<JParameter>> methodToOriginalParamsMap;
     private final Set<? extends JNode> referencedNonTypes;
@@ -99,6 +98,7 @@ public class Pruner {
 
     public CleanupRefsVisitor(Set<? extends JNode> referencedNodes,
         Map<JMethod, ArrayList<JParameter>> methodToOriginalParamsMap) {
+      super(optimizerCtx);
       this.referencedNonTypes = referencedNodes;
       this.methodToOriginalParamsMap = methodToOriginalParamsMap;
     }
@@ -333,7 +333,7 @@ public class Pruner {
    * Remove any unreferenced classes and interfaces from JProgram. Remove any
    * unreferenced methods and fields from their containing classes.
    */
-  private class PruneVisitor extends JModVisitor {
+  private class PruneVisitor extends JChangeTrackingVisitor {
     private final Map<JMethod, ArrayList<JParameter>> methodToOriginalParamsMap =
         new HashMap<JMethod, ArrayList<JParameter>>();
     private final Set<? extends JNode> referencedNonTypes;
@@ -341,6 +341,7 @@ public class Pruner {
 
     public PruneVisitor(Set<? extends JReferenceType> referencedTypes,
         Set<? extends JNode> referencedNodes) {
+      super(optimizerCtx);
       this.referencedTypes = referencedTypes;
       this.referencedNonTypes = referencedNodes;
     }
@@ -494,7 +495,20 @@ public class Pruner {
 
   public static OptimizerStats exec(JProgram program, boolean noSpecialTypes) {
     Event optimizeEvent = SpeedTracerLogger.start(CompilerEventType.OPTIMIZE, "optimizer", NAME);
-    OptimizerStats stats = new Pruner(program, noSpecialTypes).execImpl();
+    OptimizerStats stats = new Pruner(program, noSpecialTypes, null).execImpl();
+    optimizeEvent.end("didChange", "" + stats.didChange());
+    return stats;
+  }
+
+  /**
+   * Prunes the program, reporting the methods and fields whose code changed to
+   * <code>optimizerCtx</code>. Liveness is always computed over the whole
+   * program.
+   */
+  public static OptimizerStats exec(JProgram program, boolean noSpecialTypes,
+      OptimizerContext optimizerCtx) {
+    Event optimizeEvent = SpeedTracerLogger.start(CompilerEventType.OPTIMIZE, "optimizer", NAME);
+    OptimizerStats stats = new Pruner(program, noSpecialTypes, optimizerCtx).execImpl();
     optimizeEvent.end("didChange", "" + stats.didChange());
     return stats;
   }
@@ -593,13 +607,16 @@ public class Pruner {
     return program.getTypeNull();
   }
 
+  private final OptimizerContext optimizerCtx;
+
   private final JProgram program;
 
   private final boolean saveCodeGenTypes;
 
-  private Pruner(JProgram program, boolean saveCodeGenTypes) {
+  private Pruner(JProgram program, boolean saveCodeGenTypes, OptimizerContext optimizerCtx) {
     this.program = program;
     this.saveCodeGenTypes = saveCodeGenTypes;
+    this.optimizerCtx = optimizerCtx;
   }
 
   private OptimizerStats execImpl() {
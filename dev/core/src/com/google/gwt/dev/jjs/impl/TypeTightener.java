@@ -37,7 +37,6 @@ import com.google.gwt.dev.jjs.ast.JLocal;
 import com.google.gwt.dev.jjs.ast.JLocalRef;
 import com.google.gwt.dev.jjs.ast.JMethod;
 import com.google.gwt.dev.jjs.ast.JMethodCall;
-import com.google.gwt.dev.jjs.ast.JModVisitor;
 import com.google.gwt.dev.jjs.ast.JNewInstance;
 import com.google.gwt.dev.jjs.ast.JNullLiteral;
 import com.google.gwt.dev.jjs.ast.JNullType;
@@ -123,7 +122,11 @@ public class TypeTightener {
   /**
    * Replaces dangling null references with dummy calls.
    */
-  public class FixDanglingRefsVisitor extends JModVisitor {
+  public class FixDanglingRefsVisitor extends JChangeTrackingVisitor {
+
+    public FixDanglingRefsVisitor() {
+      super(optimizerCtx);
+    }
 
     @Override
     public void endVisit(JFieldRef x, Context ctx) {
@@ -360,7 +363,11 @@ public class TypeTightener {
    * 
    * Also optimize dynamic casts and instanceof operations where possible.
    */
-  public class TightenTypesVisitor extends JModVisitor {
+  public class TightenTypesVisitor extends JChangeTrackingVisitor {
+
+    public TightenTypesVisitor() {
+      super(optimizerCtx);
+    }
 
     /**
      * Tries to determine a specific concrete type for the cast, then either
@@ -788,7 +795,19 @@ public class TypeTightener {
 
   public static OptimizerStats exec(JProgram program) {
     Event optimizeEvent = SpeedTracerLogger.start(CompilerEventType.OPTIMIZE, "optimizer", NAME);
-    OptimizerStats stats = new TypeTightener(program).execImpl();
+    OptimizerStats stats = new TypeTightener(program, null).execImpl();
+    optimizeEvent.end("didChange", "" + stats.didChange());
+    return stats;
+  }
+
+  /**
+   * Tightens types, reporting every method and field whose declaration or code
+   * changed to <code>optimizerCtx</code>. Type flow is always computed over the
+   * whole program.
+   */
+  public static OptimizerStats exec(JProgram program, OptimizerContext optimizerCtx) {
+    Event optimizeEvent = SpeedTracerLogger.start(CompilerEventType.OPTIMIZE, "optimizer", NAME);
+    OptimizerStats stats = new TypeTightener(program, optimizerCtx).execImpl();
     optimizeEvent.end("didChange", "" + stats.didChange());
     return stats;
   }
@@ -835,6 +854,7 @@ public class TypeTightener {
       new IdentityHashMap<JVariable, Set<JExpression>>();
   private final Map<JReferenceType, Set<JClassType>> implementors =
       new IdentityHashMap<JReferenceType, Set<JClassType>>();
+  private final OptimizerContext optimizerCtx;
   private final Map<JMethod, Set<JMethod>> overriders =
       new IdentityHashMap<JMethod, Set<JMethod>>();
   private final Map<JParameter, Set<JParameter>> paramUpRefs =
@@ -844,8 +864,9 @@ public class TypeTightener {
       new IdentityHashMap<JMethod, Set<JExpression>>();
   private final JNullType typeNull;
 
-  private TypeTightener(JProgram program) {
+  private TypeTightener(JProgram program, OptimizerContext optimizerCtx) {
     this.program = program;
+    this.optimizerCtx = optimizerCtx;
     typeNull = program.getTypeNull();
   }
 
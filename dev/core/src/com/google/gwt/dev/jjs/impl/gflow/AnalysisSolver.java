@@ -162,6 +162,31 @@ public class AnalysisSolver<N, E, T, G extends Graph<N, E, T>,
     return new AnalysisSolver<N, E, T, G, A>(forward).solveIntegrated(g, 
         analysis);
   }
+
+  /**
+   * Solve a non-integrated analysis, leaving the assumptions in the edge data
+   * of the graph instead of copying them to a map. Use
+   * {@link Graph#getEdgeData(Object)} to read them.
+   *
+   * @param <N> graph node type.
+   * @param <E> graph edge type.
+   * @param <T> graph transformer type.
+   * @param <G> graph type.
+   * @param <A> assumption type.
+   */
+  public static <N, E, T, G extends Graph<N, E, T>, A extends Assumption<A>> 
+  void solveInPlace(G g, Analysis<N, E, G, A> analysis, boolean forward) {
+    new AnalysisSolver<N, E, T, G, A>(forward).solveImpl(g, analysis);
+  }
+
+  /**
+   * Nodes are compared with <code>equals</code>, so that graphs can use value
+   * objects like boxed ids as nodes (see
+   * {@link com.google.gwt.dev.jjs.impl.gflow.cfg.CompactCfg}).
+   */
+  private static <N> boolean isSameNode(N n1, N n2) {
+    return n1 == n2 || (n1 != null && n1.equals(n2));
+  }
   
   /**
    * If <code>true</code>, then we are moving forward. Moving backwards 
@@ -189,14 +214,12 @@ public class AnalysisSolver<N, E, T, G extends Graph<N, E, T>,
         Transformation<T, G> transformation = analysis.getIntegratedFlowFunction().interpretOrReplace(
               node, graph, new AssumptionMap<E, A>() {
                 public A getAssumption(E edge) {
-                  Preconditions.checkArgument(graph.getStart(edge) == node
-                      || graph.getEnd(edge) == node);
+                  Preconditions.checkArgument(isEndOf(graph, edge, node));
                   return getEdgeAssumption(graph, edge);
                 }
 
                 public void setAssumption(E edge, A assumption) {
-                  Preconditions.checkArgument(graph.getStart(edge) == node
-                      || graph.getEnd(edge) == node);
+                  Preconditions.checkArgument(isEndOf(graph, edge, node));
                  didAssumptionChange[0] = true;
                 }
               });
@@ -216,8 +239,7 @@ public class AnalysisSolver<N, E, T, G extends Graph<N, E, T>,
       Transformation<T, G> transformation = transformationFunction.transform(
           node, graph, new AssumptionMap<E, A>() {
             public A getAssumption(E edge) {
-              Preconditions.checkArgument(graph.getStart(edge) == node
-                  || graph.getEnd(edge) == node);
+              Preconditions.checkArgument(isEndOf(graph, edge, node));
               return getEdgeAssumption(graph, edge);
             }
 
@@ -264,6 +286,11 @@ public class AnalysisSolver<N, E, T, G extends Graph<N, E, T>,
     });
   }
   
+  private boolean isEndOf(G graph, E edge, N node) {
+    return isSameNode(graph.getStart(edge), node)
+        || isSameNode(graph.getEnd(edge), node);
+  }
+
   /**
    * Find a fixed point of integrated analysis by wrapping it with 
    * IntegratedFlowFunctionAdapter and calling
@@ -358,24 +385,24 @@ public class AnalysisSolver<N, E, T, G extends Graph<N, E, T>,
 
       flowFunction.interpret(node, graph, new AssumptionMap<E, A>() {
         public A getAssumption(E edge) {
-          Preconditions.checkArgument(graph.getStart(edge) == node
-              || graph.getEnd(edge) == node);
+          Preconditions.checkArgument(isEndOf(graph, edge, node));
           return getEdgeAssumption(graph, edge);
         }
 
         public void setAssumption(E edge, A assumption) {
           N start = graph.getStart(edge);
           N end = graph.getEnd(edge);
-          Preconditions.checkArgument(start == node || end == node);
+          Preconditions.checkArgument(isSameNode(start, node)
+              || isSameNode(end, node));
 
           if (!AssumptionUtil.equals(getEdgeAssumption(graph, edge), assumption)) {
             setEdgeAssumption(graph, edge, assumption);
 
-            if (start == node) {
+            if (isSameNode(start, node)) {
               if (end != null) {
                 worklist.add(end);
               }
-            } else if (end == node) {
+            } else if (isSameNode(end, node)) {
               if (start != null) {
                 worklist.add(start);
               }
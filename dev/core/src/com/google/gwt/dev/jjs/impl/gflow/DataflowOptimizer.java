@@ -15,6 +15,7 @@
  */
 package com.google.gwt.dev.jjs.impl.gflow;
 
+import com.google.gwt.dev.jjs.InternalCompilerException;
 import com.google.gwt.dev.jjs.ast.Context;
 import com.google.gwt.dev.jjs.ast.JDeclaredType;
 import com.google.gwt.dev.jjs.ast.JMethod;
@@ -24,97 +25,287 @@ import com.google.gwt.dev.jjs.ast.JNode;
 import com.google.gwt.dev.jjs.ast.JProgram;
 import com.google.gwt.dev.jjs.impl.DeadCodeElimination;
 import com.google.gwt.dev.jjs.impl.OptimizerStats;
+import com.google.gwt.dev.jjs.impl.ParallelMethodRunner;
 import com.google.gwt.dev.jjs.impl.gflow.cfg.Cfg;
 import com.google.gwt.dev.jjs.impl.gflow.cfg.CfgBuilder;
 import com.google.gwt.dev.jjs.impl.gflow.cfg.CfgEdge;
 import com.google.gwt.dev.jjs.impl.gflow.cfg.CfgNode;
 import com.google.gwt.dev.jjs.impl.gflow.cfg.CfgTransformer;
+import com.google.gwt.dev.jjs.impl.gflow.cfg.CfgWriteNode;
+import com.google.gwt.dev.jjs.impl.gflow.cfg.CompactCfg;
 import com.google.gwt.dev.jjs.impl.gflow.constants.ConstantsAnalysis;
 import com.google.gwt.dev.jjs.impl.gflow.copy.CopyAnalysis;
+import com.google.gwt.dev.jjs.impl.gflow.liveness.CompactLivenessAnalysis;
+import com.google.gwt.dev.jjs.impl.gflow.liveness.CompactLivenessAssumption;
 import com.google.gwt.dev.jjs.impl.gflow.liveness.LivenessAnalysis;
+import com.google.gwt.dev.jjs.impl.gflow.liveness.LivenessTransformation;
 import com.google.gwt.dev.jjs.impl.gflow.unreachable.UnreachableAnalysis;
+import com.google.gwt.dev.util.Parallel;
+import com.google.gwt.dev.util.Parallel.ChunkTask;
 import com.google.gwt.dev.util.Preconditions;
 import com.google.gwt.dev.util.log.speedtracer.CompilerEventType;
 import com.google.gwt.dev.util.log.speedtracer.SpeedTracerLogger;
 import com.google.gwt.dev.util.log.speedtracer.SpeedTracerLogger.Event;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
 /**
  */
 public class DataflowOptimizer {
   public static String NAME = DataflowOptimizer.class.getSimpleName();
-  
+
+  /**
+   * If <code>true</code>, dead assignments are found by solving
+   * {@link CompactLivenessAnalysis} on a {@link CompactCfg} instead of by the
+   * integrated {@link LivenessAnalysis}. Its assumptions are much smaller, but
+   * it does not remove assignments that only keep each other alive, like an
+   * unused counter incremented in a loop.
+   */
+  private static final boolean USE_COMPACT_CFG = Boolean.getBoolean("gwt.jjs.compactCfg");
+
   public static OptimizerStats exec(JProgram jprogram, JNode node) {
+    return exec(jprogram, node, USE_COMPACT_CFG);
+  }
+
+  public static OptimizerStats exec(JProgram jprogram) {
+    return exec(jprogram, jprogram);
+  }
+
+  // @VisibleForTesting
+  static OptimizerStats exec(JProgram jprogram, JNode node, boolean useCompactCfg) {
     Event optimizeEvent = SpeedTracerLogger.start(CompilerEventType.OPTIMIZE, "optimizer", NAME);
-    OptimizerStats stats = new DataflowOptimizer(jprogram).execImpl(node);
+    OptimizerStats stats = new DataflowOptimizer(jprogram, useCompactCfg).execImpl(node);
     optimizeEvent.end();
     return stats;
   }
 
-  public static OptimizerStats exec(JProgram jprogram) {
-    return exec(jprogram, jprogram);
+  /**
+   * Like {@link #exec(JProgram)}, but analyzes methods on up to
+   * <code>numThreads</code> threads. Each analysis only changes the method it
+   * runs on. The methods that changed are then cleaned up by
+   * {@link DeadCodeElimination} on the calling thread, in program order, so the
+   * result does not depend on scheduling.
+   */
+  public static OptimizerStats exec(JProgram jprogram, int numThreads) {
+    if (numThreads <= 1) {
+      return exec(jprogram);
+    }
+    Event optimizeEvent =
+        SpeedTracerLogger.start(CompilerEventType.OPTIMIZE, "optimizer", NAME, "threads", ""
+            + numThreads);
+    OptimizerStats stats =
+        new DataflowOptimizer(jprogram, USE_COMPACT_CFG).execInParallel(numThreads);
+    optimizeEvent.end();
+    return stats;
+  }
+
+  /**
+   * The outcome of analyzing one method on a worker thread.
+   */
+  private static class MethodResult {
+    final boolean madeChanges;
+    final JMethodBody methodBody;
+    final long nanos;
+
+    MethodResult(JMethodBody methodBody, boolean madeChanges, long nanos) {
+      this.methodBody = methodBody;
+      this.madeChanges = madeChanges;
+      this.nanos = nanos;
+    }
+  }
+
+  private static String getTimingName(JMethod method) {
+    return method.getEnclosingType().getName() + "." + method.getSignature();
+  }
+
+  private static boolean isLiveAfter(CompactCfg cfg, int node, int variable) {
+    for (Integer edge : cfg.getOutEdges(node)) {
+      CompactLivenessAssumption assumption = (CompactLivenessAssumption) cfg.getEdgeData(edge);
+      if (assumption != null && assumption.isLive(variable)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Removes the assignments to locals and parameters which are not live
+   * afterwards, as found by {@link CompactLivenessAnalysis}.
+   *
+   * @return <code>true</code> if any assignment was removed
+   */
+  private static boolean removeDeadWrites(Cfg cfg) {
+    CompactCfg compactCfg = CompactCfg.create(cfg);
+    AnalysisSolver.solveInPlace(compactCfg, new CompactLivenessAnalysis(), false);
+
+    // Node i of the compact graph is node i of the source graph.
+    List<CfgNode<?>> nodes = cfg.getNodes();
+    List<CfgWriteNode> deadWrites = new ArrayList<CfgWriteNode>();
+    for (int node = 0; node < compactCfg.getNodeCount(); ++node) {
+      int written = compactCfg.getWrittenVariable(node);
+      if (written >= 0 && nodes.get(node) instanceof CfgWriteNode
+          && ((CfgWriteNode) nodes.get(node)).getValue() != null
+          && !isLiveAfter(compactCfg, node, written)) {
+        deadWrites.add((CfgWriteNode) nodes.get(node));
+      }
+    }
+
+    boolean madeChanges = false;
+    for (CfgWriteNode write : deadWrites) {
+      madeChanges =
+          cfg.transform(write, new LivenessTransformation(cfg, write).getGraphTransformer())
+              || madeChanges;
+    }
+    return madeChanges;
   }
 
   private final JProgram program;
 
+  private final boolean useCompactCfg;
+
   public DataflowOptimizer(JProgram program) {
+    this(program, USE_COMPACT_CFG);
+  }
+
+  private DataflowOptimizer(JProgram program, boolean useCompactCfg) {
     this.program = program;
+    this.useCompactCfg = useCompactCfg;
   }
 
   private class DataflowOptimizerVisitor extends JModVisitor {
-    
+    private final OptimizerStats stats;
+
+    public DataflowOptimizerVisitor(OptimizerStats stats) {
+      this.stats = stats;
+    }
+
     @Override
     public boolean visit(JMethodBody methodBody, Context ctx) {
-      Cfg cfg = CfgBuilder.build(program, methodBody.getBlock());
-
-      JMethod method = methodBody.getMethod();
-      JDeclaredType enclosingType = method.getEnclosingType();
-      String methodName = enclosingType.getName() + "." + method.getName();
+      long start = System.nanoTime();
+      if (analyze(methodBody)) {
+        madeChanges();
 
-      // AnalysisSolver.debug = methodName.equals("<some method>");
+        DeadCodeElimination.exec(program, methodBody);
+      }
+      stats.recordMethodTime(getTimingName(methodBody.getMethod()), System.nanoTime() - start);
 
-      Preconditions.checkNotNull(cfg, "Can't build flow for %s", methodName);
+      return true;
+    }
+  }
 
-      try {
-        CombinedIntegratedAnalysis<CfgNode<?>, CfgEdge, CfgTransformer, Cfg>
-        fwdAnalysis = CombinedIntegratedAnalysis.createAnalysis();
+  /**
+   * Runs the forward and backward analyses over one method, applying their
+   * transformations.
+   *
+   * @return <code>true</code> if the method was changed
+   */
+  private boolean analyze(JMethodBody methodBody) {
+    Cfg cfg = CfgBuilder.build(program, methodBody.getBlock());
 
-        fwdAnalysis.addAnalysis(new UnreachableAnalysis());
-        fwdAnalysis.addAnalysis(new ConstantsAnalysis());
-        fwdAnalysis.addAnalysis(new CopyAnalysis());
-        // fwdAnalysis.addAnalysis(new InlineVarAnalysis(program));
+    JMethod method = methodBody.getMethod();
+    JDeclaredType enclosingType = method.getEnclosingType();
+    String methodName = enclosingType.getName() + "." + method.getName();
 
-        boolean madeChanges = false;
+    // AnalysisSolver.debug = methodName.equals("<some method>");
 
-        madeChanges = AnalysisSolver.solveIntegrated(cfg, fwdAnalysis, true)
-            || madeChanges;
+    Preconditions.checkNotNull(cfg, "Can't build flow for %s", methodName);
 
-        cfg = CfgBuilder.build(program, methodBody.getBlock());
-        Preconditions.checkNotNull(cfg);
+    try {
+      CombinedIntegratedAnalysis<CfgNode<?>, CfgEdge, CfgTransformer, Cfg>
+      fwdAnalysis = CombinedIntegratedAnalysis.createAnalysis();
 
-        CombinedIntegratedAnalysis<CfgNode<?>, CfgEdge, CfgTransformer, Cfg>
-        bkwAnalysis = CombinedIntegratedAnalysis.createAnalysis();
+      fwdAnalysis.addAnalysis(new UnreachableAnalysis());
+      fwdAnalysis.addAnalysis(new ConstantsAnalysis());
+      fwdAnalysis.addAnalysis(new CopyAnalysis());
+      // fwdAnalysis.addAnalysis(new InlineVarAnalysis(program));
 
-        bkwAnalysis.addAnalysis(new LivenessAnalysis());
+      boolean madeChanges = false;
 
-        madeChanges = AnalysisSolver.solveIntegrated(cfg, bkwAnalysis, false)
-            || madeChanges;
+      madeChanges = AnalysisSolver.solveIntegrated(cfg, fwdAnalysis, true)
+          || madeChanges;
 
-        if (madeChanges) {
-          madeChanges();
+      cfg = CfgBuilder.build(program, methodBody.getBlock());
+      Preconditions.checkNotNull(cfg);
 
-          DeadCodeElimination.exec(program, methodBody);
+      if (useCompactCfg) {
+        // Removing an assignment can make the ones it read from dead.
+        while (removeDeadWrites(cfg)) {
+          madeChanges = true;
+          cfg = CfgBuilder.build(program, methodBody.getBlock());
+          Preconditions.checkNotNull(cfg);
         }
-      } catch (Throwable t) {
-        throw new RuntimeException("Error optimizing: " + methodName, t);
+        return madeChanges;
       }
 
-      return true;
+      CombinedIntegratedAnalysis<CfgNode<?>, CfgEdge, CfgTransformer, Cfg>
+      bkwAnalysis = CombinedIntegratedAnalysis.createAnalysis();
+
+      bkwAnalysis.addAnalysis(new LivenessAnalysis());
+
+      madeChanges = AnalysisSolver.solveIntegrated(cfg, bkwAnalysis, false)
+          || madeChanges;
+
+      return madeChanges;
+    } catch (Throwable t) {
+      throw new RuntimeException("Error optimizing: " + methodName, t);
     }
   }
 
   private OptimizerStats execImpl(JNode node) {
-    DataflowOptimizerVisitor visitor = new DataflowOptimizerVisitor();
+    OptimizerStats stats = new OptimizerStats(NAME);
+    DataflowOptimizerVisitor visitor = new DataflowOptimizerVisitor(stats);
     visitor.accept(node);
-    return new OptimizerStats(NAME).recordModified(visitor.getNumMods());
+    return stats.recordModified(visitor.getNumMods());
+  }
+
+  private OptimizerStats execInParallel(int numThreads) {
+    List<JMethodBody> methodBodies = new ArrayList<JMethodBody>();
+    for (JMethod method : ParallelMethodRunner.getMethodsToOptimize(program)) {
+      if (method.getBody() instanceof JMethodBody) {
+        methodBodies.add((JMethodBody) method.getBody());
+      }
+    }
+
+    List<List<MethodResult>> resultsPerChunk;
+    try {
+      resultsPerChunk =
+          Parallel.mapChunks(numThreads, methodBodies,
+              new ChunkTask<JMethodBody, List<MethodResult>>() {
+                public List<MethodResult> run(List<JMethodBody> chunk) {
+                  List<MethodResult> results = new ArrayList<MethodResult>(chunk.size());
+                  for (JMethodBody methodBody : chunk) {
+                    long start = System.nanoTime();
+                    boolean madeChanges = analyze(methodBody);
+                    results.add(new MethodResult(methodBody, madeChanges, System.nanoTime()
+                        - start));
+                  }
+                  return results;
+                }
+              });
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new InternalCompilerException("Unexpected error during parallel optimization", cause);
+    }
+
+    OptimizerStats stats = new OptimizerStats(NAME);
+    int numMods = 0;
+    for (List<MethodResult> results : resultsPerChunk) {
+      for (MethodResult result : results) {
+        long nanos = result.nanos;
+        if (result.madeChanges) {
+          ++numMods;
+          long start = System.nanoTime();
+          DeadCodeElimination.exec(program, result.methodBody);
+          nanos += System.nanoTime() - start;
+        }
+        stats.recordMethodTime(getTimingName(result.methodBody.getMethod()), nanos);
+      }
+    }
+    return stats.recordModified(numMods);
   }
 }
@@ -15,7 +15,6 @@
  */
 package com.google.gwt.dev.jjs.impl.gflow;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -46,12 +45,12 @@ public interface Graph<NodeType, EdgeType, TransformerType> {
   /**
    * Returns graph incoming edges.
    */
-  ArrayList<EdgeType> getGraphInEdges();
+  List<EdgeType> getGraphInEdges();
 
   /**
    * Returns graph outgoing edges.
    */
-  ArrayList<EdgeType> getGraphOutEdges();
+  List<EdgeType> getGraphOutEdges();
 
   /**
    * Returns edges coming into node.
@@ -61,7 +60,7 @@ public interface Graph<NodeType, EdgeType, TransformerType> {
   /**
    * Returns all nodes in the graph.
    */
-  ArrayList<NodeType> getNodes();
+  List<NodeType> getNodes();
 
   /**
    * Returns edges originating from the node.
@@ -0,0 +1,472 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.jjs.impl.gflow.cfg;
+
+import com.google.gwt.dev.jjs.ast.JLocal;
+import com.google.gwt.dev.jjs.ast.JParameter;
+import com.google.gwt.dev.jjs.ast.JVariable;
+import com.google.gwt.dev.jjs.ast.JVariableRef;
+import com.google.gwt.dev.jjs.impl.gflow.Assumption;
+import com.google.gwt.dev.jjs.impl.gflow.Graph;
+import com.google.gwt.dev.util.Preconditions;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Array-backed, read-only control flow graph for analyses which don't
+ * transform the graph. Nodes and edges are identified by int ids, and all the
+ * structure lives in a few int arrays, so a method's graph costs a small
+ * fraction of the {@link Cfg} it was built from, which can be dropped.
+ *
+ * Node <code>i</code> corresponds to the <code>i</code>-th node of the source
+ * {@link Cfg}, and the in and out edges of every node are in the same order as
+ * in the source graph, so the results can be mapped back to it.
+ *
+ * Only reads and writes of locals and parameters are kept from the nodes,
+ * as variable ids; see {@link #getReadVariable(int)},
+ * {@link #getWrittenVariable(int)} and {@link #getCopiedVariable(int)}.
+ */
+public class CompactCfg implements Graph<Integer, Integer, CfgTransformer> {
+  /**
+   * Read-only list view of a range of an int array.
+   */
+  private static class IntList extends AbstractList<Integer> implements
+      RandomAccess {
+    private final int[] array;
+    private final int from;
+    private final int size;
+
+    private IntList(int[] array, int from, int to) {
+      this.array = array;
+      this.from = from;
+      this.size = to - from;
+    }
+
+    @Override
+    public Integer get(int index) {
+      if (index < 0 || index >= size) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", size: "
+            + size);
+      }
+      return array[from + index];
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+  }
+
+  /**
+   * Read-only list of the integers from 0 to a given size.
+   */
+  private static class RangeList extends AbstractList<Integer> implements
+      RandomAccess {
+    private final int size;
+
+    private RangeList(int size) {
+      this.size = size;
+    }
+
+    @Override
+    public Integer get(int index) {
+      if (index < 0 || index >= size) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", size: "
+            + size);
+      }
+      return index;
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+  }
+
+  /**
+   * Build a compact copy of the graph.
+   */
+  public static CompactCfg create(Cfg cfg) {
+    return new CompactCfg(cfg);
+  }
+
+  private static boolean isSupportedVar(JVariable variable) {
+    return variable instanceof JLocal || variable instanceof JParameter;
+  }
+
+  /**
+   * For every node: the local or parameter it copies from, -1 if none.
+   */
+  private final int[] copiedVariables;
+  private final Object[] edgeData;
+  private final int[] edgeEnds;
+  /**
+   * Edge roles, or <code>null</code> if no edge has one.
+   */
+  private final String[] edgeRoles;
+  private final int[] edgeStarts;
+  private final int[] graphInEdges;
+  private final int[] graphOutEdges;
+  /**
+   * In edges of node <code>i</code> are <code>inEdges[inOffsets[i]]</code> to
+   * <code>inEdges[inOffsets[i + 1] - 1]</code>.
+   */
+  private final int[] inEdges;
+  private final int[] inOffsets;
+  private final int nodeCount;
+  /**
+   * Same layout as {@link #inEdges}.
+   */
+  private final int[] outEdges;
+  private final int[] outOffsets;
+  private final int[] readVariables;
+  private final JVariable[] variables;
+  private final int[] writtenVariables;
+
+  private CompactCfg(Cfg cfg) {
+    List<CfgNode<?>> nodes = cfg.getNodes();
+    nodeCount = nodes.size();
+
+    // Number the edges: graph in edges, out edges of every node in order,
+    // then any graph out edges not seen yet.
+    final Map<CfgNode<?>, Integer> nodeIds =
+      new IdentityHashMap<CfgNode<?>, Integer>(nodeCount);
+    for (int i = 0; i < nodeCount; ++i) {
+      nodeIds.put(nodes.get(i), i);
+    }
+    final Map<CfgEdge, Integer> edgeIds = new IdentityHashMap<CfgEdge, Integer>();
+    List<CfgEdge> edges = new ArrayList<CfgEdge>();
+    addEdges(cfg.getGraphInEdges(), edgeIds, edges);
+    int inEdgeCount = 0;
+    int outEdgeCount = 0;
+    for (CfgNode<?> node : nodes) {
+      addEdges(cfg.getOutEdges(node), edgeIds, edges);
+      inEdgeCount += cfg.getInEdges(node).size();
+      outEdgeCount += cfg.getOutEdges(node).size();
+    }
+    addEdges(cfg.getGraphOutEdges(), edgeIds, edges);
+
+    int edgeCount = edges.size();
+    edgeStarts = new int[edgeCount];
+    edgeEnds = new int[edgeCount];
+    edgeData = new Object[edgeCount];
+    String[] roles = null;
+    for (int i = 0; i < edgeCount; ++i) {
+      CfgEdge edge = edges.get(i);
+      edgeStarts[i] = getNodeId(nodeIds, edge.getStart());
+      edgeEnds[i] = getNodeId(nodeIds, edge.getEnd());
+      if (edge.getRole() != null) {
+        if (roles == null) {
+          roles = new String[edgeCount];
+        }
+        roles[i] = edge.getRole();
+      }
+    }
+    edgeRoles = roles;
+
+    graphInEdges = getEdgeIds(cfg.getGraphInEdges(), edgeIds);
+    graphOutEdges = getEdgeIds(cfg.getGraphOutEdges(), edgeIds);
+
+    inOffsets = new int[nodeCount + 1];
+    inEdges = new int[inEdgeCount];
+    outOffsets = new int[nodeCount + 1];
+    outEdges = new int[outEdgeCount];
+    for (int i = 0; i < nodeCount; ++i) {
+      CfgNode<?> node = nodes.get(i);
+      inOffsets[i + 1] = copyEdgeIds(cfg.getInEdges(node), edgeIds, inEdges,
+          inOffsets[i]);
+      outOffsets[i + 1] = copyEdgeIds(cfg.getOutEdges(node), edgeIds, outEdges,
+          outOffsets[i]);
+    }
+
+    // Number the variables.
+    readVariables = new int[nodeCount];
+    writtenVariables = new int[nodeCount];
+    copiedVariables = new int[nodeCount];
+    Arrays.fill(readVariables, -1);
+    Arrays.fill(writtenVariables, -1);
+    Arrays.fill(copiedVariables, -1);
+    final Map<JVariable, Integer> variableIds =
+      new IdentityHashMap<JVariable, Integer>();
+    final List<JVariable> variableList = new ArrayList<JVariable>();
+    for (int i = 0; i < nodeCount; ++i) {
+      final int nodeId = i;
+      nodes.get(i).accept(new CfgVisitor() {
+        @Override
+        public void visitReadNode(CfgReadNode node) {
+          readVariables[nodeId] = getVariableId(node.getTarget());
+        }
+
+        @Override
+        public void visitReadWriteNode(CfgReadWriteNode node) {
+          readVariables[nodeId] = getVariableId(node.getTargetVariable());
+          writtenVariables[nodeId] = readVariables[nodeId];
+        }
+
+        @Override
+        public void visitWriteNode(CfgWriteNode node) {
+          writtenVariables[nodeId] = getVariableId(node.getTargetVariable());
+          if (writtenVariables[nodeId] >= 0 &&
+              node.getValue() instanceof JVariableRef) {
+            copiedVariables[nodeId] = getVariableId(
+                ((JVariableRef) node.getValue()).getTarget());
+          }
+        }
+
+        private int getVariableId(JVariable variable) {
+          if (!isSupportedVar(variable)) {
+            return -1;
+          }
+          Integer id = variableIds.get(variable);
+          if (id == null) {
+            id = variableList.size();
+            variableIds.put(variable, id);
+            variableList.add(variable);
+          }
+          return id;
+        }
+      });
+    }
+    variables = variableList.toArray(new JVariable[variableList.size()]);
+  }
+
+  /**
+   * Number of edges in the graph.
+   */
+  public int getEdgeCount() {
+    return edgeData.length;
+  }
+
+  public Object getEdgeData(Integer edge) {
+    return edgeData[edge];
+  }
+
+  /**
+   * Get edge role.
+   */
+  public String getEdgeRole(int edge) {
+    return edgeRoles == null ? null : edgeRoles[edge];
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public Integer getEnd(Integer edge) {
+    int end = edgeEnds[edge];
+    return end < 0 ? null : end;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public List<Integer> getGraphInEdges() {
+    return new IntList(graphInEdges, 0, graphInEdges.length);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public List<Integer> getGraphOutEdges() {
+    return new IntList(graphOutEdges, 0, graphOutEdges.length);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public List<Integer> getInEdges(Integer node) {
+    return new IntList(inEdges, inOffsets[node], inOffsets[node + 1]);
+  }
+
+  /**
+   * Local or parameter the node assigns to another one, e.g. <code>j</code>
+   * in <code>i = j</code>; -1 if the node isn't such an assignment.
+   */
+  public int getCopiedVariable(int node) {
+    return copiedVariables[node];
+  }
+
+  /**
+   * Number of nodes in the graph.
+   */
+  public int getNodeCount() {
+    return nodeCount;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public List<Integer> getNodes() {
+    return new RangeList(nodeCount);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public List<Integer> getOutEdges(Integer node) {
+    return new IntList(outEdges, outOffsets[node], outOffsets[node + 1]);
+  }
+
+  /**
+   * Local or parameter read by the node, -1 if none.
+   */
+  public int getReadVariable(int node) {
+    return readVariables[node];
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public Integer getStart(Integer edge) {
+    int start = edgeStarts[edge];
+    return start < 0 ? null : start;
+  }
+
+  /**
+   * Get the variable with the given id.
+   */
+  public JVariable getVariable(int id) {
+    return variables[id];
+  }
+
+  /**
+   * Number of distinct locals and parameters read or written in the graph.
+   */
+  public int getVariableCount() {
+    return variables.length;
+  }
+
+  /**
+   * Get the id of the variable, -1 if the graph doesn't use it. This does a
+   * linear search.
+   */
+  public int getVariableId(JVariable variable) {
+    for (int i = 0; i < variables.length; ++i) {
+      if (variables[i] == variable) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Local or parameter written by the node, -1 if none.
+   */
+  public int getWrittenVariable(int node) {
+    return writtenVariables[node];
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String print() {
+    return printWithAssumptions(null);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public <A extends Assumption<A>> String printWithAssumptions(
+      Map<Integer, A> map) {
+    StringBuffer result = new StringBuffer();
+    for (int node = 0; node < nodeCount; ++node) {
+      if (result.length() > 0) {
+        result.append("\n");
+      }
+      result.append(node);
+      result.append(" -> [");
+      for (int i = outOffsets[node]; i < outOffsets[node + 1]; ++i) {
+        if (i > outOffsets[node]) {
+          result.append(", ");
+        }
+        int edge = outEdges[i];
+        if (getEdgeRole(edge) != null) {
+          result.append(getEdgeRole(edge));
+          result.append("=");
+        }
+        result.append(edgeEnds[edge] < 0 ? "*" : String.valueOf(edgeEnds[edge]));
+        A assumption = map == null ? null : map.get(edge);
+        if (assumption != null) {
+          result.append(" ");
+          result.append(assumption);
+        }
+      }
+      result.append("]");
+    }
+    return result.toString();
+  }
+
+  public void setEdgeData(Integer edge, Object data) {
+    edgeData[edge] = data;
+  }
+
+  @Override
+  public String toString() {
+    return print();
+  }
+
+  /**
+   * Not supported: the compact graph can only be analyzed. Use {@link Cfg} for
+   * integrated analyses.
+   */
+  public boolean transform(Integer node, CfgTransformer actualizer) {
+    throw new UnsupportedOperationException("CompactCfg is read-only");
+  }
+
+  private void addEdges(List<CfgEdge> edges, Map<CfgEdge, Integer> edgeIds,
+      List<CfgEdge> result) {
+    for (CfgEdge edge : edges) {
+      if (!edgeIds.containsKey(edge)) {
+        edgeIds.put(edge, result.size());
+        result.add(edge);
+      }
+    }
+  }
+
+  private int copyEdgeIds(List<CfgEdge> edges, Map<CfgEdge, Integer> edgeIds,
+      int[] target, int offset) {
+    for (CfgEdge edge : edges) {
+      target[offset++] = getEdgeId(edgeIds, edge);
+    }
+    return offset;
+  }
+
+  private int getEdgeId(Map<CfgEdge, Integer> edgeIds, CfgEdge edge) {
+    Integer id = edgeIds.get(edge);
+    Preconditions.checkState(id != null, "Edge is not in the graph: %s", edge);
+    return id;
+  }
+
+  private int[] getEdgeIds(List<CfgEdge> edges, Map<CfgEdge, Integer> edgeIds) {
+    int[] result = new int[edges.size()];
+    copyEdgeIds(edges, edgeIds, result, 0);
+    return result;
+  }
+
+  private int getNodeId(Map<CfgNode<?>, Integer> nodeIds, CfgNode<?> node) {
+    if (node == null) {
+      return -1;
+    }
+    Integer id = nodeIds.get(node);
+    Preconditions.checkState(id != null, "Node is not in the graph: %s", node);
+    return id;
+  }
+}
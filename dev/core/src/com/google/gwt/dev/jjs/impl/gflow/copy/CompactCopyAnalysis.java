@@ -0,0 +1,43 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.jjs.impl.gflow.copy;
+
+import com.google.gwt.dev.jjs.impl.gflow.Analysis;
+import com.google.gwt.dev.jjs.impl.gflow.AssumptionMap;
+import com.google.gwt.dev.jjs.impl.gflow.AssumptionUtil;
+import com.google.gwt.dev.jjs.impl.gflow.FlowFunction;
+import com.google.gwt.dev.jjs.impl.gflow.cfg.CompactCfg;
+
+/**
+ * Copy analysis on {@link CompactCfg}. Finds the same copies as
+ * {@link CopyAnalysis}, as variable ids.
+ */
+public class CompactCopyAnalysis implements
+    Analysis<Integer, Integer, CompactCfg, CompactCopyAssumption> {
+  private static final CompactCopyFlowFunction FLOW_FUNCTION =
+    new CompactCopyFlowFunction();
+
+  public FlowFunction<Integer, Integer, CompactCfg, CompactCopyAssumption>
+  getFlowFunction() {
+    return FLOW_FUNCTION;
+  }
+
+  public void setInitialGraphAssumptions(CompactCfg graph,
+      AssumptionMap<Integer, CompactCopyAssumption> assumptionMap) {
+    AssumptionUtil.setAssumptions(graph.getGraphInEdges(),
+        CompactCopyAssumption.TOP, assumptionMap);
+  }
+}
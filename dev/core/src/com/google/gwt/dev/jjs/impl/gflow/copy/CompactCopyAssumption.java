@@ -0,0 +1,242 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.jjs.impl.gflow.copy;
+
+import com.google.gwt.dev.jjs.impl.gflow.Assumption;
+import com.google.gwt.dev.util.Preconditions;
+
+import java.util.BitSet;
+
+/**
+ * Assumption class for CompactCopyAnalysis. Same as {@link CopyAssumption}, on
+ * the variable ids of a {@link com.google.gwt.dev.jjs.impl.gflow.cfg.CompactCfg}.
+ */
+public class CompactCopyAssumption implements
+    Assumption<CompactCopyAssumption> {
+  /**
+   * Top value for copy analysis. Means nothing is the copy of anything.
+   */
+  public static final CompactCopyAssumption TOP = new CompactCopyAssumption();
+
+  /**
+   * Updates the assumption by copying it on first write.
+   */
+  public static class Updater {
+    private CompactCopyAssumption assumption;
+    private boolean copied = false;
+
+    public Updater(CompactCopyAssumption assumption) {
+      this.assumption = assumption;
+    }
+
+    public void addCopy(int original, int targetVariable) {
+      Preconditions.checkArgument(original != targetVariable,
+          "Variable is a copy of itself: %s", original);
+      copyIfNeeded();
+      assumption.addCopy(original, targetVariable);
+    }
+
+    public int getMostOriginal(int variable) {
+      for (int i = 0; i < 10000; ++i) {
+        int original = getOriginal(variable);
+        if (original < 0) {
+          return variable;
+        }
+
+        variable = original;
+      }
+      // See CopyAssumption.Updater.getMostOriginal().
+      throw new IllegalStateException("Possible cycle detected for: variable");
+    }
+
+    public int getOriginal(int variable) {
+      if (assumption == null || assumption == TOP) {
+        return -1;
+      }
+
+      return assumption.getOriginal(variable);
+    }
+
+    public void kill(int targetVariable) {
+      if (assumption == TOP) {
+        return;
+      }
+      copyIfNeeded();
+      assumption.kill(targetVariable);
+    }
+
+    public CompactCopyAssumption unwrap() {
+      if (assumption == TOP) {
+        return assumption;
+      }
+      if (assumption != null && assumption.variables.isEmpty()) {
+        return null;
+      }
+      return assumption;
+    }
+
+    private void copyIfNeeded() {
+      if (!copied) {
+        assumption = new CompactCopyAssumption(assumption);
+        copied = true;
+      }
+    }
+  }
+
+  /**
+   * Ids of the variables which are copies of another one.
+   */
+  private final BitSet copies;
+
+  /**
+   * For every variable in {@link #copies}, the id of its original. Other
+   * entries are meaningless.
+   */
+  private int[] originals;
+
+  /**
+   * Ids of all tracked variables, i.e. {@link #copies} and the variables known
+   * not to be copies.
+   */
+  private final BitSet variables;
+
+  public CompactCopyAssumption() {
+    copies = new BitSet();
+    variables = new BitSet();
+  }
+
+  public CompactCopyAssumption(CompactCopyAssumption result) {
+    if (result != null) {
+      copies = (BitSet) result.copies.clone();
+      variables = (BitSet) result.variables.clone();
+      originals = result.originals == null ? null : result.originals.clone();
+    } else {
+      copies = new BitSet();
+      variables = new BitSet();
+    }
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (obj == null) {
+      return false;
+    }
+    if (getClass() != obj.getClass()) {
+      return false;
+    }
+    CompactCopyAssumption other = (CompactCopyAssumption) obj;
+    if (!variables.equals(other.variables) || !copies.equals(other.copies)) {
+      return false;
+    }
+    for (int v = copies.nextSetBit(0); v >= 0; v = copies.nextSetBit(v + 1)) {
+      if (originals[v] != other.originals[v]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Get the id of the variable's original, -1 if it's not a copy.
+   */
+  public int getOriginal(int v) {
+    return copies.get(v) ? originals[v] : -1;
+  }
+
+  @Override
+  public int hashCode() {
+    return variables.hashCode() * 31 + copies.hashCode();
+  }
+
+  public CompactCopyAssumption join(CompactCopyAssumption value) {
+    if (value == null) {
+      return this;
+    }
+
+    if (this == TOP || value == TOP) {
+      return TOP;
+    }
+
+    if (value.variables.isEmpty() || variables.isEmpty()) {
+      return null;
+    }
+
+    CompactCopyAssumption result = new CompactCopyAssumption();
+    result.variables.or(variables);
+    for (int v = copies.nextSetBit(0); v >= 0; v = copies.nextSetBit(v + 1)) {
+      if (originals[v] == value.getOriginal(v)) {
+        result.addCopy(originals[v], v);
+      }
+    }
+
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    if (this == TOP) {
+      return "T";
+    }
+
+    StringBuffer result = new StringBuffer();
+
+    result.append("{");
+    for (int v = variables.nextSetBit(0); v >= 0;
+        v = variables.nextSetBit(v + 1)) {
+      if (result.length() > 1) {
+        result.append(", ");
+      }
+      result.append(v);
+      result.append(" = ");
+      if (copies.get(v)) {
+        result.append(originals[v]);
+      } else {
+        result.append("T");
+      }
+    }
+    result.append("}");
+
+    return result.toString();
+  }
+
+  private void addCopy(int original, int copy) {
+    Preconditions.checkArgument(this != TOP);
+    if (originals == null || originals.length <= copy) {
+      int[] newOriginals = new int[Math.max(copy + 1, copies.length() * 2)];
+      if (originals != null) {
+        System.arraycopy(originals, 0, newOriginals, 0, originals.length);
+      }
+      originals = newOriginals;
+    }
+    variables.set(copy);
+    copies.set(copy);
+    originals[copy] = original;
+  }
+
+  private void kill(int variable) {
+    variables.set(variable);
+    copies.clear(variable);
+
+    for (int v = copies.nextSetBit(0); v >= 0; v = copies.nextSetBit(v + 1)) {
+      if (originals[v] == variable) {
+        copies.clear(v);
+      }
+    }
+  }
+}
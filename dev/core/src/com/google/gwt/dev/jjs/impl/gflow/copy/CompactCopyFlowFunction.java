@@ -0,0 +1,59 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.jjs.impl.gflow.copy;
+
+import com.google.gwt.dev.jjs.impl.gflow.AssumptionMap;
+import com.google.gwt.dev.jjs.impl.gflow.AssumptionUtil;
+import com.google.gwt.dev.jjs.impl.gflow.FlowFunction;
+import com.google.gwt.dev.jjs.impl.gflow.cfg.CompactCfg;
+import com.google.gwt.dev.jjs.impl.gflow.copy.CompactCopyAssumption.Updater;
+
+/**
+ * Flow function for CompactCopyAnalysis. Same as {@link CopyFlowFunction}, on
+ * variable ids.
+ */
+public class CompactCopyFlowFunction implements
+    FlowFunction<Integer, Integer, CompactCfg, CompactCopyAssumption> {
+  public void interpret(Integer node, CompactCfg g,
+      AssumptionMap<Integer, CompactCopyAssumption> assumptionMap) {
+    CompactCopyAssumption in = AssumptionUtil.join(g.getInEdges(node),
+        assumptionMap);
+    Updater result = new Updater(in);
+
+    int targetVariable = g.getWrittenVariable(node);
+    if (targetVariable >= 0) {
+      int original = g.getCopiedVariable(node);
+      if (original < 0) {
+        // Read-write, or a write of anything but a local or parameter.
+        result.kill(targetVariable);
+      } else {
+        original = result.getMostOriginal(original);
+        if (original != targetVariable) {
+          result.kill(targetVariable);
+          if (g.getVariable(original).getType() ==
+              g.getVariable(targetVariable).getType()) {
+            result.addCopy(original, targetVariable);
+          }
+        } else {
+          // We don't have to kill any assumptions after i = i assignment.
+        }
+      }
+    }
+
+    AssumptionUtil.setAssumptions(g.getOutEdges(node), result.unwrap(),
+        assumptionMap);
+  }
+}
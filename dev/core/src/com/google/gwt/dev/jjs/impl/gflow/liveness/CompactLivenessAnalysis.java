@@ -0,0 +1,42 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.jjs.impl.gflow.liveness;
+
+import com.google.gwt.dev.jjs.impl.gflow.Analysis;
+import com.google.gwt.dev.jjs.impl.gflow.AssumptionMap;
+import com.google.gwt.dev.jjs.impl.gflow.FlowFunction;
+import com.google.gwt.dev.jjs.impl.gflow.cfg.CompactCfg;
+
+/**
+ * Liveness analysis on {@link CompactCfg}. Computes the same live variables
+ * as {@link LivenessAnalysis}, as sets of variable ids. Should be solved
+ * backwards.
+ */
+public class CompactLivenessAnalysis implements Analysis<Integer, Integer,
+    CompactCfg, CompactLivenessAssumption> {
+  private static final CompactLivenessFlowFunction FLOW_FUNCTION =
+    new CompactLivenessFlowFunction();
+
+  public FlowFunction<Integer, Integer, CompactCfg, CompactLivenessAssumption>
+  getFlowFunction() {
+    return FLOW_FUNCTION;
+  }
+
+  public void setInitialGraphAssumptions(CompactCfg graph,
+      AssumptionMap<Integer, CompactLivenessAssumption> assumptionMap) {
+    // bottom assumptions.
+  }
+}
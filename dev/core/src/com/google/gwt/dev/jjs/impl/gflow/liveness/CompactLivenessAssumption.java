@@ -0,0 +1,130 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.jjs.impl.gflow.liveness;
+
+import com.google.gwt.dev.jjs.impl.gflow.Assumption;
+
+import java.util.BitSet;
+
+/**
+ * Assumption for CompactLivenessAnalysis. Contains the set of ids of all live
+ * variables of a {@link com.google.gwt.dev.jjs.impl.gflow.cfg.CompactCfg}.
+ */
+public class CompactLivenessAssumption implements
+    Assumption<CompactLivenessAssumption> {
+  /**
+   * Updates the assumption by copying it on first write.
+   */
+  public static class Updater {
+    private CompactLivenessAssumption assumption;
+    private boolean copied = false;
+
+    public Updater(CompactLivenessAssumption assumption) {
+      this.assumption = assumption;
+    }
+
+    public void kill(int variable) {
+      if (assumption == null || !assumption.isLive(variable)) {
+        return;
+      }
+      copyIfNeeded();
+      assumption.liveVariables.clear(variable);
+    }
+
+    public CompactLivenessAssumption unwrap() {
+      if (assumption != null && assumption.liveVariables.isEmpty()) {
+        return null;
+      }
+      return assumption;
+    }
+
+    public void use(int variable) {
+      if (assumption != null && assumption.isLive(variable)) {
+        return;
+      }
+      copyIfNeeded();
+      assumption.liveVariables.set(variable);
+    }
+
+    private void copyIfNeeded() {
+      if (!copied) {
+        assumption = new CompactLivenessAssumption(assumption);
+        copied = true;
+      }
+    }
+  }
+
+  /**
+   * Ids of all live variables.
+   */
+  private final BitSet liveVariables;
+
+  public CompactLivenessAssumption() {
+    liveVariables = new BitSet();
+  }
+
+  public CompactLivenessAssumption(CompactLivenessAssumption assumptions) {
+    if (assumptions != null) {
+      liveVariables = (BitSet) assumptions.liveVariables.clone();
+    } else {
+      liveVariables = new BitSet();
+    }
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (obj == null) {
+      return false;
+    }
+    if (getClass() != obj.getClass()) {
+      return false;
+    }
+    CompactLivenessAssumption other = (CompactLivenessAssumption) obj;
+    return liveVariables.equals(other.liveVariables);
+  }
+
+  @Override
+  public int hashCode() {
+    return liveVariables.hashCode();
+  }
+
+  public boolean isLive(int variable) {
+    return liveVariables.get(variable);
+  }
+
+  /**
+   * Computes union of all live variables.
+   */
+  public CompactLivenessAssumption join(CompactLivenessAssumption value) {
+    if (value == null || value.liveVariables.isEmpty()) {
+      return this;
+    }
+    if (liveVariables.isEmpty()) {
+      return value;
+    }
+    CompactLivenessAssumption result = new CompactLivenessAssumption(this);
+    result.liveVariables.or(value.liveVariables);
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return liveVariables.toString();
+  }
+}
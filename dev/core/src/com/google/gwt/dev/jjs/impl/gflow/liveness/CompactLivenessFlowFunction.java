@@ -0,0 +1,46 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.jjs.impl.gflow.liveness;
+
+import com.google.gwt.dev.jjs.impl.gflow.AssumptionMap;
+import com.google.gwt.dev.jjs.impl.gflow.AssumptionUtil;
+import com.google.gwt.dev.jjs.impl.gflow.FlowFunction;
+import com.google.gwt.dev.jjs.impl.gflow.cfg.CompactCfg;
+import com.google.gwt.dev.jjs.impl.gflow.liveness.CompactLivenessAssumption.Updater;
+
+/**
+ * Flow function for CompactLivenessAnalysis. Same as
+ * {@link LivenessFlowFunction}, on variable ids.
+ */
+public class CompactLivenessFlowFunction implements FlowFunction<Integer,
+    Integer, CompactCfg, CompactLivenessAssumption> {
+  public void interpret(Integer node, CompactCfg g,
+      AssumptionMap<Integer, CompactLivenessAssumption> assumptionMap) {
+    Updater result = new Updater(
+        AssumptionUtil.join(g.getOutEdges(node), assumptionMap));
+
+    int read = g.getReadVariable(node);
+    int written = g.getWrittenVariable(node);
+    if (read >= 0) {
+      result.use(read);
+    } else if (written >= 0) {
+      result.kill(written);
+    }
+
+    AssumptionUtil.setAssumptions(g.getInEdges(node), result.unwrap(),
+        assumptionMap);
+  }
+}
@@ -49,17 +49,21 @@ import com.google.gwt.dev.js.ast.JsVars.JsVar;
 import com.google.gwt.dev.js.ast.JsVisitable;
 import com.google.gwt.dev.js.ast.JsVisitor;
 import com.google.gwt.dev.js.ast.JsWhile;
+import com.google.gwt.dev.util.Parallel;
+import com.google.gwt.dev.util.Parallel.ChunkTask;
 import com.google.gwt.dev.util.log.speedtracer.CompilerEventType;
 import com.google.gwt.dev.util.log.speedtracer.SpeedTracerLogger;
 import com.google.gwt.dev.util.log.speedtracer.SpeedTracerLogger.Event;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Removes JsFunctions that are never referenced in the program.
@@ -155,6 +159,12 @@ public class JsStaticEval {
    */
   private class StaticEvalVisitor extends JsModVisitor {
 
+    /**
+     * Functions that were already evaluated by another visitor and must not be
+     * entered again.
+     */
+    private final Set<JsFunction> alreadyVisited;
+
     private Set<JsExpression> evalBooleanContext = new HashSet<JsExpression>();
 
     /**
@@ -162,6 +172,14 @@ public class JsStaticEval {
      */
     private Map<JsExpression, Boolean> coercesToStringMap = new IdentityHashMap<JsExpression, Boolean>();
 
+    public StaticEvalVisitor() {
+      this(Collections.<JsFunction> emptySet());
+    }
+
+    public StaticEvalVisitor(Set<JsFunction> alreadyVisited) {
+      this.alreadyVisited = alreadyVisited;
+    }
+
     @Override
     public void endVisit(JsBinaryOperation x, JsContext ctx) {
       JsBinaryOperator op = x.getOperator();
@@ -449,6 +467,11 @@ public class JsStaticEval {
       return true;
     }
 
+    @Override
+    public boolean visit(JsFunction x, JsContext ctx) {
+      return !alreadyVisited.contains(x);
+    }
+
     @Override
     public boolean visit(JsIf x, JsContext ctx) {
       evalBooleanContext.add(x.getIfExpr());
@@ -878,9 +901,20 @@ public class JsStaticEval {
   }
 
   public static OptimizerStats exec(JsProgram program) {
+    return exec(program, 1);
+  }
+
+  /**
+   * Like {@link #exec(JsProgram)}, but evaluates the bodies of top-level
+   * functions on up to <code>numThreads</code> threads before evaluating the
+   * rest of the program on the calling thread.
+   */
+  public static OptimizerStats exec(JsProgram program, int numThreads) {
     Event optimizeJsEvent = SpeedTracerLogger.start(
         CompilerEventType.OPTIMIZE_JS, "optimizer", NAME);
-    OptimizerStats stats = new JsStaticEval(program).execImpl();
+    JsStaticEval staticEval = new JsStaticEval(program);
+    OptimizerStats stats =
+        numThreads > 1 ? staticEval.execInParallel(numThreads) : staticEval.execImpl();
     optimizeJsEvent.end("didChange", "" + stats.didChange());
     return stats;
   }
@@ -996,4 +1030,40 @@ public class JsStaticEval {
     }
     return stats;
   }
+
+  private OptimizerStats execInParallel(int numThreads) {
+    List<JsFunction> functions = new ArrayList<JsFunction>();
+    for (int i = 0; i < program.getFragmentCount(); i++) {
+      for (JsStatement stmt : program.getFragmentBlock(i).getStatements()) {
+        JsFunction func = isFunctionDecl(stmt);
+        if (func != null) {
+          functions.add(func);
+        }
+      }
+    }
+
+    List<Boolean> changes;
+    try {
+      changes = Parallel.mapChunks(numThreads, functions, new ChunkTask<JsFunction, Boolean>() {
+        public Boolean run(List<JsFunction> chunk) {
+          StaticEvalVisitor sev = new StaticEvalVisitor();
+          for (JsFunction func : chunk) {
+            sev.accept(func);
+          }
+          return sev.didChange();
+        }
+      });
+    } catch (ExecutionException e) {
+      throw new InternalCompilerException("Unexpected error evaluating functions", e.getCause());
+    }
+
+    // Everything outside of the top-level functions.
+    StaticEvalVisitor sev = new StaticEvalVisitor(new HashSet<JsFunction>(functions));
+    sev.accept(program);
+    OptimizerStats stats = new OptimizerStats(NAME);
+    if (sev.didChange() || changes.contains(Boolean.TRUE)) {
+      stats.recordModified();
+    }
+    return stats;
+  }
 }
@@ -22,29 +22,91 @@ import com.google.gwt.dev.util.msg.Message1String;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A {@link ClassPathEntry} for a directory on the file system.
+ * 
+ * <p>
+ * In incremental mode (the default is set by the
+ * <code>gwt.resourceOracle.incrementalRefresh</code> system property), the
+ * listing of every directory is kept between scans, and reused as long as the
+ * directory's modification time does not change. Adding, removing or renaming
+ * an entry updates the modification time of its directory, so a rescan only
+ * lists the directories that changed, instead of checking every file of the
+ * tree. Changes to the contents of a file don't affect the listing; a
+ * {@link FileResource} always reads its file.
+ * </p>
  */
 public class DirectoryClassPathEntry extends ClassPathEntry {
 
+  /**
+   * The listing of a directory, as of its modification time.
+   */
+  private static class DirectorySnapshot {
+    final String[] dirNames;
+    final String[] fileNames;
+    /**
+     * The resource of each file, created the first time it's included.
+     */
+    final FileResource[] fileResources;
+    final long lastModified;
+
+    DirectorySnapshot(long lastModified, String[] dirNames, String[] fileNames) {
+      this.lastModified = lastModified;
+      this.dirNames = dirNames;
+      this.fileNames = fileNames;
+      this.fileResources = new FileResource[fileNames.length];
+    }
+  }
+
   private static class Messages {
     static final Message1String DESCENDING_INTO_DIR = new Message1String(
         TreeLogger.SPAM, "Descending into dir: $0");
 
     static final Message1String INCLUDING_FILE = new Message1String(
         TreeLogger.DEBUG, "Including file: $0");
+
+    static final Message1String REUSING_DIR = new Message1String(
+        TreeLogger.SPAM, "Reusing unchanged dir: $0");
   }
 
+  /**
+   * Directories modified this recently are not kept, since file systems with a
+   * coarse timestamp resolution could change them again without changing their
+   * modification time.
+   */
+  private static final long RACY_INTERVAL_MS = 2000;
+
   /**
    * Absolute directory.
    */
   private final File dir;
 
+  private boolean incremental = Boolean.parseBoolean(
+      System.getProperty("gwt.resourceOracle.incrementalRefresh"));
+
   private final String location;
 
+  /**
+   * The number of directories whose listing was reused by the last scan.
+   */
+  private int reusedDirs;
+
+  /**
+   * The number of directories listed by the last scan.
+   */
+  private int scannedDirs;
+
+  /**
+   * Snapshots of the directories of the tree, by abstract path (with a
+   * trailing slash; "" for the root).
+   */
+  private final Map<String, DirectorySnapshot> snapshots = new ConcurrentHashMap<String, DirectorySnapshot>();
+
   /**
    * @param dir an absolute directory
    */
@@ -62,7 +124,7 @@ public class DirectoryClassPathEntry extends ClassPathEntry {
     for (int i = 0, c = pathPrefixSets.size(); i < c; ++i) {
       results.add(new IdentityHashMap<AbstractResource, PathPrefix>());
     }
-    descendToFindResources(logger, pathPrefixSets, results, dir, "");
+    scan(logger, pathPrefixSets, results);
     return results;
   }
 
@@ -70,8 +132,7 @@ public class DirectoryClassPathEntry extends ClassPathEntry {
   public Map<AbstractResource, PathPrefix> findApplicableResources(
       TreeLogger logger, PathPrefixSet pathPrefixSet) {
     Map<AbstractResource, PathPrefix> results = new IdentityHashMap<AbstractResource, PathPrefix>();
-    descendToFindResources(logger, Lists.create(pathPrefixSet),
-        Lists.create(results), dir, "");
+    scan(logger, Lists.create(pathPrefixSet), Lists.create(results));
     return results;
   }
 
@@ -80,6 +141,39 @@ public class DirectoryClassPathEntry extends ClassPathEntry {
     return location;
   }
 
+  /**
+   * Returns the number of directories whose listing was reused by the last
+   * scan.
+   */
+  public int getReusedDirectoryCount() {
+    return reusedDirs;
+  }
+
+  /**
+   * Returns the number of directories listed by the last scan.
+   */
+  public int getScannedDirectoryCount() {
+    return scannedDirs;
+  }
+
+  /**
+   * Returns whether directory listings are kept between scans.
+   */
+  public boolean isIncremental() {
+    return incremental;
+  }
+
+  /**
+   * Sets whether directory listings are kept between scans. Turning it off
+   * drops the kept listings.
+   */
+  public void setIncremental(boolean incremental) {
+    this.incremental = incremental;
+    if (!incremental) {
+      snapshots.clear();
+    }
+  }
+
   /**
    * @param logger logs progress
    * @param pathPrefixSets the sets of path prefixes to determine what resources
@@ -98,29 +192,94 @@ public class DirectoryClassPathEntry extends ClassPathEntry {
 
     // Assert: this directory is included in the path prefix set.
 
-    File[] children = dir.listFiles();
-    for (File child : children) {
-      String childPath = dirPath + child.getName();
-      if (child.isDirectory()) {
-        String childDirPath = childPath + "/";
-        for (int i = 0; i < len; ++i) {
-          if (pathPrefixSets.get(i).includesDirectory(childDirPath)) {
-            Messages.DESCENDING_INTO_DIR.log(logger, child.getPath(), null);
-            descendToFindResources(logger, pathPrefixSets, results, child,
-                childDirPath);
-            break;
+    DirectorySnapshot snapshot = getSnapshot(logger, dir, dirPath);
+    for (String dirName : snapshot.dirNames) {
+      String childDirPath = dirPath + dirName + "/";
+      for (int i = 0; i < len; ++i) {
+        if (pathPrefixSets.get(i).includesDirectory(childDirPath)) {
+          File child = new File(dir, dirName);
+          Messages.DESCENDING_INTO_DIR.log(logger, child.getPath(), null);
+          descendToFindResources(logger, pathPrefixSets, results, child,
+              childDirPath);
+          break;
+        }
+      }
+    }
+    for (int f = 0; f < snapshot.fileNames.length; ++f) {
+      String childPath = dirPath + snapshot.fileNames[f];
+      for (int i = 0; i < len; ++i) {
+        PathPrefix prefix = null;
+        if ((prefix = pathPrefixSets.get(i).includesResource(childPath)) != null) {
+          Messages.INCLUDING_FILE.log(logger, childPath, null);
+          FileResource r = snapshot.fileResources[f];
+          if (r == null) {
+            r = new FileResource(this, childPath, new File(dir,
+                snapshot.fileNames[f]));
+            snapshot.fileResources[f] = r;
           }
+          results.get(i).put(r, prefix);
         }
+      }
+    }
+  }
+
+  /**
+   * Returns the listing of a directory, reusing the kept one if the directory
+   * has not changed since.
+   */
+  private DirectorySnapshot getSnapshot(TreeLogger logger, File dir,
+      String dirPath) {
+    long lastModified = incremental ? dir.lastModified() : 0;
+    DirectorySnapshot snapshot = incremental ? snapshots.get(dirPath) : null;
+    if (snapshot != null && snapshot.lastModified == lastModified) {
+      Messages.REUSING_DIR.log(logger, dir.getPath(), null);
+      ++reusedDirs;
+      return snapshot;
+    }
+
+    ++scannedDirs;
+    List<String> dirNames = new ArrayList<String>();
+    List<String> fileNames = new ArrayList<String>();
+    for (File child : dir.listFiles()) {
+      if (child.isDirectory()) {
+        dirNames.add(child.getName());
       } else if (child.isFile()) {
-        for (int i = 0; i < len; ++i) {
-          PathPrefix prefix = null;
-          if ((prefix = pathPrefixSets.get(i).includesResource(childPath)) != null) {
-            Messages.INCLUDING_FILE.log(logger, childPath, null);
-            FileResource r = new FileResource(this, childPath, child);
-            results.get(i).put(r, prefix);
+        fileNames.add(child.getName());
+      }
+    }
+    DirectorySnapshot newSnapshot = new DirectorySnapshot(lastModified,
+        dirNames.toArray(new String[dirNames.size()]),
+        fileNames.toArray(new String[fileNames.size()]));
+    if (incremental) {
+      if (snapshot != null) {
+        // Forget the subdirectories that are gone.
+        for (String oldDirName : snapshot.dirNames) {
+          if (!dirNames.contains(oldDirName)) {
+            removeSnapshots(dirPath + oldDirName + "/");
           }
         }
       }
+      if (System.currentTimeMillis() - lastModified >= RACY_INTERVAL_MS) {
+        snapshots.put(dirPath, newSnapshot);
+      } else {
+        snapshots.remove(dirPath);
+      }
     }
+    return newSnapshot;
+  }
+
+  private void removeSnapshots(String dirPath) {
+    for (Iterator<String> it = snapshots.keySet().iterator(); it.hasNext();) {
+      if (it.next().startsWith(dirPath)) {
+        it.remove();
+      }
+    }
+  }
+
+  private void scan(TreeLogger logger, List<PathPrefixSet> pathPrefixSets,
+      List<Map<AbstractResource, PathPrefix>> results) {
+    scannedDirs = 0;
+    reusedDirs = 0;
+    descendToFindResources(logger, pathPrefixSets, results, dir, "");
   }
 }
@@ -270,12 +270,26 @@ public class ResourceOracleImpl implements ResourceOracle {
      * resources with the same path, the one with the higher-priority path
      * prefix wins.
      */
+    int scannedDirs = 0;
+    int reusedDirs = 0;
     for (ClassPathEntry pathRoot : oracles[0].classPath) {
       TreeLogger branchForClassPathEntry =
           Messages.EXAMINING_PATH_ROOT.branch(refreshBranch, pathRoot.getLocation(), null);
 
+      Event classPathEntryEvent =
+          SpeedTracerLogger.start(CompilerEventType.RESOURCE_ORACLE, "phase", "refresh entry",
+              "location", pathRoot.getLocation());
       List<Map<AbstractResource, PathPrefix>> resourceToPrefixMaps =
           pathRoot.findApplicableResources(branchForClassPathEntry, pathPrefixSets);
+      if (pathRoot instanceof DirectoryClassPathEntry) {
+        DirectoryClassPathEntry dirEntry = (DirectoryClassPathEntry) pathRoot;
+        scannedDirs += dirEntry.getScannedDirectoryCount();
+        reusedDirs += dirEntry.getReusedDirectoryCount();
+        classPathEntryEvent.end("scannedDirs", String.valueOf(dirEntry.getScannedDirectoryCount()),
+            "reusedDirs", String.valueOf(dirEntry.getReusedDirectoryCount()));
+      } else {
+        classPathEntryEvent.end();
+      }
       for (int i = 0; i < len; ++i) {
         Map<String, ResourceData> resourceDataMap = resourceDataMaps.get(i);
         Map<AbstractResource, PathPrefix> resourceToPrefixMap = resourceToPrefixMaps.get(i);
@@ -310,7 +324,8 @@ public class ResourceOracleImpl implements ResourceOracle {
       oracles[i].exposedPathNames = Collections.unmodifiableSet(externalMap.keySet());
     }
 
-    resourceOracle.end();
+    resourceOracle.end("scannedDirs", String.valueOf(scannedDirs), "reusedDirs",
+        String.valueOf(reusedDirs));
   }
 
   private static void addAllClassPathEntries(TreeLogger logger, ResourceLoader loader,
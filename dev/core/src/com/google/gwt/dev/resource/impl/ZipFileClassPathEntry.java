@@ -28,7 +28,9 @@ import org.apache.commons.collections.map.ReferenceMap;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.zip.ZipEntry;
@@ -55,6 +57,12 @@ public class ZipFileClassPathEntry extends ClassPathEntry {
     static final Message1String INCLUDING_RESOURCE = new Message1String(
         TreeLogger.DEBUG, "Including $0");
 
+    static final Message1String READING_SAVED_INDEX = new Message1String(
+        TreeLogger.TRACE, "Using the saved index of zip file: $0");
+
+    static final Message1String SAVING_INDEX_FAILED = new Message1String(
+        TreeLogger.DEBUG, "Unable to save the index of zip file: $0");
+
     static final Message1String READ_ZIP_ENTRY = new Message1String(
         TreeLogger.DEBUG, "$0");
   }
@@ -109,15 +117,36 @@ public class ZipFileClassPathEntry extends ClassPathEntry {
   private final Map<PathPrefixSet, ZipFileSnapshot> cachedSnapshots = new ReferenceIdentityMap(
       AbstractReferenceMap.WEAK, AbstractReferenceMap.HARD, true);
 
+  private final File file;
   private final long lastModified;
   private final String location;
-  private final ZipFile zipFile;
+
+  /**
+   * The entries read from the saved index, until {@link #index(TreeLogger)}
+   * uses them.
+   */
+  private String[] savedIndex;
+
+  private final long size;
+
+  /**
+   * Opened on first use if the entries were read from a saved index.
+   */
+  private ZipFile zipFile;
 
   private ZipFileClassPathEntry(File zipFile) throws IOException {
     assert zipFile.isAbsolute();
+    this.file = zipFile;
     this.lastModified = zipFile.lastModified();
-    this.zipFile = new ZipFile(zipFile);
+    this.size = zipFile.length();
     this.location = zipFile.toURI().toString();
+    File indexDir = ZipFileIndex.getIndexDir();
+    if (indexDir != null) {
+      savedIndex = ZipFileIndex.read(indexDir, zipFile);
+    }
+    if (savedIndex == null) {
+      this.zipFile = new ZipFile(zipFile);
+    }
   }
 
   /**
@@ -141,7 +170,13 @@ public class ZipFileClassPathEntry extends ClassPathEntry {
     return location;
   }
 
-  public ZipFile getZipFile() {
+  /**
+   * Returns the zip file, which is opened on first use.
+   */
+  public synchronized ZipFile getZipFile() throws IOException {
+    if (zipFile == null) {
+      zipFile = new ZipFile(file);
+    }
     return zipFile;
   }
 
@@ -157,9 +192,20 @@ public class ZipFileClassPathEntry extends ClassPathEntry {
   }
 
   private Set<ZipFileResource> buildIndex(TreeLogger logger) {
+    Set<ZipFileResource> results = new IdentityHashSet<ZipFileResource>();
+    if (savedIndex != null) {
+      logger = Messages.READING_SAVED_INDEX.branch(logger, file.getPath(), null);
+      for (String path : savedIndex) {
+        results.add(new ZipFileResource(this, path));
+        Messages.READ_ZIP_ENTRY.log(logger, path, null);
+      }
+      savedIndex = null;
+      return Sets.normalize(results);
+    }
+
     logger = Messages.BUILDING_INDEX.branch(logger, zipFile.getName(), null);
 
-    Set<ZipFileResource> results = new IdentityHashSet<ZipFileResource>();
+    List<String> paths = new ArrayList<String>();
     Enumeration<? extends ZipEntry> e = zipFile.entries();
     while (e.hasMoreElements()) {
       ZipEntry zipEntry = e.nextElement();
@@ -174,15 +220,25 @@ public class ZipFileClassPathEntry extends ClassPathEntry {
       ZipFileResource zipResource = new ZipFileResource(this,
           zipEntry.getName());
       results.add(zipResource);
+      paths.add(zipEntry.getName());
       Messages.READ_ZIP_ENTRY.log(logger, zipEntry.getName(), null);
     }
+
+    File indexDir = ZipFileIndex.getIndexDir();
+    if (indexDir != null) {
+      try {
+        ZipFileIndex.write(indexDir, file, size, lastModified, paths);
+      } catch (IOException ex) {
+        Messages.SAVING_INDEX_FAILED.log(logger, file.getPath(), ex);
+      }
+    }
     return Sets.normalize(results);
   }
 
   private Map<AbstractResource, PathPrefix> computeApplicableResources(
       TreeLogger logger, PathPrefixSet pathPrefixSet) {
     logger = Messages.FINDING_INCLUDED_RESOURCES.branch(logger,
-        zipFile.getName(), null);
+        file.getPath(), null);
 
     Map<AbstractResource, PathPrefix> results = new IdentityHashMap<AbstractResource, PathPrefix>();
     for (ZipFileResource r : allZipFileResources) {
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.resource.impl;
+
+import com.google.gwt.dev.util.Util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * A persistent index of the entries of a jar or zip file, so that
+ * {@link ZipFileClassPathEntry} can find them without reading the zip central
+ * directory. An index is keyed by the path, size and modification time of the
+ * zip file and only lists the entries GWT can use, i.e. files outside of
+ * <code>META-INF</code>.
+ *
+ * <p>
+ * Indexes are stored in the directory named by the
+ * <code>gwt.jarindexdir</code> system property; if it isn't set, nothing is
+ * stored. Index files are small, so they are read into memory at once rather
+ * than memory-mapped, which would keep them locked on Windows until the
+ * mapping is garbage collected.
+ * </p>
+ */
+final class ZipFileIndex {
+
+  static final String INDEX_DIR_PROPERTY = "gwt.jarindexdir";
+
+  private static final int MAGIC = 0x47574a49;
+
+  private static final int VERSION = 1;
+
+  /**
+   * Returns the directory in which indexes are stored, or <code>null</code>
+   * if they aren't.
+   */
+  static File getIndexDir() {
+    String indexDir = System.getProperty(INDEX_DIR_PROPERTY);
+    return indexDir == null || indexDir.length() == 0 ? null : new File(
+        indexDir);
+  }
+
+  /**
+   * Reads the index of a zip file.
+   *
+   * @return the paths of the indexed entries, or <code>null</code> if there is
+   *         no up-to-date index
+   */
+  static String[] read(File indexDir, File zipFile) {
+    File indexFile = getIndexFile(indexDir, zipFile);
+    if (!indexFile.isFile()) {
+      return null;
+    }
+    byte[] bytes = Util.readFileAsBytes(indexFile);
+    if (bytes == null) {
+      return null;
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    try {
+      if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+          || !zipFile.getPath().equals(readString(buffer))
+          || buffer.getLong() != zipFile.length()
+          || buffer.getLong() != zipFile.lastModified()) {
+        return null;
+      }
+      int count = buffer.getInt();
+      if (count < 0 || count > buffer.remaining() / 4) {
+        return null;
+      }
+      String[] paths = new String[count];
+      for (int i = 0; i < paths.length; ++i) {
+        paths[i] = readString(buffer);
+      }
+      return paths;
+    } catch (IOException e) {
+      return null;
+    } catch (BufferUnderflowException e) {
+      // A truncated index.
+      return null;
+    }
+  }
+
+  /**
+   * Writes the index of a zip file. The index is written to a temporary file
+   * and renamed, so that concurrent readers never see a partial index.
+   */
+  static void write(File indexDir, File zipFile, long size, long lastModified,
+      List<String> paths) throws IOException {
+    if (!indexDir.isDirectory() && !indexDir.mkdirs()) {
+      throw new IOException("Unable to create " + indexDir);
+    }
+    File indexFile = getIndexFile(indexDir, zipFile);
+    File tempFile = File.createTempFile(indexFile.getName(), ".tmp", indexDir);
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(tempFile)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      writeString(out, zipFile.getPath());
+      out.writeLong(size);
+      out.writeLong(lastModified);
+      out.writeInt(paths.size());
+      for (String path : paths) {
+        writeString(out, path);
+      }
+    } finally {
+      out.close();
+    }
+    indexFile.delete();
+    if (!tempFile.renameTo(indexFile)) {
+      tempFile.delete();
+      throw new IOException("Unable to rename " + tempFile + " to " + indexFile);
+    }
+  }
+
+  private static File getIndexFile(File indexDir, File zipFile) {
+    return new File(indexDir, zipFile.getName() + "-"
+        + Util.computeStrongName(Util.getBytes(zipFile.getPath())) + ".idx");
+  }
+
+  private static String readString(ByteBuffer buffer) throws IOException {
+    int length = buffer.getInt();
+    if (length < 0 || length > buffer.remaining()) {
+      throw new IOException("Corrupt index");
+    }
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, Util.DEFAULT_ENCODING);
+  }
+
+  private static void writeString(DataOutputStream out, String s)
+      throws IOException {
+    byte[] bytes = Util.getBytes(s);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private ZipFileIndex() {
+  }
+}
@@ -169,7 +169,20 @@ public abstract class BrowserChannel {
     
     USER_AGENT_ICON(14),
     
-    REQUEST_PLUGIN(15);
+    REQUEST_PLUGIN(15),
+
+    /**
+     * A list of invocations on the client whose results are ignored, answered
+     * by a single BATCH_RETURN.  Only used from protocol version
+     * {@link BrowserChannel#PROTOCOL_VERSION_BATCHED_INVOKE}.
+     */
+    INVOKE_BATCH(16),
+
+    /**
+     * The answer to INVOKE_BATCH, telling which of its invocations threw an
+     * exception, if any.
+     */
+    BATCH_RETURN(17);
     
     private final int id;
     
@@ -603,6 +616,55 @@ public abstract class BrowserChannel {
     }
   }
 
+  /**
+   * The answer to an {@link InvokeBatchMessage}. The number of invocations
+   * which completed normally is sent along with the usual Return fields, so
+   * that an exception can be attributed to the invocation which threw it.
+   */
+  protected static class BatchReturnMessage extends ReturnMessage {
+    public static BatchReturnMessage receive(BrowserChannel channel)
+        throws IOException {
+      final DataInputStream stream = channel.getStreamFromOtherSide();
+      // NOTE: Tag has already been read.
+      final int completed = stream.readInt();
+      final boolean isException = stream.readBoolean();
+      final Value returnValue = channel.readValue(stream);
+      return new BatchReturnMessage(channel, completed, isException,
+          returnValue);
+    }
+
+    public static void send(BrowserChannel channel, int completed,
+        boolean isException, Value returnValue) throws IOException {
+      final DataOutputStream stream = channel.getStreamToOtherSide();
+      stream.writeByte(MessageType.BATCH_RETURN.getId());
+      stream.writeInt(completed);
+      stream.writeBoolean(isException);
+      channel.writeValue(stream, returnValue);
+      stream.flush();
+    }
+
+    private final int completed;
+
+    public BatchReturnMessage(BrowserChannel channel, int completed,
+        boolean isException, Value returnValue) {
+      super(channel, isException, returnValue);
+      this.completed = completed;
+    }
+
+    /**
+     * @return the number of invocations which completed normally; if this is
+     *         an exception, it was thrown by the invocation at this index
+     */
+    public int getCompleted() {
+      return completed;
+    }
+
+    @Override
+    public void send() throws IOException {
+      send(getBrowserChannel(), completed, isException(), getReturnValue());
+    }
+  }
+
   /**
    * The initial request from the client, supplies a range of supported versions
    * and the version from hosted.html (so stale copies on an external server
@@ -749,13 +811,22 @@ public abstract class BrowserChannel {
 
     public static void send(BrowserChannel channel, int[] ids)
         throws IOException {
+      write(channel, ids);
+      channel.getStreamToOtherSide().flush();
+    }
+
+    /**
+     * Writes the message without flushing it, so that it is sent along with
+     * the Invoke or Return message which must follow it.
+     */
+    public static void write(BrowserChannel channel, int[] ids)
+        throws IOException {
       DataOutputStream stream = channel.getStreamToOtherSide();
       stream.writeByte(MessageType.FREE_VALUE.getId());
       stream.writeInt(ids.length);
       for (int id : ids) {
         stream.writeInt(id);
       }
-      stream.flush();
     }
 
     private final int ids[];
@@ -780,6 +851,51 @@ public abstract class BrowserChannel {
     }
   }
 
+  /**
+   * A request from the server to invoke several functions on the client, in
+   * order, ignoring their results. The client stops at the first one which
+   * throws an exception, and answers the whole batch with a single
+   * {@link BatchReturnMessage} carrying that exception and the number of
+   * invocations before it, or undefined if none was thrown.
+   */
+  protected static class InvokeBatchMessage extends Message {
+    public static InvokeBatchMessage receive(BrowserChannel channel)
+        throws IOException {
+      DataInputStream stream = channel.getStreamFromOtherSide();
+      // NOTE: Tag has already been read.
+      int numInvokes = stream.readInt();
+      InvokeOnClientMessage[] invokes = new InvokeOnClientMessage[numInvokes];
+      for (int i = 0; i < numInvokes; ++i) {
+        invokes[i] = InvokeOnClientMessage.receive(channel);
+      }
+      return new InvokeBatchMessage(channel, invokes);
+    }
+
+    private final InvokeOnClientMessage[] invokes;
+
+    public InvokeBatchMessage(BrowserChannel channel,
+        InvokeOnClientMessage[] invokes) {
+      super(channel);
+      this.invokes = invokes;
+    }
+
+    public InvokeOnClientMessage[] getInvokes() {
+      return invokes;
+    }
+
+    @Override
+    public void send() throws IOException {
+      final DataOutputStream stream = getBrowserChannel().getStreamToOtherSide();
+
+      stream.writeByte(MessageType.INVOKE_BATCH.getId());
+      stream.writeInt(invokes.length);
+      for (InvokeOnClientMessage invoke : invokes) {
+        invoke.writeBody(stream);
+      }
+      stream.flush();
+    }
+  }
+
   /**
    * A request from the server to invoke a function on the client.
    * 
@@ -832,13 +948,21 @@ public abstract class BrowserChannel {
       final DataOutputStream stream = getBrowserChannel().getStreamToOtherSide();
 
       stream.writeByte(MessageType.INVOKE.getId());
+      writeBody(stream);
+      stream.flush();
+    }
+
+    /**
+     * Writes everything but the message tag, which is shared with
+     * {@link InvokeBatchMessage}.
+     */
+    private void writeBody(DataOutputStream stream) throws IOException {
       writeUtf8String(stream, methodName);
       getBrowserChannel().writeValue(stream, thisRef);
       stream.writeInt(args.length);
       for (int i = 0; i < args.length; i++) {
         getBrowserChannel().writeValue(stream, args[i]);
       }
-      stream.flush();
     }
   }
 
@@ -1445,7 +1569,7 @@ public abstract class BrowserChannel {
   /**
    * The current version of the protocol.
    */
-  public static final int PROTOCOL_VERSION_CURRENT = 3;
+  public static final int PROTOCOL_VERSION_CURRENT = 4;
 
   /**
    * The oldest protocol version supported by this code.
@@ -1456,6 +1580,11 @@ public abstract class BrowserChannel {
    * The protocol version that added the GetIcon message.
    */
   public static final int PROTOCOL_VERSION_GET_ICON = 3;
+
+  /**
+   * The protocol version that added the InvokeBatch message.
+   */
+  public static final int PROTOCOL_VERSION_BATCHED_INVOKE = 4;
   
   public static final int SPECIAL_CLIENTMETHODS_OBJECT = 0;
 
@@ -1672,6 +1801,11 @@ public abstract class BrowserChannel {
     return value;
   }
 
+  /**
+   * Writes a FreeValue message for remote objects which are no longer
+   * referenced. The message is not flushed, so it must be followed by an
+   * Invoke or Return message.
+   */
   protected void sendFreedValues() throws IOException {
     Set<Integer> freed = objectRefFactory.getRefIdsForCleanup();
     int n = freed.size();
@@ -1681,7 +1815,7 @@ public abstract class BrowserChannel {
       for (Integer id : freed) {
         ids[i++] = id;
       }
-      FreeMessage.send(this, ids);
+      FreeMessage.write(this, ids);
     }
   }
 
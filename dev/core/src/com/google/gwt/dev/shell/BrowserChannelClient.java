@@ -216,6 +216,23 @@ public class BrowserChannelClient extends BrowserChannel {
             new ReturnMessage(this, returnValue.isException(),
                 returnValue.getReturnValue()).send();
             break;
+          case INVOKE_BATCH:
+            InvokeBatchMessage batchMessage = InvokeBatchMessage.receive(this);
+            // Results are ignored; stop at the first exception.
+            returnValue = new ExceptionOrReturnValue(false, new Value());
+            int completed = 0;
+            for (InvokeOnClientMessage invoke : batchMessage.getInvokes()) {
+              ExceptionOrReturnValue result = handler.invoke(this,
+                  invoke.getThis(), invoke.getMethodName(), invoke.getArgs());
+              if (result.isException()) {
+                returnValue = result;
+                break;
+              }
+              ++completed;
+            }
+            new BatchReturnMessage(this, completed, returnValue.isException(),
+                returnValue.getReturnValue()).send();
+            break;
           case FREE_VALUE:
             FreeMessage freeMessage = FreeMessage.receive(this);
             if (logger.isLoggable(TreeLogger.DEBUG)) {
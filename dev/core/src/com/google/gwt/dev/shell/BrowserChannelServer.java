@@ -28,8 +28,10 @@ import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.Socket;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -106,12 +108,38 @@ public class BrowserChannelServer extends BrowserChannel
    */
   public static final String JSO_CLASS = "com.google.gwt.core.client.JavaScriptObject";
 
+  /**
+   * System property which enables batching of calls to void JSNI methods, for
+   * clients which support {@link #PROTOCOL_VERSION_BATCHED_INVOKE}. A batched
+   * call runs in the browser when the next call that needs a result is made,
+   * or when control returns to JavaScript, so JavaScript which calls back into
+   * Java may run later than it would otherwise.
+   */
+  public static final String BATCH_INVOKES_PROPERTY = "gwt.devmode.batchInvokes";
+
+  /**
+   * The largest number of calls sent in one InvokeBatch message.
+   */
+  private static final int MAX_BATCHED_INVOKES = 256;
+
   private static Map<String, byte[]> iconCache = new HashMap<String, byte[]>();
   
   private static final Object cacheLock = new Object();
   
+  private final List<InvokeOnClientMessage> batchedInvokes = new ArrayList<InvokeOnClientMessage>();
+
+  private boolean batchInvokes = Boolean.getBoolean(BATCH_INVOKES_PROPERTY);
+
   private DevModeSession devModeSession;
 
+  /**
+   * The batched call which threw an exception, and the exception, until it is
+   * thrown to Java or returned to the client.
+   */
+  private InvokeOnClientMessage failedBatchedInvoke;
+
+  private ReturnMessage failedBatchedReturn;
+
   private final SessionHandlerServer handler;
 
   private final boolean ignoreRemoteDeath;
@@ -160,7 +188,8 @@ public class BrowserChannelServer extends BrowserChannel
    */
   public void freeJsValue(int[] ids) {
     try {
-      new FreeMessage(this, ids).send();
+      // Sent along with the next message.
+      FreeMessage.write(this, ids);
     } catch (IOException e) {
       // TODO(jat): error handling?
       e.printStackTrace();
@@ -189,13 +218,77 @@ public class BrowserChannelServer extends BrowserChannel
     return protocolVersion;
   }
 
+  /**
+   * Sends the calls batched by {@link #invokeIgnoringResult}, if any, and
+   * waits for them to complete. If one of them throws an exception, it is kept
+   * along with the call which threw it, to be thrown by the next
+   * {@link #invokeJavascript} or returned to the client.
+   */
+  public void flushBatchedInvokes(SessionHandlerServer handler)
+      throws IOException, BrowserChannelException {
+    if (batchedInvokes.isEmpty()) {
+      return;
+    }
+    InvokeOnClientMessage[] invokes = batchedInvokes.toArray(
+        new InvokeOnClientMessage[batchedInvokes.size()]);
+    batchedInvokes.clear();
+    sendFreedValues();
+    new InvokeBatchMessage(this, invokes).send();
+    ReturnMessage msg = reactToMessagesWhileWaitingForReturn(handler);
+    if (!(msg instanceof BatchReturnMessage)) {
+      throw new BrowserChannelException("Expected " + MessageType.BATCH_RETURN
+          + " in answer to " + MessageType.INVOKE_BATCH);
+    }
+    int completed = ((BatchReturnMessage) msg).getCompleted();
+    if (msg.isException() && failedBatchedReturn == null) {
+      if (completed < 0 || completed >= invokes.length) {
+        throw new BrowserChannelException("Invalid index " + completed
+            + " of failed call in a batch of " + invokes.length);
+      }
+      failedBatchedInvoke = invokes[completed];
+      failedBatchedReturn = msg;
+    }
+  }
+
+  /**
+   * Invokes a method on the client. Batched calls are sent first; an
+   * exception thrown by one of them is kept for {@link #invokeJavascript},
+   * and does not prevent this call.
+   */
   public ReturnMessage invoke(String methodName, Value vthis, Value[] vargs,
       SessionHandlerServer handler) throws IOException, BrowserChannelException {
+    flushBatchedInvokes(handler);
+    sendFreedValues();
     new InvokeOnClientMessage(this, methodName, vthis, vargs).send();
     return reactToMessagesWhileWaitingForReturn(handler);
   }
 
   /**
+   * Invokes a method on the client whose result is ignored. If calls are
+   * batched, the call is only queued, and sent with the next call or return
+   * to the client.
+   * 
+   * @return the result of the call, or null if it was queued
+   */
+  public ReturnMessage invokeIgnoringResult(String methodName, Value vthis,
+      Value[] vargs, SessionHandlerServer handler) throws IOException,
+      BrowserChannelException {
+    if (!isBatchingInvokes()) {
+      return invoke(methodName, vthis, vargs, handler);
+    }
+    batchedInvokes.add(new InvokeOnClientMessage(this, methodName, vthis,
+        vargs));
+    if (batchedInvokes.size() >= MAX_BATCHED_INVOKES) {
+      flushBatchedInvokes(handler);
+    }
+    return null;
+  }
+
+  /**
+   * Invokes a method on the client. If an earlier batched call threw an
+   * exception, that exception is thrown instead of this call's result, after
+   * this call has run, and names the batched call.
+   * 
    * @param ccl
    * @param jsthis
    * @param methodName
@@ -208,47 +301,41 @@ public class BrowserChannelServer extends BrowserChannel
       throws Throwable {
     final ServerObjectsTable remoteObjects = getJavaObjectsExposedInBrowser();
     Value vthis = convertFromJsValue(remoteObjects, jsthis);
-    Value[] vargs = new Value[args.length];
-    for (int i = 0; i < args.length; ++i) {
-      vargs[i] = convertFromJsValue(remoteObjects, args[i]);
+    Value[] vargs = convertFromJsValues(remoteObjects, args);
+    try {
+      final ReturnMessage msg = invoke(methodName, vthis, vargs, handler);
+      throwFailedBatchedInvoke(ccl);
+      handleReturn(ccl, msg, describeCall(methodName, args), returnJsValue);
+    } catch (IOException e) {
+      throw new RemoteDeathError(e);
+    } catch (BrowserChannelException e) {
+      throw new RemoteDeathError(e);
     }
+  }
+
+  /**
+   * Like {@link #invokeJavascript}, for a method whose result is ignored. If
+   * calls are batched, an exception thrown by this one is only thrown by a
+   * later call, naming this one.
+   * 
+   * @return false if the call was batched and returnJsValue was not set
+   * @throws Throwable
+   */
+  public boolean invokeJavascriptIgnoringResult(CompilingClassLoader ccl,
+      JsValueOOPHM jsthis, String methodName, JsValueOOPHM[] args,
+      JsValueOOPHM returnJsValue) throws Throwable {
+    final ServerObjectsTable remoteObjects = getJavaObjectsExposedInBrowser();
+    Value vthis = convertFromJsValue(remoteObjects, jsthis);
+    Value[] vargs = convertFromJsValues(remoteObjects, args);
     try {
-      InvokeOnClientMessage invokeMessage = new InvokeOnClientMessage(this,
-          methodName, vthis, vargs);
-      invokeMessage.send();
-      final ReturnMessage msg = reactToMessagesWhileWaitingForReturn(handler);
-      Value returnValue = msg.getReturnValue();
-      convertToJsValue(ccl, remoteObjects, returnValue, returnJsValue);
-      if (msg.isException()) {
-        Object exceptionValue;
-        if (returnValue.isNull() || returnValue.isUndefined()) {
-          exceptionValue = null;
-        } else if (returnValue.isString()) {
-          exceptionValue = returnValue.getString();
-        } else if (returnValue.isJsObject()) {
-          exceptionValue = JsValueGlue.createJavaScriptObject(returnJsValue,
-              ccl);
-        } else if (returnValue.isJavaObject()) {
-          Object object = remoteObjects.get(returnValue.getJavaObject().getRefid());
-          Object target = ((JsValueOOPHM.DispatchObjectOOPHM) object).getTarget();
-          if (target instanceof Throwable) {
-            throw (Throwable) (target);
-          } else {
-            // JS throwing random Java Objects, which we'll wrap in JSException
-            exceptionValue = target;
-          }
-        } else {
-          // JS throwing random primitives, which we'll wrap as a string in
-          // JSException
-          exceptionValue = returnValue.getValue().toString();
-        }
-        RuntimeException exception = ModuleSpace.createJavaScriptException(ccl,
-            exceptionValue, methodName + "(" + Arrays.toString(args) + ")");
-        // reset the stack trace to here to minimize GWT infrastructure in
-        // the stack trace
-        exception.fillInStackTrace();
-        throw exception;
+      final ReturnMessage msg = invokeIgnoringResult(methodName, vthis, vargs,
+          handler);
+      throwFailedBatchedInvoke(ccl);
+      if (msg == null) {
+        return false;
       }
+      handleReturn(ccl, msg, describeCall(methodName, args), returnJsValue);
+      return true;
     } catch (IOException e) {
       throw new RemoteDeathError(e);
     } catch (BrowserChannelException e) {
@@ -256,6 +343,14 @@ public class BrowserChannelServer extends BrowserChannel
     }
   }
 
+  /**
+   * @return true if calls whose result is ignored are batched, which requires
+   *         the client to support {@link #PROTOCOL_VERSION_BATCHED_INVOKE}.
+   */
+  public boolean isBatchingInvokes() {
+    return batchInvokes && protocolVersion >= PROTOCOL_VERSION_BATCHED_INVOKE;
+  }
+
   /**
    * Load the supplied JSNI code into the browser.
    * 
@@ -263,6 +358,8 @@ public class BrowserChannelServer extends BrowserChannel
    */
   public void loadJsni(String jsni) {
     try {
+      // This may overtake batched calls, which is harmless as JSNI code only
+      // defines functions.
       LoadJsniMessage jsniMessage = new LoadJsniMessage(this, jsni);
       jsniMessage.send();
       // we do not wait for a return value
@@ -292,6 +389,7 @@ public class BrowserChannelServer extends BrowserChannel
             InvokeOnServerMessage imsg = InvokeOnServerMessage.receive(this);
             ExceptionOrReturnValue result = handler.invoke(this, imsg.getThis(),
                 imsg.getMethodDispatchId(), imsg.getArgs());
+            result = flushBatchedInvokes(handler, result);
             sendFreedValues();
             ReturnMessage.send(this, result);
             break;
@@ -333,10 +431,13 @@ public class BrowserChannelServer extends BrowserChannel
             break;
           case RETURN:
             return ReturnMessage.receive(this);
+          case BATCH_RETURN:
+            return BatchReturnMessage.receive(this);
           case INVOKE:
             InvokeOnServerMessage imsg = InvokeOnServerMessage.receive(this);
             ExceptionOrReturnValue result = handler.invoke(this, imsg.getThis(),
                 imsg.getMethodDispatchId(), imsg.getArgs());
+            result = flushBatchedInvokes(handler, result);
             sendFreedValues();
             ReturnMessage.send(this, result);
             break;
@@ -382,10 +483,23 @@ public class BrowserChannelServer extends BrowserChannel
    * @throws IOException
    */
   public void shutdown() throws IOException {
+    // Calls still batched can't be run any more.
+    batchedInvokes.clear();
+    failedBatchedInvoke = null;
+    failedBatchedReturn = null;
     getDashboardNotifier().devModeSessionEnd(devModeSession);
     QuitMessage.send(this);
   }
 
+  /**
+   * @return the batched call which threw an exception not yet thrown to Java
+   *         or returned to the client, or null
+   */
+  // @VisibleForTesting
+  InvokeOnClientMessage getFailedBatchedInvoke() {
+    return failedBatchedInvoke;
+  }
+
   // @VisibleForTesting
   protected void processConnection() throws IOException, BrowserChannelException {
     MessageType type = Message.readMessageType(getStreamFromOtherSide());
@@ -540,7 +654,9 @@ public class BrowserChannelServer extends BrowserChannel
     try {
       // send LoadModule response
       try {
-        ReturnMessage.send(this, false, new Value());
+        ExceptionOrReturnValue result = flushBatchedInvokes(handler,
+            new ExceptionOrReturnValue(false, new Value()));
+        ReturnMessage.send(this, result);
       } catch (IOException e) {
         throw new RemoteDeathError(e);
       }
@@ -657,6 +773,20 @@ public class BrowserChannelServer extends BrowserChannel
     return DashboardNotifierFactory.getNotifier();
   }
 
+  // @VisibleForTesting
+  void setBatchInvokes(boolean batchInvokes) {
+    this.batchInvokes = batchInvokes;
+  }
+
+  private Value[] convertFromJsValues(ServerObjectsTable localObjects,
+      JsValueOOPHM[] jsvals) {
+    Value[] values = new Value[jsvals.length];
+    for (int i = 0; i < jsvals.length; ++i) {
+      values[i] = convertFromJsValue(localObjects, jsvals[i]);
+    }
+    return values;
+  }
+
   /**
    * Creates the {@code DevModeSession} that represents the current browser
    * connection, sets it as the "default" session for the current thread, and
@@ -682,6 +812,36 @@ public class BrowserChannelServer extends BrowserChannel
         "No alternate transports supported");
   }
 
+  /**
+   * Returns a description of a call for exception messages.
+   */
+  private String describeCall(String methodName, Object[] args) {
+    return methodName + "(" + Arrays.toString(args) + ")";
+  }
+
+  /**
+   * Sends the calls batched while handling a call from the client, before
+   * returning its result. An exception thrown by one of them is returned
+   * instead, as if the Java method had thrown it.
+   */
+  private ExceptionOrReturnValue flushBatchedInvokes(
+      SessionHandlerServer handler, ExceptionOrReturnValue result)
+      throws IOException, BrowserChannelException {
+    // A failure left by an enclosing call belongs to that call, not this one.
+    InvokeOnClientMessage enclosingInvoke = failedBatchedInvoke;
+    ReturnMessage enclosingReturn = failedBatchedReturn;
+    failedBatchedInvoke = null;
+    failedBatchedReturn = null;
+    flushBatchedInvokes(handler);
+    if (failedBatchedReturn != null) {
+      result = new ExceptionOrReturnValue(true,
+          failedBatchedReturn.getReturnValue());
+    }
+    failedBatchedInvoke = enclosingInvoke;
+    failedBatchedReturn = enclosingReturn;
+    return result;
+  }
+
   private void handleInvokeSpecial(SessionHandlerServer handler) throws IOException,
       BrowserChannelException {
     final InvokeSpecialMessage ismsg = InvokeSpecialMessage.receive(this);
@@ -701,9 +861,51 @@ public class BrowserChannelServer extends BrowserChannel
         throw new HostedModeException("Unexpected InvokeSpecial method "
             + ismsg.getDispatchId());
     }
+    retExc = flushBatchedInvokes(handler, retExc);
     ReturnMessage.send(this, retExc);
   }
 
+  /**
+   * Stores the result of a call in returnJsValue, and throws it if it is an
+   * exception.
+   */
+  private void handleReturn(CompilingClassLoader ccl, ReturnMessage msg,
+      String call, JsValueOOPHM returnJsValue) throws Throwable {
+    final ServerObjectsTable remoteObjects = getJavaObjectsExposedInBrowser();
+    Value returnValue = msg.getReturnValue();
+    convertToJsValue(ccl, remoteObjects, returnValue, returnJsValue);
+    if (msg.isException()) {
+      Object exceptionValue;
+      if (returnValue.isNull() || returnValue.isUndefined()) {
+        exceptionValue = null;
+      } else if (returnValue.isString()) {
+        exceptionValue = returnValue.getString();
+      } else if (returnValue.isJsObject()) {
+        exceptionValue = JsValueGlue.createJavaScriptObject(returnJsValue,
+            ccl);
+      } else if (returnValue.isJavaObject()) {
+        Object object = remoteObjects.get(returnValue.getJavaObject().getRefid());
+        Object target = ((JsValueOOPHM.DispatchObjectOOPHM) object).getTarget();
+        if (target instanceof Throwable) {
+          throw (Throwable) (target);
+        } else {
+          // JS throwing random Java Objects, which we'll wrap in JSException
+          exceptionValue = target;
+        }
+      } else {
+        // JS throwing random primitives, which we'll wrap as a string in
+        // JSException
+        exceptionValue = returnValue.getValue().toString();
+      }
+      RuntimeException exception = ModuleSpace.createJavaScriptException(ccl,
+          exceptionValue, call);
+      // reset the stack trace to here to minimize GWT infrastructure in
+      // the stack trace
+      exception.fillInStackTrace();
+      throw exception;
+    }
+  }
+
   private void init(TreeLogger initialLogger) {
     this.logger = initialLogger;
     Thread thread = new Thread(this);
@@ -722,4 +924,21 @@ public class BrowserChannelServer extends BrowserChannel
     // TODO(jat): add support for shared memory, others
     return null;
   }
+
+  /**
+   * Throws the exception of a batched call which failed, if any, naming that
+   * call.
+   */
+  private void throwFailedBatchedInvoke(CompilingClassLoader ccl)
+      throws Throwable {
+    if (failedBatchedReturn == null) {
+      return;
+    }
+    InvokeOnClientMessage invoke = failedBatchedInvoke;
+    ReturnMessage msg = failedBatchedReturn;
+    failedBatchedInvoke = null;
+    failedBatchedReturn = null;
+    handleReturn(ccl, msg, describeCall(invoke.getMethodName(),
+        invoke.getArgs()), new JsValueOOPHM());
+  }
 }
@@ -295,8 +295,9 @@ public abstract class ModuleSpace implements ShellJavaScriptHost {
 
   public void invokeNativeVoid(String name, Object jthis, Class<?>[] types,
       Object[] args) throws Throwable {
-    JsValue result = invokeNative(name, jthis, types, args);
-    if (!result.isUndefined()) {
+    JsValue result = doInvokeIgnoringResult(name, jthis, types, args);
+    rethrowCaughtJavaException();
+    if (result != null && !result.isUndefined()) {
       logger.log(
           TreeLogger.WARN,
           "JSNI method '"
@@ -547,6 +548,22 @@ public abstract class ModuleSpace implements ShellJavaScriptHost {
   protected abstract JsValue doInvoke(String name, Object jthis,
       Class<?>[] types, Object[] args) throws Throwable;
 
+  /**
+   * Invokes a native JavaScript function whose result is ignored. Subclasses
+   * may defer the call, in which case an exception it throws is reported by a
+   * later call.
+   * 
+   * @param name the name of the function to invoke
+   * @param jthis the function's 'this' context
+   * @param types the type of each argument
+   * @param args the arguments to be passed
+   * @return the return value as a Variant, or null if the call was deferred
+   */
+  protected JsValue doInvokeIgnoringResult(String name, Object jthis,
+      Class<?>[] types, Object[] args) throws Throwable {
+    return doInvoke(name, jthis, types, args);
+  }
+
   protected CompilingClassLoader getIsolatedClassLoader() {
     return host.getClassLoader();
   }
@@ -568,15 +585,8 @@ public abstract class ModuleSpace implements ShellJavaScriptHost {
   protected final JsValue invokeNative(String name, Object jthis,
       Class<?>[] types, Object[] args) throws Throwable {
     JsValue result = doInvoke(name, jthis, types, args);
-    // Is an exception active?
-    Throwable thrown = sCaughtJavaExceptionObject.get();
-    if (thrown == null) {
-      return result;
-    }
-    sCaughtJavaExceptionObject.set(null);
-
-    scrubStackTrace(thrown);
-    throw thrown;
+    rethrowCaughtJavaException();
+    return result;
   }
 
   /**
@@ -716,4 +726,20 @@ public abstract class ModuleSpace implements ShellJavaScriptHost {
     }
     thrown.setStackTrace(trace.toArray(new StackTraceElement[trace.size()]));
   }
+
+  /**
+   * Throws the Java exception caught in JavaScript by the last native call, if
+   * any.
+   */
+  private void rethrowCaughtJavaException() throws Throwable {
+    // Is an exception active?
+    Throwable thrown = sCaughtJavaExceptionObject.get();
+    if (thrown == null) {
+      return;
+    }
+    sCaughtJavaExceptionObject.set(null);
+
+    scrubStackTrace(thrown);
+    throw thrown;
+  }
 }
@@ -106,6 +106,31 @@ public class ModuleSpaceOOPHM extends ModuleSpace {
   @Override
   protected JsValue doInvoke(String name, Object jthis, Class<?>[] types,
       Object[] args) throws Throwable {
+    return invoke(name, jthis, types, args, false);
+  }
+
+  /**
+   * Invoke a JS method whose result is ignored. The call may be batched with
+   * others by the channel.
+   * 
+   * @param name method name to invoke
+   * @param jthis object to invoke method on, null if static method
+   * @param types argument types
+   * @param args argument values
+   */
+  @Override
+  protected JsValue doInvokeIgnoringResult(String name, Object jthis,
+      Class<?>[] types, Object[] args) throws Throwable {
+    return invoke(name, jthis, types, args, true);
+  }
+
+  @Override
+  protected DispatchObject getStaticDispatcher() {
+    return new JsValueOOPHM.DispatchObjectOOPHM(getIsolatedClassLoader());
+  }
+
+  private JsValue invoke(String name, Object jthis, Class<?>[] types,
+      Object[] args, boolean ignoreResult) throws Throwable {
     TreeLogger branch = host.getLogger().branch(TreeLogger.SPAM,
         "Invoke native method " + name, null);
     Event javaToJsCallEvent =
@@ -133,8 +158,16 @@ public class ModuleSpaceOOPHM extends ModuleSpace {
     }
     JsValueOOPHM returnVal = new JsValueOOPHM();
     try {
-      channel.invokeJavascript(isolatedClassLoader, jsthis, name, argv,
-          returnVal);
+      if (ignoreResult) {
+        if (!channel.invokeJavascriptIgnoringResult(isolatedClassLoader,
+            jsthis, name, argv, returnVal)) {
+          branch.log(TreeLogger.SPAM, "  batched");
+          return null;
+        }
+      } else {
+        channel.invokeJavascript(isolatedClassLoader, jsthis, name, argv,
+            returnVal);
+      }
       if (branch.isLoggable(TreeLogger.SPAM)) {
         branch.log(TreeLogger.SPAM, "  returned " + returnVal);
       }
@@ -146,9 +179,4 @@ public class ModuleSpaceOOPHM extends ModuleSpace {
       javaToJsCallEvent.end();
     }
   }
-
-  @Override
-  protected DispatchObject getStaticDispatcher() {
-    return new JsValueOOPHM.DispatchObjectOOPHM(getIsolatedClassLoader());
-  }
 }
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.util;
+
+import com.google.gwt.util.tools.Utility;
+import com.google.gwt.util.tools.shared.StringUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.ProtectionDomain;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Computes strong hashes of the jars and class directories that classes were
+ * loaded from. Caches whose entries depend on the code that produced them
+ * include these hashes in their keys, since the GWT version alone does not
+ * change between builds of the same release or of a development tree.
+ */
+public final class CodeSourceHash {
+
+  /**
+   * The hashes already computed, by absolute path of the jar or directory.
+   */
+  private static final Map<String, String> hashes = new HashMap<String, String>();
+
+  /**
+   * Returns a strong hash of the content of the jar or class directory that
+   * <code>cls</code> was loaded from, or <code>null</code> if it isn't a
+   * local file or can't be read.
+   */
+  public static String get(Class<?> cls) {
+    File location = getLocation(cls);
+    if (location == null) {
+      return null;
+    }
+    String path = location.getAbsolutePath();
+    synchronized (hashes) {
+      if (hashes.containsKey(path)) {
+        return hashes.get(path);
+      }
+      String hash = compute(location);
+      hashes.put(path, hash);
+      return hash;
+    }
+  }
+
+  /**
+   * Returns the jar or class directory that <code>cls</code> was loaded from,
+   * or <code>null</code> if it isn't a local file.
+   */
+  static File getLocation(Class<?> cls) {
+    ProtectionDomain domain = cls.getProtectionDomain();
+    CodeSource source = domain == null ? null : domain.getCodeSource();
+    URL url = source == null ? null : source.getLocation();
+    if (url == null || !"file".equals(url.getProtocol())) {
+      return null;
+    }
+    try {
+      return new File(url.toURI());
+    } catch (URISyntaxException e) {
+      return null;
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Hashes the content of a file, or the relative paths and content of all
+   * files below a directory.
+   */
+  static String compute(File location) {
+    MessageDigest md5;
+    try {
+      md5 = MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException("Error initializing MD5", e);
+    }
+    try {
+      if (location.isDirectory()) {
+        updateWithDirectory(md5, location, "");
+      } else {
+        updateWithFile(md5, location);
+      }
+    } catch (IOException e) {
+      return null;
+    }
+    return StringUtils.toHexString(md5.digest());
+  }
+
+  private static void updateWithDirectory(MessageDigest md5, File dir, String prefix)
+      throws IOException {
+    File[] children = dir.listFiles();
+    if (children == null) {
+      throw new IOException("Unable to list " + dir);
+    }
+    // Sort so that the hash does not depend on the file system's order.
+    Arrays.sort(children);
+    for (File child : children) {
+      String path = prefix + child.getName();
+      if (child.isDirectory()) {
+        updateWithDirectory(md5, child, path + "/");
+      } else {
+        md5.update(Util.getBytes(path));
+        md5.update((byte) 0);
+        updateWithFile(md5, child);
+      }
+    }
+  }
+
+  private static void updateWithFile(MessageDigest md5, File file) throws IOException {
+    InputStream in = new FileInputStream(file);
+    try {
+      byte[] buf = new byte[8192];
+      int count;
+      while ((count = in.read(buf)) >= 0) {
+        md5.update(buf, 0, count);
+      }
+    } finally {
+      Utility.close(in);
+    }
+  }
+
+  private CodeSourceHash() {
+  }
+}
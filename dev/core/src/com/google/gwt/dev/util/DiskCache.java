@@ -17,19 +17,29 @@ package com.google.gwt.dev.util;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A nifty class that lets you squirrel away data on the file system. Write
- * once, read many times. Instance of this are thread-safe by way of internal
- * synchronization.
+ * once, read many times. Instance of this are thread-safe without locking:
+ * writers reserve space at the end of the backing file atomically, and all
+ * reads and writes are positional, so threads never wait for each other.
+ * Interrupting a thread which uses the cache closes the backing file's
+ * channel; it is then reopened by the next thread that uses it, and no data
+ * is lost.
  * 
  * Note that in the current implementation, the backing temp file will get
  * arbitrarily large as you continue adding things to it. There is no internal
@@ -44,8 +54,95 @@ public class DiskCache {
    * the map larger after the fact, which kind of defeats the infinite-append
    * design. At any rate, I measured the current performance of this design to
    * be so fast relative to what I'm using it for, I didn't pursue this further.
+   *
+   * A token is the file position of a record, which starts with an int. If it
+   * is positive or zero, it is the length of the bytes which follow. Data of
+   * unknown length, written by transferFromStream, is stored as several such
+   * records, called chunks; it is then referenced by a record whose int is
+   * minus the number of chunks, followed by the positions of the chunks.
    */
 
+  /**
+   * A stream which appends its data to the disk cache as it is written, in
+   * chunks, so that it never has to be held in memory. Once the stream is
+   * closed, {@link #getToken()} returns the token to retrieve the data.
+   */
+  public final class ChunkedOutputStream extends OutputStream {
+    private final byte[] buf = new byte[CHUNK_SIZE];
+    private final List<Long> chunks = new ArrayList<Long>();
+    private int count;
+    private long token = -1;
+
+    private ChunkedOutputStream() {
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (token >= 0) {
+        return;
+      }
+      if (chunks.isEmpty()) {
+        token = DiskCache.this.write(buf, count);
+      } else {
+        if (count > 0) {
+          chunks.add(DiskCache.this.write(buf, count));
+        }
+        token = writeIndex(chunks);
+      }
+    }
+
+    /**
+     * Returns the token of the data written to this stream.
+     * 
+     * @throws IllegalStateException if the stream is not closed
+     */
+    public long getToken() {
+      if (token < 0) {
+        throw new IllegalStateException("The stream is not closed");
+      }
+      return token;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      checkOpen();
+      while (len > 0) {
+        if (count == buf.length) {
+          flushChunk();
+        }
+        int n = Math.min(len, buf.length - count);
+        System.arraycopy(b, off, buf, count, n);
+        count += n;
+        off += n;
+        len -= n;
+      }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      checkOpen();
+      if (count == buf.length) {
+        flushChunk();
+      }
+      buf[count++] = (byte) b;
+    }
+
+    private void checkOpen() throws IOException {
+      if (token >= 0) {
+        throw new IOException("The stream is closed");
+      }
+    }
+
+    /**
+     * Writes a full buffer as a chunk. This is only done when more data
+     * follows, so that data which fits in one buffer is a single record.
+     */
+    private void flushChunk() throws IOException {
+      chunks.add(DiskCache.this.write(buf, count));
+      count = 0;
+    }
+  }
+
   private static class Shutdown implements Runnable {
     @Override
     public void run() {
@@ -66,17 +163,32 @@ public class DiskCache {
    */
   public static DiskCache INSTANCE = new DiskCache();
 
+  /**
+   * The size of the chunks written by {@link ChunkedOutputStream}.
+   */
+  private static final int CHUNK_SIZE = 64 * 1024;
+
   private static List<WeakReference<DiskCache>> shutdownList;
 
-  private boolean atEnd = true;
+  private volatile FileChannel channel;
+
+  /**
+   * The end of the data written so far, including space which has been
+   * reserved but is still being written.
+   */
+  private final AtomicLong end = new AtomicLong();
+
   private RandomAccessFile file;
 
+  private File temp;
+
   DiskCache() {
     try {
-      File temp = File.createTempFile("gwt", "byte-cache");
+      temp = File.createTempFile("gwt", "byte-cache");
       temp.deleteOnExit();
       file = new RandomAccessFile(temp, "rw");
       file.setLength(0);
+      channel = file.getChannel();
       if (shutdownList == null) {
         shutdownList = new ArrayList<WeakReference<DiskCache>>();
         Runtime.getRuntime().addShutdownHook(new Thread(new Shutdown()));
@@ -87,19 +199,40 @@ public class DiskCache {
     }
   }
 
+  /**
+   * Opens a stream which writes to this disk cache.
+   */
+  public ChunkedOutputStream openOutputStream() {
+    return new ChunkedOutputStream();
+  }
+
   /**
    * Retrieve the underlying bytes.
    * 
    * @param token a previously returned token
    * @return the bytes that were written
    */
-  public synchronized byte[] readByteArray(long token) {
+  public byte[] readByteArray(long token) {
     try {
-      atEnd = false;
-      file.seek(token);
-      int length = file.readInt();
+      int header = readInt(token);
+      if (header >= 0) {
+        byte[] result = new byte[header];
+        readFully(ByteBuffer.wrap(result), token + 4);
+        return result;
+      }
+      long[] chunks = readChunks(token, -header);
+      int[] lengths = new int[chunks.length];
+      int length = 0;
+      for (int i = 0; i < chunks.length; ++i) {
+        lengths[i] = readInt(chunks[i]);
+        length += lengths[i];
+      }
       byte[] result = new byte[length];
-      file.readFully(result);
+      int offset = 0;
+      for (int i = 0; i < chunks.length; ++i) {
+        readFully(ByteBuffer.wrap(result, offset, lengths[i]), chunks[i] + 4);
+        offset += lengths[i];
+      }
       return result;
     } catch (IOException e) {
       throw new RuntimeException("Unable to read from byte cache", e);
@@ -144,29 +277,20 @@ public class DiskCache {
    * 
    * @return a token to retrieve the data later
    */
-  public synchronized long transferFromStream(InputStream in) {
+  public long transferFromStream(InputStream in) {
     assert in != null;
     byte[] buf = Util.takeThreadLocalBuf();
     try {
-      long position = moveToEndPosition();
-
-      // Placeholder, we don't know the length yet.
-      file.writeInt(-1);
-
-      // Transfer all the bytes.
-      int length = 0;
-      int bytesRead;
-      while ((bytesRead = in.read(buf)) != -1) {
-        file.write(buf, 0, bytesRead);
-        length += bytesRead;
+      int length = fill(in, buf);
+      if (length < buf.length) {
+        // It all fits in one record.
+        return write(buf, length);
       }
-
-      // Now go back and fill in the length.
-      file.seek(position);
-      file.writeInt(length);
-      // Don't eagerly seek the end, the next operation might be a read.
-      atEnd = false;
-      return position;
+      List<Long> chunks = new ArrayList<Long>();
+      do {
+        chunks.add(write(buf, length));
+      } while (length == buf.length && (length = fill(in, buf)) > 0);
+      return writeIndex(chunks);
     } catch (IOException e) {
       throw new RuntimeException("Unable to read from byte cache", e);
     } finally {
@@ -175,32 +299,25 @@ public class DiskCache {
   }
 
   /**
-   * Writes the underlying bytes into the specified output stream.
+   * Writes the underlying bytes into the specified output stream. If it is a
+   * {@link FileOutputStream}, the bytes are copied from file to file with
+   * {@link FileChannel#transferTo}, without going through the Java heap.
    * 
    * @param token a previously returned token
    * @param out the stream to write into
    */
-  public synchronized void transferToStream(long token, OutputStream out) {
-    byte[] buf = Util.takeThreadLocalBuf();
+  public void transferToStream(long token, OutputStream out) {
     try {
-      atEnd = false;
-      file.seek(token);
-      int length = file.readInt();
-      int bufLen = buf.length;
-      while (length > bufLen) {
-        int read = file.read(buf, 0, bufLen);
-        length -= read;
-        out.write(buf, 0, read);
-      }
-      while (length > 0) {
-        int read = file.read(buf, 0, length);
-        length -= read;
-        out.write(buf, 0, read);
+      int header = readInt(token);
+      if (header >= 0) {
+        transferChunk(token, header, out);
+      } else {
+        for (long chunk : readChunks(token, -header)) {
+          transferChunk(chunk, readInt(chunk), out);
+        }
       }
     } catch (IOException e) {
       throw new RuntimeException("Unable to read from byte cache", e);
-    } finally {
-      Util.releaseThreadLocalBuf(buf);
     }
   }
 
@@ -209,12 +326,9 @@ public class DiskCache {
    * 
    * @return a token to retrieve the data later
    */
-  public synchronized long writeByteArray(byte[] bytes) {
+  public long writeByteArray(byte[] bytes) {
     try {
-      long position = moveToEndPosition();
-      file.writeInt(bytes.length);
-      file.write(bytes);
-      return position;
+      return write(bytes, bytes.length);
     } catch (IOException e) {
       throw new RuntimeException("Unable to write to byte cache", e);
     }
@@ -249,30 +363,167 @@ public class DiskCache {
     close();
   }
 
-  private void close() throws Throwable {
+  private synchronized void close() throws Throwable {
     if (file != null) {
-      file.setLength(0);
-      file.close();
-      file = null;
+      try {
+        file.setLength(0);
+      } finally {
+        file.close();
+        file = null;
+      }
     }
   }
 
   /**
-   * Moves to the end of the file if necessary and returns the offset position.
-   * Caller must synchronize.
+   * Reads from a stream until a buffer is full or the stream ends.
    * 
-   * @return the offset position of the end of the file
-   * @throws IOException
+   * @return the number of bytes read
+   */
+  private int fill(InputStream in, byte[] buf) throws IOException {
+    int length = 0;
+    int bytesRead;
+    while (length < buf.length
+        && (bytesRead = in.read(buf, length, buf.length - length)) != -1) {
+      length += bytesRead;
+    }
+    return length;
+  }
+
+  private long[] readChunks(long token, int count) throws IOException {
+    ByteBuffer index = ByteBuffer.allocate(count * 8);
+    readFully(index, token + 4);
+    index.flip();
+    long[] chunks = new long[count];
+    for (int i = 0; i < count; ++i) {
+      chunks[i] = index.getLong();
+    }
+    return chunks;
+  }
+
+  private void readFully(ByteBuffer dst, long position) throws IOException {
+    while (dst.hasRemaining()) {
+      FileChannel channel = this.channel;
+      int read;
+      try {
+        read = channel.read(dst, position);
+      } catch (ClosedChannelException e) {
+        reopen(channel, e);
+        continue;
+      }
+      if (read < 0) {
+        throw new EOFException();
+      }
+      position += read;
+    }
+  }
+
+  private int readInt(long position) throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate(4);
+    readFully(buf, position);
+    return buf.getInt(0);
+  }
+
+  /**
+   * Reopens the backing file after its channel was closed because another
+   * thread was interrupted while using it. Positional reads and writes that
+   * failed can simply be retried.
+   * 
+   * @param closed the channel which was in use
+   * @param e the exception to throw if the channel can't be reopened, because
+   *          the current thread is the interrupted one or the cache is closed
+   */
+  private synchronized void reopen(FileChannel closed,
+      ClosedChannelException e) throws IOException {
+    if (closed.isOpen() || file == null
+        || Thread.currentThread().isInterrupted()) {
+      throw e;
+    }
+    if (channel == closed) {
+      file = new RandomAccessFile(temp, "rw");
+      channel = file.getChannel();
+    }
+  }
+
+  /**
+   * Writes the bytes of a record to a stream.
    */
-  private long moveToEndPosition() throws IOException {
-    // Get an end pointer.
-    if (atEnd) {
-      return file.getFilePointer();
-    } else {
-      long position = file.length();
-      file.seek(position);
-      atEnd = true;
-      return position;
+  private void transferChunk(long token, int length, OutputStream out)
+      throws IOException {
+    long position = token + 4;
+    if (out instanceof FileOutputStream) {
+      FileChannel target = ((FileOutputStream) out).getChannel();
+      long remaining = length;
+      while (remaining > 0) {
+        FileChannel channel = this.channel;
+        long transferred;
+        try {
+          transferred = channel.transferTo(position, remaining, target);
+        } catch (ClosedChannelException e) {
+          reopen(channel, e);
+          continue;
+        }
+        if (transferred <= 0) {
+          throw new EOFException();
+        }
+        position += transferred;
+        remaining -= transferred;
+      }
+      return;
+    }
+    byte[] buf = Util.takeThreadLocalBuf();
+    try {
+      while (length > 0) {
+        ByteBuffer dst = ByteBuffer.wrap(buf, 0, Math.min(length, buf.length));
+        readFully(dst, position);
+        out.write(buf, 0, dst.position());
+        position += dst.position();
+        length -= dst.position();
+      }
+    } finally {
+      Util.releaseThreadLocalBuf(buf);
+    }
+  }
+
+  /**
+   * Appends a record, reserving its space before writing it, so that several
+   * threads may append at once.
+   * 
+   * @return the token of the record
+   */
+  private long write(byte[] bytes, int length) throws IOException {
+    long position = end.getAndAdd(4 + length);
+    ByteBuffer header = ByteBuffer.allocate(4);
+    header.putInt(0, length);
+    writeFully(header, position);
+    writeFully(ByteBuffer.wrap(bytes, 0, length), position + 4);
+    return position;
+  }
+
+  /**
+   * Appends the record which references a list of chunks.
+   * 
+   * @return the token of the record
+   */
+  private long writeIndex(List<Long> chunks) throws IOException {
+    ByteBuffer index = ByteBuffer.allocate(4 + chunks.size() * 8);
+    index.putInt(-chunks.size());
+    for (long chunk : chunks) {
+      index.putLong(chunk);
+    }
+    index.flip();
+    long position = end.getAndAdd(index.remaining());
+    writeFully(index, position);
+    return position;
+  }
+
+  private void writeFully(ByteBuffer src, long position) throws IOException {
+    while (src.hasRemaining()) {
+      FileChannel channel = this.channel;
+      try {
+        position += channel.write(src, position);
+      } catch (ClosedChannelException e) {
+        reopen(channel, e);
+      }
     }
   }
-}
\ No newline at end of file
+}
@@ -17,6 +17,7 @@ package com.google.gwt.dev.util;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -25,7 +26,7 @@ import java.util.Set;
  */
 public abstract class OutputFileSet {
   private final String pathDescription;
-  private final Set<String> pathsSeen = new HashSet<String>();
+  private final Set<String> pathsSeen = Collections.synchronizedSet(new HashSet<String>());
 
   protected OutputFileSet(String pathDescription) {
     this.pathDescription = pathDescription;
@@ -52,6 +53,14 @@ public abstract class OutputFileSet {
     return pathDescription;
   }
 
+  /**
+   * Returns whether several files may be written at once, on different
+   * threads. This implementation returns <code>false</code>.
+   */
+  public boolean supportsConcurrentWrites() {
+    return false;
+  }
+
   public final OutputStream openForWrite(String path) throws IOException {
     int lastModifiedTime = -1;
     return openForWrite(path, lastModifiedTime);
@@ -42,6 +42,11 @@ public class OutputFileSetOnDirectory extends OutputFileSet {
   public void close() {
   }
 
+  @Override
+  public boolean supportsConcurrentWrites() {
+    return true;
+  }
+
   @Override
   protected OutputStream createNewOutputStream(String path,
       final long lastModifiedTime) throws IOException {
@@ -64,7 +69,7 @@ public class OutputFileSetOnDirectory extends OutputFileSet {
    * A faster bulk version of {@link File#mkdirs()} that avoids recreating the
    * same directory multiple times.
    */
-  private void mkdirs(File dir) {
+  private synchronized void mkdirs(File dir) {
     if (dir == null) {
       return;
     }
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs independent pieces of work on a bounded number of threads.
+ *
+ * <p>
+ * The items are split into contiguous chunks, and each chunk is processed by
+ * exactly one thread. Results are returned in chunk order, so callers that
+ * merge them in that order get the same result regardless of scheduling.
+ * </p>
+ */
+public final class Parallel {
+
+  /**
+   * Processes one chunk of items.
+   *
+   * @param <T> the type of the items
+   * @param <R> the type of the result of a chunk
+   */
+  public interface ChunkTask<T, R> {
+    R run(List<T> chunk) throws Exception;
+  }
+
+  /**
+   * Number of chunks created per thread, so that threads which finish early
+   * can pick up remaining work.
+   */
+  private static final int CHUNKS_PER_THREAD = 4;
+
+  private static final ExecutorService EXECUTOR = Executors
+      .newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "GWT parallel worker " + counter.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
+  /**
+   * Returns the value of the integer system property <code>name</code>, or
+   * <code>defaultValue</code> if it is not set. Values below 1 are treated as
+   * 1, which means work is done on the calling thread.
+   */
+  public static int getThreadCount(String name, int defaultValue) {
+    return Math.max(1, Integer.getInteger(name, defaultValue));
+  }
+
+  /**
+   * Runs <code>task</code> over <code>items</code> using at most
+   * <code>numThreads</code> threads, including the calling thread, and returns
+   * the result of each chunk in order. If any chunk fails, the first failure is
+   * rethrown after all chunks have finished.
+   */
+  public static <T, R> List<R> mapChunks(int numThreads, List<T> items,
+      final ChunkTask<T, R> task) throws ExecutionException {
+    if (numThreads <= 1 || items.size() <= 1) {
+      try {
+        return Collections.singletonList(task.run(items));
+      } catch (Exception e) {
+        throw new ExecutionException(e);
+      }
+    }
+
+    int numChunks = Math.min(items.size(), numThreads * CHUNKS_PER_THREAD);
+    final List<List<T>> chunks = new ArrayList<List<T>>(numChunks);
+    for (int i = 0; i < numChunks; ++i) {
+      int start = (int) ((long) items.size() * i / numChunks);
+      int end = (int) ((long) items.size() * (i + 1) / numChunks);
+      chunks.add(items.subList(start, end));
+    }
+
+    @SuppressWarnings("unchecked")
+    final R[] results = (R[]) new Object[numChunks];
+    final Throwable[] failures = new Throwable[numChunks];
+    final AtomicInteger nextChunk = new AtomicInteger();
+    Runnable worker = new Runnable() {
+      public void run() {
+        int i;
+        while ((i = nextChunk.getAndIncrement()) < chunks.size()) {
+          try {
+            results[i] = task.run(chunks.get(i));
+          } catch (Throwable e) {
+            failures[i] = e;
+          }
+        }
+      }
+    };
+
+    List<Future<?>> futures = new ArrayList<Future<?>>();
+    for (int i = 1; i < Math.min(numThreads, numChunks); ++i) {
+      futures.add(EXECUTOR.submit(worker));
+    }
+    worker.run();
+    boolean interrupted = false;
+    for (Future<?> future : futures) {
+      while (true) {
+        try {
+          future.get();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+
+    for (Throwable failure : failures) {
+      if (failure != null) {
+        throw new ExecutionException(failure);
+      }
+    }
+    return Arrays.asList(results);
+  }
+
+  private Parallel() {
+  }
+}
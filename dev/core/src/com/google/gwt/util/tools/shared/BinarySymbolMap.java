@@ -0,0 +1,431 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.util.tools.shared;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary form of a permutation's symbol map, which can be searched
+ * without being loaded into memory. It holds the same data as the text symbol
+ * map written by <code>SymbolMapsLinker</code>:
+ *
+ * <pre>
+ * # comment lines
+ * jsName,jsniIdent,className,memberName,sourceUri,sourceLine,fragmentNumber
+ * </pre>
+ *
+ * <p>
+ * The file starts with a header of ints: a magic number, the format version,
+ * and the number of comment lines, strings and symbols. It is followed by the
+ * string indexes of the comment lines, the end offset of each string, the
+ * symbols, and the UTF-8 bytes of the strings. Each distinct string is stored
+ * once. A symbol is seven ints: the string indexes of its five string fields,
+ * its source line and its fragment number. Symbols are sorted by the UTF-8
+ * bytes of their JavaScript names, so that a lookup is a binary search.
+ * </p>
+ *
+ * <p>
+ * Instances are immutable and may be used by several threads.
+ * </p>
+ */
+public final class BinarySymbolMap {
+
+  /**
+   * Builds a binary symbol map.
+   */
+  public static final class Builder {
+    private final List<Integer> comments = new ArrayList<Integer>();
+    private final Map<String, Integer> stringIndexes =
+        new HashMap<String, Integer>();
+    private final List<byte[]> strings = new ArrayList<byte[]>();
+    private final List<int[]> symbols = new ArrayList<int[]>();
+
+    /**
+     * Adds a comment line, without its leading <code>#</code>.
+     */
+    public Builder addComment(String comment) {
+      comments.add(intern(comment));
+      return this;
+    }
+
+    /**
+     * Adds a symbol. Null string fields are stored as empty strings, as in the
+     * text format.
+     */
+    public Builder addSymbol(String jsName, String jsniIdent, String className,
+        String memberName, String sourceUri, int sourceLine, int fragmentNumber) {
+      symbols.add(new int[] {
+          intern(jsName), intern(jsniIdent), intern(className),
+          intern(memberName), intern(sourceUri), sourceLine, fragmentNumber});
+      return this;
+    }
+
+    /**
+     * Adds the comments and symbols of a text symbol map.
+     *
+     * @throws IOException if the text can't be read or isn't a symbol map
+     */
+    public Builder readText(BufferedReader in) throws IOException {
+      String line;
+      while ((line = in.readLine()) != null) {
+        if (line.length() == 0) {
+          continue;
+        }
+        if (line.charAt(0) == '#') {
+          addComment(line.substring(1));
+          continue;
+        }
+        String[] parts = line.split(",", -1);
+        if (parts.length != FIELDS) {
+          throw new IOException("Malformed symbol: " + line);
+        }
+        try {
+          addSymbol(parts[0], parts[1], parts[2], parts[3], parts[4],
+              Integer.parseInt(parts[5]), Integer.parseInt(parts[6]));
+        } catch (NumberFormatException e) {
+          throw new IOException("Malformed symbol: " + line);
+        }
+      }
+      return this;
+    }
+
+    /**
+     * Writes the binary symbol map.
+     */
+    public void write(OutputStream out) throws IOException {
+      int[][] sorted = symbols.toArray(new int[symbols.size()][]);
+      Arrays.sort(sorted, new Comparator<int[]>() {
+        public int compare(int[] a, int[] b) {
+          return compareBytes(strings.get(a[0]), strings.get(b[0]));
+        }
+      });
+
+      DataOutputStream data = new DataOutputStream(new BufferedOutputStream(
+          out));
+      data.writeInt(MAGIC);
+      data.writeInt(VERSION);
+      data.writeInt(comments.size());
+      data.writeInt(strings.size());
+      data.writeInt(sorted.length);
+      for (int comment : comments) {
+        data.writeInt(comment);
+      }
+      int offset = 0;
+      for (byte[] string : strings) {
+        offset += string.length;
+        data.writeInt(offset);
+      }
+      for (int[] symbol : sorted) {
+        for (int field : symbol) {
+          data.writeInt(field);
+        }
+      }
+      for (byte[] string : strings) {
+        data.write(string);
+      }
+      data.flush();
+    }
+
+    private int intern(String s) {
+      if (s == null) {
+        s = "";
+      }
+      Integer index = stringIndexes.get(s);
+      if (index == null) {
+        index = strings.size();
+        strings.add(getBytes(s));
+        stringIndexes.put(s, index);
+      }
+      return index;
+    }
+  }
+
+  /**
+   * The file name suffix of binary symbol maps, appended to the permutation
+   * strong name.
+   */
+  public static final String SUFFIX = ".symbolMap.bin";
+
+  private static final int FIELDS = 7;
+
+  private static final int HEADER_SIZE = 5 * 4;
+
+  private static final int MAGIC = 0x4753594d;
+
+  private static final int VERSION = 1;
+
+  /**
+   * Memory-maps a binary symbol map file.
+   *
+   * @throws IOException if the file can't be read or isn't a binary symbol map
+   */
+  public static BinarySymbolMap open(File file) throws IOException {
+    FileInputStream in = new FileInputStream(file);
+    try {
+      FileChannel channel = in.getChannel();
+      return new BinarySymbolMap(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+          channel.size()));
+    } finally {
+      in.close();
+    }
+  }
+
+  private static int compareBytes(byte[] a, byte[] b) {
+    int length = Math.min(a.length, b.length);
+    for (int i = 0; i < length; i++) {
+      int diff = (a[i] & 0xff) - (b[i] & 0xff);
+      if (diff != 0) {
+        return diff;
+      }
+    }
+    return a.length - b.length;
+  }
+
+  private static byte[] getBytes(String s) {
+    try {
+      return s.getBytes("UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException("UTF-8 is not supported", e);
+    }
+  }
+
+  private final ByteBuffer buffer;
+
+  private final int commentCount;
+
+  private final int commentsStart;
+
+  private final int stringCount;
+
+  private final int stringsStart;
+
+  private final int symbolCount;
+
+  private final int symbolsStart;
+
+  private final int bytesStart;
+
+  /**
+   * Reads a binary symbol map held in a buffer. The buffer is not copied, and
+   * its position is not used. All of its offsets are checked here.
+   *
+   * @throws IOException if the buffer doesn't hold a binary symbol map, or is
+   *           corrupt or truncated
+   */
+  public BinarySymbolMap(ByteBuffer buffer) throws IOException {
+    this.buffer = buffer;
+    if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+      throw new IOException("Not a binary symbol map");
+    }
+    if (buffer.getInt(4) != VERSION) {
+      throw new IOException("Unsupported binary symbol map version "
+          + buffer.getInt(4));
+    }
+    commentCount = buffer.getInt(8);
+    stringCount = buffer.getInt(12);
+    symbolCount = buffer.getInt(16);
+    long ints = (long) commentCount + stringCount + (long) symbolCount * FIELDS;
+    if (commentCount < 0 || stringCount < 0 || symbolCount < 0
+        || HEADER_SIZE + ints * 4 > buffer.limit()) {
+      throw new IOException("Corrupt binary symbol map");
+    }
+    commentsStart = HEADER_SIZE;
+    stringsStart = commentsStart + commentCount * 4;
+    symbolsStart = stringsStart + stringCount * 4;
+    bytesStart = symbolsStart + symbolCount * FIELDS * 4;
+    validate();
+  }
+
+  /**
+   * Returns the symbol of a JavaScript name, in the form of a text symbol map
+   * line without the name, i.e.
+   * <code>jsniIdent,className,memberName,sourceUri,sourceLine,fragmentNumber</code>
+   * , or <code>null</code> if there is no such symbol.
+   */
+  public String get(String jsName) {
+    byte[] key = getBytes(jsName);
+    int low = 0;
+    int high = symbolCount - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = compareString(getField(mid, 0), key);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        StringBuilder sb = new StringBuilder();
+        appendSymbol(sb, mid, 1);
+        return sb.toString();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the number of symbols.
+   */
+  public int size() {
+    return symbolCount;
+  }
+
+  /**
+   * Writes this symbol map in the text format.
+   */
+  public void writeText(PrintWriter pw) {
+    for (int i = 0; i < commentCount; i++) {
+      pw.print('#');
+      pw.println(getString(buffer.getInt(commentsStart + i * 4)));
+    }
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < symbolCount; i++) {
+      appendSymbol(sb, i, 0);
+      sb.append('\n');
+      pw.write(sb.toString());
+      sb.setLength(0);
+    }
+  }
+
+  private void appendSymbol(StringBuilder sb, int symbol, int firstField) {
+    for (int field = firstField; field < FIELDS; field++) {
+      if (field > firstField) {
+        sb.append(',');
+      }
+      int value = getField(symbol, field);
+      if (field < 5) {
+        sb.append(getString(value));
+      } else {
+        sb.append(value);
+      }
+    }
+  }
+
+  /**
+   * Compares a stored string to UTF-8 bytes, without decoding it.
+   */
+  private int compareString(int index, byte[] key) {
+    int start = bytesStart + getStringStart(index);
+    int length = getStringEnd(index) - getStringStart(index);
+    int common = Math.min(length, key.length);
+    for (int i = 0; i < common; i++) {
+      int diff = (buffer.get(start + i) & 0xff) - (key[i] & 0xff);
+      if (diff != 0) {
+        return diff;
+      }
+    }
+    return length - key.length;
+  }
+
+  /**
+   * Compares two stored strings by their UTF-8 bytes.
+   */
+  private int compareStrings(int a, int b) {
+    int startA = bytesStart + getStringStart(a);
+    int startB = bytesStart + getStringStart(b);
+    int lengthA = getStringEnd(a) - getStringStart(a);
+    int lengthB = getStringEnd(b) - getStringStart(b);
+    int common = Math.min(lengthA, lengthB);
+    for (int i = 0; i < common; i++) {
+      int diff = (buffer.get(startA + i) & 0xff)
+          - (buffer.get(startB + i) & 0xff);
+      if (diff != 0) {
+        return diff;
+      }
+    }
+    return lengthA - lengthB;
+  }
+
+  private int getField(int symbol, int field) {
+    return buffer.getInt(symbolsStart + (symbol * FIELDS + field) * 4);
+  }
+
+  private String getString(int index) {
+    int start = getStringStart(index);
+    byte[] bytes = new byte[getStringEnd(index) - start];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = buffer.get(bytesStart + start + i);
+    }
+    try {
+      return new String(bytes, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException("UTF-8 is not supported", e);
+    }
+  }
+
+  private int getStringEnd(int index) {
+    return buffer.getInt(stringsStart + index * 4);
+  }
+
+  private int getStringStart(int index) {
+    return index == 0 ? 0 : getStringEnd(index - 1);
+  }
+
+  /**
+   * Returns whether a string index is within the string table.
+   */
+  private boolean isString(int index) {
+    return index >= 0 && index < stringCount;
+  }
+
+  /**
+   * Checks that all the string offsets and indexes are within the buffer, and
+   * that the symbols are sorted, so that lookups can't fail on a corrupt or
+   * truncated file.
+   */
+  private void validate() throws IOException {
+    int end = 0;
+    for (int i = 0; i < stringCount; i++) {
+      int next = getStringEnd(i);
+      if (next < end || next > buffer.limit() - bytesStart) {
+        throw new IOException("Corrupt binary symbol map: bad end of string "
+            + i);
+      }
+      end = next;
+    }
+    for (int i = 0; i < commentCount; i++) {
+      if (!isString(buffer.getInt(commentsStart + i * 4))) {
+        throw new IOException("Corrupt binary symbol map: bad comment " + i);
+      }
+    }
+    for (int i = 0; i < symbolCount; i++) {
+      for (int field = 0; field < 5; field++) {
+        if (!isString(getField(i, field))) {
+          throw new IOException("Corrupt binary symbol map: bad symbol " + i);
+        }
+      }
+      if (i > 0 && compareStrings(getField(i - 1, 0), getField(i, 0)) > 0) {
+        throw new IOException("Corrupt binary symbol map: unsorted symbol "
+            + i);
+      }
+    }
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.core.ext.linker.impl;
+
+import com.google.gwt.core.ext.TreeLogger;
+import com.google.gwt.core.ext.UnableToCompleteException;
+import com.google.gwt.core.ext.linker.ArtifactSet;
+import com.google.gwt.core.ext.linker.EmittedArtifact.Visibility;
+import com.google.gwt.core.ext.linker.SyntheticArtifact;
+import com.google.gwt.dev.cfg.ModuleDef;
+import com.google.gwt.dev.jjs.JJSOptionsImpl;
+import com.google.gwt.dev.util.OutputFileSetOnDirectory;
+import com.google.gwt.dev.util.Util;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.OutputStream;
+
+/**
+ * Tests the parallel emission of artifacts by {@link StandardLinkerContext}.
+ */
+public class StandardLinkerContextTest extends TestCase {
+
+  /**
+   * An artifact which can't be written.
+   */
+  private static class FailingArtifact extends SyntheticArtifact {
+    FailingArtifact(String partialPath) {
+      super(StandardLinkerContext.class, partialPath, new byte[0]);
+    }
+
+    @Override
+    public void writeTo(TreeLogger logger, OutputStream out)
+        throws UnableToCompleteException {
+      throw new UnableToCompleteException();
+    }
+  }
+
+  private static final int ARTIFACT_COUNT = 100;
+
+  private File dir;
+
+  public void testFailure() throws UnableToCompleteException {
+    StandardLinkerContext context = createContext(4);
+    ArtifactSet artifacts = createArtifacts();
+    artifacts.add(new FailingArtifact("fails.txt"));
+    try {
+      context.produceOutput(TreeLogger.NULL, artifacts, Visibility.Public,
+          new OutputFileSetOnDirectory(dir, "module/"));
+      fail();
+    } catch (UnableToCompleteException expected) {
+    }
+  }
+
+  public void testParallelOutput() throws UnableToCompleteException {
+    StandardLinkerContext context = createContext(4);
+    assertEquals(4, context.getLinkThreads());
+    ArtifactSet artifacts = createArtifacts();
+    SyntheticArtifact privateArtifact = new SyntheticArtifact(
+        StandardLinkerContext.class, "private.txt", Util.getBytes("private"));
+    privateArtifact.setVisibility(Visibility.Private);
+    artifacts.add(privateArtifact);
+
+    context.produceOutput(TreeLogger.NULL, artifacts, Visibility.Public,
+        new OutputFileSetOnDirectory(dir, "module/"));
+    for (int i = 0; i < ARTIFACT_COUNT; ++i) {
+      assertEquals("contents " + i, Util.readFileAsString(new File(dir,
+          "module/dir" + (i % 7) + "/file" + i + ".txt")));
+    }
+    assertFalse(new File(dir, "module/private.txt").exists());
+
+    context.produceOutput(TreeLogger.NULL, artifacts, Visibility.Private,
+        new OutputFileSetOnDirectory(dir, "extra/"));
+    assertEquals("private", Util.readFileAsString(new File(dir,
+        "extra/private.txt")));
+  }
+
+  public void testSetLinkThreads() throws UnableToCompleteException {
+    StandardLinkerContext context = createContext(0);
+    assertEquals(1, context.getLinkThreads());
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    dir = File.createTempFile("StandardLinkerContextTest", "");
+    dir.delete();
+    dir.mkdir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    Util.recursiveDelete(dir, false);
+  }
+
+  private ArtifactSet createArtifacts() {
+    ArtifactSet artifacts = new ArtifactSet();
+    for (int i = 0; i < ARTIFACT_COUNT; ++i) {
+      artifacts.add(new SyntheticArtifact(StandardLinkerContext.class, "dir"
+          + (i % 7) + "/file" + i + ".txt", Util.getBytes("contents " + i)));
+    }
+    return artifacts;
+  }
+
+  private StandardLinkerContext createContext(int linkThreads)
+      throws UnableToCompleteException {
+    StandardLinkerContext context = new StandardLinkerContext(TreeLogger.NULL,
+        new ModuleDef("test"), new JJSOptionsImpl());
+    context.setLinkThreads(linkThreads);
+    return context;
+  }
+}
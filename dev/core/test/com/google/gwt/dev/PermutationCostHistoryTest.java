@@ -0,0 +1,139 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev;
+
+import com.google.gwt.core.ext.TreeLogger;
+import com.google.gwt.dev.cfg.BindingProperty;
+import com.google.gwt.dev.cfg.ConditionNone;
+import com.google.gwt.dev.cfg.ConfigurationProperty;
+import com.google.gwt.dev.cfg.StaticPropertyOracle;
+import com.google.gwt.dev.util.Util;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+
+/**
+ * Tests {@link PermutationCostHistory}.
+ */
+public class PermutationCostHistoryTest extends TestCase {
+
+  private static Permutation createPermutation(int id, String locale) {
+    BindingProperty localeProp = new BindingProperty("locale");
+    localeProp.addDefinedValue(new ConditionNone(), "en");
+    localeProp.addDefinedValue(new ConditionNone(), "fr");
+    return new Permutation(id, new StaticPropertyOracle(new BindingProperty[] {localeProp},
+        new String[] {locale}, new ConfigurationProperty[0]));
+  }
+
+  private File tempDir;
+
+  public void testKey() {
+    String key = PermutationCostHistory.computeKey(createPermutation(0, "en"));
+    // The id is not part of the key, since it depends on the other permutations.
+    assertEquals(key, PermutationCostHistory.computeKey(createPermutation(1, "en")));
+    assertFalse(key.equals(PermutationCostHistory.computeKey(createPermutation(0, "fr"))));
+  }
+
+  public void testHistoryFile() {
+    String oldFile = System.getProperty(PermutationCostHistory.HISTORY_FILE_PROPERTY);
+    String oldCacheDir = System.getProperty(PermutationResultCache.CACHE_DIR_PROPERTY);
+    try {
+      System.clearProperty(PermutationCostHistory.HISTORY_FILE_PROPERTY);
+      System.clearProperty(PermutationResultCache.CACHE_DIR_PROPERTY);
+      assertNull(PermutationCostHistory.getHistoryFile());
+
+      System.setProperty(PermutationResultCache.CACHE_DIR_PROPERTY, tempDir.getPath());
+      assertEquals(tempDir, PermutationCostHistory.getHistoryFile().getParentFile());
+
+      File file = new File(tempDir, "costs.properties");
+      System.setProperty(PermutationCostHistory.HISTORY_FILE_PROPERTY, file.getPath());
+      assertEquals(file, PermutationCostHistory.getHistoryFile());
+    } finally {
+      restoreProperty(PermutationCostHistory.HISTORY_FILE_PROPERTY, oldFile);
+      restoreProperty(PermutationResultCache.CACHE_DIR_PROPERTY, oldCacheDir);
+    }
+  }
+
+  public void testRecordAndLoad() {
+    File file = new File(tempDir, "costs.properties");
+    Permutation en = createPermutation(0, "en");
+    Permutation fr = createPermutation(1, "fr");
+
+    Permutation[] build = {en, fr};
+
+    PermutationCostHistory history = PermutationCostHistory.load(TreeLogger.NULL, file);
+    assertEquals(-1, history.getCost(en));
+    history.record(en, 1234);
+    history.save(TreeLogger.NULL, build);
+
+    // Costs recorded by another build are kept.
+    PermutationCostHistory other = PermutationCostHistory.load(TreeLogger.NULL, file);
+    other.record(fr, 42);
+    other.save(TreeLogger.NULL, build);
+
+    history = PermutationCostHistory.load(TreeLogger.NULL, file);
+    assertEquals(1234, history.getCost(en));
+    assertEquals(42, history.getCost(fr));
+  }
+
+  public void testSaveDropsOtherPermutations() {
+    File file = new File(tempDir, "costs.properties");
+    Permutation en = createPermutation(0, "en");
+    Permutation fr = createPermutation(1, "fr");
+
+    PermutationCostHistory history = PermutationCostHistory.load(TreeLogger.NULL, file);
+    history.record(en, 1234);
+    history.record(fr, 42);
+    history.save(TreeLogger.NULL, new Permutation[] {en, fr});
+
+    // A build without the fr permutation drops its cost.
+    history = PermutationCostHistory.load(TreeLogger.NULL, file);
+    history.record(en, 1000);
+    history.save(TreeLogger.NULL, new Permutation[] {en});
+
+    history = PermutationCostHistory.load(TreeLogger.NULL, file);
+    assertEquals(1000, history.getCost(en));
+    assertEquals(-1, history.getCost(fr));
+  }
+
+  public void testUnreadableCosts() {
+    File file = new File(tempDir, "costs.properties");
+    Permutation en = createPermutation(0, "en");
+    Util.writeStringAsFile(file, PermutationCostHistory.computeKey(en) + "=soon\n");
+    assertEquals(-1, PermutationCostHistory.load(TreeLogger.NULL, file).getCost(en));
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    tempDir = File.createTempFile("PermutationCostHistoryTest", "");
+    tempDir.delete();
+    tempDir.mkdir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    Util.recursiveDelete(tempDir, false);
+  }
+
+  private void restoreProperty(String name, String value) {
+    if (value == null) {
+      System.clearProperty(name);
+    } else {
+      System.setProperty(name, value);
+    }
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev;
+
+import com.google.gwt.core.ext.TreeLogger;
+import com.google.gwt.dev.cfg.BindingProperty;
+import com.google.gwt.dev.cfg.ConditionNone;
+import com.google.gwt.dev.cfg.ConfigurationProperty;
+import com.google.gwt.dev.cfg.StaticPropertyOracle;
+import com.google.gwt.dev.jjs.JJSOptionsImpl;
+import com.google.gwt.dev.jjs.PermutationResult;
+import com.google.gwt.dev.jjs.UnifiedAst;
+import com.google.gwt.dev.jjs.UnifiedAst.AST;
+import com.google.gwt.dev.jjs.ast.JProgram;
+import com.google.gwt.dev.js.ast.JsProgram;
+import com.google.gwt.dev.util.FileBackedObject;
+import com.google.gwt.dev.util.Util;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Tests {@link PermutationResultCache}.
+ */
+public class PermutationResultCacheTest extends TestCase {
+
+  private static Permutation createPermutation(int id, String locale) {
+    BindingProperty localeProp = new BindingProperty("locale");
+    localeProp.addDefinedValue(new ConditionNone(), "en");
+    localeProp.addDefinedValue(new ConditionNone(), "fr");
+    return new Permutation(id, new StaticPropertyOracle(new BindingProperty[] {localeProp},
+        new String[] {locale}, new ConfigurationProperty[0]));
+  }
+
+  private static void deleteDir(File dir) {
+    for (File file : dir.listFiles()) {
+      file.delete();
+    }
+    dir.delete();
+  }
+
+  public void testKey() {
+    String key = PermutationResultCache.computeKey("hash", createPermutation(0, "en"));
+    assertEquals(key, PermutationResultCache.computeKey("hash", createPermutation(0, "en")));
+    assertFalse(key.equals(PermutationResultCache.computeKey("other", createPermutation(0, "en"))));
+    assertFalse(key.equals(PermutationResultCache.computeKey("hash", createPermutation(1, "en"))));
+    assertFalse(key.equals(PermutationResultCache.computeKey("hash", createPermutation(0, "fr"))));
+
+    Permutation rebound = createPermutation(0, "en");
+    rebound.putRebindAnswer("com.example.Messages", "com.example.Messages_en");
+    assertFalse(key.equals(PermutationResultCache.computeKey("hash", rebound)));
+  }
+
+  public void testLoadAndStore() throws Exception {
+    File cacheDir = File.createTempFile("permutation-cache-test", "");
+    assertTrue(cacheDir.delete());
+    String oldCacheDir = System.getProperty(PermutationResultCache.CACHE_DIR_PROPERTY);
+    System.setProperty(PermutationResultCache.CACHE_DIR_PROPERTY, cacheDir.getAbsolutePath());
+    try {
+      TreeLogger logger = TreeLogger.NULL;
+      UnifiedAst unifiedAst = new UnifiedAst(new JJSOptionsImpl(),
+          new AST(new JProgram(), new JsProgram()), true, Collections.<String> emptySet());
+      assertNull(PermutationResultCache.create(logger, unifiedAst));
+
+      unifiedAst.setInputsHash("hash");
+      PermutationResultCache cache = PermutationResultCache.create(logger, unifiedAst);
+      assertNotNull(cache);
+
+      Permutation en = createPermutation(0, "en");
+      Permutation fr = createPermutation(1, "fr");
+      FileBackedObject<PermutationResult> compiled =
+          new FileBackedObject<PermutationResult>(PermutationResult.class);
+      Util.writeBytesToFile(logger, compiled.getFile(), new byte[] {1, 2, 3});
+      cache.store(logger, en, compiled);
+
+      FileBackedObject<PermutationResult> loaded =
+          new FileBackedObject<PermutationResult>(PermutationResult.class);
+      assertFalse(cache.load(logger, fr, loaded));
+      assertTrue(cache.load(logger, en, loaded));
+      assertTrue(Arrays.equals(new byte[] {1, 2, 3}, Util.readFileAsBytes(loaded.getFile())));
+    } finally {
+      if (oldCacheDir == null) {
+        System.clearProperty(PermutationResultCache.CACHE_DIR_PROPERTY);
+      } else {
+        System.setProperty(PermutationResultCache.CACHE_DIR_PROPERTY, oldCacheDir);
+      }
+      if (cacheDir.isDirectory()) {
+        deleteDir(cacheDir);
+      }
+    }
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.javac;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Compares the size and load time of units stored with Java serialization and
+ * with {@link CompilationUnitCodec}, one unit at a time as the persistent unit
+ * cache stores them.
+ *
+ * <p>
+ * Usage: <code>CompilationUnitCodecBenchmark &lt;module.gwtar&gt; [iterations]</code>.
+ * A .gwtar file for a real module, such as the Showcase sample, can be created
+ * with {@link com.google.gwt.dev.CompileModule}.
+ * </p>
+ */
+public class CompilationUnitCodecBenchmark {
+
+  private interface Format {
+    CachedCompilationUnit read(byte[] bytes) throws Exception;
+
+    byte[] write(CachedCompilationUnit unit) throws Exception;
+  }
+
+  private static final Format BINARY = new Format() {
+    public CachedCompilationUnit read(byte[] bytes) throws IOException {
+      return CompilationUnitCodec.fromBytes(bytes);
+    }
+
+    public byte[] write(CachedCompilationUnit unit) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      CompilationUnitCodec.Encoder encoder = new CompilationUnitCodec.Encoder(bytes, false);
+      encoder.writeUnit(unit);
+      encoder.close();
+      return bytes.toByteArray();
+    }
+  };
+
+  private static final Format BINARY_COMPRESSED = new Format() {
+    public CachedCompilationUnit read(byte[] bytes) throws IOException {
+      return CompilationUnitCodec.fromBytes(bytes);
+    }
+
+    public byte[] write(CachedCompilationUnit unit) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      CompilationUnitCodec.Encoder encoder = new CompilationUnitCodec.Encoder(bytes, true);
+      encoder.writeUnit(unit);
+      encoder.close();
+      return bytes.toByteArray();
+    }
+  };
+
+  private static final Format JAVA_SERIALIZATION = new Format() {
+    public CachedCompilationUnit read(byte[] bytes) throws Exception {
+      ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+      try {
+        return (CachedCompilationUnit) in.readObject();
+      } finally {
+        in.close();
+      }
+    }
+
+    public byte[] write(CachedCompilationUnit unit) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ObjectOutputStream out = new ObjectOutputStream(bytes);
+      out.writeObject(unit);
+      out.close();
+      return bytes.toByteArray();
+    }
+  };
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.err.println("Usage: CompilationUnitCodecBenchmark <module.gwtar> [iterations]");
+      System.exit(1);
+    }
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    Collection<CachedCompilationUnit> units =
+        CompilationUnitArchive.createFromFile(new File(args[0])).getUnits().values();
+    System.out.println(units.size() + " units in " + args[0]);
+
+    run("java serialization", JAVA_SERIALIZATION, units, iterations);
+    run("binary", BINARY, units, iterations);
+    run("binary, compressed", BINARY_COMPRESSED, units, iterations);
+  }
+
+  private static void run(String name, Format format, Collection<CachedCompilationUnit> units,
+      int iterations) throws Exception {
+    List<byte[]> encoded = new ArrayList<byte[]>(units.size());
+    long totalBytes = 0;
+    long writeStart = System.nanoTime();
+    for (CachedCompilationUnit unit : units) {
+      byte[] bytes = format.write(unit);
+      encoded.add(bytes);
+      totalBytes += bytes.length;
+    }
+    long writeNanos = System.nanoTime() - writeStart;
+
+    // The first iteration warms up the JIT and is not counted.
+    long readNanos = 0;
+    for (int i = 0; i <= iterations; i++) {
+      long readStart = System.nanoTime();
+      for (byte[] bytes : encoded) {
+        format.read(bytes);
+      }
+      if (i > 0) {
+        readNanos += System.nanoTime() - readStart;
+      }
+    }
+
+    System.out.println(String.format(
+        "%-20s %10d bytes %8d bytes/unit  write %6d ms  read %6d ms", name, totalBytes,
+        totalBytes / Math.max(1, units.size()), writeNanos / 1000000,
+        readNanos / Math.max(1, iterations) / 1000000));
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.javac;
+
+import com.google.gwt.dev.util.Util;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Tests {@link CompilationUnitCodec}.
+ */
+public class CompilationUnitCodecTest extends TestCase {
+
+  public void testArchiveReadWrite() throws IOException, ClassNotFoundException {
+    String oldFormat = System.getProperty(CompilationUnitCodec.FORMAT_PROPERTY);
+    System.setProperty(CompilationUnitCodec.FORMAT_PROPERTY, "binary");
+    try {
+      CompilationUnitArchive archive = new CompilationUnitArchive("com.example.Foo");
+      MockCompilationUnit foo = new MockCompilationUnit("com.example.Foo", "Foo");
+      MockCompilationUnit bar = new MockCompilationUnit("com.example.Bar", "Bar");
+      archive.addUnit(foo);
+      archive.addUnit(bar);
+
+      File tmp = File.createTempFile("cu-codec-test", ".gwtar");
+      tmp.deleteOnExit();
+      archive.writeToFile(tmp);
+      assertTrue(CompilationUnitCodec.isEncoded(Util.readFileAsBytes(tmp)));
+
+      CompilationUnitArchive result = CompilationUnitArchive.createFromFile(tmp);
+      assertEquals("com.example.Foo", result.getTopModuleName());
+      assertEquals(2, result.getUnits().size());
+      assertUnitEquals(foo.asCachedCompilationUnit(), result.findUnit(foo.getResourcePath()));
+      assertUnitEquals(bar.asCachedCompilationUnit(), result.findUnit(bar.getResourcePath()));
+    } finally {
+      if (oldFormat == null) {
+        System.clearProperty(CompilationUnitCodec.FORMAT_PROPERTY);
+      } else {
+        System.setProperty(CompilationUnitCodec.FORMAT_PROPERTY, oldFormat);
+      }
+    }
+  }
+
+  public void testSharedStrings() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    CompilationUnitCodec.Encoder encoder = new CompilationUnitCodec.Encoder(bytes, false);
+    encoder.writeString("com.example.Foo");
+    encoder.writeString(null);
+    encoder.writeString("com.example.Foo");
+    encoder.writeInt(300);
+    encoder.close();
+    // The header, the string written once, a null, a back reference and a two
+    // byte integer.
+    assertEquals(9 + (1 + 2 + "com.example.Foo".length()) + 1 + 1 + 2, bytes.size());
+
+    CompilationUnitCodec.Decoder decoder =
+        new CompilationUnitCodec.Decoder(new ByteArrayInputStream(bytes.toByteArray()));
+    assertEquals("com.example.Foo", decoder.readString());
+    assertNull(decoder.readString());
+    assertEquals("com.example.Foo", decoder.readString());
+    assertEquals(300, decoder.readInt());
+  }
+
+  public void testUnitRoundTrip() throws IOException {
+    CachedCompilationUnit unit =
+        new MockCompilationUnit("com.example.Foo", "Foo").asCachedCompilationUnit();
+    for (boolean compress : new boolean[] {false, true}) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      CompilationUnitCodec.Encoder encoder = new CompilationUnitCodec.Encoder(bytes, compress);
+      encoder.writeUnit(unit);
+      encoder.close();
+      assertUnitEquals(unit, CompilationUnitCodec.fromBytes(bytes.toByteArray()));
+    }
+  }
+
+  @SuppressWarnings("deprecation")
+  private void assertUnitEquals(CachedCompilationUnit expected, CachedCompilationUnit actual) {
+    assertNotNull(actual);
+    assertEquals(expected.getTypeName(), actual.getTypeName());
+    assertEquals(expected.getResourcePath(), actual.getResourcePath());
+    assertEquals(expected.getResourceLocation(), actual.getResourceLocation());
+    assertEquals(expected.getContentId(), actual.getContentId());
+    assertEquals(expected.getLastModified(), actual.getLastModified());
+    assertEquals(expected.isError(), actual.isError());
+    assertEquals(expected.isGenerated(), actual.isGenerated());
+    assertEquals(expected.isSuperSource(), actual.isSuperSource());
+    assertEquals(expected.getTypesSerializedVersion(), actual.getTypesSerializedVersion());
+    assertTrue(Arrays.equals(expected.getTypesSerialized(), actual.getTypesSerialized()));
+  }
+}
@@ -17,10 +17,13 @@ package com.google.gwt.dev.javac;
 
 import com.google.gwt.core.ext.TreeLogger;
 import com.google.gwt.core.ext.UnableToCompleteException;
+import com.google.gwt.dev.jjs.impl.GwtAstBuilder;
 import com.google.gwt.dev.util.Util;
 
 import junit.framework.TestCase;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -95,6 +98,84 @@ public class PersistentUnitCacheTest extends TestCase {
     checkInvalidObjectInCache(new ThrowsIOException());
   }
 
+  /**
+   * Units should only be read from a cache file when they are looked up.
+   */
+  public void testLazyLoading() throws IOException, UnableToCompleteException,
+      InterruptedException, ExecutionException {
+    TreeLogger logger = TreeLogger.NULL;
+    File cacheDir = lastCacheDir = File.createTempFile("PersistentUnitTest-lazy", "");
+    File unitCacheDir = mkCacheDir(cacheDir);
+
+    MockCompilationUnit foo = new MockCompilationUnit("com.example.Foo", "Foo: source1");
+    MockCompilationUnit bar = new MockCompilationUnit("com.example.Bar", "Bar: source1");
+    File cacheFile = writeCacheFile(unitCacheDir, 1, System.currentTimeMillis(), foo, bar);
+
+    PersistentUnitCache cache = new PersistentUnitCache(logger, cacheDir);
+    CompilationUnit result = cache.find("com/example/Bar.java");
+    assertNotNull(result);
+    assertEquals(bar.getContentId(), result.getContentId());
+
+    // Bar is loaded already, but Foo can no longer be read.
+    assertTrue(cacheFile.delete());
+    assertNotNull(cache.find(bar.getContentId()));
+    assertNull(cache.find(foo.getContentId()));
+    assertNull(cache.find("com/example/Foo.java"));
+    cache.shutdown();
+  }
+
+  /**
+   * Cache files written as a single serialization stream by older versions of
+   * the cache should still be loaded.
+   */
+  public void testLegacyCacheFile() throws IOException, UnableToCompleteException,
+      InterruptedException, ExecutionException {
+    TreeLogger logger = TreeLogger.NULL;
+    File cacheDir = lastCacheDir = File.createTempFile("PersistentUnitTest-legacy", "");
+    File unitCacheDir = mkCacheDir(cacheDir);
+
+    MockCompilationUnit foo = new MockCompilationUnit("com.example.Foo", "Foo: source1");
+    File legacyFile = new File(unitCacheDir, PersistentUnitCache.CACHE_FILE_PREFIX + "12345");
+    ObjectOutputStream os = new ObjectOutputStream(new FileOutputStream(legacyFile));
+    os.writeObject(foo);
+    os.close();
+
+    PersistentUnitCache cache = new PersistentUnitCache(logger, cacheDir);
+    CompilationUnit result = cache.find(foo.getContentId());
+    assertNotNull(result);
+    assertEquals("com.example.Foo", result.getTypeName());
+    result = cache.find("com/example/Foo.java");
+    assertNotNull(result);
+    assertEquals(foo.getContentId(), result.getContentId());
+    cache.shutdown();
+  }
+
+  /**
+   * Units should be unloaded in least recently used order once the memory
+   * budget is exceeded.
+   */
+  public void testMemoryBudget() throws IOException, UnableToCompleteException,
+      InterruptedException, ExecutionException {
+    TreeLogger logger = TreeLogger.NULL;
+    File cacheDir = lastCacheDir = File.createTempFile("PersistentUnitTest-budget", "");
+    File unitCacheDir = mkCacheDir(cacheDir);
+
+    MockCompilationUnit foo = new MockCompilationUnit("com.example.Foo", "Foo: source1");
+    MockCompilationUnit bar = new MockCompilationUnit("com.example.Bar", "Bar: source1");
+    File cacheFile = writeCacheFile(unitCacheDir, 1, System.currentTimeMillis(), foo, bar);
+
+    // Only the most recently used unit fits in the budget.
+    PersistentUnitCache cache = new PersistentUnitCache(logger, cacheDir, 1);
+    assertNotNull(cache.find(foo.getContentId()));
+    assertNotNull(cache.find(bar.getContentId()));
+
+    // Foo was unloaded when Bar was loaded, so it has to be read again.
+    assertTrue(cacheFile.delete());
+    assertNotNull(cache.find(bar.getContentId()));
+    assertNull(cache.find(foo.getContentId()));
+    cache.shutdown();
+  }
+
   /**
    * The cache should recursively create the directories it needs.
    */
@@ -234,6 +315,97 @@ public class PersistentUnitCacheTest extends TestCase {
     assertNumCacheFiles(unitCacheDir, 1);
   }
 
+  /**
+   * A unit used in a session without a consolidation should not be dropped as
+   * stale by a later consolidation.
+   */
+  public void testRecentUseSaved() throws IOException, UnableToCompleteException,
+      InterruptedException, ExecutionException {
+    TreeLogger logger = TreeLogger.NULL;
+    File cacheDir = lastCacheDir = File.createTempFile("PersistentUnitTest-used", "");
+    File unitCacheDir = mkCacheDir(cacheDir);
+
+    MockCompilationUnit foo = new MockCompilationUnit("com.example.Foo", "Foo: source1");
+    writeCacheFile(unitCacheDir, 1, 0, foo);
+
+    PersistentUnitCache cache = new PersistentUnitCache(logger, cacheDir);
+    assertNotNull(cache.find(foo.getContentId()));
+    cache.cleanup(logger);
+    cache.shutdown();
+    assertNumCacheFiles(unitCacheDir, 2);
+
+    fillCacheDir(unitCacheDir);
+    cache = new PersistentUnitCache(logger, cacheDir);
+    cache.cleanup(logger);
+    cache.shutdown();
+    assertNumCacheFiles(unitCacheDir, 1);
+
+    cache = new PersistentUnitCache(logger, cacheDir);
+    CompilationUnit result = cache.find("com/example/Foo.java");
+    assertNotNull(result);
+    assertEquals(foo.getContentId(), result.getContentId());
+    cache.shutdown();
+  }
+
+  /**
+   * Consolidation should copy the records of units that were never loaded, and
+   * keep them readable after the old cache files are deleted.
+   */
+  public void testRecordsCopied() throws IOException, UnableToCompleteException,
+      InterruptedException, ExecutionException {
+    TreeLogger logger = TreeLogger.NULL;
+    File cacheDir = lastCacheDir = File.createTempFile("PersistentUnitTest-copy", "");
+    File unitCacheDir = mkCacheDir(cacheDir);
+
+    MockCompilationUnit foo = new MockCompilationUnit("com.example.Foo", "Foo: source1");
+    File cacheFile = writeCacheFile(unitCacheDir, 1, System.currentTimeMillis(), foo);
+    fillCacheDir(unitCacheDir);
+
+    PersistentUnitCache cache = new PersistentUnitCache(logger, cacheDir);
+    cache.cleanup(logger);
+    cache.shutdown();
+    assertNumCacheFiles(unitCacheDir, 1);
+    assertFalse(cacheFile.exists());
+
+    CompilationUnit result = cache.find(foo.getContentId());
+    assertNotNull(result);
+    assertEquals("com.example.Foo", result.getTypeName());
+
+    cache = new PersistentUnitCache(logger, cacheDir);
+    result = cache.find("com/example/Foo.java");
+    assertNotNull(result);
+    assertEquals(foo.getContentId(), result.getContentId());
+    cache.shutdown();
+  }
+
+  /**
+   * Units that have not been used for a long time should be dropped when the
+   * cache files are consolidated.
+   */
+  public void testStaleUnitsPurged() throws IOException, UnableToCompleteException,
+      InterruptedException, ExecutionException {
+    TreeLogger logger = TreeLogger.NULL;
+    File cacheDir = lastCacheDir = File.createTempFile("PersistentUnitTest-stale", "");
+    File unitCacheDir = mkCacheDir(cacheDir);
+
+    MockCompilationUnit foo = new MockCompilationUnit("com.example.Foo", "Foo: source1");
+    MockCompilationUnit bar = new MockCompilationUnit("com.example.Bar", "Bar: source1");
+    writeCacheFile(unitCacheDir, 1, 0, foo);
+    writeCacheFile(unitCacheDir, 2, System.currentTimeMillis(), bar);
+    fillCacheDir(unitCacheDir);
+
+    PersistentUnitCache cache = new PersistentUnitCache(logger, cacheDir);
+    cache.cleanup(logger);
+    assertNull(cache.find(foo.getContentId()));
+    cache.shutdown();
+    assertNumCacheFiles(unitCacheDir, 1);
+
+    cache = new PersistentUnitCache(logger, cacheDir);
+    assertNull(cache.find("com/example/Foo.java"));
+    assertNotNull(cache.find("com/example/Bar.java"));
+    cache.shutdown();
+  }
+
   private void assertNumCacheFiles(File unitCacheDir, int expected) {
     assertEquals(expected, unitCacheDir.list().length);
   }
@@ -263,6 +435,15 @@ public class PersistentUnitCacheTest extends TestCase {
     assertNumCacheFiles(unitCacheDir, 0);
   }
 
+  /**
+   * Adds empty cache files until there are enough to trigger consolidation.
+   */
+  private void fillCacheDir(File unitCacheDir) throws IOException {
+    for (int i = 100; unitCacheDir.list().length < PersistentUnitCache.CACHE_FILE_THRESHOLD; i++) {
+      writeCacheFile(unitCacheDir, i, 0);
+    }
+  }
+
   private File mkCacheDir(File cacheDir) {
     assertNotNull(cacheDir);
     assertTrue(cacheDir.exists());
@@ -271,4 +452,43 @@ public class PersistentUnitCacheTest extends TestCase {
     unitCacheDir.mkdirs();
     return unitCacheDir;
   }
+
+  /**
+   * Writes a cache file in the indexed format, with the same last use for all
+   * units.
+   */
+  private File writeCacheFile(File unitCacheDir, int index, long lastUsed,
+      MockCompilationUnit... units) throws IOException {
+    File cacheFile =
+        new File(unitCacheDir, PersistentUnitCache.CACHE_FILE_PREFIX
+            + String.format("%016X", index));
+    DataOutputStream out = new DataOutputStream(new FileOutputStream(cacheFile));
+    try {
+      out.writeInt(PersistentUnitCache.CACHE_FILE_MAGIC);
+      out.writeInt(PersistentUnitCache.CACHE_FILE_FORMAT_VERSION);
+      for (MockCompilationUnit unit : units) {
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(headerBytes);
+        header.writeUTF(unit.getResourcePath());
+        header.writeUTF(unit.getContentId().get());
+        header.writeLong(unit.getLastModified());
+        header.writeLong(GwtAstBuilder.getSerializationVersion());
+        header.writeLong(lastUsed);
+        header.close();
+
+        ByteArrayOutputStream unitBytes = new ByteArrayOutputStream();
+        ObjectOutputStream os = new ObjectOutputStream(unitBytes);
+        os.writeObject(unit);
+        os.close();
+
+        out.writeInt(headerBytes.size());
+        headerBytes.writeTo(out);
+        out.writeInt(unitBytes.size());
+        unitBytes.writeTo(out);
+      }
+    } finally {
+      out.close();
+    }
+    return cacheFile;
+  }
 }
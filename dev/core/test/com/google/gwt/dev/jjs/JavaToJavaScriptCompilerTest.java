@@ -0,0 +1,75 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.jjs;
+
+import com.google.gwt.dev.jjs.ast.JProgram;
+import com.google.gwt.dev.jjs.impl.JJSTestBase;
+import com.google.gwt.dev.jjs.impl.OptimizerContext;
+import com.google.gwt.dev.jjs.impl.OptimizerStats;
+import com.google.gwt.dev.util.arg.OptionOptimize;
+
+import java.util.ArrayList;
+
+/**
+ * Tests the optimization loop of {@link JavaToJavaScriptCompiler}.
+ */
+public class JavaToJavaScriptCompilerTest extends JJSTestBase {
+
+  /**
+   * Tests that the incremental optimizer, serial or parallel, leaves the
+   * program exactly as the full optimization loop does.
+   */
+  public void testIncrementalOptimizer() throws Exception {
+    addSnippetClassDecl("static final int ONE = 1");
+    addSnippetClassDecl("static int count");
+    addSnippetClassDecl("static abstract class Shape { abstract int area(); }");
+    addSnippetClassDecl("static class Square extends Shape {",
+        "  int side;",
+        "  Square(int side) { this.side = side; }",
+        "  int area() { return side * side; }",
+        "}");
+    addSnippetClassDecl("static class Unused extends Shape { int area() { return 0; } }");
+    addSnippetClassDecl("static int twice(int x) { return x * 2; }");
+    addSnippetClassDecl("static boolean isPositive(int x) { return x > 0; }");
+    addSnippetClassDecl("static int sum(Shape[] shapes) {",
+        "  int total = 0;",
+        "  for (int i = 0; i < shapes.length; i++) { total += shapes[i].area(); }",
+        "  return total;",
+        "}");
+    String code =
+        "Shape s = new Square(3);" + "int a = twice(s.area()) + ONE;"
+            + "if (isPositive(ONE) || count > 0) { count += a; }"
+            + "if (false) { count = 5; }" + "return count + sum(new Shape[] {s});";
+
+    String full = optimize(code, false, 1);
+    assertEquals(full, optimize(code, true, 1));
+    assertEquals(full, optimize(code, false, 4));
+    assertEquals(full, optimize(code, true, 4));
+  }
+
+  /**
+   * Optimizes the program with the given main method body, and returns the
+   * source of all of its types.
+   */
+  private String optimize(String code, boolean incremental, int numThreads) throws Exception {
+    JProgram program = compileSnippet("int", code);
+    program.addEntryMethod(findMainMethod(program));
+    JavaToJavaScriptCompiler.optimizeLoops(program, OptionOptimize.OPTIMIZE_LEVEL_MAX, false,
+        incremental ? new OptimizerContext(program) : null, numThreads,
+        new ArrayList<OptimizerStats>());
+    return getProgramSource(program);
+  }
+}
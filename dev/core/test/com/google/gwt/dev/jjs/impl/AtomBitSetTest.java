@@ -0,0 +1,126 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.jjs.impl;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Tests {@link AtomBitSet} and {@link AtomIndex}.
+ */
+public class AtomBitSetTest extends TestCase {
+
+  private AtomIndex index;
+
+  public void testAddRemoveContains() {
+    AtomBitSet<String> set = new AtomBitSet<String>(index);
+    assertTrue(set.isEmpty());
+    assertTrue(set.add("a"));
+    assertFalse(set.add("a"));
+    assertTrue(set.add("b"));
+    assertEquals(2, set.size());
+    assertTrue(set.contains("a"));
+    assertFalse(set.contains("c"));
+    assertFalse(set.contains(null));
+    // Looking up an atom doesn't give it an id.
+    assertEquals(-1, index.findId("c"));
+
+    assertTrue(set.remove("a"));
+    assertFalse(set.remove("a"));
+    assertFalse(set.remove("c"));
+    assertEquals(1, set.size());
+    assertEquals(new HashSet<String>(Arrays.asList("b")), set);
+  }
+
+  public void testCopyIsIndependent() {
+    AtomBitSet<String> set = create("a", "b");
+    AtomBitSet<String> copy = new AtomBitSet<String>(set);
+    copy.add("c");
+    set.remove("a");
+    assertEquals(create("b"), set);
+    assertEquals(create("a", "b", "c"), copy);
+  }
+
+  public void testIterationOrderAndRemove() {
+    AtomBitSet<String> set = create("c", "a", "b");
+    assertEquals(Arrays.asList("c", "a", "b"), list(set));
+
+    Iterator<String> it = set.iterator();
+    it.next();
+    it.remove();
+    try {
+      it.remove();
+      fail();
+    } catch (IllegalStateException e) {
+    }
+    assertEquals(Arrays.asList("a", "b"), list(set));
+    assertEquals(2, set.size());
+  }
+
+  public void testSetOperations() {
+    AtomBitSet<String> set = create("a", "b", "c");
+    assertFalse(set.addAll(create("a")));
+    assertTrue(set.addAll(create("d")));
+    assertEquals(4, set.size());
+
+    assertTrue(set.retainAll(create("a", "b", "x")));
+    assertEquals(create("a", "b"), set);
+    assertFalse(set.retainAll(create("a", "b")));
+
+    assertTrue(set.removeAll(create("a")));
+    assertFalse(set.removeAll(create("x")));
+    assertEquals(create("b"), set);
+
+    // A set of another index, or another collection, works too.
+    AtomBitSet<String> other = new AtomBitSet<String>(new AtomIndex());
+    other.add("z");
+    assertTrue(set.addAll(other));
+    assertTrue(set.removeAll(Arrays.asList("b")));
+    assertEquals(create("z"), set);
+  }
+
+  public void testManyAtoms() {
+    AtomBitSet<Integer> set = new AtomBitSet<Integer>(index);
+    for (int i = 0; i < 5000; i++) {
+      set.add(i);
+    }
+    assertEquals(5000, set.size());
+    assertEquals(5000, index.size());
+    int expected = 0;
+    for (int i : set) {
+      assertEquals(expected++, i);
+    }
+  }
+
+  @Override
+  protected void setUp() {
+    index = new AtomIndex();
+  }
+
+  private AtomBitSet<String> create(String... atoms) {
+    AtomBitSet<String> set = new AtomBitSet<String>(index);
+    set.addAll(Arrays.asList(atoms));
+    return set;
+  }
+
+  private List<String> list(AtomBitSet<String> set) {
+    return Arrays.asList(set.toArray(new String[set.size()]));
+  }
+}
@@ -17,6 +17,7 @@ package com.google.gwt.dev.jjs.impl;
 
 import com.google.gwt.core.ext.UnableToCompleteException;
 import com.google.gwt.dev.jjs.ast.JProgram;
+import com.google.gwt.dev.jjs.impl.CodeSplitter.ExclusivityMap;
 
 /**
  * Tests class {@link CodeSplitter}.
@@ -32,4 +33,44 @@ public class CodeSplitterTest extends JJSTestBase {
 
     assertTrue(cfa.getInstantiatedTypes().contains(findType(program, "com.google.gwt.lang.Array")));
   }
+
+  /**
+   * Tests that halving the split points maps the same atoms to the same split
+   * points as computing one all-but-one CFA per split point.
+   */
+  public void testExclusivityByHalving() throws UnableToCompleteException {
+    addSnippetImport("com.google.gwt.core.client.GWT");
+    addSnippetImport("com.google.gwt.core.client.RunAsyncCallback");
+    addSnippetClassDecl("static class A { void m() { } }");
+    addSnippetClassDecl("static class B extends A { void m() { functionD(); } }");
+    addSnippetClassDecl("static A a = new A()");
+    addSnippetClassDecl("static A b");
+    addSnippetClassDecl("static void functionA() { }");
+    addSnippetClassDecl("static void functionB() { }");
+    addSnippetClassDecl("static void functionC() { }");
+    addSnippetClassDecl("static void functionD() { }");
+    // B.m(), and so functionD(), is only live once both 1 and 2 are reached.
+    JProgram program =
+        compileSnippet("void", createRunAsync("b = new B(); functionA();")
+            + createRunAsync("a.m(); functionB();") + createRunAsync("functionC();")
+            + createRunAsync("functionA(); functionC();"));
+    program.addEntryMethod(findMainMethod(program));
+
+    ExclusivityMap byHalving = CodeSplitter.computeExclusivityMap(logger, program, false);
+    ExclusivityMap byAllButOne = CodeSplitter.computeExclusivityMap(logger, program, true);
+    assertEquals(byAllButOne.fields, byHalving.fields);
+    assertEquals(byAllButOne.methods, byHalving.methods);
+    assertEquals(byAllButOne.strings, byHalving.strings);
+    assertEquals(byAllButOne.types, byHalving.types);
+
+    assertEquals(Integer.valueOf(2), byHalving.methods.get(findMethod(program, "functionB")));
+    assertEquals(Integer.valueOf(2), byHalving.methods.get(findMethod(program, "functionD")));
+    assertNull(byHalving.methods.get(findMethod(program, "functionA")));
+    assertNull(byHalving.methods.get(findMethod(program, "functionC")));
+    assertNull(byHalving.methods.get(findMainMethod(program)));
+  }
+
+  private static String createRunAsync(String body) {
+    return "GWT.runAsync(new RunAsyncCallback() { public void onSuccess() {" + body + "}});\n";
+  }
 }
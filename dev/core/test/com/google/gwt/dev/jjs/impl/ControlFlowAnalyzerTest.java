@@ -22,6 +22,7 @@ import com.google.gwt.dev.jjs.ast.JField;
 import com.google.gwt.dev.jjs.ast.JMethod;
 import com.google.gwt.dev.jjs.ast.JNode;
 import com.google.gwt.dev.jjs.ast.JProgram;
+import com.google.gwt.dev.jjs.ast.JRunAsync;
 import com.google.gwt.dev.util.Empty;
 
 import java.util.Collections;
@@ -88,6 +89,53 @@ public class ControlFlowAnalyzerTest extends JJSTestBase {
     }
   }
 
+  /**
+   * Tests that a CFA using bit sets computes the same liveness as one using
+   * hash sets, from the entry point, across copies, and for the whole program.
+   */
+  public void testBitSets() throws Exception {
+    addSnippetImport("com.google.gwt.core.client.GWT");
+    addSnippetImport("com.google.gwt.core.client.RunAsyncCallback");
+    addSnippetClassDecl("static class A { String m() { return \"a\"; } }");
+    addSnippetClassDecl("static class B extends A { String m() { return \"b\" + count; } }");
+    addSnippetClassDecl("static class C extends A { String m() { return \"c\"; } }");
+    addSnippetClassDecl("static int count");
+    addSnippetClassDecl("static A a = new A()");
+    addSnippetClassDecl("static String unused() { return \"unused\"; }");
+    JProgram program = compileSnippet("void",
+        "a.m(); GWT.runAsync(new RunAsyncCallback() { public void onSuccess() {"
+            + " count = 1; a = new B(); } });"
+            + "GWT.runAsync(new RunAsyncCallback() { public void onSuccess() {"
+            + " a = new C(); a.m(); } });");
+    assertEquals(2, program.getRunAsyncs().size());
+    program.addEntryMethod(findMainMethod(program));
+
+    ControlFlowAnalyzer hashCfa = new ControlFlowAnalyzer(program, false);
+    ControlFlowAnalyzer bitCfa = new ControlFlowAnalyzer(program, true);
+    assertTrue(bitCfa.getLiveFieldsAndMethods() instanceof AtomBitSet<?>);
+    hashCfa.traverseFrom(findMainMethod(program));
+    bitCfa.traverseFrom(findMainMethod(program));
+    assertSameLiveness(hashCfa, bitCfa);
+
+    for (JRunAsync runAsync : program.getRunAsyncs()) {
+      ControlFlowAnalyzer hashCopy = new ControlFlowAnalyzer(hashCfa);
+      ControlFlowAnalyzer bitCopy = new ControlFlowAnalyzer(bitCfa);
+      assertTrue(bitCopy.getLiveFieldsAndMethods() instanceof AtomBitSet<?>);
+      hashCopy.traverseFromRunAsync(runAsync);
+      bitCopy.traverseFromRunAsync(runAsync);
+      assertSameLiveness(hashCopy, bitCopy);
+    }
+    // Copies are independent of the CFA they were made from.
+    assertFalse(bitCfa.getInstantiatedTypes().contains(findType(program, "test.EntryPoint$C")));
+
+    hashCfa = new ControlFlowAnalyzer(program, false);
+    bitCfa = new ControlFlowAnalyzer(program, true);
+    hashCfa.traverseEverything();
+    bitCfa.traverseEverything();
+    assertSameLiveness(hashCfa, bitCfa);
+    assertTrue(bitCfa.getInstantiatedTypes().contains(findType(program, "test.EntryPoint$C")));
+  }
+
   /**
    * Tests properties of an empty program.
    */
@@ -233,6 +281,15 @@ public class ControlFlowAnalyzerTest extends JJSTestBase {
         "Object.$clinit");
   }
 
+  private static void assertSameLiveness(ControlFlowAnalyzer expected,
+      ControlFlowAnalyzer actual) {
+    assertEquals(expected.getFieldsWritten(), actual.getFieldsWritten());
+    assertEquals(expected.getInstantiatedTypes(), actual.getInstantiatedTypes());
+    assertEquals(expected.getLiveFieldsAndMethods(), actual.getLiveFieldsAndMethods());
+    assertEquals(expected.getLiveStrings(), actual.getLiveStrings());
+    assertEquals(expected.getReferencedTypes(), actual.getReferencedTypes());
+  }
+
   private Result analyzeSnippet(String codeSnippet)
       throws UnableToCompleteException {
     JProgram program = compileSnippet("void", codeSnippet);
@@ -145,6 +145,28 @@ public class DeadCodeEliminationTest extends OptimizerTestBase {
     optimize("double", "return 0.0 - d;").intoString("return 0.0 - EntryPoint.d;");
   }
 
+  /**
+   * Tests that eliminating dead code on several threads gives the same program
+   * as doing it serially, including constants read from fields whose
+   * initializers are simplified at the same time.
+   */
+  public void testParallel() throws Exception {
+    addSnippetClassDecl("static final int THREE = 1 + 2");
+    addSnippetClassDecl("static final boolean DEBUG = !true");
+    StringBuilder code = new StringBuilder("int total = 0;");
+    for (int i = 0; i < 10; i++) {
+      addSnippetClassDecl("static int m" + i + "(int x) {",
+          "  if (DEBUG) { x++; }",
+          "  while (false) { x--; }",
+          "  return x + THREE * " + i + " + (true ? 1 : 2);",
+          "}");
+      code.append("total += m" + i + "(total);");
+    }
+    code.append("return total;");
+    String serial = eliminateDeadCode(code.toString(), 1);
+    assertEquals(serial, eliminateDeadCode(code.toString(), 4));
+  }
+
   @Override
   protected boolean optimizeMethod(JProgram program, JMethod method) {
     // This is necessary for String calls optimizations
@@ -156,4 +178,12 @@ public class DeadCodeEliminationTest extends OptimizerTestBase {
     }
     return result.didChange();
   }
+
+  private String eliminateDeadCode(String code, int numThreads) throws Exception {
+    JProgram program = compileSnippet("int", code);
+    while (DeadCodeElimination.exec(program, null, numThreads).didChange()) {
+      // Until the program no longer changes.
+    }
+    return getProgramSource(program);
+  }
 }
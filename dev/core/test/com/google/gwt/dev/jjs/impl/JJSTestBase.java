@@ -147,6 +147,18 @@ public abstract class JJSTestBase extends TestCase {
     return mainMethod.getBody().toSource();
   }
 
+  /**
+   * Returns the source of every type of the program, to compare the results
+   * of different ways of optimizing the same program.
+   */
+  public static String getProgramSource(JProgram program) {
+    StringBuilder source = new StringBuilder();
+    for (JDeclaredType type : program.getDeclaredTypes()) {
+      source.append(type.toSource());
+    }
+    return source.toString();
+  }
+
   /**
    * Tweak this if you want to see the log output.
    */
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.jjs.impl;
+
+import com.google.gwt.dev.jjs.ast.JProgram;
+
+/**
+ * Tests {@link MethodCallTightener}.
+ */
+public class MethodCallTightenerTest extends JJSTestBase {
+
+  /**
+   * Tests that tightening calls on several threads gives the same program as
+   * doing it serially.
+   */
+  public void testParallel() throws Exception {
+    addSnippetClassDecl("static class A { int m() { return 1; } }");
+    addSnippetClassDecl("static class B extends A { int m() { return 2; } }");
+    addSnippetClassDecl("static class C extends B { }");
+    StringBuilder code = new StringBuilder("int total = 0;");
+    for (int i = 0; i < 10; i++) {
+      addSnippetClassDecl("static int m" + i + "(B b, C c) {",
+          "  A a = b;",
+          "  return a.m() + b.m() + c.m() + ((A) c).m() + " + i + ";",
+          "}");
+      code.append("total += m" + i + "(new B(), new C());");
+    }
+    code.append("return total;");
+    String serial = tightenCalls(code.toString(), 1);
+    assertEquals(serial, tightenCalls(code.toString(), 4));
+  }
+
+  private String tightenCalls(String code, int numThreads) throws Exception {
+    JProgram program = compileSnippet("int", code);
+    MethodCallTightener.exec(program, null, numThreads);
+    return getProgramSource(program);
+  }
+}
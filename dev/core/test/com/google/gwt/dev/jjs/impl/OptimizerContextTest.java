@@ -0,0 +1,123 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.jjs.impl;
+
+import com.google.gwt.dev.jjs.ast.JField;
+import com.google.gwt.dev.jjs.ast.JMethod;
+import com.google.gwt.dev.jjs.ast.JProgram;
+
+import java.util.Set;
+
+/**
+ * Tests {@link OptimizerContext}.
+ */
+public class OptimizerContextTest extends JJSTestBase {
+
+  public void testFirstIterationIsFullPass() throws Exception {
+    JProgram program = compileSnippet("void", "");
+    OptimizerContext optimizerCtx = new OptimizerContext(program);
+    assertTrue(optimizerCtx.beginIteration());
+    assertFalse(optimizerCtx.beginIteration());
+    optimizerCtx.requestFullPass();
+    assertTrue(optimizerCtx.beginIteration());
+  }
+
+  public void testModifiedFieldAffectsReferrers() throws Exception {
+    addSnippetClassDecl("static int f;");
+    addSnippetClassDecl("static int reader() { return f; }");
+    addSnippetClassDecl("static int other() { return 1; }");
+    JProgram program = compileSnippet("void", "reader(); other();");
+    JField f = findField(program, "EntryPoint.f");
+    JMethod reader = findMethod(program, "reader");
+    JMethod other = findMethod(program, "other");
+
+    OptimizerContext optimizerCtx = new OptimizerContext(program);
+    optimizerCtx.beginIteration();
+    optimizerCtx.markModified(f);
+    Set<JMethod> toVisit = optimizerCtx.getMethodsToVisit();
+    assertTrue(toVisit.contains(reader));
+    assertFalse(toVisit.contains(other));
+  }
+
+  public void testModifiedMethodAffectsCallersAndCallees() throws Exception {
+    addSnippetClassDecl("static int callee() { return 1; }");
+    addSnippetClassDecl("static int middle() { return callee(); }");
+    addSnippetClassDecl("static int unrelated() { return 2; }");
+    JProgram program = compileSnippet("void", "middle(); unrelated();");
+    JMethod main = findMainMethod(program);
+    JMethod callee = findMethod(program, "callee");
+    JMethod middle = findMethod(program, "middle");
+    JMethod unrelated = findMethod(program, "unrelated");
+
+    OptimizerContext optimizerCtx = new OptimizerContext(program);
+    optimizerCtx.beginIteration();
+    assertFalse(optimizerCtx.hasModifications());
+    optimizerCtx.markModified(middle);
+    assertTrue(optimizerCtx.hasModifications());
+
+    // Changes from the previous iteration are still visible.
+    assertFalse(optimizerCtx.beginIteration());
+    Set<JMethod> toVisit = optimizerCtx.getMethodsToVisit();
+    assertTrue(toVisit.contains(main));
+    assertTrue(toVisit.contains(middle));
+    assertTrue(toVisit.contains(callee));
+    assertFalse(toVisit.contains(unrelated));
+
+    // But not two iterations later.
+    optimizerCtx.beginIteration();
+    assertTrue(optimizerCtx.getMethodsToVisit().isEmpty());
+  }
+
+  public void testFullPassRecordsChangedMethods() throws Exception {
+    addSnippetClassDecl("static int dead() { if (false) { return 1; } return 2; }");
+    addSnippetClassDecl("static int alsoDead() { while (false) { } return 3; }");
+    addSnippetClassDecl("static int live() { return 4; }");
+    JProgram program = compileSnippet("void", "dead(); alsoDead(); live();");
+    JMethod dead = findMethod(program, "dead");
+    JMethod alsoDead = findMethod(program, "alsoDead");
+    JMethod live = findMethod(program, "live");
+
+    // The first iteration visits the whole program through JProgram's own
+    // traversal, which reaches methods as members of their types.
+    OptimizerContext optimizerCtx = new OptimizerContext(program);
+    assertTrue(optimizerCtx.beginIteration());
+    assertTrue(DeadCodeElimination.exec(program, optimizerCtx).didChange());
+    Set<JMethod> modified = optimizerCtx.getModifiedMethods();
+    assertTrue(modified.contains(dead));
+    assertTrue(modified.contains(alsoDead));
+    assertFalse(modified.contains(live));
+  }
+
+  public void testTrackingVisitorRecordsChanges() throws Exception {
+    addSnippetClassDecl("static int dead() { if (false) { return 1; } return 2; }");
+    addSnippetClassDecl("static int live() { return 3; }");
+    addSnippetClassDecl("static void callsLive() { live(); }");
+    JProgram program = compileSnippet("void", "dead(); callsLive();");
+    JMethod dead = findMethod(program, "dead");
+    JMethod live = findMethod(program, "live");
+
+    OptimizerContext optimizerCtx = new OptimizerContext(program);
+    optimizerCtx.beginIteration();
+    assertTrue(DeadCodeElimination.exec(program, optimizerCtx).didChange());
+    optimizerCtx.beginIteration();
+    Set<JMethod> toVisit = optimizerCtx.getMethodsToVisit();
+    assertTrue(toVisit.contains(dead));
+    assertFalse(toVisit.contains(live));
+
+    // Nothing left to do in the affected methods.
+    assertFalse(DeadCodeElimination.exec(program, optimizerCtx).didChange());
+  }
+}
@@ -18,6 +18,7 @@ package com.google.gwt.dev.jjs.impl;
 import junit.framework.TestCase;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * Tests the {@link OptimizerStats} class.
@@ -67,6 +68,23 @@ public class OptimizerStatsTest extends TestCase {
     assertEquals(30, stats.getNumVisits());
   }
 
+  public void testMethodTimes() {
+    OptimizerStats stats = new OptimizerStats("foo");
+    assertTrue(stats.getMethodTimes().isEmpty());
+    stats.recordMethodTime("A.a()V", 5000000).recordMethodTime("A.b()V", 2000000);
+    stats.recordMethodTime("A.a()V", 1000000);
+
+    OptimizerStats childStats = new OptimizerStats("bar");
+    childStats.recordMethodTime("A.b()V", 3000000);
+    stats.add(childStats);
+
+    Map<String, Long> times = stats.getMethodTimes();
+    assertEquals(2, times.size());
+    assertEquals(6000000L, times.get("A.a()V").longValue());
+    assertEquals(5000000L, times.get("A.b()V").longValue());
+    assertTrue(stats.prettyPrint().contains("A.a()V (6 ms)"));
+  }
+
   public void testOptimizerStatsChangeChildOnly() {
     OptimizerStats stats = new OptimizerStats("foo");
     OptimizerStats childStats = new OptimizerStats("bar");
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.jjs.impl.gflow;
+
+import com.google.gwt.dev.jjs.ast.JMethod;
+import com.google.gwt.dev.jjs.ast.JProgram;
+import com.google.gwt.dev.jjs.impl.OptimizerStats;
+
+/**
+ * Runs the {@link DataflowOptimizerTest} cases with dead assignments found on
+ * a {@link com.google.gwt.dev.jjs.impl.gflow.cfg.CompactCfg}.
+ */
+public class CompactDataflowOptimizerTest extends DataflowOptimizerTest {
+
+  /**
+   * Assignments that only become dead once the ones reading them are removed
+   * should be removed too.
+   */
+  public void testDeadAssignmentChain() throws Exception {
+    optimize("int", "int i = genInt(); int j = i; int k = j; return 1;").into(
+        "genInt(); int i; int j; int k; return 1;");
+  }
+
+  @Override
+  protected OptimizerStats runDataflowOptimizer(JProgram program, JMethod method) {
+    return DataflowOptimizer.exec(program, method, true);
+  }
+}
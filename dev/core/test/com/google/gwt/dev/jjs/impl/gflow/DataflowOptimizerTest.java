@@ -4,6 +4,7 @@ import com.google.gwt.dev.jjs.ast.JMethod;
 import com.google.gwt.dev.jjs.ast.JProgram;
 import com.google.gwt.dev.jjs.impl.DeadCodeElimination;
 import com.google.gwt.dev.jjs.impl.MethodInliner;
+import com.google.gwt.dev.jjs.impl.OptimizerStats;
 import com.google.gwt.dev.jjs.impl.OptimizerTestBase;
 
 public class DataflowOptimizerTest extends OptimizerTestBase {
@@ -367,7 +368,11 @@ public class DataflowOptimizerTest extends OptimizerTestBase {
       didChange = MethodInliner.exec(program).didChange() || didChange;
     }
 
-    didChange = DataflowOptimizer.exec(program, method).didChange() || didChange;
+    didChange = runDataflowOptimizer(program, method).didChange() || didChange;
     return didChange;
   }
+
+  protected OptimizerStats runDataflowOptimizer(JProgram program, JMethod method) {
+    return DataflowOptimizer.exec(program, method);
+  }
 }
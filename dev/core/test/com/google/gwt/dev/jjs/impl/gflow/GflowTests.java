@@ -16,6 +16,7 @@
 package com.google.gwt.dev.jjs.impl.gflow;
 
 import com.google.gwt.dev.jjs.impl.gflow.cfg.CfgBuilderTest;
+import com.google.gwt.dev.jjs.impl.gflow.cfg.CompactCfgTest;
 import com.google.gwt.dev.jjs.impl.gflow.constants.ConstantsAssumptionTest;
 import com.google.gwt.dev.jjs.impl.gflow.constants.ExpressionEvaluatorTest;
 import com.google.gwt.dev.jjs.impl.gflow.constants.AssumptionsDeducerTest;
@@ -46,7 +47,10 @@ public class GflowTests {
     suite.addTestSuite(LivenessTransformationTest.class);
     suite.addTestSuite(CopyAnalysisTest.class);
     suite.addTestSuite(CopyAnalysisTransformationTest.class);
+    suite.addTestSuite(CompactCfgTest.class);
     suite.addTestSuite(DataflowOptimizerTest.class);
+    suite.addTestSuite(CompactDataflowOptimizerTest.class);
+    suite.addTestSuite(ParallelDataflowOptimizerTest.class);
     return suite;
   }
 }
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.jjs.impl.gflow.cfg;
+
+import com.google.gwt.dev.jjs.ast.JBlock;
+import com.google.gwt.dev.jjs.ast.JMethodBody;
+import com.google.gwt.dev.jjs.ast.JProgram;
+import com.google.gwt.dev.jjs.impl.JJSTestBase;
+import com.google.gwt.dev.jjs.impl.gflow.AnalysisSolver;
+import com.google.gwt.dev.jjs.impl.gflow.copy.CompactCopyAnalysis;
+import com.google.gwt.dev.jjs.impl.gflow.copy.CopyAnalysis;
+import com.google.gwt.dev.jjs.impl.gflow.liveness.CompactLivenessAnalysis;
+import com.google.gwt.dev.jjs.impl.gflow.liveness.LivenessAnalysis;
+
+/**
+ * Compares the heap retained per method by a {@link Cfg} with the result map
+ * of an analysis, and by a {@link CompactCfg} with the same analysis solved in
+ * place.
+ *
+ * <p>
+ * Usage: <code>CompactCfgBenchmark [blocks] [methods]</code>. The method body
+ * is made of <code>blocks</code> copies of a small block with locals, copies,
+ * a branch and a loop; <code>methods</code> graphs of it are kept alive to
+ * measure the heap. Run it with a heap large enough for them, e.g.
+ * <code>-Xmx1g</code>.
+ * </p>
+ */
+public class CompactCfgBenchmark extends JJSTestBase {
+  private interface Retainer {
+    Object build(JProgram program, JBlock block);
+  }
+
+  private static final Retainer CFG_COPY = new Retainer() {
+    public Object build(JProgram program, JBlock block) {
+      Cfg cfg = CfgBuilder.build(program, block);
+      return new Object[] {cfg, AnalysisSolver.solve(cfg, new CopyAnalysis(), true)};
+    }
+  };
+
+  private static final Retainer CFG_LIVENESS = new Retainer() {
+    public Object build(JProgram program, JBlock block) {
+      Cfg cfg = CfgBuilder.build(program, block);
+      return new Object[] {cfg, AnalysisSolver.solve(cfg, new LivenessAnalysis(), false)};
+    }
+  };
+
+  private static final Retainer COMPACT_COPY = new Retainer() {
+    public Object build(JProgram program, JBlock block) {
+      CompactCfg cfg = CompactCfg.create(CfgBuilder.build(program, block));
+      AnalysisSolver.solveInPlace(cfg, new CompactCopyAnalysis(), true);
+      return cfg;
+    }
+  };
+
+  private static final Retainer COMPACT_LIVENESS = new Retainer() {
+    public Object build(JProgram program, JBlock block) {
+      CompactCfg cfg = CompactCfg.create(CfgBuilder.build(program, block));
+      AnalysisSolver.solveInPlace(cfg, new CompactLivenessAnalysis(), false);
+      return cfg;
+    }
+  };
+
+  public static void main(String[] args) throws Exception {
+    int blocks = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+    int methods = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+    new CompactCfgBenchmark().run(blocks, methods);
+  }
+
+  private static long measure(Retainer retainer, JProgram program, JBlock block,
+      int methods) {
+    // Warm up, so that classes and caches are not counted.
+    retainer.build(program, block);
+
+    long before = usedHeap();
+    Object[] retained = new Object[methods];
+    for (int i = 0; i < methods; ++i) {
+      retained[i] = retainer.build(program, block);
+    }
+    long after = usedHeap();
+    if (retained[methods - 1] == null) {
+      throw new IllegalStateException();
+    }
+    return (after - before) / methods;
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 4; ++i) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private void run(int blocks, int methods) throws Exception {
+    setUp();
+    addSnippetClassDecl("static boolean b;");
+    StringBuilder code = new StringBuilder();
+    for (int i = 0; i < blocks; ++i) {
+      code.append("int i" + i + " = p + " + i + "; ");
+      code.append("int j" + i + " = i" + i + "; ");
+      code.append("if (b) { j" + i + " = p; } else { p = j" + i + "; } ");
+      code.append("while (b) { i" + i + " = j" + i + " + 1; p += i" + i + "; } ");
+    }
+    code.append("return p;");
+    JProgram program = compileSnippet("int", "int p", code.toString());
+    JBlock block = ((JMethodBody) findMainMethod(program).getBody()).getBlock();
+
+    int nodes = CfgBuilder.build(program, block).getNodes().size();
+    System.out.println(nodes + " nodes per method, " + methods + " methods");
+    report("liveness", measure(CFG_LIVENESS, program, block, methods),
+        measure(COMPACT_LIVENESS, program, block, methods));
+    report("copy", measure(CFG_COPY, program, block, methods),
+        measure(COMPACT_COPY, program, block, methods));
+  }
+
+  private void report(String analysis, long cfgBytes, long compactBytes) {
+    System.out.println(String.format(
+        "%-10s Cfg: %8d bytes/method  CompactCfg: %8d bytes/method", analysis,
+        cfgBytes, compactBytes));
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.jjs.impl.gflow.cfg;
+
+import com.google.gwt.core.ext.UnableToCompleteException;
+import com.google.gwt.dev.jjs.ast.JMethodBody;
+import com.google.gwt.dev.jjs.ast.JProgram;
+import com.google.gwt.dev.jjs.ast.JVariable;
+import com.google.gwt.dev.jjs.impl.JJSTestBase;
+import com.google.gwt.dev.jjs.impl.gflow.AnalysisSolver;
+import com.google.gwt.dev.jjs.impl.gflow.copy.CompactCopyAnalysis;
+import com.google.gwt.dev.jjs.impl.gflow.copy.CompactCopyAssumption;
+import com.google.gwt.dev.jjs.impl.gflow.copy.CopyAnalysis;
+import com.google.gwt.dev.jjs.impl.gflow.copy.CopyAssumption;
+import com.google.gwt.dev.jjs.impl.gflow.liveness.CompactLivenessAnalysis;
+import com.google.gwt.dev.jjs.impl.gflow.liveness.CompactLivenessAssumption;
+import com.google.gwt.dev.jjs.impl.gflow.liveness.LivenessAnalysis;
+import com.google.gwt.dev.jjs.impl.gflow.liveness.LivenessAssumption;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests {@link CompactCfg}, and that analyses on it find the same assumptions
+ * as on {@link Cfg}.
+ */
+public class CompactCfgTest extends JJSTestBase {
+  private static final String[] SNIPPETS = {
+      "int i = 1; int j = i; int k = j; return k;",
+      "int i = 1; int j = i; if (b) { j = 2; } return i + j;",
+      "int i = 0; int j = i; while (b) { i = j; j = i + 1; } return i;",
+      "int i = 0; for (int j = 0; j < 10; ++j) { int k = j; i += k; } return i;",
+      "int i = p; int j = i; try { j = p; } finally { i = j; } return i;",
+      "int i = 0; switch (p) { case 1: i = p; break; default: i = 2; } return i;",
+  };
+
+  public void testCopyAnalysis() throws Exception {
+    for (String snippet : SNIPPETS) {
+      Cfg cfg = build(snippet);
+      Map<CfgEdge, CopyAssumption> expected =
+        AnalysisSolver.solve(cfg, new CopyAnalysis(), true);
+      CompactCfg compact = CompactCfg.create(cfg);
+      AnalysisSolver.solveInPlace(compact, new CompactCopyAnalysis(), true);
+
+      assertSameAssumptions(cfg, compact, expected, snippet);
+    }
+  }
+
+  public void testLivenessAnalysis() throws Exception {
+    for (String snippet : SNIPPETS) {
+      Cfg cfg = build(snippet);
+      Map<CfgEdge, LivenessAssumption> expected =
+        AnalysisSolver.solve(cfg, new LivenessAnalysis(), false);
+      CompactCfg compact = CompactCfg.create(cfg);
+      AnalysisSolver.solveInPlace(compact, new CompactLivenessAnalysis(), false);
+
+      assertSameAssumptions(cfg, compact, expected, snippet);
+    }
+  }
+
+  public void testStructure() throws Exception {
+    for (String snippet : SNIPPETS) {
+      Cfg cfg = build(snippet);
+      CompactCfg compact = CompactCfg.create(cfg);
+      List<CfgNode<?>> nodes = cfg.getNodes();
+
+      assertEquals(nodes.size(), compact.getNodeCount());
+      assertEquals(cfg.getGraphInEdges().size(),
+          compact.getGraphInEdges().size());
+      assertEquals(cfg.getGraphOutEdges().size(),
+          compact.getGraphOutEdges().size());
+      for (int i = 0; i < nodes.size(); ++i) {
+        CfgNode<?> node = nodes.get(i);
+        assertEquals(cfg.getInEdges(node).size(), compact.getInEdges(i).size());
+        List<CfgEdge> outEdges = cfg.getOutEdges(node);
+        assertEquals(outEdges.size(), compact.getOutEdges(i).size());
+        for (int j = 0; j < outEdges.size(); ++j) {
+          CfgEdge edge = outEdges.get(j);
+          int compactEdge = compact.getOutEdges(i).get(j);
+          assertEquals(Integer.valueOf(i), compact.getStart(compactEdge));
+          assertEquals(edge.getEnd() == null ? null : nodes.indexOf(edge.getEnd()),
+              compact.getEnd(compactEdge));
+          assertEquals(edge.getRole(), compact.getEdgeRole(compactEdge));
+        }
+      }
+    }
+  }
+
+  public void testTransformIsNotSupported() throws Exception {
+    CompactCfg compact = CompactCfg.create(build(SNIPPETS[0]));
+    try {
+      compact.transform(0, null);
+      fail("Expected UnsupportedOperationException");
+    } catch (UnsupportedOperationException e) {
+      // Expected.
+    }
+  }
+
+  public void testVariables() throws Exception {
+    Cfg cfg = build(SNIPPETS[0]);
+    CompactCfg compact = CompactCfg.create(cfg);
+    // i, j and k; fields and the parameter aren't read.
+    assertEquals(3, compact.getVariableCount());
+    for (int v = 0; v < compact.getVariableCount(); ++v) {
+      assertEquals(v, compact.getVariableId(compact.getVariable(v)));
+    }
+
+    int copies = 0;
+    for (int node = 0; node < compact.getNodeCount(); ++node) {
+      int copied = compact.getCopiedVariable(node);
+      if (copied >= 0) {
+        ++copies;
+        assertTrue(compact.getWrittenVariable(node) >= 0);
+        assertFalse(copied == compact.getWrittenVariable(node));
+      }
+    }
+    // j = i and k = j.
+    assertEquals(2, copies);
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    addSnippetClassDecl("static boolean b;");
+  }
+
+  private void assertSameAssumption(CompactCfg compact, Object expected,
+      Object actual, String message) {
+    if (expected == null || actual == null) {
+      assertEquals(message, expected == null, actual == null);
+      return;
+    }
+    if (expected instanceof LivenessAssumption) {
+      LivenessAssumption liveness = (LivenessAssumption) expected;
+      CompactLivenessAssumption compactLiveness =
+        (CompactLivenessAssumption) actual;
+      for (int v = 0; v < compact.getVariableCount(); ++v) {
+        assertEquals(message, liveness.isLive(compact.getVariable(v)),
+            compactLiveness.isLive(v));
+      }
+    } else {
+      CopyAssumption copy = (CopyAssumption) expected;
+      CompactCopyAssumption compactCopy = (CompactCopyAssumption) actual;
+      assertEquals(message, copy == CopyAssumption.TOP,
+          compactCopy == CompactCopyAssumption.TOP);
+      if (copy == CopyAssumption.TOP) {
+        return;
+      }
+      for (int v = 0; v < compact.getVariableCount(); ++v) {
+        JVariable original = copy.getOriginal(compact.getVariable(v));
+        int compactOriginal = compactCopy.getOriginal(v);
+        assertEquals(message, original,
+            compactOriginal < 0 ? null : compact.getVariable(compactOriginal));
+      }
+    }
+  }
+
+  private Cfg build(String snippet) throws UnableToCompleteException {
+    JProgram program = compileSnippet("int", "int p", snippet);
+    JMethodBody body = (JMethodBody) findMainMethod(program).getBody();
+    return CfgBuilder.build(program, body.getBlock());
+  }
+
+  private void assertSameAssumptions(Cfg cfg, CompactCfg compact,
+      Map<CfgEdge, ?> expected, String snippet) {
+    for (int i = 0; i < cfg.getGraphInEdges().size(); ++i) {
+      assertSameAssumption(compact, expected.get(cfg.getGraphInEdges().get(i)),
+          compact.getEdgeData(compact.getGraphInEdges().get(i)),
+          snippet + ": graph in edge " + i);
+    }
+    List<CfgNode<?>> nodes = cfg.getNodes();
+    for (int i = 0; i < nodes.size(); ++i) {
+      List<CfgEdge> outEdges = cfg.getOutEdges(nodes.get(i));
+      for (int j = 0; j < outEdges.size(); ++j) {
+        assertSameAssumption(compact, expected.get(outEdges.get(j)),
+            compact.getEdgeData(compact.getOutEdges(i).get(j)),
+            snippet + ": " + nodes.get(i));
+      }
+    }
+  }
+}
@@ -15,6 +15,13 @@
  */
 package com.google.gwt.dev.js;
 
+import com.google.gwt.dev.jjs.SourceOrigin;
+import com.google.gwt.dev.js.ast.JsProgram;
+import com.google.gwt.dev.util.DefaultTextOutput;
+import com.google.gwt.dev.util.TextOutput;
+
+import java.io.StringReader;
+
 /**
  * Tests the JsStaticEval optimizer.
  */
@@ -157,7 +164,36 @@ public class JsStaticEvalTest extends OptimizerTestBase {
     assertEquals("alert(false);", optimize("alert(null != null)"));
   }
 
+  /**
+   * Tests that evaluating functions on several threads gives the same program
+   * as evaluating them serially.
+   */
+  public void testParallel() throws Exception {
+    StringBuilder js = new StringBuilder();
+    for (int i = 0; i < 20; i++) {
+      js.append("function f" + i + "(a) {");
+      js.append("  if (true) { a = 'x' + " + i + " + 1; } else { a = 2; }");
+      js.append("  while (false) { a(); }");
+      js.append("  function g() { return (1, 2) + (" + i + " == null); }");
+      js.append("  return a || g() && !!false;");
+      js.append("}");
+      js.append("if (f" + i + "(null) == 0) { alert(" + i + " * 2 + 'y'); }");
+    }
+    String serial = optimizeWithThreads(js.toString(), 1);
+    assertEquals(serial, optimizeWithThreads(js.toString(), 4));
+  }
+
   private String optimize(String js) throws Exception {
     return optimize(js, JsStaticEval.class);
   }
+
+  private String optimizeWithThreads(String js, int numThreads) throws Exception {
+    JsProgram program = new JsProgram();
+    program.getGlobalBlock().getStatements().addAll(
+        JsParser.parse(SourceOrigin.UNKNOWN, program.getScope(), new StringReader(js)));
+    JsStaticEval.exec(program, numThreads);
+    TextOutput text = new DefaultTextOutput(true);
+    new JsSourceGenerationVisitor(text).accept(program);
+    return text.toString();
+  }
 }
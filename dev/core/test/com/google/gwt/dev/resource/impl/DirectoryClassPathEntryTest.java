@@ -0,0 +1,147 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.resource.impl;
+
+import com.google.gwt.core.ext.TreeLogger;
+import com.google.gwt.dev.util.Util;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tests the incremental mode of {@link DirectoryClassPathEntry}.
+ */
+public class DirectoryClassPathEntryTest extends TestCase {
+
+  /**
+   * A modification time old enough for listings to be kept.
+   */
+  private static long past = System.currentTimeMillis() - 60 * 1000;
+
+  private File root;
+
+  public void testAddAndRemove() throws IOException {
+    DirectoryClassPathEntry cpe = createEntry(true);
+    assertEquals(paths("a/A.java", "a/b/B.java", "C.java"), scan(cpe));
+
+    File b = new File(root, "a/b");
+    createFile("a/b/D.java");
+    touch(b);
+    assertEquals(paths("a/A.java", "a/b/B.java", "a/b/D.java", "C.java"),
+        scan(cpe));
+    assertEquals(1, cpe.getScannedDirectoryCount());
+    assertEquals(2, cpe.getReusedDirectoryCount());
+
+    Util.recursiveDelete(b, false);
+    touch(new File(root, "a"));
+    assertEquals(paths("a/A.java", "C.java"), scan(cpe));
+    assertEquals(1, cpe.getScannedDirectoryCount());
+    assertEquals(1, cpe.getReusedDirectoryCount());
+  }
+
+  public void testNonIncremental() throws IOException {
+    DirectoryClassPathEntry cpe = createEntry(false);
+    assertEquals(paths("a/A.java", "a/b/B.java", "C.java"), scan(cpe));
+    assertEquals(paths("a/A.java", "a/b/B.java", "C.java"), scan(cpe));
+    assertEquals(3, cpe.getScannedDirectoryCount());
+    assertEquals(0, cpe.getReusedDirectoryCount());
+  }
+
+  public void testRecentlyModifiedDirectoryIsRescanned() throws IOException {
+    DirectoryClassPathEntry cpe = createEntry(true);
+    // Too recent to be kept.
+    new File(root, "a").setLastModified(System.currentTimeMillis());
+    scan(cpe);
+    scan(cpe);
+    assertEquals(1, cpe.getScannedDirectoryCount());
+    assertEquals(2, cpe.getReusedDirectoryCount());
+  }
+
+  public void testUnchanged() throws IOException {
+    DirectoryClassPathEntry cpe = createEntry(true);
+    Set<String> first = scan(cpe);
+    assertEquals(3, cpe.getScannedDirectoryCount());
+    assertEquals(0, cpe.getReusedDirectoryCount());
+
+    assertEquals(first, scan(cpe));
+    assertEquals(0, cpe.getScannedDirectoryCount());
+    assertEquals(3, cpe.getReusedDirectoryCount());
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    root = File.createTempFile("DirectoryClassPathEntryTest", "");
+    root.delete();
+    root.mkdir();
+    createFile("a/A.java");
+    createFile("a/b/B.java");
+    createFile("C.java");
+    touch(new File(root, "a/b"));
+    touch(new File(root, "a"));
+    touch(root);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    Util.recursiveDelete(root, false);
+  }
+
+  private DirectoryClassPathEntry createEntry(boolean incremental) {
+    DirectoryClassPathEntry cpe = new DirectoryClassPathEntry(
+        root.getAbsoluteFile());
+    cpe.setIncremental(incremental);
+    return cpe;
+  }
+
+  private void createFile(String path) throws IOException {
+    File file = new File(root, path);
+    file.getParentFile().mkdirs();
+    Util.writeStringAsFile(file, "class X {}");
+  }
+
+  private Set<String> paths(String... paths) {
+    Set<String> result = new HashSet<String>();
+    for (String path : paths) {
+      result.add(path);
+    }
+    return result;
+  }
+
+  private Set<String> scan(DirectoryClassPathEntry cpe) {
+    PathPrefixSet pathPrefixSet = new PathPrefixSet();
+    pathPrefixSet.add(new PathPrefix("", null));
+    Map<AbstractResource, PathPrefix> resources = cpe.findApplicableResources(
+        TreeLogger.NULL, pathPrefixSet);
+    Set<String> result = new HashSet<String>();
+    for (AbstractResource resource : resources.keySet()) {
+      result.add(resource.getPath());
+    }
+    return result;
+  }
+
+  /**
+   * Gives the directory a new modification time in the past.
+   */
+  private void touch(File dir) {
+    past += 1000;
+    assertTrue(dir.setLastModified(past));
+  }
+}
@@ -28,10 +28,12 @@ public class ResourceTests {
     TestSuite suite = new TestSuite("Resource tests");
     suite.addTestSuite(ClassPathEntryTest.class);
     suite.addTestSuite(DefaultFiltersTest.class);
+    suite.addTestSuite(DirectoryClassPathEntryTest.class);
     suite.addTestSuite(FileResourceTest.class);
     suite.addTestSuite(PathPrefixSetTest.class);
     suite.addTestSuite(ResourceOracleImplRealClasspathTest.class);
     suite.addTestSuite(ResourceOracleImplTest.class);
+    suite.addTestSuite(ZipFileIndexTest.class);
     return suite;
   }
 
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.resource.impl;
+
+import com.google.gwt.core.ext.TreeLogger;
+import com.google.gwt.dev.util.Util;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Tests {@link ZipFileIndex} and its use by {@link ZipFileClassPathEntry}.
+ */
+public class ZipFileIndexTest extends TestCase {
+
+  private File indexDir;
+
+  private File jar;
+
+  private String oldIndexDir;
+
+  public void testIndexIsSavedAndUsed() throws IOException {
+    writeJar("com/foo/A.java", "com/foo/B.java");
+    assertNull(ZipFileIndex.read(indexDir, jar));
+
+    assertEquals(paths("com/foo/A.java", "com/foo/B.java"), scan());
+    assertEquals(paths("com/foo/A.java", "com/foo/B.java"),
+        paths(ZipFileIndex.read(indexDir, jar)));
+
+    // A new entry is built from the saved index, and opens the jar lazily.
+    ZipFileClassPathEntry.clearCache();
+    ZipFileClassPathEntry cpe = ZipFileClassPathEntry.get(jar);
+    Map<AbstractResource, PathPrefix> resources = cpe.findApplicableResources(
+        TreeLogger.NULL, createPathPrefixSet());
+    assertEquals(2, resources.size());
+    for (AbstractResource resource : resources.keySet()) {
+      InputStream in = resource.openContents();
+      assertEquals(resource.getPath(), Util.readStreamAsString(in));
+    }
+  }
+
+  public void testStaleIndexIsIgnored() throws IOException {
+    writeJar("com/foo/A.java");
+    assertEquals(paths("com/foo/A.java"), scan());
+
+    writeJar("com/foo/A.java", "com/foo/C.java");
+    jar.setLastModified(jar.lastModified() + 2000);
+    assertNull(ZipFileIndex.read(indexDir, jar));
+    ZipFileClassPathEntry.clearCache();
+    assertEquals(paths("com/foo/A.java", "com/foo/C.java"), scan());
+  }
+
+  public void testTruncatedIndexIsIgnored() throws IOException {
+    writeJar("com/foo/A.java");
+    scan();
+    File[] indexFiles = indexDir.listFiles();
+    assertEquals(1, indexFiles.length);
+    Util.writeStringAsFile(indexFiles[0], "GW");
+    assertNull(ZipFileIndex.read(indexDir, jar));
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    indexDir = File.createTempFile("ZipFileIndexTest", "");
+    indexDir.delete();
+    indexDir.mkdir();
+    jar = File.createTempFile("ZipFileIndexTest", ".jar").getAbsoluteFile();
+    oldIndexDir = System.getProperty(ZipFileIndex.INDEX_DIR_PROPERTY);
+    System.setProperty(ZipFileIndex.INDEX_DIR_PROPERTY, indexDir.getPath());
+    ZipFileClassPathEntry.clearCache();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    if (oldIndexDir == null) {
+      System.clearProperty(ZipFileIndex.INDEX_DIR_PROPERTY);
+    } else {
+      System.setProperty(ZipFileIndex.INDEX_DIR_PROPERTY, oldIndexDir);
+    }
+    ZipFileClassPathEntry.clearCache();
+    Util.recursiveDelete(indexDir, false);
+    jar.delete();
+  }
+
+  private PathPrefixSet createPathPrefixSet() {
+    PathPrefixSet pathPrefixSet = new PathPrefixSet();
+    pathPrefixSet.add(new PathPrefix("com/", null));
+    return pathPrefixSet;
+  }
+
+  private Set<String> paths(String... paths) {
+    return new HashSet<String>(Arrays.asList(paths));
+  }
+
+  private Set<String> scan() throws IOException {
+    Map<AbstractResource, PathPrefix> resources = ZipFileClassPathEntry.get(
+        jar).findApplicableResources(TreeLogger.NULL, createPathPrefixSet());
+    Set<String> result = new HashSet<String>();
+    for (AbstractResource resource : resources.keySet()) {
+      result.add(resource.getPath());
+    }
+    return result;
+  }
+
+  private void writeJar(String... paths) throws IOException {
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+    try {
+      out.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+      out.closeEntry();
+      for (String path : paths) {
+        out.putNextEntry(new ZipEntry(path));
+        out.write(Util.getBytes(path));
+        out.closeEntry();
+      }
+    } finally {
+      out.close();
+    }
+  }
+}
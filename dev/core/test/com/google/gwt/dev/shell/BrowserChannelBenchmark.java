@@ -0,0 +1,186 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.shell;
+
+import com.google.gwt.core.ext.TreeLogger;
+import com.google.gwt.dev.shell.BrowserChannel.SessionHandler.ExceptionOrReturnValue;
+import com.google.gwt.dev.shell.BrowserChannel.Value;
+import com.google.gwt.dev.shell.BrowserChannelClient.SessionHandlerClient;
+import com.google.gwt.dev.shell.BrowserChannelServer.SessionHandlerServer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Measures how many calls per second the server can make on the client over a
+ * loopback socket, one round trip at a time and batched.
+ *
+ * <p>
+ * Usage: <code>BrowserChannelBenchmark [calls]</code>.
+ * </p>
+ */
+public class BrowserChannelBenchmark {
+
+  /**
+   * A client which answers every call with undefined.
+   */
+  private static class BenchmarkSessionHandlerClient extends
+      SessionHandlerClient {
+    @Override
+    public void freeValue(BrowserChannelClient channel, int[] ids) {
+    }
+
+    @Override
+    public Object getSynchronizationObject() {
+      return this;
+    }
+
+    @Override
+    public String getUserAgent() {
+      return "BrowserChannelBenchmark";
+    }
+
+    @Override
+    public ExceptionOrReturnValue invoke(BrowserChannelClient channel,
+        Value thisObj, String methodName, Value[] args) {
+      return new ExceptionOrReturnValue(false, new Value());
+    }
+
+    @Override
+    public void loadJsni(BrowserChannelClient channel, String jsniString) {
+    }
+  }
+
+  /**
+   * A server which makes the calls while the module loads.
+   */
+  private static class BenchmarkSessionHandlerServer extends
+      SessionHandlerServer {
+    private final boolean batch;
+    private final int calls;
+    private Exception failure;
+    private long invokeNanos;
+    private long invokeIgnoringResultNanos;
+
+    public BenchmarkSessionHandlerServer(boolean batch, int calls) {
+      this.batch = batch;
+      this.calls = calls;
+    }
+
+    @Override
+    public void freeValue(BrowserChannelServer channel, int[] ids) {
+    }
+
+    @Override
+    public ExceptionOrReturnValue getProperty(BrowserChannelServer channel,
+        int refId, int dispId) {
+      return new ExceptionOrReturnValue(false, new Value());
+    }
+
+    @Override
+    public ExceptionOrReturnValue invoke(BrowserChannelServer channel,
+        Value thisObj, int dispId, Value[] args) {
+      return new ExceptionOrReturnValue(false, new Value());
+    }
+
+    @Override
+    public TreeLogger loadModule(BrowserChannelServer channel,
+        String moduleName, String userAgent, String url, String tabKey,
+        String sessionKey, byte[] userAgentIcon) {
+      channel.setBatchInvokes(batch);
+      Value thisRef = new Value();
+      thisRef.setNull();
+      try {
+        long start = System.nanoTime();
+        for (int i = 0; i < calls; ++i) {
+          channel.invoke("f", thisRef, args(i), this);
+        }
+        invokeNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < calls; ++i) {
+          channel.invokeIgnoringResult("f", thisRef, args(i), this);
+        }
+        channel.flushBatchedInvokes(this);
+        invokeIgnoringResultNanos = System.nanoTime() - start;
+      } catch (Exception e) {
+        failure = e;
+      }
+      return TreeLogger.NULL;
+    }
+
+    @Override
+    public ExceptionOrReturnValue setProperty(BrowserChannelServer channel,
+        int refId, int dispId, Value newValue) {
+      return new ExceptionOrReturnValue(false, new Value());
+    }
+
+    @Override
+    public void unloadModule(BrowserChannelServer channel, String moduleName) {
+    }
+
+    private Value[] args(int i) {
+      Value arg = new Value();
+      arg.setInt(i);
+      return new Value[] {arg};
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    int calls = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+    // Warm up.
+    run(false, calls / 10);
+    run(true, calls / 10);
+
+    BenchmarkSessionHandlerServer unbatched = run(false, calls);
+    BenchmarkSessionHandlerServer batched = run(true, calls);
+    report("invoke", calls, unbatched.invokeNanos);
+    report("ignoring result", calls, unbatched.invokeIgnoringResultNanos);
+    report("batched", calls, batched.invokeIgnoringResultNanos);
+  }
+
+  private static void report(String mode, int calls, long nanos) {
+    System.out.println(String.format("%-16s %10.0f calls/s", mode, calls
+        * 1e9 / nanos));
+  }
+
+  private static BenchmarkSessionHandlerServer run(boolean batch, int calls)
+      throws IOException, BrowserChannelException {
+    BenchmarkSessionHandlerServer handler = new BenchmarkSessionHandlerServer(
+        batch, calls);
+    ServerSocket serverSocket = new ServerSocket(0, 1,
+        InetAddress.getByName("127.0.0.1"));
+    try {
+      BrowserChannelClient client = new BrowserChannelClient(new String[] {
+          "127.0.0.1", String.valueOf(serverSocket.getLocalPort())}, "url",
+          "session", "module", HostedHtmlVersion.EXPECTED_GWT_ONLOAD_VERSION,
+          new BenchmarkSessionHandlerClient());
+      Socket socket = serverSocket.accept();
+      socket.setTcpNoDelay(true);
+      new BrowserChannelServer(TreeLogger.NULL, socket, handler, true);
+      client.process();
+      client.disconnectFromHost();
+    } finally {
+      serverSocket.close();
+    }
+    if (handler.failure != null) {
+      throw new RuntimeException(handler.failure);
+    }
+    return handler;
+  }
+}
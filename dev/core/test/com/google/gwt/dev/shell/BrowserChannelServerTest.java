@@ -16,7 +16,11 @@
 package com.google.gwt.dev.shell;
 
 import com.google.gwt.core.ext.TreeLogger;
+import com.google.gwt.dev.shell.BrowserChannel.BatchReturnMessage;
 import com.google.gwt.dev.shell.BrowserChannel.CheckVersionsMessage;
+import com.google.gwt.dev.shell.BrowserChannel.InvokeBatchMessage;
+import com.google.gwt.dev.shell.BrowserChannel.InvokeOnClientMessage;
+import com.google.gwt.dev.shell.BrowserChannel.InvokeSpecialMessage;
 import com.google.gwt.dev.shell.BrowserChannel.LoadModuleMessage;
 import com.google.gwt.dev.shell.BrowserChannel.MessageType;
 import com.google.gwt.dev.shell.BrowserChannel.OldLoadModuleMessage;
@@ -24,6 +28,7 @@ import com.google.gwt.dev.shell.BrowserChannel.ProtocolVersionMessage;
 import com.google.gwt.dev.shell.BrowserChannel.QuitMessage;
 import com.google.gwt.dev.shell.BrowserChannel.RequestIconMessage;
 import com.google.gwt.dev.shell.BrowserChannel.ReturnMessage;
+import com.google.gwt.dev.shell.BrowserChannel.SessionHandler.SpecialDispatchId;
 import com.google.gwt.dev.shell.BrowserChannel.UserAgentIconMessage;
 import com.google.gwt.dev.shell.BrowserChannel.Value;
 import com.google.gwt.dev.shell.BrowserChannelServer.SessionHandlerServer;
@@ -112,18 +117,31 @@ public class BrowserChannelServerTest extends TestCase {
    */
   private static class TestSessionHandler extends SessionHandlerServer {
 
+    private String failedBatchedCall;
+    private int ignoredResultCalls;
     private String loadedModule;
+    private String resultCall;
+    private ReturnMessage resultCallReturn;
     private String userAgent;
     private String url;
     private String tabKey;
     private String sessionKey;
     private byte[] userAgentIcon;
     private String moduleName;
+    private int setPropertyCalls;
 
     @Override
     public void freeValue(BrowserChannelServer channel, int[] ids) {
     }
 
+    /**
+     * Returns the name of the batched call known to have failed after the
+     * call with a result was made.
+     */
+    public String getFailedBatchedCall() {
+      return failedBatchedCall;
+    }
+
     public String getLoadedModule() {
       return loadedModule;
     }
@@ -138,6 +156,10 @@ public class BrowserChannelServerTest extends TestCase {
       return new ExceptionOrReturnValue(false, new Value());
     }
 
+    public ReturnMessage getResultCallReturn() {
+      return resultCallReturn;
+    }
+
     public String getSessionKey() {
       return sessionKey;
     }
@@ -175,15 +197,65 @@ public class BrowserChannelServerTest extends TestCase {
       this.tabKey = tabKey;
       this.sessionKey = sessionKey;
       this.userAgentIcon = userAgentIcon;
+      try {
+        for (int i = 0; i < ignoredResultCalls; ++i) {
+          channel.invokeIgnoringResult("f" + i, new Value(), new Value[0],
+              this);
+        }
+        if (resultCall != null) {
+          resultCallReturn = channel.invoke(resultCall, new Value(),
+              new Value[0], this);
+          InvokeOnClientMessage failed = channel.getFailedBatchedInvoke();
+          failedBatchedCall = failed == null ? null : failed.getMethodName();
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      } catch (BrowserChannelException e) {
+        throw new RuntimeException(e);
+      }
       return new FailErrorLogger();
     }
 
+    /**
+     * Sets the number of calls whose result is ignored made on the client
+     * while the module loads.
+     */
+    public void setIgnoredResultCalls(int ignoredResultCalls) {
+      this.ignoredResultCalls = ignoredResultCalls;
+    }
+
+    /**
+     * Sets the name of a call with a result made on the client after the
+     * calls whose result is ignored.
+     */
+    public void setResultCall(String resultCall) {
+      this.resultCall = resultCall;
+    }
+
     @Override
     public ExceptionOrReturnValue setProperty(BrowserChannelServer channel,
         int refId, int dispId, Value newValue) {
+      try {
+        for (int i = 0; i < setPropertyCalls; ++i) {
+          channel.invokeIgnoringResult("p" + i, new Value(), new Value[0],
+              this);
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      } catch (BrowserChannelException e) {
+        throw new RuntimeException(e);
+      }
       return new ExceptionOrReturnValue(false, new Value());
     }
 
+    /**
+     * Sets the number of calls whose result is ignored made on the client
+     * while a property is set.
+     */
+    public void setSetPropertyCalls(int setPropertyCalls) {
+      this.setPropertyCalls = setPropertyCalls;
+    }
+
     @Override
     public void unloadModule(BrowserChannelServer channel, String moduleName) {
       loadedModule = null;
@@ -237,6 +309,190 @@ public class BrowserChannelServerTest extends TestCase {
   private PipedStreamPair clientToServer = new PipedStreamPair();
   private PipedStreamPair serverToClient = new PipedStreamPair();
 
+  /**
+   * Test that calls whose result is ignored are sent in one batch to a version
+   * 4 client.
+   * 
+   * @throws IOException 
+   * @throws BrowserChannelException 
+   * @throws InterruptedException 
+   */
+  public void testBatchedInvokes() throws IOException,
+      BrowserChannelException, InterruptedException {
+    TestSessionHandler handler = new TestSessionHandler();
+    handler.setIgnoredResultCalls(3);
+    TestBrowserChannelServer server = new TestBrowserChannelServer(
+        new FailErrorLogger(), clientToServer.getInputStream(),
+        serverToClient.getOutputStream(), handler);
+    server.setBatchInvokes(true);
+    TestBrowserChannel client = new TestBrowserChannel(
+        serverToClient.getInputStream(), clientToServer.getOutputStream());
+    MessageType type = loadModule(client, 4);
+    assertEquals(MessageType.INVOKE_BATCH, type);
+    InvokeOnClientMessage[] invokes = InvokeBatchMessage.receive(
+        client).getInvokes();
+    assertEquals(3, invokes.length);
+    for (int i = 0; i < invokes.length; ++i) {
+      assertEquals("f" + i, invokes[i].getMethodName());
+    }
+    BatchReturnMessage.send(client, 3, false, new Value());
+    type = client.readMessageType();
+    assertEquals(MessageType.RETURN, type);
+    assertFalse(ReturnMessage.receive(client).isException());
+    QuitMessage.send(client);
+    server.waitForClose();
+    assertNull(handler.getLoadedModule());
+  }
+
+  /**
+   * Test that an exception thrown by a batched call is kept for the call
+   * which threw it, and does not replace the result of the next call.
+   * 
+   * @throws IOException 
+   * @throws BrowserChannelException 
+   * @throws InterruptedException 
+   */
+  public void testBatchedInvokeExceptionBeforeCall() throws IOException,
+      BrowserChannelException, InterruptedException {
+    TestSessionHandler handler = new TestSessionHandler();
+    handler.setIgnoredResultCalls(3);
+    handler.setResultCall("g");
+    TestBrowserChannelServer server = new TestBrowserChannelServer(
+        new FailErrorLogger(), clientToServer.getInputStream(),
+        serverToClient.getOutputStream(), handler);
+    server.setBatchInvokes(true);
+    TestBrowserChannel client = new TestBrowserChannel(
+        serverToClient.getInputStream(), clientToServer.getOutputStream());
+    MessageType type = loadModule(client, 4);
+    assertEquals(MessageType.INVOKE_BATCH, type);
+    assertEquals(3, InvokeBatchMessage.receive(client).getInvokes().length);
+    Value exception = new Value();
+    exception.setString("error");
+    BatchReturnMessage.send(client, 1, true, exception);
+    // The next call is still made.
+    type = client.readMessageType();
+    assertEquals(MessageType.INVOKE, type);
+    assertEquals("g", InvokeOnClientMessage.receive(client).getMethodName());
+    Value result = new Value();
+    result.setInt(42);
+    ReturnMessage.send(client, false, result);
+    type = client.readMessageType();
+    assertEquals(MessageType.RETURN, type);
+    ReturnMessage.receive(client);
+    assertFalse(handler.getResultCallReturn().isException());
+    assertEquals(42, handler.getResultCallReturn().getReturnValue().getInt());
+    assertEquals("f1", handler.getFailedBatchedCall());
+    QuitMessage.send(client);
+    server.waitForClose();
+  }
+
+  /**
+   * Test that an exception thrown by a batched call is returned to the client
+   * by the call being handled.
+   * 
+   * @throws IOException 
+   * @throws BrowserChannelException 
+   * @throws InterruptedException 
+   */
+  public void testBatchedInvokeException() throws IOException,
+      BrowserChannelException, InterruptedException {
+    TestSessionHandler handler = new TestSessionHandler();
+    handler.setIgnoredResultCalls(2);
+    TestBrowserChannelServer server = new TestBrowserChannelServer(
+        new FailErrorLogger(), clientToServer.getInputStream(),
+        serverToClient.getOutputStream(), handler);
+    server.setBatchInvokes(true);
+    TestBrowserChannel client = new TestBrowserChannel(
+        serverToClient.getInputStream(), clientToServer.getOutputStream());
+    MessageType type = loadModule(client, 4);
+    assertEquals(MessageType.INVOKE_BATCH, type);
+    assertEquals(2, InvokeBatchMessage.receive(client).getInvokes().length);
+    Value exception = new Value();
+    exception.setString("error");
+    BatchReturnMessage.send(client, 1, true, exception);
+    type = client.readMessageType();
+    assertEquals(MessageType.RETURN, type);
+    ReturnMessage loadReturn = ReturnMessage.receive(client);
+    assertTrue(loadReturn.isException());
+    assertEquals("error", loadReturn.getReturnValue().getString());
+    QuitMessage.send(client);
+    server.waitForClose();
+  }
+
+  /**
+   * Test that calls batched while handling an InvokeSpecial message are sent
+   * before its result.
+   * 
+   * @throws IOException 
+   * @throws BrowserChannelException 
+   * @throws InterruptedException 
+   */
+  public void testBatchedInvokesInInvokeSpecial() throws IOException,
+      BrowserChannelException, InterruptedException {
+    TestSessionHandler handler = new TestSessionHandler();
+    handler.setSetPropertyCalls(2);
+    TestBrowserChannelServer server = new TestBrowserChannelServer(
+        new FailErrorLogger(), clientToServer.getInputStream(),
+        serverToClient.getOutputStream(), handler);
+    server.setBatchInvokes(true);
+    TestBrowserChannel client = new TestBrowserChannel(
+        serverToClient.getInputStream(), clientToServer.getOutputStream());
+    MessageType type = loadModule(client, 4);
+    assertEquals(MessageType.RETURN, type);
+    assertFalse(ReturnMessage.receive(client).isException());
+    Value refId = new Value();
+    refId.setInt(0);
+    Value dispId = new Value();
+    dispId.setInt(1);
+    new InvokeSpecialMessage(client, SpecialDispatchId.SetProperty,
+        new Value[] {refId, dispId, new Value()}).send();
+    type = client.readMessageType();
+    assertEquals(MessageType.INVOKE_BATCH, type);
+    InvokeOnClientMessage[] invokes = InvokeBatchMessage.receive(
+        client).getInvokes();
+    assertEquals(2, invokes.length);
+    assertEquals("p0", invokes[0].getMethodName());
+    assertEquals("p1", invokes[1].getMethodName());
+    BatchReturnMessage.send(client, 2, false, new Value());
+    type = client.readMessageType();
+    assertEquals(MessageType.RETURN, type);
+    assertFalse(ReturnMessage.receive(client).isException());
+    QuitMessage.send(client);
+    server.waitForClose();
+  }
+
+  /**
+   * Test that calls are not batched for a version 3 client, even if batching
+   * is enabled.
+   * 
+   * @throws IOException 
+   * @throws BrowserChannelException 
+   * @throws InterruptedException 
+   */
+  public void testBatchedInvokesNeedVersion4() throws IOException,
+      BrowserChannelException, InterruptedException {
+    TestSessionHandler handler = new TestSessionHandler();
+    handler.setIgnoredResultCalls(3);
+    TestBrowserChannelServer server = new TestBrowserChannelServer(
+        new FailErrorLogger(), clientToServer.getInputStream(),
+        serverToClient.getOutputStream(), handler);
+    server.setBatchInvokes(true);
+    TestBrowserChannel client = new TestBrowserChannel(
+        serverToClient.getInputStream(), clientToServer.getOutputStream());
+    MessageType type = loadModule(client, 3);
+    for (int i = 0; i < 3; ++i) {
+      assertEquals(MessageType.INVOKE, type);
+      assertEquals("f" + i, InvokeOnClientMessage.receive(
+          client).getMethodName());
+      ReturnMessage.send(client, false, new Value());
+      type = client.readMessageType();
+    }
+    assertEquals(MessageType.RETURN, type);
+    assertFalse(ReturnMessage.receive(client).isException());
+    QuitMessage.send(client);
+    server.waitForClose();
+  }
+
   /**
    * Test a version 1 client interacting with the server.
    * 
@@ -369,4 +625,30 @@ public class BrowserChannelServerTest extends TestCase {
     assertNull(handler.getLoadedModule());
     server.notifier.verify("testModule", "userAgent");
   }
+
+  /**
+   * Performs the handshake for the given protocol version and requests the
+   * module to be loaded.
+   * 
+   * @return the type of the first message after the icon request
+   */
+  private MessageType loadModule(TestBrowserChannel client, int maxVersion)
+      throws IOException, BrowserChannelException {
+    new CheckVersionsMessage(client, 2, maxVersion,
+        HostedHtmlVersion.EXPECTED_GWT_ONLOAD_VERSION).send();
+    MessageType type = client.readMessageType();
+    assertEquals(MessageType.PROTOCOL_VERSION, type);
+    assertEquals(maxVersion, ProtocolVersionMessage.receive(
+        client).getProtocolVersion());
+    // Icons are cached by user agent, so don't use the one of other tests.
+    new LoadModuleMessage(client, "url", "tabkey", "session", "testModule",
+        "batchingUserAgent").send();
+    type = client.readMessageType();
+    if (type == MessageType.REQUEST_ICON) {
+      RequestIconMessage.receive(client);
+      UserAgentIconMessage.send(client, null);
+      type = client.readMessageType();
+    }
+    return type;
+  }
 }
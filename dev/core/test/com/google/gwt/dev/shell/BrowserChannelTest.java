@@ -20,10 +20,12 @@ import com.google.gwt.dev.shell.BrowserChannel.MessageType;
 import com.google.gwt.dev.shell.BrowserChannel.Value;
 import com.google.gwt.dev.shell.BrowserChannel.SessionHandler.SpecialDispatchId;
 import com.google.gwt.dev.shell.BrowserChannel.Value.ValueType;
+import com.google.gwt.dev.shell.BrowserChannel.BatchReturnMessage;
 import com.google.gwt.dev.shell.BrowserChannel.CheckVersionsMessage;
 import com.google.gwt.dev.shell.BrowserChannel.ChooseTransportMessage;
 import com.google.gwt.dev.shell.BrowserChannel.FatalErrorMessage;
 import com.google.gwt.dev.shell.BrowserChannel.FreeMessage;
+import com.google.gwt.dev.shell.BrowserChannel.InvokeBatchMessage;
 import com.google.gwt.dev.shell.BrowserChannel.InvokeOnClientMessage;
 import com.google.gwt.dev.shell.BrowserChannel.InvokeOnServerMessage;
 import com.google.gwt.dev.shell.BrowserChannel.InvokeSpecialMessage;
@@ -59,6 +61,19 @@ public class BrowserChannelTest extends TestCase {
       bufferStream.getOutputStream());
   private TestBrowserChannel channel;
 
+  public void testBatchReturnMessage() throws IOException,
+      BrowserChannelException {
+    Value val = new Value();
+    val.setString("error");
+    new BatchReturnMessage(channel, 2, true, val).send();
+    MessageType type = channel.readMessageType();
+    assertEquals(MessageType.BATCH_RETURN, type);
+    BatchReturnMessage message = BatchReturnMessage.receive(channel);
+    assertEquals(2, message.getCompleted());
+    assertTrue(message.isException());
+    assertEquals("error", message.getReturnValue().getString());
+  }
+
   public void testBooleanValue() throws IOException {
     Value val = new Value();
     val.setBoolean(true);
@@ -118,6 +133,33 @@ public class BrowserChannelTest extends TestCase {
     assertTrue(Arrays.equals(ids, idsRecv));
   }
 
+  public void testInvokeBatchMessage() throws IOException,
+      BrowserChannelException {
+    Value thisRef = new Value();
+    thisRef.setJavaObject(new JavaObjectRef(42));
+    InvokeOnClientMessage[] invokes = new InvokeOnClientMessage[3];
+    for (int i = 0; i < invokes.length; ++i) {
+      Value arg = new Value();
+      arg.setInt(i);
+      invokes[i] = new InvokeOnClientMessage(channel, "method" + i, thisRef,
+          new Value[] {arg});
+    }
+    new InvokeBatchMessage(channel, invokes).send();
+    MessageType type = channel.readMessageType();
+    assertEquals(MessageType.INVOKE_BATCH, type);
+    InvokeBatchMessage message = InvokeBatchMessage.receive(channel);
+    InvokeOnClientMessage[] invokesRecv = message.getInvokes();
+    assertEquals(3, invokesRecv.length);
+    for (int i = 0; i < 3; ++i) {
+      assertEquals("method" + i, invokesRecv[i].getMethodName());
+      assertEquals(42, invokesRecv[i].getThis().getJavaObject().getRefid());
+      Value[] argsRecv = invokesRecv[i].getArgs();
+      assertEquals(1, argsRecv.length);
+      assertEquals(ValueType.INT, argsRecv[0].getType());
+      assertEquals(i, argsRecv[0].getInt());
+    }
+  }
+
   public void testInvokeOnClientMessage() throws IOException,
       BrowserChannelException {
     String methodName = "fooMethod";
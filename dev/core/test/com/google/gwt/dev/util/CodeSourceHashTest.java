@@ -0,0 +1,79 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.util;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+
+/**
+ * Tests {@link CodeSourceHash}.
+ */
+public class CodeSourceHashTest extends TestCase {
+
+  private File tempDir;
+
+  public void testDirectory() {
+    File dir = new File(tempDir, "classes");
+    assertTrue(new File(dir, "a").mkdirs());
+    Util.writeStringAsFile(new File(dir, "a/A.class"), "A");
+    Util.writeStringAsFile(new File(dir, "B.class"), "B");
+    String hash = CodeSourceHash.compute(dir);
+    assertNotNull(hash);
+    assertEquals(hash, CodeSourceHash.compute(dir));
+
+    Util.writeStringAsFile(new File(dir, "a/A.class"), "A2");
+    String changed = CodeSourceHash.compute(dir);
+    assertFalse(hash.equals(changed));
+
+    // Moving a class changes the hash even if no content changes.
+    assertTrue(new File(dir, "a/A.class").renameTo(new File(dir, "A.class")));
+    assertFalse(changed.equals(CodeSourceHash.compute(dir)));
+  }
+
+  public void testFile() {
+    File jar = new File(tempDir, "gwt-dev.jar");
+    Util.writeStringAsFile(jar, "version 1");
+    String hash = CodeSourceHash.compute(jar);
+    assertNotNull(hash);
+
+    Util.writeStringAsFile(jar, "version 2");
+    assertFalse(hash.equals(CodeSourceHash.compute(jar)));
+
+    assertNull(CodeSourceHash.compute(new File(tempDir, "missing.jar")));
+  }
+
+  public void testGet() {
+    String hash = CodeSourceHash.get(CodeSourceHash.class);
+    assertNotNull(hash);
+    assertEquals(hash, CodeSourceHash.get(CodeSourceHash.class));
+
+    // Bootstrap classes have no code source.
+    assertNull(CodeSourceHash.get(String.class));
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    tempDir = File.createTempFile("CodeSourceHashTest", "");
+    tempDir.delete();
+    tempDir.mkdir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    Util.recursiveDelete(tempDir, false);
+  }
+}
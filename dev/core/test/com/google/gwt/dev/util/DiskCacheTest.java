@@ -17,7 +17,14 @@ package com.google.gwt.dev.util;
 
 import junit.framework.TestCase;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * Tests {@link DiskCache}.
@@ -49,6 +56,140 @@ public class DiskCacheTest extends TestCase {
     }
   }
 
+  public void testConcurrentWrites() throws InterruptedException {
+    final int threadCount = 8;
+    final int writeCount = 200;
+    final long[][] tokens = new long[threadCount][writeCount];
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < threadCount; ++t) {
+      final int thread = t;
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < writeCount; ++i) {
+            byte[] bytes = createBytes(thread * 1000 + i, (i % 7) * 3001);
+            if (i % 2 == 0) {
+              tokens[thread][i] = diskCache.writeByteArray(bytes);
+            } else {
+              tokens[thread][i] = diskCache.transferFromStream(
+                  new ByteArrayInputStream(bytes));
+            }
+          }
+        }
+      });
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    for (int t = 0; t < threadCount; ++t) {
+      for (int i = 0; i < writeCount; ++i) {
+        assertTrue(Arrays.equals(createBytes(t * 1000 + i, (i % 7) * 3001),
+            diskCache.readByteArray(tokens[t][i])));
+      }
+    }
+  }
+
+  public void testInterruptedReader() throws InterruptedException {
+    final byte[] bytes = createBytes(3, 5000);
+    final long token = diskCache.writeByteArray(bytes);
+    final Throwable[] failure = new Throwable[1];
+    Thread reader = new Thread() {
+      @Override
+      public void run() {
+        interrupt();
+        try {
+          diskCache.readByteArray(token);
+        } catch (Throwable e) {
+          failure[0] = e;
+        }
+      }
+    };
+    reader.start();
+    reader.join();
+    // The interrupted read fails, which closes the channel.
+    assertNotNull(failure[0]);
+
+    // Other threads still read the data, and can write more.
+    assertTrue(Arrays.equals(bytes, diskCache.readByteArray(token)));
+    byte[] more = createBytes(4, 70000);
+    long moreToken = diskCache.transferFromStream(new ByteArrayInputStream(more));
+    assertTrue(Arrays.equals(more, diskCache.readByteArray(moreToken)));
+    assertTrue(Arrays.equals(bytes, diskCache.readByteArray(token)));
+  }
+
+  public void testOutputStream() throws IOException {
+    int[] lengths = new int[] {0, 10, 64 * 1024, 64 * 1024 + 1, 300000};
+    for (int i = 0; i < lengths.length; ++i) {
+      byte[] expected = createBytes(i, lengths[i]);
+      DiskCache.ChunkedOutputStream out = diskCache.openOutputStream();
+      // Write single bytes and arrays of several sizes.
+      int pos = 0;
+      for (int size = 1; pos < expected.length; size = size * 3 + 1) {
+        if (size == 1) {
+          out.write(expected[pos++]);
+        } else {
+          int n = Math.min(size, expected.length - pos);
+          out.write(expected, pos, n);
+          pos += n;
+        }
+      }
+      try {
+        out.getToken();
+        fail();
+      } catch (IllegalStateException e) {
+      }
+      out.close();
+      out.close();
+      assertTrue(Arrays.equals(expected, diskCache.readByteArray(out.getToken())));
+      try {
+        out.write(1);
+        fail();
+      } catch (IOException e) {
+      }
+    }
+  }
+
+  public void testStreams() throws IOException {
+    int[] lengths = new int[] {0, 10, 16 * 1024, 16 * 1024 + 1, 100000};
+    long[] tokens = new long[lengths.length];
+    for (int i = 0; i < lengths.length; ++i) {
+      tokens[i] = diskCache.transferFromStream(new ByteArrayInputStream(
+          createBytes(i, lengths[i])));
+      diskCache.writeString("interleaved");
+    }
+
+    File file = File.createTempFile("DiskCacheTest", "");
+    try {
+      for (int i = 0; i < lengths.length; ++i) {
+        byte[] expected = createBytes(i, lengths[i]);
+        assertTrue(Arrays.equals(expected, diskCache.readByteArray(tokens[i])));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        diskCache.transferToStream(tokens[i], out);
+        assertTrue(Arrays.equals(expected, out.toByteArray()));
+
+        // File streams are written to with transferTo.
+        FileOutputStream fileOut = new FileOutputStream(file);
+        fileOut.write(1);
+        diskCache.transferToStream(tokens[i], fileOut);
+        fileOut.write(2);
+        fileOut.close();
+        byte[] written = Util.readFileAsBytes(file);
+        assertEquals(expected.length + 2, written.length);
+        assertEquals(1, written[0]);
+        assertEquals(2, written[written.length - 1]);
+        byte[] transferred = new byte[expected.length];
+        System.arraycopy(written, 1, transferred, 0, transferred.length);
+        assertTrue(Arrays.equals(expected, transferred));
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
   public void testStrings() {
     String a = "";
     String b = "abjdsfkl;jasdf";
@@ -76,4 +217,12 @@ public class DiskCacheTest extends TestCase {
           expected, actual);
     }
   }
+
+  private byte[] createBytes(int seed, int length) {
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; ++i) {
+      bytes[i] = (byte) (seed * 31 + i * 17);
+    }
+    return bytes;
+  }
 }
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.util;
+
+import com.google.gwt.dev.util.Parallel.ChunkTask;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Tests {@link Parallel}.
+ */
+public class ParallelTest extends TestCase {
+
+  private static final ChunkTask<Integer, List<Integer>> COPY =
+      new ChunkTask<Integer, List<Integer>>() {
+        public List<Integer> run(List<Integer> chunk) {
+          return new ArrayList<Integer>(chunk);
+        }
+      };
+
+  private static List<Integer> range(int n) {
+    List<Integer> items = new ArrayList<Integer>();
+    for (int i = 0; i < n; i++) {
+      items.add(i);
+    }
+    return items;
+  }
+
+  public void testChunksAreInOrder() throws Exception {
+    List<Integer> items = range(1000);
+    List<List<Integer>> chunks = Parallel.mapChunks(8, items, COPY);
+    assertEquals(32, chunks.size());
+    List<Integer> merged = new ArrayList<Integer>();
+    for (List<Integer> chunk : chunks) {
+      merged.addAll(chunk);
+    }
+    assertEquals(items, merged);
+  }
+
+  public void testFailure() {
+    try {
+      Parallel.mapChunks(4, range(100), new ChunkTask<Integer, Void>() {
+        public Void run(List<Integer> chunk) {
+          if (chunk.contains(42)) {
+            throw new IllegalStateException("42");
+          }
+          return null;
+        }
+      });
+      fail("Expected ExecutionException");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+  }
+
+  public void testSingleThread() throws Exception {
+    List<Integer> items = range(10);
+    List<List<Integer>> chunks = Parallel.mapChunks(1, items, COPY);
+    assertEquals(1, chunks.size());
+    assertEquals(items, chunks.get(0));
+  }
+}
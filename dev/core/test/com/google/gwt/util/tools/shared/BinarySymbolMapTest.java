@@ -0,0 +1,169 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.util.tools.shared;
+
+import junit.framework.TestCase;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Tests {@link BinarySymbolMap}.
+ */
+public class BinarySymbolMapTest extends TestCase {
+
+  private static final String TEXT = "# { 0 }\n"
+      + "# jsName, jsniIdent, className, memberName, sourceUri, sourceLine, "
+      + "fragmentNumber\n"
+      + "zb,com.foo.Bar::baz(),com.foo.Bar,baz,file:/src/com/foo/Bar.java,12,0\n"
+      + "a,com.foo.Bar::qux(I),com.foo.Bar,qux,file:/src/com/foo/Bar.java,34,1\n"
+      + "\u00e9,,com.foo.Baz,,,-1,0\n"
+      + "Ab,com.foo.Baz::quux(),com.foo.Baz,quux,Unknown,56,-1\n";
+
+  public void testCorrupt() throws IOException {
+    byte[] bytes = toBytes(readText(TEXT));
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    int commentCount = buffer.getInt(8);
+    int stringCount = buffer.getInt(12);
+    int stringsStart = 20 + commentCount * 4;
+    int symbolsStart = stringsStart + stringCount * 4;
+
+    // Truncated.
+    assertCorrupt(Arrays.copyOf(bytes, bytes.length - 1));
+
+    // A string that ends past the end of the buffer.
+    assertCorrupt(withInt(bytes, stringsStart, bytes.length));
+
+    // A string that ends before the previous one.
+    assertCorrupt(withInt(bytes, stringsStart + 4, 0));
+
+    // A comment or symbol whose string index is out of range.
+    assertCorrupt(withInt(bytes, 20, stringCount));
+    assertCorrupt(withInt(bytes, symbolsStart + 4, -1));
+
+    // Symbols that are not sorted.
+    int first = buffer.getInt(symbolsStart);
+    int second = buffer.getInt(symbolsStart + 7 * 4);
+    assertCorrupt(withInt(withInt(bytes, symbolsStart, second),
+        symbolsStart + 7 * 4, first));
+  }
+
+  public void testEmpty() throws IOException {
+    BinarySymbolMap map = toBinary(new BinarySymbolMap.Builder());
+    assertEquals(0, map.size());
+    assertNull(map.get("a"));
+  }
+
+  public void testLookup() throws IOException {
+    BinarySymbolMap map = toBinary(readText(TEXT));
+    assertEquals(4, map.size());
+    assertEquals(
+        "com.foo.Bar::baz(),com.foo.Bar,baz,file:/src/com/foo/Bar.java,12,0",
+        map.get("zb"));
+    assertEquals(
+        "com.foo.Bar::qux(I),com.foo.Bar,qux,file:/src/com/foo/Bar.java,34,1",
+        map.get("a"));
+    assertEquals("com.foo.Baz::quux(),com.foo.Baz,quux,Unknown,56,-1",
+        map.get("Ab"));
+    assertEquals(",com.foo.Baz,,,-1,0", map.get("\u00e9"));
+    assertNull(map.get(""));
+    assertNull(map.get("b"));
+    assertNull(map.get("zc"));
+  }
+
+  public void testNotASymbolMap() {
+    try {
+      new BinarySymbolMap(ByteBuffer.wrap(new byte[] {1, 2, 3}));
+      fail();
+    } catch (IOException expected) {
+    }
+    try {
+      readText("a,b,c\n");
+      fail();
+    } catch (IOException expected) {
+    }
+  }
+
+  public void testOpen() throws IOException {
+    File file = File.createTempFile("BinarySymbolMapTest", BinarySymbolMap.SUFFIX);
+    try {
+      FileOutputStream out = new FileOutputStream(file);
+      try {
+        readText(TEXT).write(out);
+      } finally {
+        out.close();
+      }
+      assertEquals(",com.foo.Baz,,,-1,0", BinarySymbolMap.open(file).get("\u00e9"));
+    } finally {
+      file.delete();
+    }
+  }
+
+  public void testWriteText() throws IOException {
+    StringWriter text = new StringWriter();
+    PrintWriter pw = new PrintWriter(text);
+    toBinary(readText(TEXT)).writeText(pw);
+    pw.flush();
+    assertEquals("# { 0 }\n"
+        + "# jsName, jsniIdent, className, memberName, sourceUri, sourceLine, "
+        + "fragmentNumber\n"
+        + "Ab,com.foo.Baz::quux(),com.foo.Baz,quux,Unknown,56,-1\n"
+        + "a,com.foo.Bar::qux(I),com.foo.Bar,qux,file:/src/com/foo/Bar.java,34,1\n"
+        + "zb,com.foo.Bar::baz(),com.foo.Bar,baz,file:/src/com/foo/Bar.java,12,0\n"
+        + "\u00e9,,com.foo.Baz,,,-1,0\n", text.toString().replace("\r\n", "\n"));
+  }
+
+  private void assertCorrupt(byte[] bytes) {
+    try {
+      new BinarySymbolMap(ByteBuffer.wrap(bytes));
+      fail();
+    } catch (IOException expected) {
+    }
+  }
+
+  private BinarySymbolMap.Builder readText(String text) throws IOException {
+    return new BinarySymbolMap.Builder().readText(new BufferedReader(
+        new StringReader(text)));
+  }
+
+  private BinarySymbolMap toBinary(BinarySymbolMap.Builder builder)
+      throws IOException {
+    return new BinarySymbolMap(ByteBuffer.wrap(toBytes(builder)));
+  }
+
+  private byte[] toBytes(BinarySymbolMap.Builder builder) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    builder.write(out);
+    return out.toByteArray();
+  }
+
+  /**
+   * Returns a copy of the bytes with an int replaced.
+   */
+  private byte[] withInt(byte[] bytes, int offset, int value) {
+    byte[] copy = bytes.clone();
+    ByteBuffer.wrap(copy).putInt(offset, value);
+    return copy;
+  }
+}
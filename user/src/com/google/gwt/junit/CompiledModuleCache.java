@@ -0,0 +1,324 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.junit;
+
+import com.google.gwt.core.ext.TreeLogger;
+import com.google.gwt.dev.cfg.BindingProperty;
+import com.google.gwt.dev.cfg.ConfigurationProperty;
+import com.google.gwt.dev.cfg.ModuleDef;
+import com.google.gwt.dev.cfg.Properties;
+import com.google.gwt.dev.jjs.JJSOptions;
+import com.google.gwt.dev.jjs.JavaToJavaScriptCompiler;
+import com.google.gwt.dev.resource.Resource;
+import com.google.gwt.dev.util.CodeSourceHash;
+import com.google.gwt.dev.util.Util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An on-disk cache of the compiled output of the synthetic modules that
+ * {@link JUnitShell} compiles in production mode, shared between test runs.
+ *
+ * <p>
+ * Each entry is a copy of the module's directory in the war directory, stored
+ * under a strong hash of the content of the module's source, public and other
+ * resource files and module XML files, the values of its properties, the
+ * compiler options, and the jars or class directories of gwt-dev and gwt-user.
+ * When an entry exists, it is copied back to the war directory and the module
+ * is not compiled again.
+ * </p>
+ *
+ * <p>
+ * The compiler and the generators and linkers that come with GWT are thus
+ * part of the key, even across development builds of the same version. Those
+ * loaded from elsewhere on the classpath are not; the cache should be cleared
+ * when they change.
+ * </p>
+ *
+ * <p>
+ * The cache is enabled by setting the {@value #CACHE_DIR_PROPERTY} system
+ * property to a directory, which may be shared by several test runs. Entries
+ * that have not been used for {@value #MAX_UNUSED_DAYS_PROPERTY} days (30 by
+ * default) are deleted.
+ * </p>
+ */
+class CompiledModuleCache {
+
+  static final String CACHE_DIR_PROPERTY = "gwt.junit.compileCacheDir";
+
+  static final String MAX_UNUSED_DAYS_PROPERTY =
+      "gwt.junit.compileCacheMaxUnusedDays";
+
+  private static final String CACHE_ENTRY_SUFFIX = ".module";
+
+  private static final long MAX_UNUSED_MILLIS = Long.getLong(
+      MAX_UNUSED_DAYS_PROPERTY, 30) * 24 * 60 * 60 * 1000;
+
+  /**
+   * The content hashes of resources already read, by location and time stamp,
+   * since many synthetic modules share most of their resources.
+   */
+  private static final Map<String, String> contentHashes =
+      new HashMap<String, String>();
+
+  /**
+   * Returns the cache, or <code>null</code> if caching is disabled.
+   */
+  static CompiledModuleCache create(TreeLogger logger) {
+    String cacheDirName = System.getProperty(CACHE_DIR_PROPERTY);
+    if (cacheDirName == null || cacheDirName.length() == 0) {
+      return null;
+    }
+    File cacheDir = new File(cacheDirName);
+    if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+      logger.log(TreeLogger.WARN, "Unable to create compile cache directory "
+          + cacheDir + "; modules will not be cached");
+      return null;
+    }
+    CompiledModuleCache cache = new CompiledModuleCache(cacheDir);
+    cache.deleteUnusedEntries(logger);
+    return cache;
+  }
+
+  /**
+   * Returns the key of a module compiled with the given options, or
+   * <code>null</code> if one of its resources or the jars of GWT can't be
+   * read.
+   */
+  static String computeKey(ModuleDef module, JJSOptions options) {
+    String devHash = CodeSourceHash.get(JavaToJavaScriptCompiler.class);
+    String userHash = CodeSourceHash.get(JUnitShell.class);
+    if (devHash == null || userHash == null) {
+      return null;
+    }
+    StringBuilder key = new StringBuilder();
+    key.append("dev ").append(devHash).append('\n');
+    key.append("user ").append(userHash).append('\n');
+    key.append(module.getName()).append('\n');
+    key.append(describeOptions(options)).append('\n');
+    key.append(module.getActiveLinkerNames()).append('\n');
+    key.append(describeProperties(module.getProperties()));
+
+    List<Resource> sourceFiles = new ArrayList<Resource>();
+    for (String path : module.getAllSourceFiles()) {
+      sourceFiles.add(module.findSourceFile(path));
+    }
+    List<Resource> publicFiles = new ArrayList<Resource>();
+    for (String path : module.getAllPublicFiles()) {
+      publicFiles.add(module.findPublicFile(path));
+    }
+    if (!appendResources(key, "source", sourceFiles)
+        || !appendResources(key, "public", publicFiles)
+        || !appendResources(key, "resource",
+            module.getResourcesOracle().getResources())) {
+      return null;
+    }
+
+    Map<String, String> xmlFiles = new TreeMap<String, String>();
+    for (File xmlFile : module.getGwtXmlFiles()) {
+      byte[] content = Util.readFileAsBytes(xmlFile);
+      if (content == null) {
+        return null;
+      }
+      xmlFiles.put(xmlFile.getAbsolutePath(), Util.computeStrongName(content));
+    }
+    for (Map.Entry<String, String> entry : xmlFiles.entrySet()) {
+      key.append("xml ").append(entry.getKey()).append(' ').append(
+          entry.getValue()).append('\n');
+    }
+    return Util.computeStrongName(Util.getBytes(key.toString()));
+  }
+
+  /**
+   * Describes the options which change the compiled output.
+   */
+  static String describeOptions(JJSOptions options) {
+    return "output=" + options.getOutput() + " optimize="
+        + options.getOptimizationLevel() + " aggressive="
+        + options.isAggressivelyOptimize() + " assertions="
+        + options.isEnableAssertions() + " noCastChecking="
+        + options.isCastCheckingDisabled() + " noClassMetadata="
+        + options.isClassMetadataDisabled() + " runAsync="
+        + options.isRunAsyncEnabled() + " closure="
+        + options.isClosureCompilerEnabled() + " fragmentsMerge="
+        + options.getFragmentsMerge() + " strict=" + options.isStrict();
+  }
+
+  /**
+   * Describes the values of the binding and configuration properties.
+   */
+  static String describeProperties(Properties properties) {
+    StringBuilder props = new StringBuilder();
+    for (BindingProperty prop : properties.getBindingProperties()) {
+      String[] values = prop.getAllowedValues(prop.getRootCondition());
+      props.append(prop.getName()).append('=').append(Arrays.toString(values));
+      props.append(" collapsed=").append(prop.getCollapsedValues());
+      props.append(" fallback=").append(prop.getFallback()).append('\n');
+    }
+    for (ConfigurationProperty prop : properties.getConfigurationProperties()) {
+      props.append(prop.getName()).append(':').append(prop.getValues()).append(
+          '\n');
+    }
+    return props.toString();
+  }
+
+  private static boolean appendResources(StringBuilder key, String kind,
+      Collection<Resource> resources) {
+    Map<String, Resource> byPath = new TreeMap<String, Resource>();
+    for (Resource resource : resources) {
+      if (resource != null) {
+        byPath.put(resource.getPath(), resource);
+      }
+    }
+    for (Resource resource : byPath.values()) {
+      String hash = getContentHash(resource);
+      if (hash == null) {
+        return false;
+      }
+      key.append(kind).append(' ').append(resource.getPath()).append(' ');
+      key.append(hash).append('\n');
+    }
+    return true;
+  }
+
+  private static void copyDirectory(File from, File to) throws IOException {
+    if (!to.isDirectory() && !to.mkdirs()) {
+      throw new IOException("Unable to create " + to);
+    }
+    File[] children = from.listFiles();
+    if (children == null) {
+      throw new IOException("Unable to list " + from);
+    }
+    for (File child : children) {
+      File target = new File(to, child.getName());
+      if (child.isDirectory()) {
+        copyDirectory(child, target);
+      } else {
+        Util.copy(new FileInputStream(child), new FileOutputStream(target));
+      }
+    }
+  }
+
+  private static synchronized String getContentHash(Resource resource) {
+    String location = resource.getLocation() + "@"
+        + resource.getLastModified();
+    String hash = contentHashes.get(location);
+    if (hash == null) {
+      byte[] content;
+      try {
+        content = Util.readStreamAsBytes(resource.openContents());
+      } catch (IOException e) {
+        return null;
+      }
+      if (content == null) {
+        return null;
+      }
+      hash = Util.computeStrongName(content);
+      contentHashes.put(location, hash);
+    }
+    return hash;
+  }
+
+  private final File cacheDir;
+
+  CompiledModuleCache(File cacheDir) {
+    this.cacheDir = cacheDir;
+  }
+
+  /**
+   * Replaces <code>moduleDir</code> by the cached output for
+   * <code>key</code>, if there is one.
+   *
+   * @return <code>true</code> if the output was found in the cache
+   */
+  boolean load(TreeLogger logger, String key, File moduleDir) {
+    File entry = getCacheEntry(key);
+    if (!entry.isDirectory()) {
+      return false;
+    }
+    Util.recursiveDelete(moduleDir, false);
+    try {
+      copyDirectory(entry, moduleDir);
+    } catch (IOException e) {
+      logger.log(TreeLogger.WARN, "Unable to read cached module " + entry, e);
+      Util.recursiveDelete(moduleDir, false);
+      return false;
+    }
+    // Keep the entry from being considered unused.
+    entry.setLastModified(System.currentTimeMillis());
+    return true;
+  }
+
+  /**
+   * Adds the compiled output in <code>moduleDir</code> to the cache. Errors
+   * are logged and otherwise ignored, since the test run does not depend on
+   * them.
+   */
+  void store(TreeLogger logger, String key, File moduleDir) {
+    File entry = getCacheEntry(key);
+    File tempDir = null;
+    try {
+      // Copy to a temporary directory first so that concurrent test runs
+      // never see a partial entry.
+      tempDir = File.createTempFile(entry.getName(), ".tmp", cacheDir);
+      if (!tempDir.delete()) {
+        throw new IOException("Unable to delete " + tempDir);
+      }
+      copyDirectory(moduleDir, tempDir);
+      if (!tempDir.renameTo(entry) && !entry.isDirectory()) {
+        logger.log(TreeLogger.WARN, "Unable to create cached module " + entry);
+      }
+    } catch (IOException e) {
+      logger.log(TreeLogger.WARN, "Unable to cache module output "
+          + moduleDir, e);
+    } finally {
+      if (tempDir != null) {
+        Util.recursiveDelete(tempDir, false);
+      }
+    }
+  }
+
+  private void deleteUnusedEntries(TreeLogger logger) {
+    long oldest = System.currentTimeMillis() - MAX_UNUSED_MILLIS;
+    File[] files = cacheDir.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      if (file.getName().endsWith(CACHE_ENTRY_SUFFIX)
+          && file.lastModified() < oldest) {
+        if (logger.isLoggable(TreeLogger.TRACE)) {
+          logger.log(TreeLogger.TRACE, "Deleting unused cached module " + file);
+        }
+        Util.recursiveDelete(file, false);
+      }
+    }
+  }
+
+  private File getCacheEntry(String key) {
+    return new File(cacheDir, key + CACHE_ENTRY_SUFFIX);
+  }
+}
@@ -0,0 +1,604 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.junit;
+
+import com.google.gwt.core.ext.TreeLogger;
+import com.google.gwt.dev.util.Util;
+import com.google.gwt.junit.JUnitShardWorker.TestOutcome;
+import com.google.gwt.junit.client.GWTTestCase;
+import com.google.gwt.junit.client.impl.JUnitHost.TestInfo;
+
+import junit.framework.AssertionFailedError;
+import junit.framework.TestResult;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Runs the tests of a {@link JUnitShell} started with <code>-Xshards</code>.
+ * The test modules known when the first test runs are split across several
+ * local worker JVMs, each running a {@link JUnitShardWorker} with its own
+ * shell, HtmlUnit browsers and ports. As JUnit runs each test, its outcome in
+ * the worker is replayed into the real {@link TestResult}.
+ *
+ * <p>
+ * Modules are assigned longest first to the shard with the least work so far.
+ * The time a module took in earlier runs is read from the properties file named
+ * by the <code>gwt.junit.shardTimings</code> system property, which is updated
+ * when all the shards have finished; modules without history are estimated
+ * from their number of tests. Shards that failed to start, crashed or timed out
+ * don't update the file, since their modules' times are incomplete.
+ * </p>
+ *
+ * <p>
+ * The modules are those registered with
+ * {@link GWTTestCase#getAllTestModuleNames()} when the first test runs, rather
+ * than the batches of a {@link BatchingStrategy}: a shard runs all the tests
+ * of its modules, and each worker's shell batches them with its own strategy.
+ * </p>
+ *
+ * <p>
+ * A worker that hasn't finished after the number of minutes given by the
+ * <code>gwt.junit.shardTimeoutMinutes</code> system property, 60 by default, is
+ * destroyed, and the tests it did not finish are reported as errors. Zero
+ * disables the timeout.
+ * </p>
+ */
+final class JUnitShardRunner {
+
+  /**
+   * One worker JVM and the outcomes of its tests.
+   */
+  final class Shard implements Runnable {
+    private boolean done;
+    private String failure;
+    private final int index;
+    private final Map<String, LinkedList<TestOutcome>> outcomes =
+        new HashMap<String, LinkedList<TestOutcome>>();
+    private Process process;
+    private File resultsFile;
+    private boolean timedOut;
+
+    Shard(int index) {
+      this.index = index;
+    }
+
+    /**
+     * Copies the worker's output, waits for it to exit and reads its results.
+     */
+    public void run() {
+      String failure = null;
+      try {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+            process.getInputStream()));
+        String line;
+        while ((line = reader.readLine()) != null) {
+          logger.log(TreeLogger.INFO, "[shard " + index + "] " + line);
+        }
+        int exitCode = process.waitFor();
+        if (exitCode != 0) {
+          failure = "the worker exited with status " + exitCode;
+        }
+      } catch (IOException e) {
+        failure = "unable to read the worker output: " + e;
+      } catch (InterruptedException e) {
+        failure = "interrupted";
+        process.destroy();
+      }
+      if (isTimedOut()) {
+        // Destroying the worker also breaks its output.
+        failure = "the worker timed out after " + TIMEOUT_MINUTES + " minutes";
+      }
+      List<TestOutcome> results = readOutcomes(resultsFile);
+      resultsFile.delete();
+      finish(results, failure);
+    }
+
+    /**
+     * Records the outcomes of the worker's tests.
+     *
+     * @param failure why the worker failed, or <code>null</code> if it ran to
+     *          completion
+     */
+    void finish(List<TestOutcome> results, String failure) {
+      synchronized (this) {
+        for (TestOutcome outcome : results) {
+          String key = outcome.className + "#" + outcome.methodName;
+          LinkedList<TestOutcome> list = outcomes.get(key);
+          if (list == null) {
+            list = new LinkedList<TestOutcome>();
+            outcomes.put(key, list);
+          }
+          list.add(outcome);
+        }
+        this.failure = failure;
+        done = true;
+        notifyAll();
+      }
+      shardFinished(results, failure);
+    }
+
+    /**
+     * Waits for the worker to finish and returns the next outcome of a test, or
+     * <code>null</code> if the worker did not run it.
+     */
+    synchronized TestOutcome takeOutcome(String className, String methodName)
+        throws InterruptedException {
+      while (!done) {
+        wait();
+      }
+      LinkedList<TestOutcome> list = outcomes.get(className + "#" + methodName);
+      return list == null || list.isEmpty() ? null : list.removeFirst();
+    }
+
+    synchronized String getFailure() {
+      return failure;
+    }
+
+    synchronized boolean isTimedOut() {
+      return timedOut;
+    }
+
+    /**
+     * Starts copying the output of a worker which writes its results to
+     * <code>resultsFile</code>.
+     */
+    void start(Process process, File resultsFile) {
+      this.process = process;
+      this.resultsFile = resultsFile;
+      Thread thread = new Thread(this, "JUnitShard-" + index);
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    /**
+     * Destroys the worker if it hasn't finished, so that its remaining tests
+     * are reported as errors.
+     */
+    synchronized void timeOut() {
+      if (!done) {
+        timedOut = true;
+        process.destroy();
+      }
+    }
+  }
+
+  static final String TIMINGS_PROPERTY = "gwt.junit.shardTimings";
+
+  /**
+   * The estimated time of a test when there is no history at all.
+   */
+  private static final long DEFAULT_MILLIS_PER_TEST = 1000;
+
+  private static final String PROP_GWT_ARGS = "gwt.args";
+
+  /**
+   * The minutes a worker may run before it is destroyed, or 0 for no limit.
+   */
+  private static final long TIMEOUT_MINUTES = Math.max(0, Long.getLong(
+      "gwt.junit.shardTimeoutMinutes", 60));
+
+  /**
+   * Estimates how long each module will take. A module's time in an earlier
+   * run is used if it is known; otherwise its number of tests is multiplied by
+   * the average time of a test in the known modules.
+   *
+   * @param testCounts the number of tests of each module
+   * @param history the milliseconds each module took in earlier runs
+   */
+  static Map<String, Long> estimateCosts(Map<String, Integer> testCounts,
+      Properties history) {
+    long knownMillis = 0;
+    long knownTests = 0;
+    Map<String, Long> costs = new LinkedHashMap<String, Long>();
+    for (Map.Entry<String, Integer> entry : testCounts.entrySet()) {
+      Long millis = parseMillis(history.getProperty(entry.getKey()));
+      if (millis != null) {
+        costs.put(entry.getKey(), millis);
+        knownMillis += millis;
+        knownTests += entry.getValue();
+      }
+    }
+    long millisPerTest = knownTests == 0 ? DEFAULT_MILLIS_PER_TEST
+        : Math.max(1, knownMillis / knownTests);
+    for (Map.Entry<String, Integer> entry : testCounts.entrySet()) {
+      if (!costs.containsKey(entry.getKey())) {
+        costs.put(entry.getKey(), entry.getValue() * millisPerTest);
+      }
+    }
+    return costs;
+  }
+
+  /**
+   * Splits modules into at most <code>numShards</code> shards of about the same
+   * cost: each module, longest first, goes to the shard with the least cost so
+   * far. The result is the same for the same costs.
+   */
+  static List<List<String>> schedule(final Map<String, Long> costs,
+      int numShards) {
+    List<String> modules = new ArrayList<String>(costs.keySet());
+    Collections.sort(modules, new Comparator<String>() {
+      public int compare(String a, String b) {
+        int c = costs.get(b).compareTo(costs.get(a));
+        return c != 0 ? c : a.compareTo(b);
+      }
+    });
+    numShards = Math.max(1, Math.min(numShards, modules.size()));
+    List<List<String>> shards = new ArrayList<List<String>>(numShards);
+    long[] totals = new long[numShards];
+    for (int i = 0; i < numShards; ++i) {
+      shards.add(new ArrayList<String>());
+    }
+    for (String module : modules) {
+      int best = 0;
+      for (int i = 1; i < numShards; ++i) {
+        if (totals[i] < totals[best]) {
+          best = i;
+        }
+      }
+      shards.get(best).add(module);
+      totals[best] += costs.get(module);
+    }
+    return shards;
+  }
+
+  private static Long parseMillis(String value) {
+    if (value == null) {
+      return null;
+    }
+    try {
+      long millis = Long.parseLong(value.trim());
+      return millis >= 0 ? millis : null;
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private static List<TestOutcome> readOutcomes(File resultsFile) {
+    List<TestOutcome> results = new ArrayList<TestOutcome>();
+    if (!resultsFile.isFile() || resultsFile.length() == 0) {
+      return results;
+    }
+    ObjectInputStream in = null;
+    try {
+      in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(
+          resultsFile)));
+      while (true) {
+        results.add((TestOutcome) in.readObject());
+      }
+    } catch (IOException e) {
+      // The end of the results, possibly truncated by a crash.
+    } catch (ClassNotFoundException e) {
+      // Can't happen, the worker runs with the same classpath.
+    } finally {
+      if (in != null) {
+        try {
+          in.close();
+        } catch (IOException e) {
+          // Ignore this error
+        }
+      }
+    }
+    return results;
+  }
+
+  private static Properties readTimings(File timingsFile) {
+    Properties timings = new Properties();
+    if (timingsFile != null && timingsFile.isFile()) {
+      FileInputStream in = null;
+      try {
+        in = new FileInputStream(timingsFile);
+        timings.load(in);
+      } catch (IOException e) {
+        // Schedule without history.
+      } finally {
+        if (in != null) {
+          try {
+            in.close();
+          } catch (IOException e) {
+            // Ignore this error
+          }
+        }
+      }
+    }
+    return timings;
+  }
+
+  /**
+   * The time each module took in the shards which have finished.
+   */
+  private final Map<String, Long> elapsedByModule = new HashMap<String, Long>();
+
+  private final TreeLogger logger;
+
+  private final int numShards;
+
+  private int runningShards;
+
+  private final Map<String, Shard> shardsByModule = new HashMap<String, Shard>();
+
+  private boolean started;
+
+  private final File timingsFile;
+
+  /**
+   * Destroys the workers which exceed {@link #TIMEOUT_MINUTES}.
+   */
+  private Timer timeoutTimer;
+
+  /**
+   * @param logger logs the schedule and failures to start workers
+   * @param numShards the maximum number of worker JVMs
+   */
+  JUnitShardRunner(TreeLogger logger, int numShards) {
+    this.logger = logger;
+    this.numShards = numShards;
+    String timings = System.getProperty(TIMINGS_PROPERTY);
+    timingsFile = timings == null || timings.length() == 0 ? null : new File(
+        timings);
+  }
+
+  /**
+   * Replays the outcome of a test in its shard, starting the shards on the
+   * first call.
+   */
+  void runTest(GWTTestCase testCase, TestResult testResult) {
+    start();
+    Shard shard = shardsByModule.get(testCase.getSyntheticModuleName());
+    if (shard == null) {
+      testResult.addError(testCase, new JUnitFatalLaunchException("Module "
+          + testCase.getSyntheticModuleName()
+          + " was not known when the shards were started"));
+      return;
+    }
+    TestOutcome outcome;
+    try {
+      outcome = shard.takeOutcome(testCase.getClass().getName(),
+          testCase.getName());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      testResult.addError(testCase, e);
+      return;
+    }
+    if (outcome == null) {
+      String failure = shard.getFailure();
+      testResult.addError(testCase, new JUnitFatalLaunchException("Shard "
+          + shard.index + " has no result for " + testCase.getClass().getName()
+          + "." + testCase.getName() + ": "
+          + (failure == null ? "the worker did not run it" : failure)));
+      return;
+    }
+    for (AssertionFailedError failure : outcome.failures) {
+      testResult.addFailure(testCase, failure);
+    }
+    for (Throwable error : outcome.errors) {
+      testResult.addError(testCase, error);
+    }
+  }
+
+  private List<String> createCommand(File testsFile, File resultsFile) {
+    List<String> args = new ArrayList<String>();
+    args.add(System.getProperty("java.home") + File.separator + "bin"
+        + File.separator + "java");
+    // This will include -Xmx, -D, etc...
+    for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+      // Debuggers would compete for the same port.
+      if (arg.startsWith("-agentlib") || arg.startsWith("-Xdebug")
+          || arg.startsWith("-Xrunjdwp")
+          || arg.startsWith("-D" + PROP_GWT_ARGS + "=")) {
+        continue;
+      }
+      args.add(arg);
+    }
+    // Each worker picks its own ports and doesn't shard again.
+    String gwtArgs = System.getProperty(PROP_GWT_ARGS, "");
+    args.add("-D" + PROP_GWT_ARGS + "=" + gwtArgs
+        + " -Xshards 1 -port auto -codeServerPort auto");
+    args.add("-classpath");
+    args.add(ManagementFactory.getRuntimeMXBean().getClassPath());
+    args.add(JUnitShardWorker.class.getName());
+    args.add(testsFile.getAbsolutePath());
+    args.add(resultsFile.getAbsolutePath());
+    return args;
+  }
+
+  private void launch(final Shard shard, List<TestInfo> tests) {
+    File testsFile = null;
+    File resultsFile = null;
+    final Process process;
+    try {
+      testsFile = File.createTempFile("gwt-junit-shard", ".tests");
+      resultsFile = File.createTempFile("gwt-junit-shard", ".results");
+      StringBuilder sb = new StringBuilder();
+      for (TestInfo test : tests) {
+        sb.append(test.getTestClass()).append(' ').append(test.getTestMethod()).append(
+            '\n');
+      }
+      OutputStream out = new FileOutputStream(testsFile);
+      try {
+        out.write(Util.getBytes(sb.toString()));
+      } finally {
+        out.close();
+      }
+      testsFile.deleteOnExit();
+
+      ProcessBuilder builder = new ProcessBuilder(createCommand(testsFile,
+          resultsFile));
+      builder.redirectErrorStream(true);
+      process = builder.start();
+    } catch (IOException e) {
+      logger.log(TreeLogger.ERROR, "Unable to start shard " + shard.index, e);
+      if (resultsFile != null) {
+        resultsFile.delete();
+      }
+      shard.finish(Collections.<TestOutcome> emptyList(),
+          "unable to start the worker: " + e);
+      return;
+    }
+
+    // The worker should not outlive this JVM
+    Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+      public void run() {
+        try {
+          process.exitValue();
+        } catch (IllegalThreadStateException e) {
+          process.destroy();
+        }
+      }
+    }));
+    shard.start(process, resultsFile);
+
+    if (TIMEOUT_MINUTES > 0) {
+      if (timeoutTimer == null) {
+        timeoutTimer = new Timer("JUnitShardTimeout", true);
+      }
+      timeoutTimer.schedule(new TimerTask() {
+        @Override
+        public void run() {
+          shard.timeOut();
+        }
+      }, TIMEOUT_MINUTES * 60 * 1000);
+    }
+  }
+
+  /**
+   * Records the time each module took in a shard, unless it failed, and saves
+   * the timings once every shard has finished.
+   */
+  private void shardFinished(List<TestOutcome> results, String failure) {
+    Map<String, Long> elapsed;
+    synchronized (elapsedByModule) {
+      // A failed shard's modules may be missing tests.
+      if (failure == null) {
+        for (TestOutcome outcome : results) {
+          if (outcome.syntheticModuleName != null) {
+            Long millis = elapsedByModule.get(outcome.syntheticModuleName);
+            elapsedByModule.put(outcome.syntheticModuleName,
+                (millis == null ? 0 : millis) + outcome.elapsedMillis);
+          }
+        }
+      }
+      if (--runningShards > 0 || timingsFile == null) {
+        return;
+      }
+      elapsed = new HashMap<String, Long>(elapsedByModule);
+    }
+    writeTimings(elapsed);
+  }
+
+  /**
+   * Schedules the modules and launches the workers, once.
+   */
+  private synchronized void start() {
+    if (started) {
+      return;
+    }
+    started = true;
+
+    Map<String, List<TestInfo>> testsByModule = new HashMap<String, List<TestInfo>>();
+    Map<String, Integer> testCounts = new LinkedHashMap<String, Integer>();
+    for (String module : GWTTestCase.getAllTestModuleNames()) {
+      if (module == null) {
+        // Pure Java tests run here.
+        continue;
+      }
+      List<TestInfo> tests = new ArrayList<TestInfo>(
+          GWTTestCase.getTestsForModule(module).getTests());
+      testsByModule.put(module, tests);
+      testCounts.put(module, tests.size());
+    }
+    if (testCounts.isEmpty()) {
+      return;
+    }
+
+    Map<String, Long> costs = estimateCosts(testCounts,
+        readTimings(timingsFile));
+    List<List<String>> schedule = schedule(costs, numShards);
+    synchronized (elapsedByModule) {
+      runningShards = schedule.size();
+    }
+    for (int i = 0; i < schedule.size(); ++i) {
+      List<String> modules = schedule.get(i);
+      Shard shard = new Shard(i);
+      List<TestInfo> tests = new ArrayList<TestInfo>();
+      long cost = 0;
+      for (String module : modules) {
+        shardsByModule.put(module, shard);
+        tests.addAll(testsByModule.get(module));
+        cost += costs.get(module);
+      }
+      if (logger.isLoggable(TreeLogger.INFO)) {
+        logger.log(TreeLogger.INFO, "Shard " + i + ": " + modules.size()
+            + " modules, " + tests.size() + " tests, about " + cost / 1000
+            + "s");
+      }
+      launch(shard, tests);
+    }
+  }
+
+  /**
+   * Merges the new timings into the timings file. The file is written to a
+   * temporary file and renamed, so that concurrent runs never see a partial
+   * file.
+   */
+  private void writeTimings(Map<String, Long> elapsed) {
+    Properties timings = readTimings(timingsFile);
+    for (Map.Entry<String, Long> entry : elapsed.entrySet()) {
+      timings.setProperty(entry.getKey(), String.valueOf(entry.getValue()));
+    }
+    try {
+      File dir = timingsFile.getAbsoluteFile().getParentFile();
+      if (!dir.isDirectory() && !dir.mkdirs()) {
+        throw new IOException("Unable to create " + dir);
+      }
+      File tempFile = File.createTempFile(timingsFile.getName(), ".tmp", dir);
+      OutputStream out = new FileOutputStream(tempFile);
+      try {
+        timings.store(out, "GWT test module times in milliseconds");
+      } finally {
+        out.close();
+      }
+      timingsFile.delete();
+      if (!tempFile.renameTo(timingsFile)) {
+        tempFile.delete();
+        throw new IOException("Unable to rename " + tempFile + " to "
+            + timingsFile);
+      }
+    } catch (IOException e) {
+      logger.log(TreeLogger.WARN, "Unable to save test timings to "
+          + timingsFile, e);
+    }
+  }
+}
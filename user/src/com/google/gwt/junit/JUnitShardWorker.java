@@ -0,0 +1,205 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.junit;
+
+import com.google.gwt.dev.util.Util;
+import com.google.gwt.junit.client.GWTTestCase;
+
+import junit.framework.AssertionFailedError;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestListener;
+import junit.framework.TestResult;
+import junit.framework.TestSuite;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs one shard of a test run started with <code>-Xshards</code>, in its own
+ * JVM with its own {@link JUnitShell}. The tests are read from a file of
+ * <code>className methodName</code> lines, and the outcome of each test is
+ * appended to a results file as a serialized {@link TestOutcome}, which
+ * {@link JUnitShardRunner} replays into the real {@link TestResult}.
+ *
+ * <p>
+ * Usage: <code>JUnitShardWorker testsFile resultsFile</code>.
+ * </p>
+ */
+public class JUnitShardWorker {
+
+  /**
+   * The outcome of one test in a shard.
+   */
+  static final class TestOutcome implements Serializable {
+    final String className;
+    final long elapsedMillis;
+    final List<Throwable> errors = new ArrayList<Throwable>();
+    final List<AssertionFailedError> failures = new ArrayList<AssertionFailedError>();
+    final String methodName;
+    final String syntheticModuleName;
+
+    TestOutcome(String className, String methodName,
+        String syntheticModuleName, long elapsedMillis) {
+      this.className = className;
+      this.methodName = methodName;
+      this.syntheticModuleName = syntheticModuleName;
+      this.elapsedMillis = elapsedMillis;
+    }
+  }
+
+  /**
+   * Records the outcome of each test as it ends.
+   */
+  private static class OutcomeWriter implements TestListener {
+    private List<Throwable> errors = new ArrayList<Throwable>();
+    private List<AssertionFailedError> failures = new ArrayList<AssertionFailedError>();
+    private final ObjectOutputStream out;
+    private long startMillis;
+    private final Map<Test, String[]> testNames;
+
+    OutcomeWriter(ObjectOutputStream out, Map<Test, String[]> testNames) {
+      this.out = out;
+      this.testNames = testNames;
+    }
+
+    public void addError(Test test, Throwable t) {
+      errors.add(t);
+    }
+
+    public void addFailure(Test test, AssertionFailedError t) {
+      failures.add(t);
+    }
+
+    public void endTest(Test test) {
+      String[] names = testNames.get(test);
+      String syntheticModuleName = test instanceof GWTTestCase
+          ? ((GWTTestCase) test).getSyntheticModuleName() : null;
+      TestOutcome outcome = new TestOutcome(names[0], names[1],
+          syntheticModuleName, System.currentTimeMillis() - startMillis);
+      for (Throwable t : errors) {
+        outcome.errors.add(ensureSerializable(t));
+      }
+      for (AssertionFailedError t : failures) {
+        outcome.failures.add((AssertionFailedError) ensureSerializable(t));
+      }
+      try {
+        out.writeObject(outcome);
+        // Don't hold on to the outcomes already written.
+        out.reset();
+        out.flush();
+      } catch (IOException e) {
+        throw new RuntimeException("Unable to write test results", e);
+      }
+    }
+
+    public void startTest(Test test) {
+      errors = new ArrayList<Throwable>();
+      failures = new ArrayList<AssertionFailedError>();
+      startMillis = System.currentTimeMillis();
+    }
+  }
+
+  public static void main(String[] args) {
+    if (args.length != 2) {
+      System.err.println("Usage: " + JUnitShardWorker.class.getName()
+          + " testsFile resultsFile");
+      System.exit(2);
+    }
+    int exitCode = 0;
+    try {
+      run(new File(args[0]), new File(args[1]));
+    } catch (Throwable e) {
+      e.printStackTrace();
+      exitCode = 1;
+    }
+    // The shell's server and browser threads would keep the JVM alive.
+    System.exit(exitCode);
+  }
+
+  /**
+   * Replaces a throwable which can't be serialized, e.g. because its cause
+   * holds some client state, by one with the same message and stack trace.
+   */
+  static Throwable ensureSerializable(Throwable t) {
+    try {
+      ObjectOutputStream out = new ObjectOutputStream(
+          new ByteArrayOutputStream());
+      out.writeObject(t);
+      out.close();
+      return t;
+    } catch (IOException e) {
+      Throwable copy = t instanceof AssertionFailedError
+          ? new AssertionFailedError(t.toString()) : new RuntimeException(
+              t.toString());
+      copy.setStackTrace(t.getStackTrace());
+      return copy;
+    }
+  }
+
+  private static void run(File testsFile, File resultsFile) throws IOException {
+    TestSuite suite = new TestSuite();
+    Map<Test, String[]> testNames = new IdentityHashMap<Test, String[]>();
+    for (String line : Util.readFileAsString(testsFile).split("\n")) {
+      line = line.trim();
+      if (line.length() == 0) {
+        continue;
+      }
+      int space = line.indexOf(' ');
+      String className = line.substring(0, space);
+      String methodName = line.substring(space + 1);
+      Test test;
+      try {
+        test = TestSuite.createTest(Class.forName(className), methodName);
+      } catch (ClassNotFoundException e) {
+        test = warning(methodName, "Class not found: " + className);
+      }
+      suite.addTest(test);
+      testNames.put(test, new String[] {className, methodName});
+    }
+
+    ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(
+        new FileOutputStream(resultsFile)));
+    try {
+      TestResult result = new TestResult();
+      result.addListener(new OutcomeWriter(out, testNames));
+      suite.run(result);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Returns a test which fails with a message.
+   */
+  private static Test warning(String methodName, final String message) {
+    return new TestCase(methodName) {
+      @Override
+      protected void runTest() {
+        fail(message);
+      }
+    };
+  }
+}
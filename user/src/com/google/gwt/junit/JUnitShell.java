@@ -50,6 +50,7 @@ import com.google.gwt.dev.util.arg.ArgHandlerMaxPermsPerPrecompile;
 import com.google.gwt.dev.util.arg.ArgHandlerScriptStyle;
 import com.google.gwt.dev.util.arg.ArgHandlerWarDir;
 import com.google.gwt.dev.util.arg.ArgHandlerWorkDirOptional;
+import com.google.gwt.dev.util.log.PrintWriterTreeLogger;
 import com.google.gwt.junit.JUnitMessageQueue.ClientStatus;
 import com.google.gwt.junit.client.GWTTestCase;
 import com.google.gwt.junit.client.TimeoutException;
@@ -502,6 +503,34 @@ public class JUnitShell extends DevMode {
         }
       });
 
+      registerHandler(new ArgHandlerInt() {
+        @Override
+        public String getPurpose() {
+          return "EXPERIMENTAL: Runs the test modules in this many local JVMs, "
+              + "each with its own HtmlUnit browsers";
+        }
+
+        @Override
+        public String getTag() {
+          return "-Xshards";
+        }
+
+        @Override
+        public String[] getTagArgs() {
+          return new String[]{"count"};
+        }
+
+        @Override
+        public boolean isUndocumented() {
+          return false;
+        }
+
+        @Override
+        public void setInt(int value) {
+          shell.shards = value;
+        }
+      });
+
       registerHandler(new ArgHandlerString() {
         @Override
         public String getPurpose() {
@@ -649,7 +678,12 @@ public class JUnitShell extends DevMode {
    */
   public static void runTest(GWTTestCase testCase, TestResult testResult)
       throws UnableToCompleteException {
-    getUnitTestShell().runTestImpl(testCase, testResult);
+    JUnitShell shell = getUnitTestShell();
+    if (shell.shardRunner != null) {
+      shell.shardRunner.runTest(testCase, testResult);
+    } else {
+      shell.runTestImpl(testCase, testResult);
+    }
   }
 
   /**
@@ -694,6 +728,19 @@ public class JUnitShell extends DevMode {
       if (!argProcessor.processArgs(args)) {
         throw new JUnitFatalLaunchException("Error processing shell arguments");
       }
+      if (unitTestShell.shards > 1) {
+        // The workers run the tests; this shell never starts.
+        if (!unitTestShell.runStyleName.startsWith("HtmlUnit")) {
+          throw new JUnitFatalLaunchException(
+              "-Xshards requires the HtmlUnit run style");
+        }
+        PrintWriterTreeLogger logger = new PrintWriterTreeLogger();
+        logger.setMaxDetail(unitTestShell.options.getLogLevel());
+        unitTestShell.shardRunner = new JUnitShardRunner(logger,
+            unitTestShell.shards);
+        unitTestShell.lastLaunchFailed = false;
+        return unitTestShell;
+      }
       // Always bind to the wildcard address and substitute the host address in
       // URLs. Note that connectAddress isn't actually used here, as we
       // override it from the runsStyle in getModuleUrl, but we set it to match
@@ -710,7 +757,9 @@ public class JUnitShell extends DevMode {
       // TODO: install a shutdown hook? Not necessary with GWTShell.
       unitTestShell.lastLaunchFailed = false;
     }
-    unitTestShell.checkArgs();
+    if (unitTestShell.shardRunner == null) {
+      unitTestShell.checkArgs();
+    }
     return unitTestShell;
   }
 
@@ -873,6 +922,17 @@ public class JUnitShell extends DevMode {
    */
   private String runStyleName = "HtmlUnit";
 
+  /**
+   * The number of worker JVMs to run the test modules in, or 1 to run them in
+   * this JVM.
+   */
+  private int shards = 1;
+
+  /**
+   * Runs the tests in worker JVMs if {@link #shards} is more than 1.
+   */
+  private JUnitShardRunner shardRunner;
+
   private boolean standardsMode = true;
 
   /**
@@ -1088,9 +1148,22 @@ public class JUnitShell extends DevMode {
             userAgents);
       }
     }
+    // Reuse the output of an earlier run of the same inputs, if it is cached.
+    CompiledModuleCache cache = CompiledModuleCache.create(getTopLogger());
+    String key = cache == null ? null : CompiledModuleCache.computeKey(module,
+        options);
+    File moduleDir = new File(options.getWarDir(), module.getName());
+    if (key != null && cache.load(getTopLogger(), key, moduleDir)) {
+      getTopLogger().log(TreeLogger.INFO,
+          "Using cached compilation of module " + module.getName());
+      return;
+    }
     if (!new Compiler(options).run(getTopLogger(), module)) {
       throw new UnableToCompleteException();
     }
+    if (key != null) {
+      cache.store(getTopLogger(), key, moduleDir);
+    }
     // TODO(scottb): prepopulate currentCompilationState somehow?
   }
 
@@ -19,6 +19,7 @@ package com.google.gwt.logging.server;
 import com.google.gwt.thirdparty.debugging.sourcemap.SourceMapConsumerFactory;
 import com.google.gwt.thirdparty.debugging.sourcemap.SourceMapping;
 import com.google.gwt.thirdparty.debugging.sourcemap.proto.Mapping;
+import com.google.gwt.util.tools.shared.BinarySymbolMap;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -26,9 +27,16 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.LogRecord;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -45,11 +53,120 @@ import java.util.regex.Pattern;
  * Pass the resulting directory location into this class' {@link StackTraceDeobfuscator#symbolMapsDirectory}
  * constructor or {@link #setSymbolMapsDirectory(String)} setter method.
  *
+ * <p>
+ * An instance may be shared by concurrent requests. Symbol maps are not loaded
+ * whole: only the symbols that appear in the stack traces being deobfuscated
+ * are kept, up to {@link #getMaxCachedSymbols()} over all permutations, and up
+ * to {@link #getMaxCachedSourceMaps()} source maps are kept. When either limit
+ * is reached, the data of the least recently used permutations is dropped, and
+ * read again if it is needed.
+ * </p>
+ *
+ * <p>
+ * If a permutation has a {@link BinarySymbolMap}, written by the compiler when
+ * the <code>symbolMaps.binary</code> configuration property is true, it is used
+ * instead of the text symbol map: symbols are looked up in it directly. It
+ * counts as all of its symbols towards {@link #getMaxCachedSymbols()}, so that
+ * the least recently used binary symbol maps are released too.
+ * </p>
+ *
+ * <p>
+ * The first time a text symbol map is read, the hash codes of all of its
+ * names are kept in a sorted array, so that names which are not in it are
+ * answered without reading it again. The array counts as one symbol for every
+ * eight names towards {@link #getMaxCachedSymbols()}.
+ * </p>
+ *
  * TODO(unnurg): Combine this code with similar code in JUnitHostImpl
  */
 public class StackTraceDeobfuscator {
 
-  private static class SymbolMap extends HashMap<String, String> {
+  /**
+   * The default maximum number of symbols kept in memory.
+   */
+  public static final int DEFAULT_MAX_CACHED_SYMBOLS = 500000;
+
+  /**
+   * The default maximum number of source maps kept in memory.
+   */
+  public static final int DEFAULT_MAX_CACHED_SOURCE_MAPS = 16;
+
+  /**
+   * A parsed source map and the last time it was used.
+   */
+  private static class CachedSourceMap {
+    final SourceMapping mapping;
+
+    volatile long lastUsed = System.currentTimeMillis();
+
+    CachedSourceMap(SourceMapping mapping) {
+      this.mapping = mapping;
+    }
+  }
+
+  /**
+   * The symbols of one permutation that have been looked up so far, and the
+   * names that were looked up but are not in its symbol map.
+   */
+  private static class SymbolMap {
+    /**
+     * The binary symbol map of the permutation, if it has one.
+     */
+    volatile BinarySymbolMap binary;
+
+    /**
+     * Whether the binary symbol map has been looked for.
+     */
+    volatile boolean isOpened;
+
+    /**
+     * Whether the symbol map could not be read, in which case nothing is
+     * found in it and it is not read again.
+     */
+    volatile boolean isUnavailable;
+
+    volatile long lastUsed = System.currentTimeMillis();
+
+    /**
+     * The sorted hash codes of all the names in the text symbol map, once it
+     * has been read.
+     */
+    volatile int[] nameHashes;
+
+    final Map<String, Boolean> missing = new ConcurrentHashMap<String, Boolean>();
+
+    final Map<String, String> symbols = new ConcurrentHashMap<String, String>();
+
+    String get(String name) {
+      if (name == null) {
+        return null;
+      }
+      BinarySymbolMap binary = this.binary;
+      return binary == null ? symbols.get(name) : binary.get(name);
+    }
+
+    boolean isKnown(String name) {
+      if (isUnavailable || binary != null || symbols.containsKey(name)
+          || missing.containsKey(name)) {
+        return true;
+      }
+      int[] nameHashes = this.nameHashes;
+      return nameHashes != null
+          && Arrays.binarySearch(nameHashes, name.hashCode()) < 0;
+    }
+
+    /**
+     * Returns the number of symbols this map counts as in the cache, which is
+     * at least one so that even empty maps are eventually evicted.
+     */
+    int size() {
+      BinarySymbolMap binary = this.binary;
+      int[] nameHashes = this.nameHashes;
+      int size = binary != null ? binary.size() : symbols.size()
+          + missing.size() + (nameHashes == null ? 0
+          : (nameHashes.length + 7) / 8);
+      return Math.max(size, 1);
+    }
   }
 
   // From JsniRef class, which is in gwt-dev and so can't be accessed here
@@ -63,14 +180,18 @@ public class StackTraceDeobfuscator {
 
   Pattern fragmentIdPattern = Pattern.compile(".*(\\d+)\\.js");
 
-  protected File symbolMapsDirectory;
+  protected volatile File symbolMapsDirectory;
+
+  private volatile int maxCachedSourceMaps = DEFAULT_MAX_CACHED_SOURCE_MAPS;
+
+  private volatile int maxCachedSymbols = DEFAULT_MAX_CACHED_SYMBOLS;
 
   // Map of strongName + fragmentId to sourceMap
-  private Map<String, SourceMapping> sourceMaps =
-      new HashMap<String, SourceMapping>();
+  private final Map<String, CachedSourceMap> sourceMaps =
+      new ConcurrentHashMap<String, CachedSourceMap>();
 
-  private Map<String, SymbolMap> symbolMaps =
-      new HashMap<String, SymbolMap>();
+  private final ConcurrentHashMap<String, SymbolMap> symbolMaps =
+      new ConcurrentHashMap<String, SymbolMap>();
 
   /**
    * Constructor, which takes a <code>symbolMaps</code> directory as its argument. Symbol maps are
@@ -92,10 +213,41 @@ public class StackTraceDeobfuscator {
    * @return the best effort resymbolized log record
    */
   public LogRecord deobfuscateLogRecord(LogRecord lr, String strongName) {
-    if (lr.getThrown() != null && strongName != null) {
-      lr.setThrown(deobfuscateThrowable(lr.getThrown(), strongName));
+    return deobfuscateLogRecords(Collections.singletonList(lr),
+        strongName).get(0);
+  }
+
+  /**
+   * Best effort resymbolization of the stack traces of several log records
+   * from the same permutation. The symbol map is searched once for all the
+   * symbols they need.
+   *
+   * @param records    the log records to resymbolize
+   * @param strongName the GWT permutation strong name
+   * @return the best effort resymbolized log records, in the same order
+   */
+  public List<LogRecord> deobfuscateLogRecords(
+      Collection<LogRecord> records, String strongName) {
+    List<LogRecord> toReturn = new ArrayList<LogRecord>(records);
+    if (strongName == null) {
+      return toReturn;
+    }
+    Set<String> names = new HashSet<String>();
+    for (LogRecord lr : toReturn) {
+      for (Throwable t = lr.getThrown(); t != null; t = t.getCause()) {
+        addMethodNames(t.getStackTrace(), names);
+      }
+    }
+    if (names.isEmpty()) {
+      return toReturn;
+    }
+    SymbolMap map = loadSymbolMap(strongName, names);
+    for (LogRecord lr : toReturn) {
+      if (lr.getThrown() != null) {
+        lr.setThrown(deobfuscateThrowable(lr.getThrown(), strongName, map));
+      }
     }
-    return lr;
+    return toReturn;
   }
 
   /**
@@ -107,11 +259,26 @@ public class StackTraceDeobfuscator {
    */
   public StackTraceElement[] deobfuscateStackTrace(
       StackTraceElement[] st, String strongName) {
-    StackTraceElement[] newSt = new StackTraceElement[st.length];
-    for (int i = 0; i < st.length; i++) {
-      newSt[i] = resymbolize(st[i], strongName);
-    }
-    return newSt;
+    Set<String> names = new HashSet<String>();
+    addMethodNames(st, names);
+    return deobfuscateStackTrace(st, strongName,
+        loadSymbolMap(strongName, names));
+  }
+
+  /**
+   * Returns the maximum number of source maps kept in memory.
+   */
+  public int getMaxCachedSourceMaps() {
+    return maxCachedSourceMaps;
+  }
+
+  /**
+   * Returns the maximum number of symbols kept in memory, over all
+   * permutations. Names which were looked up and not found count as symbols,
+   * and a binary symbol map counts as all of its symbols.
+   */
+  public int getMaxCachedSymbols() {
+    return maxCachedSymbols;
   }
 
   /**
@@ -123,6 +290,165 @@ public class StackTraceDeobfuscator {
    */
   public StackTraceElement resymbolize(StackTraceElement ste,
       String strongName) {
+    return resymbolize(ste, strongName, loadSymbolMap(strongName,
+        Collections.singleton(ste.getMethodName())));
+  }
+
+  /**
+   * Sets the maximum number of source maps kept in memory.
+   */
+  public void setMaxCachedSourceMaps(int maxCachedSourceMaps) {
+    if (maxCachedSourceMaps < 1) {
+      throw new IllegalArgumentException(
+          "maxCachedSourceMaps must be positive: " + maxCachedSourceMaps);
+    }
+    this.maxCachedSourceMaps = maxCachedSourceMaps;
+    evictSourceMaps();
+  }
+
+  /**
+   * Sets the maximum number of symbols kept in memory, over all permutations.
+   */
+  public void setMaxCachedSymbols(int maxCachedSymbols) {
+    if (maxCachedSymbols < 1) {
+      throw new IllegalArgumentException("maxCachedSymbols must be positive: "
+          + maxCachedSymbols);
+    }
+    this.maxCachedSymbols = maxCachedSymbols;
+    evictSymbolMaps(null);
+  }
+
+  public void setSymbolMapsDirectory(String symbolMapsDirectory) {
+    // permutations are unique, no need to clear the symbolMaps hash map
+    this.symbolMapsDirectory = new File(symbolMapsDirectory);
+  }
+
+  /**
+   * Retrieves the binary symbol map of the given permutation. This
+   * implementation, which subclasses may override, memory-maps the <code>
+   * <i>permutation-strong-name</i>.symbolMap.bin</code> file in the
+   * <code>symbolMaps</code> directory, if it exists.
+   *
+   * @param permutationStrongName the GWT permutation strong name
+   * @return the binary symbol map, or <code>null</code> if there is none
+   */
+  protected BinarySymbolMap getBinarySymbolMap(String permutationStrongName)
+      throws IOException {
+    File file = new File(symbolMapsDirectory, permutationStrongName
+        + BinarySymbolMap.SUFFIX);
+    return file.isFile() ? BinarySymbolMap.open(file) : null;
+  }
+
+  protected InputStream getSourceMapInputStream(String permutationStrongName, int fragmentNumber)
+      throws IOException {
+    String filename = symbolMapsDirectory.getCanonicalPath()
+        + File.separatorChar + permutationStrongName + "_sourceMap" + fragmentNumber + ".json";
+    return new FileInputStream(filename);
+  }
+
+  /**
+   * Retrieves a new {@link InputStream} for the given permutation strong name. This implementation,
+   * which subclasses may override, returns a {@link InputStream} for the <code>
+   * <i>permutation-strong-name</i>.symbolMap</code> file in the <code>symbolMaps</code> directory.
+   *
+   * @param permutationStrongName the GWT permutation strong name
+   * @return a new {@link InputStream}
+   */
+  protected InputStream getSymbolMapInputStream(String permutationStrongName)
+      throws IOException {
+    String filename = symbolMapsDirectory.getCanonicalPath()
+        + File.separatorChar + permutationStrongName + ".symbolMap";
+    return new FileInputStream(filename);
+  }
+
+  private void addMethodNames(StackTraceElement[] st, Set<String> names) {
+    if (st != null) {
+      for (StackTraceElement ste : st) {
+        if (ste.getMethodName() != null) {
+          names.add(ste.getMethodName());
+        }
+      }
+    }
+  }
+
+  private Throwable deobfuscateThrowable(Throwable old, String strongName,
+      SymbolMap map) {
+    Throwable t = new Throwable(old.getMessage());
+    if (old.getStackTrace() != null) {
+      t.setStackTrace(deobfuscateStackTrace(old.getStackTrace(), strongName,
+          map));
+    } else {
+      t.setStackTrace(new StackTraceElement[0]);
+    }
+    if (old.getCause() != null) {
+      t.initCause(deobfuscateThrowable(old.getCause(), strongName, map));
+    }
+    return t;
+  }
+
+  private StackTraceElement[] deobfuscateStackTrace(StackTraceElement[] st,
+      String strongName, SymbolMap map) {
+    StackTraceElement[] newSt = new StackTraceElement[st.length];
+    for (int i = 0; i < st.length; i++) {
+      newSt[i] = resymbolize(st[i], strongName, map);
+    }
+    return newSt;
+  }
+
+  /**
+   * Evicts the least recently used source maps until the cache is within its
+   * maximum size.
+   */
+  private synchronized void evictSourceMaps() {
+    while (sourceMaps.size() > maxCachedSourceMaps) {
+      String oldestKey = null;
+      CachedSourceMap oldest = null;
+      for (Map.Entry<String, CachedSourceMap> entry : sourceMaps.entrySet()) {
+        if (oldest == null || entry.getValue().lastUsed < oldest.lastUsed) {
+          oldestKey = entry.getKey();
+          oldest = entry.getValue();
+        }
+      }
+      if (oldest == null) {
+        return;
+      }
+      sourceMaps.remove(oldestKey);
+    }
+  }
+
+  /**
+   * Evicts the symbols of the least recently used permutations until the cache
+   * is within its maximum size. This scans the whole cache, which is fine
+   * because it only happens when symbols are loaded.
+   *
+   * @param keep a symbol map which is being used and must not be evicted, or
+   *          null
+   */
+  private synchronized void evictSymbolMaps(SymbolMap keep) {
+    int size = 0;
+    for (SymbolMap map : symbolMaps.values()) {
+      size += map.size();
+    }
+    while (size > maxCachedSymbols) {
+      String oldestKey = null;
+      SymbolMap oldest = null;
+      for (Map.Entry<String, SymbolMap> entry : symbolMaps.entrySet()) {
+        SymbolMap map = entry.getValue();
+        if (map != keep && (oldest == null || map.lastUsed < oldest.lastUsed)) {
+          oldestKey = entry.getKey();
+          oldest = map;
+        }
+      }
+      if (oldest == null) {
+        return;
+      }
+      symbolMaps.remove(oldestKey);
+      size -= oldest.size();
+    }
+  }
+
+  private StackTraceElement resymbolize(StackTraceElement ste,
+      String strongName, SymbolMap map) {
     String declaringClass = null;
     String methodName = null;
     String filename = null;
@@ -130,7 +456,6 @@ public class StackTraceDeobfuscator {
     int fragmentId = -1;
 
     String steFilename = ste.getFileName();
-    SymbolMap map = loadSymbolMap(strongName);
     String symbolData = map == null ? null : map.get(ste.getMethodName());
 
     boolean sourceMapCapable = false;
@@ -231,95 +556,141 @@ public class StackTraceDeobfuscator {
     return ste;
   }
 
-  public void setSymbolMapsDirectory(String symbolMapsDirectory) {
-    // permutations are unique, no need to clear the symbolMaps hash map
-    this.symbolMapsDirectory = new File(symbolMapsDirectory);
+  private SourceMapping loadSourceMap(String permutationStrongName, int fragmentId) {
+    String key = permutationStrongName + fragmentId;
+    CachedSourceMap cached = sourceMaps.get(key);
+    if (cached != null) {
+      cached.lastUsed = System.currentTimeMillis();
+      return cached.mapping;
+    }
+    try {
+      String sourceMapString = loadStreamAsString(
+          getSourceMapInputStream(permutationStrongName, fragmentId));
+      SourceMapping toReturn = SourceMapConsumerFactory.parse(sourceMapString);
+      sourceMaps.put(key, new CachedSourceMap(toReturn));
+      if (sourceMaps.size() > maxCachedSourceMaps) {
+        evictSourceMaps();
+      }
+      return toReturn;
+    } catch (Exception e) {
+      return null;
+    }
   }
 
-  protected InputStream getSourceMapInputStream(String permutationStrongName, int fragmentNumber)
-      throws IOException {
-    String filename = symbolMapsDirectory.getCanonicalPath()
-        + File.separatorChar + permutationStrongName + "_sourceMap" + fragmentNumber + ".json";
-    return new FileInputStream(filename);
+  private String loadStreamAsString(InputStream stream) {
+    return new Scanner(stream).useDelimiter("\\A").next();
   }
 
   /**
-   * Retrieves a new {@link InputStream} for the given permutation strong name. This implementation,
-   * which subclasses may override, returns a {@link InputStream} for the <code>
-   * <i>permutation-strong-name</i>.symbolMap</code> file in the <code>symbolMaps</code> directory.
-   *
-   * @param permutationStrongName the GWT permutation strong name
-   * @return a new {@link InputStream}
+   * Returns the symbol map of a permutation, after reading any of the given
+   * names which haven't been looked up yet.
    */
-  protected InputStream getSymbolMapInputStream(String permutationStrongName)
-      throws IOException {
-    String filename = symbolMapsDirectory.getCanonicalPath()
-        + File.separatorChar + permutationStrongName + ".symbolMap";
-    return new FileInputStream(filename);
-  }
-
-  private Throwable deobfuscateThrowable(Throwable old, String strongName) {
-    Throwable t = new Throwable(old.getMessage());
-    if (old.getStackTrace() != null) {
-      t.setStackTrace(deobfuscateStackTrace(old.getStackTrace(), strongName));
-    } else {
-      t.setStackTrace(new StackTraceElement[0]);
+  private SymbolMap loadSymbolMap(String strongName, Collection<String> names) {
+    if (strongName == null) {
+      return null;
     }
-    if (old.getCause() != null) {
-      t.initCause(deobfuscateThrowable(old.getCause(), strongName));
+    SymbolMap map = symbolMaps.get(strongName);
+    if (map == null) {
+      map = new SymbolMap();
+      SymbolMap existing = symbolMaps.putIfAbsent(strongName, map);
+      if (existing != null) {
+        map = existing;
+      }
     }
-    return t;
-  }
-
-  private SourceMapping loadSourceMap(String permutationStrongName, int fragmentId) {
-    SourceMapping toReturn = sourceMaps.get(permutationStrongName + fragmentId);
-    if (toReturn == null) {
-      try {
-        String sourceMapString = loadStreamAsString(
-            getSourceMapInputStream(permutationStrongName, fragmentId));
-        toReturn = SourceMapConsumerFactory.parse(sourceMapString);
-        sourceMaps.put(permutationStrongName + fragmentId, toReturn);
-      } catch (Exception e) {
+    map.lastUsed = System.currentTimeMillis();
+    if (!needsLoading(map, names)) {
+      return map;
+    }
+    // Only one thread reads a given symbol map at a time.
+    synchronized (map) {
+      if (!map.isOpened) {
+        try {
+          map.binary = getBinarySymbolMap(strongName);
+        } catch (IOException e) {
+          // fall back to the text symbol map
+        }
+        map.isOpened = true;
+      }
+      if (map.binary == null) {
+        Set<String> unknown = new HashSet<String>();
+        for (String name : names) {
+          if (!map.isKnown(name)) {
+            unknown.add(name);
+          }
+        }
+        if (!unknown.isEmpty()) {
+          readSymbols(strongName, unknown, map);
+        }
       }
     }
-    return toReturn;
+    evictSymbolMaps(map);
+    return map;
   }
 
-  private String loadStreamAsString(InputStream stream) {
-    return new Scanner(stream).useDelimiter("\\A").next();
-  }
-
-  private SymbolMap loadSymbolMap(
-      String strongName) {
-    SymbolMap toReturn = symbolMaps.get(strongName);
-    if (toReturn != null) {
-      return toReturn;
+  private boolean needsLoading(SymbolMap map, Collection<String> names) {
+    for (String name : names) {
+      if (!map.isKnown(name)) {
+        return true;
+      }
     }
-    toReturn = new SymbolMap();
-    String line;
+    return false;
+  }
 
+  /**
+   * Reads the symbol map of a permutation, keeping the given symbols. The
+   * first read goes through the whole map to index its names; later reads
+   * stop once the given names are found. Names which aren't found are
+   * remembered, so that they are not searched for again.
+   */
+  private void readSymbols(String strongName, Set<String> names, SymbolMap map) {
     try {
-      BufferedReader bin = new BufferedReader(
-          new InputStreamReader(getSymbolMapInputStream(strongName)));
+      InputStream in = getSymbolMapInputStream(strongName);
+      if (in == null) {
+        map.isUnavailable = true;
+        return;
+      }
+      BufferedReader bin = new BufferedReader(new InputStreamReader(in));
       try {
-        while ((line = bin.readLine()) != null) {
-          if (line.charAt(0) == '#') {
+        Set<String> remaining = new HashSet<String>(names);
+        boolean indexing = map.nameHashes == null;
+        int[] hashes = new int[indexing ? 1024 : 0];
+        int count = 0;
+        String line;
+        while ((indexing || !remaining.isEmpty())
+            && (line = bin.readLine()) != null) {
+          if (line.length() == 0 || line.charAt(0) == '#') {
             continue;
           }
           int idx = line.indexOf(',');
-          toReturn.put(new String(line.substring(0, idx)),
-              line.substring(idx + 1));
+          if (idx < 0) {
+            continue;
+          }
+          String name = line.substring(0, idx);
+          if (indexing) {
+            if (count == hashes.length) {
+              hashes = Arrays.copyOf(hashes, count * 2);
+            }
+            hashes[count++] = name.hashCode();
+          }
+          if (remaining.remove(name)) {
+            map.symbols.put(name, line.substring(idx + 1));
+          }
+        }
+        if (indexing) {
+          hashes = Arrays.copyOf(hashes, count);
+          Arrays.sort(hashes);
+          map.nameHashes = hashes;
+        }
+        for (String name : remaining) {
+          map.missing.put(name, Boolean.TRUE);
         }
       } finally {
         bin.close();
       }
     } catch (IOException e) {
-      //  use empty symbol map to avoid repeated lookups
-      toReturn = new SymbolMap();
+      // use an empty symbol map to avoid repeated lookups
+      map.isUnavailable = true;
     }
-
-    symbolMaps.put(strongName, toReturn);
-    return toReturn;
   }
 
   /**
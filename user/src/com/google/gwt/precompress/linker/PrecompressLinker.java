@@ -15,6 +15,7 @@
  */
 package com.google.gwt.precompress.linker;
 
+import com.google.gwt.core.ext.Linker;
 import com.google.gwt.core.ext.LinkerContext;
 import com.google.gwt.core.ext.TreeLogger;
 import com.google.gwt.core.ext.UnableToCompleteException;
@@ -26,14 +27,31 @@ import com.google.gwt.core.ext.linker.EmittedArtifact.Visibility;
 import com.google.gwt.core.ext.linker.LinkerOrder;
 import com.google.gwt.core.ext.linker.Shardable;
 import com.google.gwt.core.ext.linker.LinkerOrder.Order;
+import com.google.gwt.core.ext.linker.impl.StandardLinkerContext;
+import com.google.gwt.dev.util.DiskCache;
+import com.google.gwt.dev.util.Parallel;
+import com.google.gwt.dev.util.Util;
 import com.google.gwt.dev.util.collect.HashSet;
 import com.google.gwt.util.regexfilter.RegexFilter;
+import com.google.gwt.util.tools.Utility;
 
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPOutputStream;
 
 /**
@@ -54,7 +72,22 @@ import java.util.zip.GZIPOutputStream;
  * <code>precompress.path.regexes</code>. By default, the uncompressed artifacts
  * are left in the artifact set. If the configuration property
  * <code>precompress.leave.originals</code> is set to <code>false</code>,
- * however, then the uncompressed version is removed.
+ * however, then the uncompressed version is removed. If the configuration
+ * property <code>precompress.max.ratio</code> is set to <code>true</code>, the
+ * files are compressed at the highest deflate level, which is slower but
+ * produces smaller files.
+ * 
+ * <p>
+ * Files are compressed on several threads, set by the
+ * <code>gwt.precompress.threads</code> system property. By default, the final
+ * link uses one thread per processor, and the link of each permutation uses
+ * one thread if permutations are already linked in parallel, or one per
+ * processor otherwise. If the <code>gwt.precompress.cachedir</code> system
+ * property names a directory, compressed files are kept there, keyed by a hash
+ * of their contents, so that files which are unchanged since a previous build
+ * are not compressed again. Cached files which have not been used for
+ * <code>gwt.precompress.cacheMaxUnusedDays</code> days (30 by default) are
+ * deleted by the final link.
  */
 @Shardable
 @LinkerOrder(Order.POST)
@@ -76,31 +109,151 @@ public class PrecompressLinker extends AbstractLinker {
     }
   }
 
+  /**
+   * A compressed artifact, which is streamed into the disk cache rather than
+   * held in memory.
+   */
+  private static class PrecompressedArtifact extends EmittedArtifact {
+    private final long lastModified;
+    private transient long token;
+
+    public PrecompressedArtifact(Class<? extends Linker> linkerType,
+        String partialPath, long token) {
+      super(linkerType, partialPath);
+      this.lastModified = System.currentTimeMillis();
+      this.token = token;
+    }
+
+    @Override
+    public InputStream getContents(TreeLogger logger)
+        throws UnableToCompleteException {
+      return new ByteArrayInputStream(diskCache.readByteArray(token));
+    }
+
+    @Override
+    public long getLastModified() {
+      return lastModified;
+    }
+
+    @Override
+    public void writeTo(TreeLogger logger, OutputStream out)
+        throws UnableToCompleteException {
+      diskCache.transferToStream(token, out);
+    }
+
+    private void readObject(ObjectInputStream stream) throws IOException,
+        ClassNotFoundException {
+      stream.defaultReadObject();
+      token = diskCache.transferFromStream(stream);
+    }
+
+    private void writeObject(ObjectOutputStream stream) throws IOException {
+      stream.defaultWriteObject();
+      diskCache.transferToStream(token, stream);
+    }
+  }
+
+  /**
+   * Counts the bytes written through it.
+   */
+  private static class CountingOutputStream extends FilterOutputStream {
+    private long count;
+
+    public CountingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count += len;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+  }
+
+  /**
+   * A gzip stream which can use the highest compression level.
+   */
+  private static class LevelGZIPOutputStream extends GZIPOutputStream {
+    public LevelGZIPOutputStream(OutputStream out, boolean maxRatio)
+        throws IOException {
+      super(out, BUF_SIZE);
+      if (maxRatio) {
+        def.setLevel(Deflater.BEST_COMPRESSION);
+      }
+    }
+  }
+
   /**
    * Buffer size to use when streaming data from artifacts and through
    * {@link GZIPOutputStream}.
    */
   private static final int BUF_SIZE = 10000;
 
+  private static final String CACHE_FILE_SUFFIX = ".gz";
+
+  private static final DiskCache diskCache = DiskCache.INSTANCE;
+
+  private static final long MAX_UNUSED_MILLIS = Long.getLong(
+      "gwt.precompress.cacheMaxUnusedDays", 30) * 24 * 60 * 60 * 1000;
+
   private static final String PROP_LEAVE_ORIGINALS = "precompress.leave.originals";
 
+  private static final String PROP_MAX_RATIO = "precompress.max.ratio";
+
   private static final String PROP_PATH_REGEXES = "precompress.path.regexes";
 
+  /**
+   * The number of threads set by the system property, or 0 to choose it for
+   * each link.
+   */
+  private static final int THREADS = Math.max(0, Integer.getInteger(
+      "gwt.precompress.threads", 0));
+
   private static ConfigurationProperty findProperty(
       TreeLogger logger,
       Iterable<com.google.gwt.core.ext.linker.ConfigurationProperty> properties,
       String propName) throws UnableToCompleteException {
+    ConfigurationProperty prop = findOptionalProperty(properties, propName);
+    if (prop != null) {
+      return prop;
+    }
+
+    logger.log(TreeLogger.ERROR, "Could not find configuration property "
+        + propName);
+    throw new UnableToCompleteException();
+  }
+
+  private static ConfigurationProperty findOptionalProperty(
+      Iterable<com.google.gwt.core.ext.linker.ConfigurationProperty> properties,
+      String propName) {
     for (ConfigurationProperty prop : properties) {
       if (prop.getName().equals(propName)) {
         return prop;
       }
     }
+    return null;
+  }
 
-    logger.log(TreeLogger.ERROR, "Could not find configuration property "
-        + propName);
-    throw new UnableToCompleteException();
+  private static File getDefaultCacheDir() {
+    String cacheDir = System.getProperty("gwt.precompress.cachedir");
+    return cacheDir == null || cacheDir.length() == 0 ? null : new File(
+        cacheDir);
   }
 
+  private File cacheDir = getDefaultCacheDir();
+
+  private int threads = THREADS;
+
   @Override
   public String getDescription() {
     return "PrecompressLinker";
@@ -125,57 +278,237 @@ public class PrecompressLinker extends AbstractLinker {
       allPaths.add(art.getPartialPath());
     }
 
+    if (cacheDir != null && !onePermutation) {
+      deleteUnusedCacheFiles(logger);
+    }
+
+    ConfigurationProperty maxRatioProp = findOptionalProperty(
+        context.getConfigurationProperties(), PROP_MAX_RATIO);
+    final boolean maxRatio = maxRatioProp != null
+        && Boolean.valueOf(maxRatioProp.getValues().get(0));
+
+    List<EmittedArtifact> toCompress = new ArrayList<EmittedArtifact>();
+    for (EmittedArtifact art : artifacts.find(EmittedArtifact.class)) {
+      if (art.getVisibility() != Visibility.Public) {
+        // only compress things that will be served to the client
+        continue;
+      }
+      if (art.getPartialPath().endsWith(".gz")) {
+        // Already a compressed artifact
+        continue;
+      }
+      if (allPaths.contains(art.getPartialPath() + ".gz")) {
+        // It's already been compressed
+        continue;
+      }
+      if (!filter.isIncluded(logger.branch(TreeLogger.TRACE,
+          "Checking the path patterns"), art.getPartialPath())) {
+        continue;
+      }
+      toCompress.add(art);
+    }
+
+    final TreeLogger compressLogger = logger;
+    List<List<EmittedArtifact>> compressedChunks;
     try {
-      // Buffer for streaming data to be compressed
-      byte[] buf = new byte[BUF_SIZE];
-
-      ArtifactSet updated = new ArtifactSet(artifacts);
-      for (EmittedArtifact art : artifacts.find(EmittedArtifact.class)) {
-        if (art.getVisibility() != Visibility.Public) {
-          // only compress things that will be served to the client
-          continue;
-        }
-        if (art.getPartialPath().endsWith(".gz")) {
-          // Already a compressed artifact
-          continue;
-        }
-        if (allPaths.contains(art.getPartialPath() + ".gz")) {
-          // It's already been compressed
-          continue;
-        }
-        if (!filter.isIncluded(logger.branch(TreeLogger.TRACE,
-            "Checking the path patterns"), art.getPartialPath())) {
-          continue;
+      compressedChunks = Parallel.mapChunks(getThreads(context,
+          onePermutation), toCompress,
+          new Parallel.ChunkTask<EmittedArtifact, List<EmittedArtifact>>() {
+            public List<EmittedArtifact> run(List<EmittedArtifact> chunk)
+                throws Exception {
+              List<EmittedArtifact> compressed = new ArrayList<EmittedArtifact>();
+              for (EmittedArtifact art : chunk) {
+                compressed.add(compress(compressLogger, art, maxRatio));
+              }
+              return compressed;
+            }
+          });
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof UnableToCompleteException) {
+        throw (UnableToCompleteException) e.getCause();
+      }
+      logger.log(TreeLogger.ERROR, "Unexpected exception", e.getCause());
+      throw new UnableToCompleteException();
+    }
+
+    ArtifactSet updated = new ArtifactSet(artifacts);
+    int i = 0;
+    for (List<EmittedArtifact> chunk : compressedChunks) {
+      for (EmittedArtifact compressed : chunk) {
+        EmittedArtifact art = toCompress.get(i++);
+        if (compressed != null) {
+          updated.add(compressed);
+          if (!leaveOriginals) {
+            updated.remove(art);
+          }
         }
+      }
+    }
+    return updated;
+  }
+
+  /**
+   * Returns the number of threads to compress files on. Permutations linked in
+   * parallel already keep the processors busy, so their links don't add more
+   * threads unless asked to.
+   */
+  int getThreads(LinkerContext context, boolean onePermutation) {
+    if (threads > 0) {
+      return threads;
+    }
+    if (onePermutation && context instanceof StandardLinkerContext
+        && ((StandardLinkerContext) context).getLinkThreads() > 1) {
+      return 1;
+    }
+    return Runtime.getRuntime().availableProcessors();
+  }
+
+  /**
+   * Sets the directory in which compressed files are cached, or
+   * <code>null</code> not to cache them.
+   */
+  void setCacheDir(File cacheDir) {
+    this.cacheDir = cacheDir;
+  }
 
-        TreeLogger compressBranch = logger.branch(TreeLogger.TRACE,
-            "Compressing " + art.getPartialPath());
+  /**
+   * Sets the number of threads used to compress files, or 0 to choose it for
+   * each link.
+   */
+  void setThreads(int threads) {
+    this.threads = threads;
+  }
 
-        InputStream originalBytes = art.getContents(compressBranch);
-        ByteArrayOutputStream compressedBytes = new ByteArrayOutputStream();
-        GZIPOutputStream gzip = new GZIPOutputStream(compressedBytes);
+  /**
+   * Compresses one artifact, or reuses its compressed form from the cache.
+   * 
+   * @return the compressed artifact, or <code>null</code> if compressing the
+   *         artifact doesn't make it smaller
+   */
+  private EmittedArtifact compress(TreeLogger logger, EmittedArtifact art,
+      boolean maxRatio) throws UnableToCompleteException, IOException {
+    TreeLogger compressBranch = logger.branch(TreeLogger.TRACE,
+        "Compressing " + art.getPartialPath());
+    byte[] buf = new byte[BUF_SIZE];
 
-        int originalLength = 0;
+    File cacheFile = null;
+    long originalLength = 0;
+    if (cacheDir != null) {
+      MessageDigest md5;
+      try {
+        md5 = MessageDigest.getInstance("MD5");
+      } catch (NoSuchAlgorithmException e) {
+        throw new RuntimeException("MD5 is not supported", e);
+      }
+      InputStream originalBytes = art.getContents(compressBranch);
+      try {
         int n;
         while ((n = originalBytes.read(buf)) > 0) {
           originalLength += n;
-          gzip.write(buf, 0, n);
+          md5.update(buf, 0, n);
+        }
+      } finally {
+        Utility.close(originalBytes);
+      }
+      cacheFile = new File(cacheDir, Util.toHexString(md5.digest())
+          + (maxRatio ? "-max" : "") + CACHE_FILE_SUFFIX);
+      if (cacheFile.isFile()) {
+        compressBranch.log(TreeLogger.TRACE, "Reusing " + cacheFile);
+        // Keep the file from being considered unused.
+        cacheFile.setLastModified(System.currentTimeMillis());
+        if (cacheFile.length() >= originalLength) {
+          return null;
         }
-        gzip.close();
+        InputStream cached = new FileInputStream(cacheFile);
+        try {
+          return new PrecompressedArtifact(getClass(), art.getPartialPath()
+              + ".gz", diskCache.transferFromStream(cached));
+        } finally {
+          Utility.close(cached);
+        }
+      }
+      originalLength = 0;
+    }
 
-        byte[] compressed = compressedBytes.toByteArray();
-        if (compressed.length < originalLength) {
-          updated.add(emitBytes(compressBranch, compressed,
-              art.getPartialPath() + ".gz"));
-          if (!leaveOriginals) {
-            updated.remove(art);
-          }
+    DiskCache.ChunkedOutputStream compressedBytes = diskCache.openOutputStream();
+    CountingOutputStream counter = new CountingOutputStream(compressedBytes);
+    GZIPOutputStream gzip = new LevelGZIPOutputStream(counter, maxRatio);
+    InputStream originalBytes = art.getContents(compressBranch);
+    try {
+      int n;
+      while ((n = originalBytes.read(buf)) > 0) {
+        originalLength += n;
+        gzip.write(buf, 0, n);
+      }
+    } finally {
+      Utility.close(originalBytes);
+    }
+    gzip.close();
+    long token = compressedBytes.getToken();
+
+    if (cacheFile != null) {
+      saveToCache(compressBranch, token, cacheFile);
+    }
+    if (counter.getCount() >= originalLength) {
+      return null;
+    }
+    return new PrecompressedArtifact(getClass(), art.getPartialPath() + ".gz",
+        token);
+  }
+
+  /**
+   * Deletes the cached files which have not been used recently, along with
+   * temporary files left by builds which did not finish.
+   */
+  private void deleteUnusedCacheFiles(TreeLogger logger) {
+    long oldest = System.currentTimeMillis() - MAX_UNUSED_MILLIS;
+    File[] files = cacheDir.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      String name = file.getName();
+      if ((name.endsWith(CACHE_FILE_SUFFIX) || name.endsWith(".tmp"))
+          && file.lastModified() < oldest) {
+        if (logger.isLoggable(TreeLogger.TRACE)) {
+          logger.log(TreeLogger.TRACE, "Deleting unused compressed file "
+              + file);
+        }
+        file.delete();
+      }
+    }
+  }
+
+  /**
+   * Writes a compressed file to the cache. The file is written to a temporary
+   * file and renamed, so that concurrent builds never see a partial file. A
+   * failure only means that the file will be compressed again next time.
+   */
+  private void saveToCache(TreeLogger logger, long token, File cacheFile) {
+    try {
+      if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+        throw new IOException("Unable to create " + cacheDir);
+      }
+      File tempFile = File.createTempFile(cacheFile.getName(), ".tmp",
+          cacheDir);
+      OutputStream out = new FileOutputStream(tempFile);
+      boolean written = false;
+      try {
+        diskCache.transferToStream(token, out);
+        out.close();
+        written = true;
+      } finally {
+        if (!written) {
+          Utility.close(out);
+          tempFile.delete();
         }
       }
-      return updated;
+      cacheFile.delete();
+      if (!tempFile.renameTo(cacheFile)) {
+        tempFile.delete();
+      }
     } catch (IOException e) {
-      logger.log(TreeLogger.ERROR, "Unexpected exception", e);
-      throw new UnableToCompleteException();
+      logger.log(TreeLogger.WARN, "Unable to cache " + cacheFile, e);
     }
   }
 }
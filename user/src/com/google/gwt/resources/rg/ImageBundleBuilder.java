@@ -17,6 +17,7 @@ package com.google.gwt.resources.rg;
 
 import com.google.gwt.core.ext.TreeLogger;
 import com.google.gwt.core.ext.UnableToCompleteException;
+import com.google.gwt.dev.util.Util;
 import com.google.gwt.dev.util.log.PrintWriterTreeLogger;
 import com.google.gwt.dev.util.log.speedtracer.CompilerEventType;
 import com.google.gwt.dev.util.log.speedtracer.SpeedTracerLogger;
@@ -26,6 +27,7 @@ import org.w3c.dom.Node;
 import java.awt.Graphics2D;
 import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
@@ -265,12 +267,42 @@ class ImageBundleBuilder {
     }
   }
 
+  /**
+   * The frames of an image file, decoded by {@link ImageBundleBuilder#decode}.
+   * Instances may be decoded on other threads and shared by builders, so they
+   * must not be modified.
+   */
+  static class DecodedImage {
+    private final String contentHash;
+    private final BufferedImage[] images;
+    private final boolean lossy;
+
+    DecodedImage(String contentHash, BufferedImage[] images, boolean lossy) {
+      this.contentHash = contentHash;
+      this.images = images;
+      this.lossy = lossy;
+    }
+
+    public String getContentHash() {
+      return contentHash;
+    }
+
+    public BufferedImage[] getImages() {
+      return images;
+    }
+
+    public boolean isLossy() {
+      return lossy;
+    }
+  }
+
   /**
    * The rectangle at which the original image is placed into the composite
    * image.
    */
   static class ImageRect {
 
+    private String contentHash;
     private boolean hasBeenPositioned, lossy;
     private int height, width;
     private final int intrinsicHeight, intrinsicWidth;
@@ -291,6 +323,7 @@ class ImageBundleBuilder {
       this.top = other.getTop();
       this.intrinsicHeight = other.intrinsicHeight;
       this.intrinsicWidth = other.intrinsicWidth;
+      this.contentHash = other.contentHash;
       setTransform(other.getTransform());
     }
 
@@ -302,6 +335,14 @@ class ImageBundleBuilder {
       this.height = this.width = -1;
     }
 
+    /**
+     * Returns the strong name of the bytes the image was decoded from, or
+     * <code>null</code> if it isn't known.
+     */
+    public String getContentHash() {
+      return contentHash;
+    }
+
     public int getHeight() {
       return height > 0 ? height : intrinsicHeight;
     }
@@ -346,6 +387,10 @@ class ImageBundleBuilder {
       return lossy;
     }
 
+    public void setContentHash(String contentHash) {
+      this.contentHash = contentHash;
+    }
+
     public void setHeight(int height) {
       this.height = height;
       if (width <= 0) {
@@ -526,8 +571,136 @@ class ImageBundleBuilder {
     System.exit(0);
   }
 
+  /**
+   * Reads and decodes an image file. This has no side effects, so several
+   * images may be decoded in parallel.
+   *
+   * @param logger a hierarchical logger which logs to the hosted console
+   * @param imageName the name of the image, used in messages
+   * @param imageUrl the URL from which the image data will be loaded
+   * @throws UnableToCompleteException if the image can't be read or decoded
+   */
+  public static DecodedImage decode(TreeLogger logger, String imageName,
+      URL imageUrl) throws UnableToCompleteException {
+    byte[] bytes = Util.readURLAsBytes(imageUrl);
+    if (bytes == null) {
+      logger.log(TreeLogger.ERROR, "Unable to read image resource", null);
+      throw new UnableToCompleteException();
+    }
+    String contentHash = Util.computeStrongName(bytes);
+
+    BufferedImage image = null;
+    // Be safe by default and assume that the incoming image is lossy
+    boolean lossy = true;
+    // Load the image
+    try {
+      /*
+       * ImageIO uses an SPI pattern API. We don't care about the particulars of
+       * the implementation, so just choose the first ImageReader.
+       */
+      MemoryCacheImageInputStream input = new MemoryCacheImageInputStream(
+          new ByteArrayInputStream(bytes));
+      Iterator<ImageReader> it = ImageIO.getImageReaders(input);
+      readers : while (it.hasNext()) {
+        ImageReader reader = it.next();
+        reader.setInput(input);
+
+        int numImages = reader.getNumImages(true);
+        if (numImages == 0) {
+          // Fall through
+
+        } else if (numImages == 1) {
+          try {
+            image = reader.read(0);
+            IIOMetadata metadata = reader.getImageMetadata(0);
+            if (metadata != null
+                && metadata.isStandardMetadataFormatSupported()) {
+              // http://java.sun.com/j2se/1.5.0/docs/api/javax/imageio/metadata/doc-files/standard_metadata.html
+              Node data = metadata.getAsTree(IIOMetadataFormatImpl.standardMetadataFormatName);
+              metadata : for (int i = 0, j = data.getChildNodes().getLength(); i < j; i++) {
+                Node child = data.getChildNodes().item(i);
+                if (child.getLocalName().equalsIgnoreCase("compression")) {
+                  for (int k = 0, l = child.getChildNodes().getLength(); k < l; k++) {
+                    Node child2 = child.getChildNodes().item(k);
+                    if (child2.getLocalName().equalsIgnoreCase("lossless")) {
+                      Node value = child2.getAttributes().getNamedItem("value");
+                      if (value == null) {
+                        // The default is true, according to the DTD
+                        lossy = false;
+                      } else {
+                        lossy = !Boolean.parseBoolean(value.getNodeValue());
+                      }
+                      break metadata;
+                    }
+                  }
+                }
+              }
+            }
+          } catch (Exception e) {
+            // Hope we have another reader that can handle the image
+            continue readers;
+          }
+
+        } else {
+          // Read all contained images
+          BufferedImage[] images = new BufferedImage[numImages];
+
+          try {
+            for (int i = 0; i < numImages; i++) {
+              images[i] = reader.read(i);
+            }
+          } catch (Exception e) {
+            // Hope we have another reader that can handle the image
+            continue readers;
+          }
+
+          return new DecodedImage(contentHash, images, false);
+        }
+      }
+    } catch (IllegalArgumentException iex) {
+      if (imageName.toLowerCase().endsWith("png")
+          && iex.getMessage() != null
+          && iex.getStackTrace()[0].getClassName().equals(
+              "javax.imageio.ImageTypeSpecifier$Indexed")) {
+        logger.log(TreeLogger.ERROR,
+            "Unable to read image. The image may not be in valid PNG format. "
+                + "This problem may also be due to a bug in versions of the "
+                + "JRE prior to 1.6. See "
+                + "http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=5098176 "
+                + "for more information. If this bug is the cause of the "
+                + "error, try resaving the image using a different image "
+                + "program, or upgrade to a newer JRE.", null);
+        throw new UnableToCompleteException();
+      } else {
+        throw iex;
+      }
+    } catch (IOException e) {
+      logger.log(TreeLogger.ERROR, "Unable to read image resource", e);
+      throw new UnableToCompleteException();
+    }
+
+    if (image == null) {
+      logger.log(TreeLogger.ERROR, "Unrecognized image file format", null);
+      throw new UnableToCompleteException();
+    }
+
+    return new DecodedImage(contentHash, new BufferedImage[] {image}, lossy);
+  }
+
   public static byte[] toPng(TreeLogger logger, ImageRect rect)
       throws UnableToCompleteException {
+    File cacheDir = ImageCache.getCacheDir();
+    String cacheKey = null;
+    if (cacheDir != null) {
+      cacheKey = getCacheKey("png", Collections.singletonList(rect));
+      if (cacheKey != null) {
+        byte[] cached = ImageCache.read(cacheDir, cacheKey, new int[0]);
+        if (cached != null) {
+          return cached;
+        }
+      }
+    }
+
     // Create the bundled image.
     BufferedImage bundledImage = new BufferedImage(rect.getWidth(),
         rect.getHeight(), BufferedImage.TYPE_INT_ARGB_PRE);
@@ -542,6 +715,9 @@ class ImageBundleBuilder {
     g2d.dispose();
 
     byte[] imageBytes = createImageBytes(logger, bundledImage);
+    if (cacheKey != null) {
+      writeCache(logger, cacheDir, cacheKey, new int[0], imageBytes);
+    }
     return imageBytes;
   }
 
@@ -571,6 +747,32 @@ class ImageBundleBuilder {
     return imageBytes;
   }
 
+  /**
+   * Describes everything an image drawn from some rectangles depends on, for
+   * use as an {@link ImageCache} key. The rectangles must be in a stable order.
+   *
+   * @return the key, or <code>null</code> if the content of an image isn't
+   *         known
+   */
+  private static String getCacheKey(String kind, List<ImageRect> rects) {
+    StringBuilder sb = new StringBuilder(kind);
+    double[] matrix = new double[6];
+    for (ImageRect rect : rects) {
+      if (rect.getContentHash() == null) {
+        return null;
+      }
+      rect.getTransform().getMatrix(matrix);
+      sb.append('\n').append(rect.getName()).append(':').append(
+          rect.getContentHash()).append(':').append(rect.getWidth()).append(
+          'x').append(rect.getHeight()).append('@').append(rect.getLeft()).append(
+          ',').append(rect.getTop());
+      for (double d : matrix) {
+        sb.append(':').append(d);
+      }
+    }
+    return sb.toString();
+  }
+
   /**
    * Compute the greatest common denominator of two numbers.
    */
@@ -593,6 +795,16 @@ class ImageBundleBuilder {
     return b / gcd(a, b) * a;
   }
 
+  private static void writeCache(TreeLogger logger, File cacheDir,
+      String cacheKey, int[] positions, byte[] imageBytes) {
+    try {
+      ImageCache.write(cacheDir, cacheKey, positions, imageBytes);
+    } catch (IOException e) {
+      // Non-fatal, the image will just be drawn again
+      logger.log(TreeLogger.WARN, "Unable to cache image in " + cacheDir, e);
+    }
+  }
+
   private final Map<String, ImageRect> imageNameToImageRectMap = new HashMap<String, ImageRect>();
 
   public ImageBundleBuilder() {
@@ -622,6 +834,19 @@ class ImageBundleBuilder {
    */
   public ImageRect assimilate(TreeLogger logger, String imageName, URL resource)
       throws UnableToCompleteException, UnsuitableForStripException {
+    return assimilate(logger, imageName, resource, null);
+  }
+
+  /**
+   * Assimilates an image which may already have been decoded.
+   *
+   * @param decoded the result of {@link #decode} for <code>resource</code>, or
+   *          <code>null</code> to decode it now
+   * @see #assimilate(TreeLogger, String, URL)
+   */
+  public ImageRect assimilate(TreeLogger logger, String imageName,
+      URL resource, DecodedImage decoded) throws UnableToCompleteException,
+      UnsuitableForStripException {
 
     /*
      * Decide whether or not we need to add to the composite image. Either way,
@@ -633,7 +858,7 @@ class ImageBundleBuilder {
 
     if (rect == null) {
       // Assimilate the image into the composite.
-      rect = addImage(logger, imageName, resource);
+      rect = addImage(logger, imageName, resource, decoded);
 
       imageNameToImageRectMap.put(imageName, rect);
     }
@@ -664,117 +889,69 @@ class ImageBundleBuilder {
       return null;
     }
 
+    /*
+     * A cached sprite sheet is keyed by the images in name order, and holds the
+     * positions the arranger gave them in that order.
+     */
+    File cacheDir = ImageCache.getCacheDir();
+    String cacheKey = null;
+    List<ImageRect> rects = null;
+    if (cacheDir != null) {
+      rects = new ArrayList<ImageRect>(imageNameToImageRectMap.values());
+      Collections.sort(rects, new Comparator<ImageRect>() {
+        public int compare(ImageRect a, ImageRect b) {
+          return a.getName().compareTo(b.getName());
+        }
+      });
+      cacheKey = getCacheKey(arranger.getClass().getName(), rects);
+      if (cacheKey != null) {
+        int[] positions = new int[rects.size() * 2];
+        byte[] cached = ImageCache.read(cacheDir, cacheKey, positions);
+        if (cached != null) {
+          for (int i = 0; i < rects.size(); ++i) {
+            rects.get(i).setPosition(positions[2 * i], positions[2 * i + 1]);
+          }
+          return cached;
+        }
+      }
+    }
+
     // Create the bundled image from all of the constituent images.
     BufferedImage bundledImage = drawBundledImage(arranger);
 
     byte[] imageBytes = createImageBytes(logger, bundledImage);
 
+    if (cacheKey != null) {
+      int[] positions = new int[rects.size() * 2];
+      for (int i = 0; i < rects.size(); ++i) {
+        positions[2 * i] = rects.get(i).getLeft();
+        positions[2 * i + 1] = rects.get(i).getTop();
+      }
+      writeCache(logger, cacheDir, cacheKey, positions, imageBytes);
+    }
     return imageBytes;
   }
 
-  private ImageRect addImage(TreeLogger logger, String imageName, URL imageUrl)
-      throws UnableToCompleteException, UnsuitableForStripException {
+  private ImageRect addImage(TreeLogger logger, String imageName,
+      URL imageUrl, DecodedImage decoded) throws UnableToCompleteException,
+      UnsuitableForStripException {
 
     logger = logger.branch(TreeLogger.TRACE,
         "Adding image '" + imageName + "'", null);
 
-    BufferedImage image = null;
-    // Be safe by default and assume that the incoming image is lossy
-    boolean lossy = true;
-    // Load the image
-    try {
-      /*
-       * ImageIO uses an SPI pattern API. We don't care about the particulars of
-       * the implementation, so just choose the first ImageReader.
-       */
-      MemoryCacheImageInputStream input = new MemoryCacheImageInputStream(
-          imageUrl.openStream());
-      Iterator<ImageReader> it = ImageIO.getImageReaders(input);
-      readers : while (it.hasNext()) {
-        ImageReader reader = it.next();
-        reader.setInput(input);
-
-        int numImages = reader.getNumImages(true);
-        if (numImages == 0) {
-          // Fall through
-
-        } else if (numImages == 1) {
-          try {
-            image = reader.read(0);
-            IIOMetadata metadata = reader.getImageMetadata(0);
-            if (metadata != null
-                && metadata.isStandardMetadataFormatSupported()) {
-              // http://java.sun.com/j2se/1.5.0/docs/api/javax/imageio/metadata/doc-files/standard_metadata.html
-              Node data = metadata.getAsTree(IIOMetadataFormatImpl.standardMetadataFormatName);
-              metadata : for (int i = 0, j = data.getChildNodes().getLength(); i < j; i++) {
-                Node child = data.getChildNodes().item(i);
-                if (child.getLocalName().equalsIgnoreCase("compression")) {
-                  for (int k = 0, l = child.getChildNodes().getLength(); k < l; k++) {
-                    Node child2 = child.getChildNodes().item(k);
-                    if (child2.getLocalName().equalsIgnoreCase("lossless")) {
-                      Node value = child2.getAttributes().getNamedItem("value");
-                      if (value == null) {
-                        // The default is true, according to the DTD
-                        lossy = false;
-                      } else {
-                        lossy = !Boolean.parseBoolean(value.getNodeValue());
-                      }
-                      break metadata;
-                    }
-                  }
-                }
-              }
-            }
-          } catch (Exception e) {
-            // Hope we have another reader that can handle the image
-            continue readers;
-          }
-
-        } else {
-          // Read all contained images
-          BufferedImage[] images = new BufferedImage[numImages];
-
-          try {
-            for (int i = 0; i < numImages; i++) {
-              images[i] = reader.read(i);
-            }
-          } catch (Exception e) {
-            // Hope we have another reader that can handle the image
-            continue readers;
-          }
-
-          ImageRect rect = new ImageRect(imageName, images);
-          throw new UnsuitableForStripException(rect);
-        }
-      }
-    } catch (IllegalArgumentException iex) {
-      if (imageName.toLowerCase().endsWith("png")
-          && iex.getMessage() != null
-          && iex.getStackTrace()[0].getClassName().equals(
-              "javax.imageio.ImageTypeSpecifier$Indexed")) {
-        logger.log(TreeLogger.ERROR,
-            "Unable to read image. The image may not be in valid PNG format. "
-                + "This problem may also be due to a bug in versions of the "
-                + "JRE prior to 1.6. See "
-                + "http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=5098176 "
-                + "for more information. If this bug is the cause of the "
-                + "error, try resaving the image using a different image "
-                + "program, or upgrade to a newer JRE.", null);
-        throw new UnableToCompleteException();
-      } else {
-        throw iex;
-      }
-    } catch (IOException e) {
-      logger.log(TreeLogger.ERROR, "Unable to read image resource", e);
-      throw new UnableToCompleteException();
+    if (decoded == null) {
+      decoded = decode(logger, imageName, imageUrl);
     }
 
-    if (image == null) {
-      logger.log(TreeLogger.ERROR, "Unrecognized image file format", null);
-      throw new UnableToCompleteException();
+    if (decoded.getImages().length > 1) {
+      ImageRect rect = new ImageRect(imageName, decoded.getImages());
+      rect.setContentHash(decoded.getContentHash());
+      throw new UnsuitableForStripException(rect);
     }
 
-    ImageRect toReturn = new ImageRect(imageName, image);
+    boolean lossy = decoded.isLossy();
+    ImageRect toReturn = new ImageRect(imageName, decoded.getImages());
+    toReturn.setContentHash(decoded.getContentHash());
     toReturn.setLossy(lossy);
 
     // Don't composite the image if it's lossy or if it is too big
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.resources.rg;
+
+import com.google.gwt.dev.util.Util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A persistent cache of the PNG images written by {@link ImageBundleBuilder},
+ * so that sprite sheets and re-encoded images are not drawn and encoded again
+ * by later permutations and builds. An entry is keyed by a string describing
+ * everything the image depends on, i.e. the content hashes of the input images,
+ * their sizes and transforms, and the arranger. Along with the PNG bytes, an
+ * entry holds the positions the arranger gave to the images.
+ *
+ * <p>
+ * Entries are stored in the directory named by the
+ * <code>gwt.imageResource.cacheDir</code> system property; if it isn't set,
+ * nothing is stored. Entries are touched when they are read, and the first time
+ * a JVM uses the directory, entries that have not been used for
+ * {@value #MAX_UNUSED_DAYS_PROPERTY} days (30 by default) are deleted.
+ * </p>
+ */
+final class ImageCache {
+
+  static final String CACHE_DIR_PROPERTY = "gwt.imageResource.cacheDir";
+
+  static final String MAX_UNUSED_DAYS_PROPERTY =
+      "gwt.imageResource.cacheMaxUnusedDays";
+
+  private static final String CACHE_FILE_SUFFIX = ".png.cache";
+
+  /**
+   * The cache directories whose unused entries have been deleted.
+   */
+  private static final Set<File> cleanedDirs =
+      Collections.synchronizedSet(new HashSet<File>());
+
+  private static final int MAGIC = 0x47574943;
+
+  private static final int MAX_KEY_LENGTH = 1 << 24;
+
+  private static final long MAX_UNUSED_MILLIS = Long.getLong(
+      MAX_UNUSED_DAYS_PROPERTY, 30) * 24 * 60 * 60 * 1000;
+
+  private static final int VERSION = 1;
+
+  /**
+   * Returns the directory in which images are cached, or <code>null</code> if
+   * they aren't.
+   */
+  static File getCacheDir() {
+    String cacheDirName = System.getProperty(CACHE_DIR_PROPERTY);
+    if (cacheDirName == null || cacheDirName.length() == 0) {
+      return null;
+    }
+    File cacheDir = new File(cacheDirName);
+    if (cleanedDirs.add(cacheDir)) {
+      deleteUnusedEntries(cacheDir);
+    }
+    return cacheDir;
+  }
+
+  /**
+   * Reads a cached image.
+   *
+   * @param positions receives the cached positions, which must have been
+   *          written from an array of the same length
+   * @return the PNG bytes, or <code>null</code> if the image isn't cached
+   */
+  static byte[] read(File cacheDir, String key, int[] positions) {
+    File cacheFile = getCacheFile(cacheDir, key);
+    if (!cacheFile.isFile()) {
+      return null;
+    }
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(
+          cacheFile)));
+      if (in.readInt() != MAGIC || in.readInt() != VERSION
+          || !key.equals(readString(in)) || in.readInt() != positions.length) {
+        return null;
+      }
+      for (int i = 0; i < positions.length; ++i) {
+        positions[i] = in.readInt();
+      }
+      int length = in.readInt();
+      if (length < 0 || length > cacheFile.length()) {
+        return null;
+      }
+      byte[] bytes = new byte[length];
+      in.readFully(bytes);
+      cacheFile.setLastModified(System.currentTimeMillis());
+      return bytes;
+    } catch (IOException e) {
+      // A missing or truncated entry.
+      return null;
+    } finally {
+      if (in != null) {
+        try {
+          in.close();
+        } catch (IOException e) {
+          // Ignore this error
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes a cached image. The entry is written to a temporary file and
+   * renamed, so that concurrent readers never see a partial entry.
+   */
+  static void write(File cacheDir, String key, int[] positions, byte[] bytes)
+      throws IOException {
+    if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+      throw new IOException("Unable to create " + cacheDir);
+    }
+    File cacheFile = getCacheFile(cacheDir, key);
+    File tempFile = File.createTempFile(cacheFile.getName(), ".tmp", cacheDir);
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(tempFile)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      writeString(out, key);
+      out.writeInt(positions.length);
+      for (int position : positions) {
+        out.writeInt(position);
+      }
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    } finally {
+      out.close();
+    }
+    cacheFile.delete();
+    if (!tempFile.renameTo(cacheFile)) {
+      tempFile.delete();
+      throw new IOException("Unable to rename " + tempFile + " to " + cacheFile);
+    }
+  }
+
+  /**
+   * Deletes the entries which have not been used recently, along with
+   * temporary files left by builds which did not finish.
+   */
+  private static void deleteUnusedEntries(File cacheDir) {
+    long oldest = System.currentTimeMillis() - MAX_UNUSED_MILLIS;
+    File[] files = cacheDir.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      String name = file.getName();
+      if ((name.endsWith(CACHE_FILE_SUFFIX) || name.endsWith(".tmp"))
+          && file.lastModified() < oldest) {
+        file.delete();
+      }
+    }
+  }
+
+  private static File getCacheFile(File cacheDir, String key) {
+    return new File(cacheDir, Util.computeStrongName(Util.getBytes(key))
+        + CACHE_FILE_SUFFIX);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0 || length > MAX_KEY_LENGTH) {
+      throw new IOException("Corrupt cache entry");
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, Util.DEFAULT_ENCODING);
+  }
+
+  private static void writeString(DataOutputStream out, String s)
+      throws IOException {
+    byte[] bytes = Util.getBytes(s);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private ImageCache() {
+  }
+}
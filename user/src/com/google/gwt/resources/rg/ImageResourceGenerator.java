@@ -20,10 +20,12 @@ import com.google.gwt.core.ext.TreeLogger;
 import com.google.gwt.core.ext.UnableToCompleteException;
 import com.google.gwt.core.ext.typeinfo.JClassType;
 import com.google.gwt.core.ext.typeinfo.JMethod;
+import com.google.gwt.dev.util.Parallel;
 import com.google.gwt.dev.util.StringKey;
 import com.google.gwt.dev.util.Util;
 import com.google.gwt.dev.util.collect.Maps;
 import com.google.gwt.dev.util.collect.Sets;
+import com.google.gwt.resources.client.ImageResource;
 import com.google.gwt.resources.client.ImageResource.ImageOptions;
 import com.google.gwt.resources.client.ImageResource.RepeatStyle;
 import com.google.gwt.resources.client.impl.ImageResourcePrototype;
@@ -34,6 +36,7 @@ import com.google.gwt.resources.ext.ResourceContext;
 import com.google.gwt.resources.ext.ResourceGeneratorUtil;
 import com.google.gwt.resources.ext.SupportsGeneratorResultCaching;
 import com.google.gwt.resources.rg.ImageBundleBuilder.Arranger;
+import com.google.gwt.resources.rg.ImageBundleBuilder.DecodedImage;
 import com.google.gwt.resources.rg.ImageBundleBuilder.ImageRect;
 import com.google.gwt.safehtml.shared.UriUtils;
 import com.google.gwt.user.rebind.SourceWriter;
@@ -42,10 +45,16 @@ import com.google.gwt.user.rebind.StringSourceWriter;
 import java.awt.geom.AffineTransform;
 import java.io.File;
 import java.io.IOException;
+import java.lang.ref.SoftReference;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Builds an image strip for all ImageResources defined within an ClientBundle.
@@ -62,7 +71,9 @@ public final class ImageResourceGenerator extends AbstractResourceGenerator
     private Map<LocalizedImage, ImageRect> images;
     private Set<LocalizedImage> rtlImages = Sets.create();
     private Map<ImageResourceDeclaration, LocalizedImage> localizedByImageResource;
+    private URL normalContents;
     private String normalContentsUrlExpression;
+    private URL rtlContents;
     private String rtlContentsUrlExpression;
 
     public BundledImage() {
@@ -72,8 +83,8 @@ public final class ImageResourceGenerator extends AbstractResourceGenerator
     }
 
     public LocalizedImage addImage(TreeLogger logger, ResourceContext context,
-        ImageResourceDeclaration image) throws UnableToCompleteException,
-        CannotBundleImageException {
+        ImageResourceDeclaration image, DecodedImages decodedImages)
+        throws UnableToCompleteException, CannotBundleImageException {
 
       LocalizedImage localized = LocalizedImage.create(logger, context, image);
       localizedByImageResource = Maps.put(localizedByImageResource, image, localized);
@@ -84,7 +95,8 @@ public final class ImageResourceGenerator extends AbstractResourceGenerator
       dirty = true;
       ImageRect rect = null;
       try {
-        rect = builder.assimilate(logger, image.get(), localized.getUrl());
+        rect = builder.assimilate(logger, image.get(), localized.getUrl(),
+            decodedImages.get(localized.getUrl()));
         if (context.supportsDataUrls()) {
           // Treat the image as though it were external
           builder.removeMapping(image.get());
@@ -120,46 +132,14 @@ public final class ImageResourceGenerator extends AbstractResourceGenerator
         return;
       }
 
-      if (dirty) {
-        Arranger arranger;
-        switch (repeatStyle) {
-          case None:
-            arranger = new ImageBundleBuilder.BestFitArranger();
-            break;
-          case Horizontal:
-            arranger = new ImageBundleBuilder.VerticalArranger();
-            break;
-          case Vertical:
-            arranger = new ImageBundleBuilder.HorizontalArranger();
-            break;
-          case Both:
-            arranger = new ImageBundleBuilder.IdentityArranger();
-            break;
-          default:
-            logger.log(TreeLogger.ERROR, "Unknown RepeatStyle " + repeatStyle);
-            throw new UnableToCompleteException();
-        }
-        URL normalContents = renderToTempPngFile(logger, builder, arranger);
+      prerender(logger, repeatStyle);
+      if (normalContents != null) {
         normalContentsUrlExpression = context.deploy(normalContents, MIME_TYPE_IMAGE_PNG, false);
-
-        if (!rtlImages.isEmpty()) {
-          for (LocalizedImage rtlImage : rtlImages) {
-            // Create a transformation to mirror about the Y-axis and translate
-            AffineTransform tx = new AffineTransform();
-            ImageRect imageRect = images.get(rtlImage);
-            tx.setTransform(-1, 0, 0, 1, imageRect.getWidth(), 0);
-            imageRect.setTransform(tx);
-          }
-          URL rtlContents =
-              renderToTempPngFile(logger, builder, new ImageBundleBuilder.IdentityArranger());
-          assert rtlContents != null;
-          rtlContentsUrlExpression = context.deploy(rtlContents, MIME_TYPE_IMAGE_PNG, false);
-        }
-
-        dirty = false;
-        if (logger.isLoggable(TreeLogger.DEBUG)) {
-          logger.log(TreeLogger.DEBUG, "Composited " + builder.getImageCount() + " images");
-        }
+        normalContents = null;
+      }
+      if (rtlContents != null) {
+        rtlContentsUrlExpression = context.deploy(rtlContents, MIME_TYPE_IMAGE_PNG, false);
+        rtlContents = null;
       }
 
       JClassType stringType =
@@ -181,6 +161,56 @@ public final class ImageResourceGenerator extends AbstractResourceGenerator
     public void setRtlImage(LocalizedImage image) {
       rtlImages = Sets.add(rtlImages, image);
     }
+
+    /**
+     * Arranges and encodes the images if they have changed, without deploying
+     * them. This doesn't depend on the {@link ResourceContext}, so that the
+     * images of several bundles may be encoded in parallel.
+     */
+    void prerender(TreeLogger logger, RepeatStyle repeatStyle)
+        throws UnableToCompleteException {
+      if (!dirty || builder.getImageCount() == 0) {
+        return;
+      }
+
+      Arranger arranger;
+      switch (repeatStyle) {
+        case None:
+          arranger = new ImageBundleBuilder.BestFitArranger();
+          break;
+        case Horizontal:
+          arranger = new ImageBundleBuilder.VerticalArranger();
+          break;
+        case Vertical:
+          arranger = new ImageBundleBuilder.HorizontalArranger();
+          break;
+        case Both:
+          arranger = new ImageBundleBuilder.IdentityArranger();
+          break;
+        default:
+          logger.log(TreeLogger.ERROR, "Unknown RepeatStyle " + repeatStyle);
+          throw new UnableToCompleteException();
+      }
+      normalContents = renderToTempPngFile(logger, builder, arranger);
+
+      if (!rtlImages.isEmpty()) {
+        for (LocalizedImage rtlImage : rtlImages) {
+          // Create a transformation to mirror about the Y-axis and translate
+          AffineTransform tx = new AffineTransform();
+          ImageRect imageRect = images.get(rtlImage);
+          tx.setTransform(-1, 0, 0, 1, imageRect.getWidth(), 0);
+          imageRect.setTransform(tx);
+        }
+        rtlContents =
+            renderToTempPngFile(logger, builder, new ImageBundleBuilder.IdentityArranger());
+        assert rtlContents != null;
+      }
+
+      dirty = false;
+      if (logger.isLoggable(TreeLogger.DEBUG)) {
+        logger.log(TreeLogger.DEBUG, "Composited " + builder.getImageCount() + " images");
+      }
+    }
   }
 
   /**
@@ -246,6 +276,36 @@ public final class ImageResourceGenerator extends AbstractResourceGenerator
     }
   }
 
+  /**
+   * The images decoded by {@link ImageBundleBuilder#decode}, keyed by URL. This
+   * is shared by all ClientBundles and permutations, so that an image is
+   * decoded once however many bundles and locales use it. The images are only
+   * softly referenced, since they are no longer needed once assimilated into a
+   * bundle; an image the garbage collector has reclaimed is decoded again.
+   */
+  static class DecodedImages {
+    private final Map<String, SoftReference<DecodedImage>> decodedByUrl =
+        new HashMap<String, SoftReference<DecodedImage>>();
+
+    /**
+     * Returns the decoded image, or <code>null</code> if it hasn't been
+     * decoded or has been reclaimed.
+     */
+    public DecodedImage get(URL url) {
+      SoftReference<DecodedImage> ref = decodedByUrl.get(url.toExternalForm());
+      return ref == null ? null : ref.get();
+    }
+
+    public boolean isDecoded(URL url) {
+      return get(url) != null;
+    }
+
+    public void put(URL url, DecodedImage decoded) {
+      decodedByUrl.put(url.toExternalForm(),
+          new SoftReference<DecodedImage>(decoded));
+    }
+  }
+
   /**
    * Represents a file that contains image data.
    */
@@ -452,6 +512,57 @@ public final class ImageResourceGenerator extends AbstractResourceGenerator
     }
   }
 
+  private static final String DECODED_IMAGES_KEY = "DecodedImages";
+
+  private static final int THREADS = Parallel.getThreadCount(
+      "gwt.imageResource.threads", Runtime.getRuntime().availableProcessors());
+
+  /**
+   * Decodes images on several threads. Failures are ignored, so that they are
+   * reported when the images are added to a bundle.
+   */
+  private static void decodeImages(TreeLogger logger, DecodedImages decodedImages,
+      List<URL> urls) {
+    if (urls.isEmpty()) {
+      return;
+    }
+    List<List<DecodedImage>> decodedChunks;
+    try {
+      decodedChunks = Parallel.mapChunks(THREADS, urls,
+          new Parallel.ChunkTask<URL, List<DecodedImage>>() {
+            public List<DecodedImage> run(List<URL> chunk) {
+              List<DecodedImage> decoded = new ArrayList<DecodedImage>();
+              for (URL url : chunk) {
+                try {
+                  decoded.add(ImageBundleBuilder.decode(TreeLogger.NULL,
+                      url.getPath(), url));
+                } catch (UnableToCompleteException e) {
+                  decoded.add(null);
+                } catch (RuntimeException e) {
+                  decoded.add(null);
+                }
+              }
+              return decoded;
+            }
+          });
+    } catch (ExecutionException e) {
+      logger.log(TreeLogger.DEBUG, "Unable to decode images in parallel",
+          e.getCause());
+      return;
+    }
+    int i = 0;
+    for (List<DecodedImage> chunk : decodedChunks) {
+      for (DecodedImage decoded : chunk) {
+        URL url = urls.get(i++);
+        if (decoded != null) {
+          decodedImages.put(url, decoded);
+        }
+      }
+    }
+  }
+
+  private DecodedImages decodedImages;
+
   /**
    * This is used to short-circuit the {@link #prepare} method.
    */
@@ -502,6 +613,7 @@ public final class ImageResourceGenerator extends AbstractResourceGenerator
   @Override
   public void createFields(TreeLogger logger, ResourceContext context, ClientBundleFields fields)
       throws UnableToCompleteException {
+    prerenderBundledImages(logger, shared.bundledImages);
     renderImageMap(logger, context, fields, shared.bundledImages);
     renderImageMap(logger, context, fields, shared.externalImages);
   }
@@ -517,6 +629,15 @@ public final class ImageResourceGenerator extends AbstractResourceGenerator
       shared = new CachedState();
       context.putCachedData(key, shared);
     }
+
+    decodedImages = context.getCachedData(DECODED_IMAGES_KEY, DecodedImages.class);
+    if (decodedImages == null) {
+      decodedImages = new DecodedImages();
+      context.putCachedData(DECODED_IMAGES_KEY, decodedImages);
+    }
+    if (!prepared) {
+      decodeImages(logger, decodedImages, findImageUrls(context));
+    }
   }
 
   /**
@@ -540,7 +661,7 @@ public final class ImageResourceGenerator extends AbstractResourceGenerator
     ImageRect rect;
     try {
       BundledImage bundledImage = (BundledImage) getImage(image);
-      localizedImage = bundledImage.addImage(logger, context, image);
+      localizedImage = bundledImage.addImage(logger, context, image, decodedImages);
       rect = bundledImage.getImageRect(image);
       displayed = bundledImage;
       if (image.isPreventInlining()) {
@@ -617,6 +738,35 @@ public final class ImageResourceGenerator extends AbstractResourceGenerator
     return sb.toString();
   }
 
+  /**
+   * Finds the images of the ImageResource methods of the ClientBundle which
+   * haven't been decoded yet. Methods whose images can't be found are skipped,
+   * so that the error is reported by {@link #prepare}.
+   */
+  private List<URL> findImageUrls(ResourceContext context) {
+    JClassType imageResourceType =
+        context.getGeneratorContext().getTypeOracle().findType(
+            ImageResource.class.getCanonicalName());
+    List<URL> urls = new ArrayList<URL>();
+    Set<String> seen = new HashSet<String>();
+    for (JMethod method : context.getClientBundleType().getOverridableMethods()) {
+      if (!method.isAbstract() || method.getReturnType() != imageResourceType) {
+        continue;
+      }
+      URL[] resources;
+      try {
+        resources = ResourceGeneratorUtil.findResources(TreeLogger.NULL, context, method);
+      } catch (UnableToCompleteException e) {
+        continue;
+      }
+      if (resources.length == 1 && !decodedImages.isDecoded(resources[0])
+          && seen.add(resources[0].toExternalForm())) {
+        urls.add(resources[0]);
+      }
+    }
+    return urls;
+  }
+
   private DisplayedImage getImage(ImageResourceDeclaration image) {
     DisplayedImage toReturn = shared.externalImages.get(new BundleKey(image, true));
     if (toReturn != null) {
@@ -656,6 +806,39 @@ public final class ImageResourceGenerator extends AbstractResourceGenerator
     }
   }
 
+  /**
+   * Arranges and encodes the changed bundled images on several threads. Each
+   * bundle has its own {@link ImageBundleBuilder}, so they are independent.
+   */
+  private void prerenderBundledImages(TreeLogger logger,
+      Map<BundleKey, BundledImage> map) throws UnableToCompleteException {
+    List<Map.Entry<BundleKey, BundledImage>> entries =
+        new ArrayList<Map.Entry<BundleKey, BundledImage>>(map.entrySet());
+    final TreeLogger prerenderLogger = logger;
+    try {
+      Parallel.mapChunks(THREADS, entries,
+          new Parallel.ChunkTask<Map.Entry<BundleKey, BundledImage>, Void>() {
+            public Void run(List<Map.Entry<BundleKey, BundledImage>> chunk)
+                throws UnableToCompleteException {
+              for (Map.Entry<BundleKey, BundledImage> entry : chunk) {
+                entry.getValue().prerender(prerenderLogger,
+                    entry.getKey().getRepeatStyle());
+              }
+              return null;
+            }
+          });
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof UnableToCompleteException) {
+        throw (UnableToCompleteException) e.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      logger.log(TreeLogger.ERROR, "Unexpected exception", e.getCause());
+      throw new UnableToCompleteException();
+    }
+  }
+
   private void renderImageMap(TreeLogger logger, ResourceContext context,
       ClientBundleFields fields, Map<BundleKey, ? extends DisplayedImage> map)
       throws UnableToCompleteException {
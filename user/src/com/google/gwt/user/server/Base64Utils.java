@@ -110,10 +110,21 @@ public class Base64Utils {
    * Decode a base64 string into a long value.
    */
   public static long longFromBase64(String value) {
-    int pos = 0;
+    return longFromBase64(value, 0, value.length());
+  }
+
+  /**
+   * Decode the base64 characters of <code>value</code> between
+   * <code>beginIndex</code> (inclusive) and <code>endIndex</code> (exclusive)
+   * into a long value, without creating a substring.
+   */
+  public static long longFromBase64(String value, int beginIndex, int endIndex) {
+    if (beginIndex >= endIndex) {
+      throw new StringIndexOutOfBoundsException(beginIndex);
+    }
+    int pos = beginIndex;
     long longVal = base64Values[value.charAt(pos++)];
-    int len = value.length();
-    while (pos < len) {
+    while (pos < endIndex) {
       longVal <<= 6;
       longVal |= base64Values[value.charAt(pos++)];
     }
@@ -23,11 +23,10 @@ import com.google.gwt.user.client.rpc.SerializationException;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 
+import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 
 /**
@@ -49,7 +48,7 @@ public class HybridServiceServlet extends RpcServlet implements
    * A cache of moduleBaseURL and serialization policy strong name to
    * {@link SerializationPolicy}.
    */
-  private final Map<String, SerializationPolicy> serializationPolicyCache = new HashMap<String, SerializationPolicy>();
+  private final SerializationPolicyCache serializationPolicyCache = new SerializationPolicyCache();
 
   /**
    * This method will return <code>null</code> instead of throwing an exception.
@@ -68,6 +67,14 @@ public class HybridServiceServlet extends RpcServlet implements
     }
   }
 
+  /**
+   * Returns the cache of serialization policies used by this servlet, for
+   * monitoring.
+   */
+  public final SerializationPolicyCache getSerializationPolicyCache() {
+    return serializationPolicyCache;
+  }
+
   public final SerializationPolicy getSerializationPolicy(String moduleBaseURL,
       String strongName) {
 
@@ -98,6 +105,17 @@ public class HybridServiceServlet extends RpcServlet implements
     return serializationPolicy;
   }
 
+  /**
+   * Configures the serialization policy cache from the init parameters
+   * described in {@link SerializationPolicyCache}. Subclasses that override
+   * this method should call it.
+   */
+  @Override
+  public void init() throws ServletException {
+    super.init();
+    serializationPolicyCache.configure(this);
+  }
+
   @Override
   public void processCall(ClientOracle clientOracle, String payload,
       OutputStream stream) throws SerializationException {
@@ -157,7 +175,7 @@ public class HybridServiceServlet extends RpcServlet implements
   protected SerializationPolicy doGetSerializationPolicy(
       HttpServletRequest request, String moduleBaseURL, String strongName) {
     return RemoteServiceServlet.loadSerializationPolicy(this, request,
-        moduleBaseURL, strongName);
+        moduleBaseURL, strongName, serializationPolicyCache);
   }
 
   /**
@@ -168,16 +186,11 @@ public class HybridServiceServlet extends RpcServlet implements
 
   private SerializationPolicy getCachedSerializationPolicy(
       String moduleBaseURL, String strongName) {
-    synchronized (serializationPolicyCache) {
-      return serializationPolicyCache.get(moduleBaseURL + strongName);
-    }
+    return serializationPolicyCache.get(moduleBaseURL, strongName);
   }
 
   private void putCachedSerializationPolicy(String moduleBaseURL,
       String strongName, SerializationPolicy serializationPolicy) {
-    synchronized (serializationPolicyCache) {
-      serializationPolicyCache.put(moduleBaseURL + strongName,
-          serializationPolicy);
-    }
+    serializationPolicyCache.put(moduleBaseURL, strongName, serializationPolicy);
   }
 }
@@ -27,6 +27,8 @@ import com.google.gwt.user.server.rpc.impl.ServerSerializationStreamReader;
 import com.google.gwt.user.server.rpc.impl.ServerSerializationStreamWriter;
 import com.google.gwt.user.server.rpc.impl.TypeNameObfuscator;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Type;
@@ -56,6 +58,29 @@ import java.util.Set;
  */
 public final class RPC {
 
+  /**
+   * A serialized response that has not been encoded as a string yet.
+   */
+  private static class SerializedResponse {
+    private final ServerSerializationStreamWriter stream;
+    private final boolean wasThrown;
+
+    public SerializedResponse(ServerSerializationStreamWriter stream, boolean wasThrown) {
+      this.stream = stream;
+      this.wasThrown = wasThrown;
+    }
+
+    @Override
+    public String toString() {
+      return (wasThrown ? "//EX" : "//OK") + stream.toString();
+    }
+
+    public void writeTo(Writer out) throws IOException {
+      out.write(wasThrown ? "//EX" : "//OK");
+      stream.writeTo(out);
+    }
+  }
+
   /**
    * Maps primitive wrapper classes to their corresponding primitive class.
    */
@@ -377,20 +402,8 @@ public final class RPC {
 
   public static String encodeResponseForFailure(Method serviceMethod, Throwable cause,
       SerializationPolicy serializationPolicy, int flags) throws SerializationException {
-    if (cause == null) {
-      throw new NullPointerException("cause cannot be null");
-    }
-
-    if (serializationPolicy == null) {
-      throw new NullPointerException("serializationPolicy");
-    }
-
-    if (serviceMethod != null && !RPCServletUtils.isExpectedException(serviceMethod, cause)) {
-      throw new UnexpectedException("Service method '" + getSourceRepresentation(serviceMethod)
-          + "' threw an unexpected exception: " + cause.toString(), cause);
-    }
-
-    return encodeResponse(cause.getClass(), cause, true, flags, serializationPolicy);
+    return serializeResponseForFailure(serviceMethod, cause, serializationPolicy, flags)
+        .toString();
   }
 
   /**
@@ -444,31 +457,8 @@ public final class RPC {
 
   public static String encodeResponseForSuccess(Method serviceMethod, Object object,
       SerializationPolicy serializationPolicy, int flags) throws SerializationException {
-    if (serviceMethod == null) {
-      throw new NullPointerException("serviceMethod cannot be null");
-    }
-
-    if (serializationPolicy == null) {
-      throw new NullPointerException("serializationPolicy");
-    }
-
-    Class<?> methodReturnType = serviceMethod.getReturnType();
-    if (methodReturnType != void.class && object != null) {
-      Class<?> actualReturnType;
-      if (methodReturnType.isPrimitive()) {
-        actualReturnType = getPrimitiveClassFromWrapper(object.getClass());
-      } else {
-        actualReturnType = object.getClass();
-      }
-
-      if (actualReturnType == null || !methodReturnType.isAssignableFrom(actualReturnType)) {
-        throw new IllegalArgumentException("Type '" + printTypeName(object.getClass())
-            + "' does not match the return type in the method's signature: '"
-            + getSourceRepresentation(serviceMethod) + "'");
-      }
-    }
-
-    return encodeResponse(methodReturnType, object, false, flags, serializationPolicy);
+    return serializeResponseForSuccess(serviceMethod, object, serializationPolicy, flags)
+        .toString();
   }
 
   /**
@@ -548,65 +538,37 @@ public final class RPC {
 
   public static String invokeAndEncodeResponse(Object target, Method serviceMethod, Object[] args,
       SerializationPolicy serializationPolicy, int flags) throws SerializationException {
-    if (serviceMethod == null) {
-      throw new NullPointerException("serviceMethod");
-    }
-
-    if (serializationPolicy == null) {
-      throw new NullPointerException("serializationPolicy");
-    }
-
-    String responsePayload;
-    try {
-      Object result = serviceMethod.invoke(target, args);
-
-      responsePayload = encodeResponseForSuccess(serviceMethod, result, serializationPolicy, flags);
-    } catch (IllegalAccessException e) {
-      SecurityException securityException =
-          new SecurityException(formatIllegalAccessErrorMessage(target, serviceMethod));
-      securityException.initCause(e);
-      throw securityException;
-    } catch (IllegalArgumentException e) {
-      SecurityException securityException =
-          new SecurityException(formatIllegalArgumentErrorMessage(target, serviceMethod, args));
-      securityException.initCause(e);
-      throw securityException;
-    } catch (InvocationTargetException e) {
-      // Try to encode the caught exception
-      //
-      Throwable cause = e.getCause();
-
-      responsePayload = encodeResponseForFailure(serviceMethod, cause, serializationPolicy, flags);
-    }
-
-    return responsePayload;
+    return invokeAndSerializeResponse(target, serviceMethod, args, serializationPolicy, flags)
+        .toString();
   }
 
   /**
-   * Returns a string that encodes the results of an RPC call. Private overload
-   * that takes a flag signaling the preamble of the response payload.
-   * 
-   * @param object the object that we wish to send back to the client
-   * @param wasThrown if true, the object being returned was an exception thrown
-   *          by the service method; if false, it was the result of the service
-   *          method's invocation
-   * @return a string that encodes the response from a service method
-   * @throws SerializationException if the object cannot be serialized
+   * Writes the result of calling a service method to <code>out</code>, in the
+   * same form as {@link #invokeAndEncodeResponse(Object, Method, Object[],
+   * SerializationPolicy, int)} returns it. The response is serialized
+   * completely before anything is written, so nothing is written if it cannot
+   * be serialized, but it is never held in memory as a single string.
+   *
+   * @param target instance on which to invoke the serviceMethod
+   * @param serviceMethod the method to invoke
+   * @param args arguments used for the method invocation
+   * @param serializationPolicy determines the serialization policy to be used
+   * @param flags the flags of the request
+   * @param out the writer the encoded response is written to
+   *
+   * @throws IOException if writing to <code>out</code> fails
+   * @throws SecurityException if the method cannot be accessed or if the number
+   *           or type of actual and formal arguments differ
+   * @throws SerializationException if an object could not be serialized by the
+   *           stream
+   * @throws UnexpectedException if the serviceMethod throws a checked exception
+   *           that is not declared in its signature
    */
-  private static String encodeResponse(Class<?> responseClass, Object object, boolean wasThrown,
-      int flags, SerializationPolicy serializationPolicy) throws SerializationException {
-
-    ServerSerializationStreamWriter stream =
-        new ServerSerializationStreamWriter(serializationPolicy);
-    stream.setFlags(flags);
-
-    stream.prepareToWrite();
-    if (responseClass != void.class) {
-      stream.serializeValue(object, responseClass);
-    }
-
-    String bufferStr = (wasThrown ? "//EX" : "//OK") + stream.toString();
-    return bufferStr;
+  public static void invokeAndStreamResponse(Object target, Method serviceMethod, Object[] args,
+      SerializationPolicy serializationPolicy, int flags, Writer out)
+      throws SerializationException, IOException {
+    invokeAndSerializeResponse(target, serviceMethod, args, serializationPolicy, flags)
+        .writeTo(out);
   }
 
   private static String formatIllegalAccessErrorMessage(Object target, Method serviceMethod) {
@@ -774,6 +736,45 @@ public final class RPC {
     return false;
   }
 
+  private static SerializedResponse invokeAndSerializeResponse(Object target,
+      Method serviceMethod, Object[] args, SerializationPolicy serializationPolicy, int flags)
+      throws SerializationException {
+    if (serviceMethod == null) {
+      throw new NullPointerException("serviceMethod");
+    }
+
+    if (serializationPolicy == null) {
+      throw new NullPointerException("serializationPolicy");
+    }
+
+    SerializedResponse responsePayload;
+    try {
+      Object result = serviceMethod.invoke(target, args);
+
+      responsePayload =
+          serializeResponseForSuccess(serviceMethod, result, serializationPolicy, flags);
+    } catch (IllegalAccessException e) {
+      SecurityException securityException =
+          new SecurityException(formatIllegalAccessErrorMessage(target, serviceMethod));
+      securityException.initCause(e);
+      throw securityException;
+    } catch (IllegalArgumentException e) {
+      SecurityException securityException =
+          new SecurityException(formatIllegalArgumentErrorMessage(target, serviceMethod, args));
+      securityException.initCause(e);
+      throw securityException;
+    } catch (InvocationTargetException e) {
+      // Try to encode the caught exception
+      //
+      Throwable cause = e.getCause();
+
+      responsePayload =
+          serializeResponseForFailure(serviceMethod, cause, serializationPolicy, flags);
+    }
+
+    return responsePayload;
+  }
+
   /**
    * Given a type identifier in the stream, attempt to deobfuscate it. Retuns
    * the original identifier if deobfuscation is unnecessary or no mapping is
@@ -839,6 +840,81 @@ public final class RPC {
     return type.getName().replace('$', '.');
   }
 
+  /**
+   * Serializes the results of an RPC call.
+   * 
+   * @param object the object that we wish to send back to the client
+   * @param wasThrown if true, the object being returned was an exception thrown
+   *          by the service method; if false, it was the result of the service
+   *          method's invocation
+   * @return the serialized response from a service method
+   * @throws SerializationException if the object cannot be serialized
+   */
+  private static SerializedResponse serializeResponse(Class<?> responseClass, Object object,
+      boolean wasThrown, int flags, SerializationPolicy serializationPolicy)
+      throws SerializationException {
+
+    ServerSerializationStreamWriter stream =
+        new ServerSerializationStreamWriter(serializationPolicy);
+    stream.setFlags(flags);
+
+    stream.prepareToWrite();
+    if (responseClass != void.class) {
+      stream.serializeValue(object, responseClass);
+    }
+
+    return new SerializedResponse(stream, wasThrown);
+  }
+
+  private static SerializedResponse serializeResponseForFailure(Method serviceMethod,
+      Throwable cause, SerializationPolicy serializationPolicy, int flags)
+      throws SerializationException {
+    if (cause == null) {
+      throw new NullPointerException("cause cannot be null");
+    }
+
+    if (serializationPolicy == null) {
+      throw new NullPointerException("serializationPolicy");
+    }
+
+    if (serviceMethod != null && !RPCServletUtils.isExpectedException(serviceMethod, cause)) {
+      throw new UnexpectedException("Service method '" + getSourceRepresentation(serviceMethod)
+          + "' threw an unexpected exception: " + cause.toString(), cause);
+    }
+
+    return serializeResponse(cause.getClass(), cause, true, flags, serializationPolicy);
+  }
+
+  private static SerializedResponse serializeResponseForSuccess(Method serviceMethod,
+      Object object, SerializationPolicy serializationPolicy, int flags)
+      throws SerializationException {
+    if (serviceMethod == null) {
+      throw new NullPointerException("serviceMethod cannot be null");
+    }
+
+    if (serializationPolicy == null) {
+      throw new NullPointerException("serializationPolicy");
+    }
+
+    Class<?> methodReturnType = serviceMethod.getReturnType();
+    if (methodReturnType != void.class && object != null) {
+      Class<?> actualReturnType;
+      if (methodReturnType.isPrimitive()) {
+        actualReturnType = getPrimitiveClassFromWrapper(object.getClass());
+      } else {
+        actualReturnType = object.getClass();
+      }
+
+      if (actualReturnType == null || !methodReturnType.isAssignableFrom(actualReturnType)) {
+        throw new IllegalArgumentException("Type '" + printTypeName(object.getClass())
+            + "' does not match the return type in the method's signature: '"
+            + getSourceRepresentation(serviceMethod) + "'");
+      }
+    }
+
+    return serializeResponse(methodReturnType, object, false, flags, serializationPolicy);
+  }
+
   /**
    * Static classes have no constructability.
    */
@@ -18,6 +18,9 @@ package com.google.gwt.user.server.rpc;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.reflect.Method;
 import java.nio.charset.Charset;
 import java.util.concurrent.ConcurrentHashMap;
@@ -33,7 +36,63 @@ import javax.servlet.http.HttpServletResponse;
  * the RPC system.
  */
 public class RPCServletUtils {
-  
+
+  /**
+   * Writes a response to a {@link HttpServletResponse}. The headers are set and
+   * the response's output stream is opened on the first write, so that a
+   * failure before then can still be reported with an error status.
+   */
+  private static class ResponseWriter extends Writer {
+    private final boolean gzipResponse;
+    private Writer out;
+    private final HttpServletResponse response;
+
+    public ResponseWriter(HttpServletResponse response, boolean gzipResponse) {
+      this.response = response;
+      this.gzipResponse = gzipResponse;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (out != null) {
+        // Finishes the gzip stream, if there is one.
+        out.close();
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (out != null) {
+        out.flush();
+      }
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+      open().write(cbuf, off, len);
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+      open().write(str, off, len);
+    }
+
+    private Writer open() throws IOException {
+      if (out == null) {
+        response.setContentType(CONTENT_TYPE_APPLICATION_JSON_UTF8);
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setHeader(CONTENT_DISPOSITION, ATTACHMENT);
+        OutputStream stream = response.getOutputStream();
+        if (gzipResponse) {
+          setGzipEncodingHeader(response);
+          stream = new GZIPOutputStream(stream, BUFFER_SIZE);
+        }
+        out = new OutputStreamWriter(stream, CHARSET_UTF8);
+      }
+      return out;
+    }
+  }
+
   public static final String CHARSET_UTF8_NAME = "UTF-8";
   
   /**
@@ -48,6 +107,12 @@ public class RPCServletUtils {
    */
   static final int BUFFER_SIZE = 4096;
 
+  /**
+   * The largest buffer allocated up front for a request's content, whatever
+   * its Content-Length header says.
+   */
+  static final int MAX_INITIAL_CONTENT_BUFFER_SIZE = 64 * 1024;
+
   private static final String ACCEPT_ENCODING = "Accept-Encoding";
 
   private static final String ATTACHMENT = "attachment";
@@ -104,6 +169,23 @@ public class RPCServletUtils {
     return (acceptEncoding.indexOf(CONTENT_ENCODING_GZIP) != -1);
   }
 
+  /**
+   * Returns a {@link Writer} that writes response content into the
+   * {@link HttpServletResponse} as it is produced, rather than from a single
+   * string like {@link #writeResponse}. The content length is not known in
+   * advance, so it is not set. The response headers are set on the first write;
+   * if nothing is written, the response is left untouched. The writer must be
+   * closed once the content is complete.
+   *
+   * @param response response instance
+   * @param gzipResponse if <code>true</code> the response content will be gzip
+   *          encoded as it is written
+   */
+  public static Writer createResponseWriter(HttpServletResponse response,
+      boolean gzipResponse) {
+    return new ResponseWriter(response, gzipResponse);
+  }
+
   /**
    * Returns <code>true</code> if the response content's estimated UTF-8 byte
    * length exceeds 256 bytes.
@@ -212,11 +294,15 @@ public class RPCServletUtils {
 
     /*
      * Need to support 'Transfer-Encoding: chunked', so do not rely on
-     * presence of a 'Content-Length' request header.
+     * presence of a 'Content-Length' request header. When it is present, use it
+     * to size the buffer, up to a limit so that a client cannot force a large
+     * allocation by claiming a large request; the buffer grows past that.
      */
     InputStream in = request.getInputStream();
     byte[] buffer = new byte[BUFFER_SIZE];
-    ByteArrayOutputStream out = new  ByteArrayOutputStream(BUFFER_SIZE);
+    int contentLength = request.getContentLength();
+    ByteArrayOutputStream out = new ByteArrayOutputStream(contentLength > 0
+        ? Math.min(contentLength, MAX_INITIAL_CONTENT_BUFFER_SIZE) : BUFFER_SIZE);
     try {
       while (true) {
         int byteCount = in.read(buffer);
@@ -225,7 +311,8 @@ public class RPCServletUtils {
         }
         out.write(buffer, 0, byteCount);
       }
-      return new String(out.toByteArray(), getCharset(expectedCharSet));
+      // Decodes straight from the buffer, without copying it first.
+      return out.toString(getCharset(expectedCharSet).name());
     } finally {
       if (in != null) {
         in.close();
@@ -21,11 +21,10 @@ import com.google.gwt.user.client.rpc.SerializationException;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Writer;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.text.ParseException;
-import java.util.HashMap;
-import java.util.Map;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -44,7 +43,8 @@ public class RemoteServiceServlet extends AbstractRemoteServiceServlet
    * Used by HybridServiceServlet.
    */
   static SerializationPolicy loadSerializationPolicy(HttpServlet servlet,
-      HttpServletRequest request, String moduleBaseURL, String strongName) {
+      HttpServletRequest request, String moduleBaseURL, String strongName,
+      SerializationPolicyCache cache) {
     // The request can tell you the path of the web app relative to the
     // container root.
     String contextPath = request.getContextPath();
@@ -81,6 +81,12 @@ public class RemoteServiceServlet extends AbstractRemoteServiceServlet
       String serializationPolicyFilePath = SerializationPolicyLoader.getSerializationPolicyFileName(contextRelativePath
           + strongName);
 
+      // Use the policy if it was preloaded.
+      serializationPolicy = cache.takePreloaded(serializationPolicyFilePath);
+      if (serializationPolicy != null) {
+        return serializationPolicy;
+      }
+
       // Open the RPC resource file and read its contents.
       InputStream is = servlet.getServletContext().getResourceAsStream(
           serializationPolicyFilePath);
@@ -120,7 +126,7 @@ public class RemoteServiceServlet extends AbstractRemoteServiceServlet
    * A cache of moduleBaseURL and serialization policy strong name to
    * {@link SerializationPolicy}.
    */
-  private final Map<String, SerializationPolicy> serializationPolicyCache = new HashMap<String, SerializationPolicy>();
+  private final SerializationPolicyCache serializationPolicyCache = new SerializationPolicyCache();
 
   /**
    * The implementation of the service.
@@ -145,6 +151,14 @@ public class RemoteServiceServlet extends AbstractRemoteServiceServlet
     this.delegate = delegate;
   }
 
+  /**
+   * Returns the cache of serialization policies used by this servlet, for
+   * monitoring.
+   */
+  public final SerializationPolicyCache getSerializationPolicyCache() {
+    return serializationPolicyCache;
+  }
+
   public final SerializationPolicy getSerializationPolicy(String moduleBaseURL,
       String strongName) {
 
@@ -175,6 +189,17 @@ public class RemoteServiceServlet extends AbstractRemoteServiceServlet
     return serializationPolicy;
   }
 
+  /**
+   * Configures the serialization policy cache from the init parameters
+   * described in {@link SerializationPolicyCache}. Subclasses that override
+   * this method should call it.
+   */
+  @Override
+  public void init() throws ServletException {
+    super.init();
+    serializationPolicyCache.configure(this);
+  }
+
   /**
    * Process a call originating from the given request. Uses the
    * {@link RPC#invokeAndEncodeResponse(Object, java.lang.reflect.Method, Object[])}
@@ -242,6 +267,11 @@ public class RemoteServiceServlet extends AbstractRemoteServiceServlet
     //
     onBeforeRequestDeserialized(requestPayload);
 
+    if (shouldStreamResponse(request)) {
+      processCallAndStreamResponse(request, response, requestPayload);
+      return;
+    }
+
     // Invoke the core dispatching logic, which returns the serialized
     // result.
     //
@@ -290,7 +320,8 @@ public class RemoteServiceServlet extends AbstractRemoteServiceServlet
    */
   protected SerializationPolicy doGetSerializationPolicy(
       HttpServletRequest request, String moduleBaseURL, String strongName) {
-    return loadSerializationPolicy(this, request, moduleBaseURL, strongName);
+    return loadSerializationPolicy(this, request, moduleBaseURL, strongName,
+        serializationPolicyCache);
   }
 
   /**
@@ -334,19 +365,65 @@ public class RemoteServiceServlet extends AbstractRemoteServiceServlet
     return RPCServletUtils.exceedsUncompressedContentLengthLimit(responsePayload);
   }
 
+  /**
+   * Determines whether the response to a given servlet request should be
+   * written directly into the servlet's output stream instead of being built as
+   * a string first. Streaming uses much less memory for large responses, and
+   * the first bytes reach the client sooner. The returned content is
+   * identical, but it is gzip compressed whenever the requester accepts it.
+   * <p>
+   * A streamed call does not go through {@link #processCall(String)},
+   * {@link #onAfterResponseSerialized(String)} or
+   * {@link #shouldCompressResponse}, since the response is never available as
+   * a string. This implementation returns <code>false</code>; subclasses that
+   * do not depend on those methods can override it to enable streaming.
+   * </p>
+   * 
+   * @param request the request being served
+   * @return <code>true</code> if the response should be streamed
+   */
+  protected boolean shouldStreamResponse(HttpServletRequest request) {
+    return false;
+  }
+
   private SerializationPolicy getCachedSerializationPolicy(
       String moduleBaseURL, String strongName) {
-    synchronized (serializationPolicyCache) {
-      return serializationPolicyCache.get(moduleBaseURL + strongName);
+    return serializationPolicyCache.get(moduleBaseURL, strongName);
+  }
+
+  /**
+   * Like {@link #processCall(String)}, but writes the response into the servlet
+   * response as it is encoded.
+   */
+  private void processCallAndStreamResponse(HttpServletRequest request,
+      HttpServletResponse response, String payload) throws IOException, SerializationException {
+    // First, check for possible XSRF situation
+    checkPermutationStrongName();
+
+    Writer out = RPCServletUtils.createResponseWriter(response,
+        RPCServletUtils.acceptsGzipEncoding(request));
+    try {
+      RPCRequest rpcRequest = RPC.decodeRequest(payload, delegate.getClass(), this);
+      onAfterRequestDeserialized(rpcRequest);
+      RPC.invokeAndStreamResponse(delegate, rpcRequest.getMethod(),
+          rpcRequest.getParameters(), rpcRequest.getSerializationPolicy(),
+          rpcRequest.getFlags(), out);
+    } catch (IncompatibleRemoteServiceException ex) {
+      log(
+          "An IncompatibleRemoteServiceException was thrown while processing this call.",
+          ex);
+      out.write(RPC.encodeResponseForFailure(null, ex));
+    } catch (RpcTokenException tokenException) {
+      log("An RpcTokenException was thrown while processing this call.",
+          tokenException);
+      out.write(RPC.encodeResponseForFailure(null, tokenException));
     }
+    out.close();
   }
 
   private void putCachedSerializationPolicy(String moduleBaseURL,
       String strongName, SerializationPolicy serializationPolicy) {
-    synchronized (serializationPolicyCache) {
-      serializationPolicyCache.put(moduleBaseURL + strongName,
-          serializationPolicy);
-    }
+    serializationPolicyCache.put(moduleBaseURL, strongName, serializationPolicy);
   }
 
   private void writeResponse(HttpServletRequest request,
@@ -0,0 +1,306 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.user.server.rpc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServlet;
+
+/**
+ * The cache of {@link SerializationPolicy} instances, keyed by module base URL
+ * and strong name, used by {@link RemoteServiceServlet} and
+ * {@link HybridServiceServlet}.
+ *
+ * <p>
+ * Lookups do not lock. The cache holds at most {@link #getMaxSize()} policies;
+ * adding one more evicts the policy that was least recently used, so policies
+ * for strong names that are no longer deployed do not accumulate over a long
+ * uptime. An evicted policy is simply loaded again if it is needed.
+ * </p>
+ *
+ * <p>
+ * The cache is configured with the following servlet init parameters, or
+ * context parameters in {@code web.xml}:
+ * <ul>
+ * <li>{@value #MAX_SIZE_PARAM}: the maximum number of cached policies,
+ * {@value #DEFAULT_MAX_SIZE} by default.</li>
+ * <li>{@value #PRELOAD_PARAM}: if <code>true</code>, every policy file in the
+ * web application, outside of <code>WEB-INF</code>, is parsed when the servlet
+ * is initialized, so the first call from each permutation does not have to.</li>
+ * </ul>
+ * </p>
+ */
+public final class SerializationPolicyCache {
+
+  /**
+   * The default maximum number of cached policies.
+   */
+  public static final int DEFAULT_MAX_SIZE = 256;
+
+  /**
+   * The init parameter that sets the maximum number of cached policies.
+   */
+  public static final String MAX_SIZE_PARAM = "gwt.rpc.serializationPolicyCacheSize";
+
+  /**
+   * The init parameter that enables preloading policy files.
+   */
+  public static final String PRELOAD_PARAM = "gwt.rpc.preloadSerializationPolicies";
+
+  /**
+   * The source of the times at which policies are used.
+   */
+  interface Clock {
+    long currentTimeMillis();
+  }
+
+  private static class Entry {
+    final SerializationPolicy policy;
+
+    volatile long lastUsed;
+
+    Entry(SerializationPolicy policy, long now) {
+      this.policy = policy;
+      this.lastUsed = now;
+    }
+  }
+
+  private static final Clock SYSTEM_CLOCK = new Clock() {
+    public long currentTimeMillis() {
+      return System.currentTimeMillis();
+    }
+  };
+
+  private static String getInitParameterValue(HttpServlet servlet, String name) {
+    String paramValue = servlet.getServletConfig().getInitParameter(name);
+    if (paramValue == null) {
+      paramValue = servlet.getServletContext().getInitParameter(name);
+    }
+    return paramValue;
+  }
+
+  private final Clock clock;
+
+  private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+  private final AtomicLong evictionCount = new AtomicLong();
+
+  private final AtomicLong hitCount = new AtomicLong();
+
+  private final AtomicLong loadCount = new AtomicLong();
+
+  private volatile int maxSize = DEFAULT_MAX_SIZE;
+
+  private final AtomicLong missCount = new AtomicLong();
+
+  /**
+   * Policies parsed by {@link #configure(HttpServlet)}, keyed by the path of
+   * their file in the web application. Each one is removed when it is first
+   * used, after which the cache proper holds it.
+   */
+  private final Map<String, SerializationPolicy> preloaded =
+      new ConcurrentHashMap<String, SerializationPolicy>();
+
+  SerializationPolicyCache() {
+    this(SYSTEM_CLOCK);
+  }
+
+  /**
+   * Creates a cache that orders policies by the times <code>clock</code>
+   * returns; used by tests.
+   */
+  SerializationPolicyCache(Clock clock) {
+    this.clock = clock;
+  }
+
+  /**
+   * Returns the number of policies evicted to keep the cache within its
+   * maximum size.
+   */
+  public long getEvictionCount() {
+    return evictionCount.get();
+  }
+
+  /**
+   * Returns the number of lookups that found a cached policy.
+   */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /**
+   * Returns the number of policies added to the cache after a miss.
+   */
+  public long getLoadCount() {
+    return loadCount.get();
+  }
+
+  /**
+   * Returns the maximum number of cached policies.
+   */
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * Returns the number of lookups that did not find a cached policy.
+   */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * Returns the number of preloaded policies that have not been used yet.
+   */
+  public int getPreloadedCount() {
+    return preloaded.size();
+  }
+
+  /**
+   * Returns the number of cached policies.
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Reads the init parameters of <code>servlet</code> and, if asked to,
+   * preloads the policy files of its web application.
+   */
+  void configure(HttpServlet servlet) {
+    String maxSizeValue = getInitParameterValue(servlet, MAX_SIZE_PARAM);
+    if (maxSizeValue != null) {
+      try {
+        setMaxSize(Integer.parseInt(maxSizeValue.trim()));
+      } catch (IllegalArgumentException e) {
+        servlet.log("WARNING: Ignoring invalid " + MAX_SIZE_PARAM + " '" + maxSizeValue + "'");
+      }
+    }
+    if (Boolean.parseBoolean(getInitParameterValue(servlet, PRELOAD_PARAM))) {
+      preload(servlet, "/");
+    }
+  }
+
+  SerializationPolicy get(String moduleBaseURL, String strongName) {
+    Entry entry = entries.get(moduleBaseURL + strongName);
+    if (entry == null) {
+      missCount.incrementAndGet();
+      return null;
+    }
+    hitCount.incrementAndGet();
+    // Only write when the time has moved on, to keep the entry's cache line
+    // shared between CPUs under load.
+    long now = clock.currentTimeMillis();
+    if (entry.lastUsed != now) {
+      entry.lastUsed = now;
+    }
+    return entry.policy;
+  }
+
+  void put(String moduleBaseURL, String strongName, SerializationPolicy policy) {
+    loadCount.incrementAndGet();
+    entries.put(moduleBaseURL + strongName, new Entry(policy, clock.currentTimeMillis()));
+    if (entries.size() > maxSize) {
+      evict();
+    }
+  }
+
+  void setMaxSize(int maxSize) {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+    }
+    this.maxSize = maxSize;
+    if (entries.size() > maxSize) {
+      evict();
+    }
+  }
+
+  /**
+   * Removes and returns the preloaded policy stored in the given file, if there
+   * is one.
+   *
+   * @param policyFilePath the path of the policy file, relative to the web
+   *          application
+   */
+  SerializationPolicy takePreloaded(String policyFilePath) {
+    return preloaded.isEmpty() ? null : preloaded.remove(policyFilePath);
+  }
+
+  /**
+   * Evicts the least recently used policies until the cache is within its
+   * maximum size. This scans the whole cache, which is fine because it only
+   * happens when a policy is loaded.
+   */
+  private synchronized void evict() {
+    while (entries.size() > maxSize) {
+      String oldestKey = null;
+      Entry oldest = null;
+      for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+        if (oldest == null || mapEntry.getValue().lastUsed < oldest.lastUsed) {
+          oldestKey = mapEntry.getKey();
+          oldest = mapEntry.getValue();
+        }
+      }
+      if (oldest == null) {
+        return;
+      }
+      if (entries.remove(oldestKey) != null) {
+        evictionCount.incrementAndGet();
+      }
+    }
+  }
+
+  private void preload(HttpServlet servlet, String dir) {
+    ServletContext servletContext = servlet.getServletContext();
+    Set<?> paths = servletContext.getResourcePaths(dir);
+    if (paths == null) {
+      return;
+    }
+    for (Object entry : paths) {
+      String path = (String) entry;
+      if (path.endsWith("/")) {
+        if (!path.equals("/WEB-INF/")) {
+          preload(servlet, path);
+        }
+      } else if (path.endsWith(SerializationPolicyLoader.getSerializationPolicyFileName(""))) {
+        InputStream is = servletContext.getResourceAsStream(path);
+        if (is == null) {
+          continue;
+        }
+        try {
+          preloaded.put(path, SerializationPolicyLoader.loadFromStream(is, null));
+        } catch (ParseException e) {
+          servlet.log("ERROR: Failed to parse the policy file '" + path + "'", e);
+        } catch (IOException e) {
+          servlet.log("ERROR: Could not read the policy file '" + path + "'", e);
+        } finally {
+          try {
+            is.close();
+          } catch (IOException e) {
+            // Ignore this error
+          }
+        }
+      }
+    }
+  }
+}
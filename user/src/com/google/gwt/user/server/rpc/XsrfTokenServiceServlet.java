@@ -22,6 +22,7 @@ import com.google.gwt.user.server.Util;
 import com.google.gwt.util.tools.shared.Md5Utils;
 import com.google.gwt.util.tools.shared.StringUtils;
 
+import javax.servlet.ServletException;
 import javax.servlet.http.Cookie;
 
 /**
@@ -168,7 +169,8 @@ public class XsrfTokenServiceServlet extends RemoteServiceServlet
    * Servlet initialization.
    */
   @Override
-  public void init() {
+  public void init() throws ServletException {
+    super.init();
     // do not overwrite values set via constructor
     if (sessionCookieName == null) {
       sessionCookieName = getInitParameterValue(COOKIE_NAME_PARAM);
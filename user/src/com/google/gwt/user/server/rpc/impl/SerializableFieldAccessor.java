@@ -0,0 +1,277 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.user.server.rpc.impl;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import sun.misc.Unsafe;
+
+/**
+ * Reads and writes the serializable fields of one class, as returned by
+ * {@link SerializabilityUtil#applyFieldSerializationPolicy(Class)}, without
+ * going through {@link Field#get(Object)} and {@link Field#set(Object, Object)}.
+ * Field offsets are looked up once per class and the fields are then accessed
+ * through {@link Unsafe}, in the same way as
+ * {@link com.google.gwt.rpc.server.CommandSerializationUtil}.
+ *
+ * <p>
+ * This is an optional mode, enabled by setting the system property
+ * {@value #PROPERTY} to <code>true</code>. It is silently disabled if
+ * {@link Unsafe} is not available. Values are type checked before they are
+ * written, and a value of the wrong type causes an
+ * {@link IllegalArgumentException}, just as it does with reflection.
+ * </p>
+ */
+final class SerializableFieldAccessor {
+
+  /**
+   * The system property that enables this mode.
+   */
+  static final String PROPERTY = "gwt.rpc.unsafeFieldAccess";
+
+  /**
+   * Reads and writes one kind of field.
+   */
+  private static enum Kind {
+    BOOLEAN(boolean.class, Boolean.class) {
+      @Override
+      Object get(Object instance, long offset) {
+        return theUnsafe.getBoolean(instance, offset);
+      }
+
+      @Override
+      void set(Object instance, long offset, Object value) {
+        theUnsafe.putBoolean(instance, offset, (Boolean) value);
+      }
+    },
+    BYTE(byte.class, Byte.class) {
+      @Override
+      Object get(Object instance, long offset) {
+        return theUnsafe.getByte(instance, offset);
+      }
+
+      @Override
+      void set(Object instance, long offset, Object value) {
+        theUnsafe.putByte(instance, offset, (Byte) value);
+      }
+    },
+    CHAR(char.class, Character.class) {
+      @Override
+      Object get(Object instance, long offset) {
+        return theUnsafe.getChar(instance, offset);
+      }
+
+      @Override
+      void set(Object instance, long offset, Object value) {
+        theUnsafe.putChar(instance, offset, (Character) value);
+      }
+    },
+    DOUBLE(double.class, Double.class) {
+      @Override
+      Object get(Object instance, long offset) {
+        return theUnsafe.getDouble(instance, offset);
+      }
+
+      @Override
+      void set(Object instance, long offset, Object value) {
+        theUnsafe.putDouble(instance, offset, (Double) value);
+      }
+    },
+    FLOAT(float.class, Float.class) {
+      @Override
+      Object get(Object instance, long offset) {
+        return theUnsafe.getFloat(instance, offset);
+      }
+
+      @Override
+      void set(Object instance, long offset, Object value) {
+        theUnsafe.putFloat(instance, offset, (Float) value);
+      }
+    },
+    INT(int.class, Integer.class) {
+      @Override
+      Object get(Object instance, long offset) {
+        return theUnsafe.getInt(instance, offset);
+      }
+
+      @Override
+      void set(Object instance, long offset, Object value) {
+        theUnsafe.putInt(instance, offset, (Integer) value);
+      }
+    },
+    LONG(long.class, Long.class) {
+      @Override
+      Object get(Object instance, long offset) {
+        return theUnsafe.getLong(instance, offset);
+      }
+
+      @Override
+      void set(Object instance, long offset, Object value) {
+        theUnsafe.putLong(instance, offset, (Long) value);
+      }
+    },
+    OBJECT(null, null) {
+      @Override
+      Object get(Object instance, long offset) {
+        return theUnsafe.getObject(instance, offset);
+      }
+
+      @Override
+      void set(Object instance, long offset, Object value) {
+        theUnsafe.putObject(instance, offset, value);
+      }
+    },
+    SHORT(short.class, Short.class) {
+      @Override
+      Object get(Object instance, long offset) {
+        return theUnsafe.getShort(instance, offset);
+      }
+
+      @Override
+      void set(Object instance, long offset, Object value) {
+        theUnsafe.putShort(instance, offset, (Short) value);
+      }
+    };
+
+    static Kind of(Class<?> type) {
+      for (Kind kind : values()) {
+        if (kind.primitiveType == type) {
+          return kind;
+        }
+      }
+      return OBJECT;
+    }
+
+    /**
+     * The type values must have, or <code>null</code> for {@link #OBJECT}.
+     */
+    private final Class<?> boxType;
+
+    private final Class<?> primitiveType;
+
+    private Kind(Class<?> primitiveType, Class<?> boxType) {
+      this.primitiveType = primitiveType;
+      this.boxType = boxType;
+    }
+
+    abstract Object get(Object instance, long offset);
+
+    abstract void set(Object instance, long offset, Object value);
+  }
+
+  /**
+   * A permanent cache of accessors. This is safe to do because a Class is
+   * guaranteed not to change within the lifetime of a ClassLoader (and thus,
+   * this Map).
+   */
+  private static final Map<Class<?>, SerializableFieldAccessor> classAccessorCache =
+      new ConcurrentHashMap<Class<?>, SerializableFieldAccessor>();
+
+  private static final Unsafe theUnsafe;
+
+  private static final boolean ENABLED;
+
+  static {
+    Unsafe localUnsafe = null;
+    try {
+      Field f = Unsafe.class.getDeclaredField("theUnsafe");
+      f.setAccessible(true);
+      localUnsafe = (Unsafe) f.get(null);
+    } catch (SecurityException e) {
+      // Fall back to reflection.
+    } catch (NoSuchFieldException e) {
+      // Fall back to reflection.
+    } catch (IllegalAccessException e) {
+      // Fall back to reflection.
+    }
+    theUnsafe = localUnsafe;
+    ENABLED = theUnsafe != null && Boolean.getBoolean(PROPERTY);
+  }
+
+  /**
+   * Returns the accessor for the serializable fields of <code>clazz</code>, or
+   * <code>null</code> if reflection should be used.
+   */
+  static SerializableFieldAccessor get(Class<?> clazz) {
+    if (!ENABLED) {
+      return null;
+    }
+    return getAccessor(clazz);
+  }
+
+  /**
+   * Returns the accessor for the serializable fields of <code>clazz</code>,
+   * whether or not this mode is enabled. {@link Unsafe} must be available.
+   */
+  static SerializableFieldAccessor getAccessor(Class<?> clazz) {
+    SerializableFieldAccessor accessor = classAccessorCache.get(clazz);
+    if (accessor == null) {
+      accessor = new SerializableFieldAccessor(clazz,
+          SerializabilityUtil.applyFieldSerializationPolicy(clazz));
+      classAccessorCache.put(clazz, accessor);
+    }
+    return accessor;
+  }
+
+  private final Class<?> declaringClass;
+
+  private final Class<?>[] fieldTypes;
+
+  private final Kind[] kinds;
+
+  private final long[] offsets;
+
+  private SerializableFieldAccessor(Class<?> declaringClass, Field[] fields) {
+    this.declaringClass = declaringClass;
+    fieldTypes = new Class<?>[fields.length];
+    kinds = new Kind[fields.length];
+    offsets = new long[fields.length];
+    for (int i = 0; i < fields.length; i++) {
+      fieldTypes[i] = fields[i].getType();
+      kinds[i] = Kind.of(fieldTypes[i]);
+      offsets[i] = theUnsafe.objectFieldOffset(fields[i]);
+    }
+  }
+
+  /**
+   * Returns the value of the serializable field at <code>index</code>, boxed if
+   * it is primitive.
+   */
+  Object get(Object instance, int index) {
+    assert declaringClass.isInstance(instance);
+    return kinds[index].get(instance, offsets[index]);
+  }
+
+  /**
+   * Sets the serializable field at <code>index</code>.
+   *
+   * @throws IllegalArgumentException if <code>value</code> cannot be assigned
+   *           to the field
+   */
+  void set(Object instance, int index, Object value) {
+    assert declaringClass.isInstance(instance);
+    Kind kind = kinds[index];
+    Class<?> requiredType = kind == Kind.OBJECT ? fieldTypes[index] : kind.boxType;
+    if (value == null ? kind != Kind.OBJECT : !requiredType.isInstance(value)) {
+      throw new IllegalArgumentException("Cannot assign "
+          + (value == null ? "null" : value.getClass().getName()) + " to a field of type "
+          + fieldTypes[index].getName());
+    }
+    kind.set(instance, offsets[index], value);
+  }
+}
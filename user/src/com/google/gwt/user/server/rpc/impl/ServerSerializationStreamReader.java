@@ -38,7 +38,6 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Type;
 import java.lang.reflect.TypeVariable;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.IdentityHashMap;
 import java.util.LinkedList;
@@ -369,11 +368,30 @@ public final class ServerSerializationStreamReader extends AbstractSerialization
   private final Map<Class<?>, Map<String, Method>> settersByClass =
       new HashMap<Class<?>, Map<String, Method>>();
 
+  /**
+   * The request being read. Tokens are parsed from it one at a time, as they
+   * are read, rather than being split up front.
+   */
+  private String encodedTokens;
+
+  /**
+   * The number of tokens in {@link #encodedTokens}, or -1 if it has not been
+   * counted yet.
+   */
+  private int numberOfTokens;
+
   private String[] stringTable;
 
-  private final ArrayList<String> tokenList = new ArrayList<String>();
+  /**
+   * The end (exclusive) of the current token, which is also the position of
+   * its separator.
+   */
+  private int tokenEnd;
 
-  private int tokenListIndex;
+  /**
+   * The start of the current token.
+   */
+  private int tokenStart;
 
   {
     CLASS_TO_VECTOR_READER.put(boolean[].class, VectorReader.BOOLEAN_VECTOR);
@@ -427,7 +445,15 @@ public final class ServerSerializationStreamReader extends AbstractSerialization
   }
 
   public int getNumberOfTokens() {
-    return tokenList.size();
+    if (numberOfTokens < 0) {
+      int count = 0;
+      int idx = -1;
+      while (-1 != (idx = encodedTokens.indexOf(RPC_SEPARATOR_CHAR, idx + 1))) {
+        ++count;
+      }
+      numberOfTokens = count;
+    }
+    return numberOfTokens;
   }
 
   public SerializationPolicy getSerializationPolicy() {
@@ -436,20 +462,17 @@ public final class ServerSerializationStreamReader extends AbstractSerialization
 
   @Override
   public void prepareToRead(String encodedTokens) throws SerializationException {
-    tokenList.clear();
-    tokenListIndex = 0;
+    this.encodedTokens = encodedTokens;
+    numberOfTokens = -1;
     stringTable = null;
+    tokenStart = 0;
+    tokenEnd = -1;
 
-    int idx = 0, nextIdx;
-    while (-1 != (nextIdx = encodedTokens.indexOf(RPC_SEPARATOR_CHAR, idx))) {
-      String current = encodedTokens.substring(idx, nextIdx);
-      tokenList.add(current);
-      idx = nextIdx + 1;
-    }
-    if (idx == 0) {
+    if (encodedTokens.indexOf(RPC_SEPARATOR_CHAR) == -1) {
       // Didn't find any separator, assume an older version with different
       // separators and get the version as the sequence of digits at the
       // beginning of the encoded string.
+      int idx = 0;
       while (idx < encodedTokens.length() && Character.isDigit(encodedTokens.charAt(idx))) {
         ++idx;
       }
@@ -499,17 +522,13 @@ public final class ServerSerializationStreamReader extends AbstractSerialization
 
   @Override
   public boolean readBoolean() throws SerializationException {
-    return !extract().equals("0");
+    nextToken();
+    return tokenEnd - tokenStart != 1 || encodedTokens.charAt(tokenStart) != '0';
   }
 
   @Override
   public byte readByte() throws SerializationException {
-    String value = extract();
-    try {
-      return Byte.parseByte(value);
-    } catch (NumberFormatException e) {
-      throw getNumberFormatException(value, "byte", Byte.MIN_VALUE, Byte.MAX_VALUE);
-    }
+    return (byte) readInt("byte", Byte.MIN_VALUE, Byte.MAX_VALUE);
   }
 
   @Override
@@ -520,22 +539,26 @@ public final class ServerSerializationStreamReader extends AbstractSerialization
 
   @Override
   public double readDouble() throws SerializationException {
-    return Double.parseDouble(extract());
+    nextToken();
+    // Integral values are common and are exactly representable with up to 15
+    // digits; -0 must go through parseDouble to keep its sign.
+    if (isSimpleInteger(15)) {
+      long value = simpleIntegerValue();
+      if (value != 0 || encodedTokens.charAt(tokenStart) != '-') {
+        return value;
+      }
+    }
+    return Double.parseDouble(currentToken());
   }
 
   @Override
   public float readFloat() throws SerializationException {
-    return (float) Double.parseDouble(extract());
+    return (float) readDouble();
   }
 
   @Override
   public int readInt() throws SerializationException {
-    String value = extract();
-    try {
-      return Integer.parseInt(value);
-    } catch (NumberFormatException e) {
-      throw getNumberFormatException(value, "int", Integer.MIN_VALUE, Integer.MAX_VALUE);
-    }
+    return readInt("int", Integer.MIN_VALUE, Integer.MAX_VALUE);
   }
 
   @Override
@@ -543,7 +566,8 @@ public final class ServerSerializationStreamReader extends AbstractSerialization
     if (getVersion() == SERIALIZATION_STREAM_MIN_VERSION) {
       return (long) readDouble() + (long) readDouble();
     } else {
-      return Base64Utils.longFromBase64(extract());
+      nextToken();
+      return Base64Utils.longFromBase64(encodedTokens, tokenStart, tokenEnd);
     }
   }
 
@@ -569,12 +593,7 @@ public final class ServerSerializationStreamReader extends AbstractSerialization
 
   @Override
   public short readShort() throws SerializationException {
-    String value = extract();
-    try {
-      return Short.parseShort(value);
-    } catch (NumberFormatException e) {
-      throw getNumberFormatException(value, "short", Short.MIN_VALUE, Short.MAX_VALUE);
-    }
+    return (short) readInt("short", Short.MIN_VALUE, Short.MAX_VALUE);
   }
 
   @Override
@@ -797,7 +816,9 @@ public final class ServerSerializationStreamReader extends AbstractSerialization
     }
 
     Field[] serializableFields = SerializabilityUtil.applyFieldSerializationPolicy(instanceClass);
-    for (Field declField : serializableFields) {
+    SerializableFieldAccessor accessor = SerializableFieldAccessor.get(instanceClass);
+    for (int i = 0; i < serializableFields.length; i++) {
+      Field declField = serializableFields[i];
       assert (declField != null);
       if ((clientFieldNames != null) && !clientFieldNames.contains(declField.getName())) {
         continue;
@@ -817,6 +838,8 @@ public final class ServerSerializationStreamReader extends AbstractSerialization
        */
       if ((setters != null) && ((setter = setters.get(fieldName)) != null)) {
         setter.invoke(instance, value);
+      } else if (accessor != null) {
+        accessor.set(instance, i, value);
       } else {
         boolean isAccessible = declField.isAccessible();
         boolean needsAccessOverride = !isAccessible && !Modifier.isPublic(declField.getModifiers());
@@ -886,7 +909,8 @@ public final class ServerSerializationStreamReader extends AbstractSerialization
     int typeNameCount = readInt();
     BoundedList<String> buffer = new BoundedList<String>(String.class, typeNameCount);
     for (int typeNameIndex = 0; typeNameIndex < typeNameCount; ++typeNameIndex) {
-      String str = extract();
+      nextToken();
+      String str = currentToken();
       // Change quoted characters back.
       int idx = str.indexOf('\\');
       if (idx >= 0) {
@@ -962,12 +986,11 @@ public final class ServerSerializationStreamReader extends AbstractSerialization
     throw new NoSuchMethodException("deserialize");
   }
 
-  private String extract() throws SerializationException {
-    try {
-      return tokenList.get(tokenListIndex++);
-    } catch (IndexOutOfBoundsException e) {
-      throw new SerializationException("Too few tokens in RPC request", e);
-    }
+  /**
+   * Returns the current token as a String.
+   */
+  private String currentToken() {
+    return encodedTokens.substring(tokenStart, tokenEnd);
   }
 
   /**
@@ -1102,6 +1125,82 @@ public final class ServerSerializationStreamReader extends AbstractSerialization
     return null;
   }
 
+  /**
+   * Returns whether the current token is an optional minus sign followed by one
+   * to <code>maxDigits</code> decimal digits.
+   */
+  private boolean isSimpleInteger(int maxDigits) {
+    int pos = tokenStart;
+    if (pos < tokenEnd && encodedTokens.charAt(pos) == '-') {
+      ++pos;
+    }
+    int digits = tokenEnd - pos;
+    if (digits == 0 || digits > maxDigits) {
+      return false;
+    }
+    for (; pos < tokenEnd; ++pos) {
+      char ch = encodedTokens.charAt(pos);
+      if (ch < '0' || ch > '9') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Advances to the next token.
+   */
+  private void nextToken() throws SerializationException {
+    int start = tokenEnd + 1;
+    int end = encodedTokens.indexOf(RPC_SEPARATOR_CHAR, start);
+    if (end == -1) {
+      throw new SerializationException("Too few tokens in RPC request");
+    }
+    tokenStart = start;
+    tokenEnd = end;
+  }
+
+  /**
+   * Reads an integral value in the given range. Plain decimal tokens are parsed
+   * in place; anything else goes through {@link Integer#parseInt(String)}.
+   */
+  private int readInt(String type, int minValue, int maxValue) throws SerializationException {
+    nextToken();
+    if (isSimpleInteger(9)) {
+      int value = (int) simpleIntegerValue();
+      if (value >= minValue && value <= maxValue) {
+        return value;
+      }
+    }
+    String token = currentToken();
+    try {
+      int value = Integer.parseInt(token);
+      if (value >= minValue && value <= maxValue) {
+        return value;
+      }
+    } catch (NumberFormatException e) {
+      // Fall through.
+    }
+    throw getNumberFormatException(token, type, minValue, maxValue);
+  }
+
+  /**
+   * Returns the value of the current token, which must satisfy
+   * {@link #isSimpleInteger(int)} for at most 18 digits.
+   */
+  private long simpleIntegerValue() {
+    int pos = tokenStart;
+    boolean negative = encodedTokens.charAt(pos) == '-';
+    if (negative) {
+      ++pos;
+    }
+    long value = 0;
+    for (; pos < tokenEnd; ++pos) {
+      value = value * 10 + (encodedTokens.charAt(pos) - '0');
+    }
+    return negative ? -value : value;
+  }
+
   private void validateTypeVersions(Class<?> instanceClass,
       SerializedInstanceReference serializedInstRef) throws SerializationException {
     String clientTypeSignature = serializedInstRef.getSignature();
@@ -24,6 +24,7 @@ import com.google.gwt.user.server.rpc.SerializationPolicy;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
+import java.io.Writer;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -52,51 +53,88 @@ public final class ServerSerializationStreamWriter extends
     private static final String POSTLUDE = "])";
     private static final String PRELUDE = "].concat([";
 
-    private final StringBuffer buffer;
+    /**
+     * Returns an array whose text is written to <code>out</code> as tokens are
+     * added, rather than built in memory. Its tokens must be added with
+     * {@link #writeToken}, and it must be finished with {@link #close()}.
+     */
+    private static LengthConstrainedArray open(Writer out) throws IOException {
+      out.write('[');
+      return new LengthConstrainedArray(out);
+    }
+
     private int count = 0;
     private boolean needsComma = false;
+    private final Appendable out;
     private int total = 0;
 
     public LengthConstrainedArray() {
-      buffer = new StringBuffer();
+      this(new StringBuffer().append('['));
     }
 
     public LengthConstrainedArray(int capacityGuess) {
-      buffer = new StringBuffer(capacityGuess);
+      this(new StringBuffer(capacityGuess).append('['));
+    }
+
+    private LengthConstrainedArray(Appendable out) {
+      this.out = out;
     }
 
     public void addToken(CharSequence token) {
+      try {
+        writeToken(token);
+      } catch (IOException e) {
+        // Only arrays written to a stream throw, and those use writeToken().
+        throw new IllegalStateException(e);
+      }
+    }
+
+    public void addToken(int i) {
+      addToken(String.valueOf(i));
+    }
+
+    @Override
+    public String toString() {
+      return out.toString() + getEnd();
+    }
+
+    /**
+     * Writes the end of an array created by {@link #open(Writer)}.
+     */
+    private void close() throws IOException {
+      out.append(getEnd());
+    }
+
+    private String getEnd() {
+      return total > MAXIMUM_ARRAY_LENGTH ? POSTLUDE : "]";
+    }
+
+    /**
+     * Writes the separator before the next token, which the caller then
+     * writes.
+     */
+    private void startToken() throws IOException {
       total++;
       if (count++ == MAXIMUM_ARRAY_LENGTH) {
         if (total == MAXIMUM_ARRAY_LENGTH + 1) {
-          buffer.append(PRELUDE);
+          out.append(PRELUDE);
         } else {
-          buffer.append("],[");
+          out.append("],[");
         }
         count = 0;
         needsComma = false;
       }
 
       if (needsComma) {
-        buffer.append(",");
+        out.append(',');
       } else {
         needsComma = true;
       }
-
-      buffer.append(token);
     }
 
-    public void addToken(int i) {
-      addToken(String.valueOf(i));
-    }
-
-    @Override
-    public String toString() {
-      if (total > MAXIMUM_ARRAY_LENGTH) {
-        return "[" + buffer.toString() + POSTLUDE;
-      } else {
-        return "[" + buffer.toString() + "]";
-      }
+    private void writeToken(CharSequence token) throws IOException {
+      startToken();
+      out.append(token);
     }
   }
 
@@ -607,6 +645,29 @@ public final class ServerSerializationStreamWriter extends
     return stream.toString();
   }
   
+  /**
+   * Writes the same text as {@link #toString()} to <code>out</code>. Unlike
+   * {@link #toString()}, this does not build the whole response in memory.
+   */
+  public void writeTo(Writer out) throws IOException {
+    LengthConstrainedArray stream = LengthConstrainedArray.open(out);
+    ListIterator<String> tokenIterator = tokenList.listIterator(tokenList.size());
+    while (tokenIterator.hasPrevious()) {
+      stream.writeToken(String.valueOf(tokenIterator.previous()));
+    }
+
+    stream.startToken();
+    LengthConstrainedArray tableStream = LengthConstrainedArray.open(out);
+    for (String s : getStringTable()) {
+      tableStream.writeToken(escapeStringSplitNodes(s));
+    }
+    tableStream.close();
+
+    stream.writeToken(String.valueOf(getFlags()));
+    stream.writeToken(String.valueOf(getVersion()));
+    stream.close();
+  }
+
   @Override
   public void writeLong(long value) {
     if (getVersion() == SERIALIZATION_STREAM_MIN_VERSION) {
@@ -735,12 +796,19 @@ public final class ServerSerializationStreamWriter extends
     }
     
     // Write the client-visible field data
-    for (Field declField : serializableFields) {
+    SerializableFieldAccessor accessor = SerializableFieldAccessor.get(instanceClass);
+    for (int i = 0; i < serializableFields.length; i++) {
+      Field declField = serializableFields[i];
       if ((clientFieldNames != null) && !clientFieldNames.contains(declField.getName())) {
         // Skip server-only fields
         continue;
       }
 
+      if (accessor != null) {
+        serializeValue(accessor.get(instance, i), declField.getType());
+        continue;
+      }
+
       boolean isAccessible = declField.isAccessible();
       boolean needsAccessOverride = !isAccessible
           && !Modifier.isPublic(declField.getModifiers());
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.junit;
+
+import com.google.gwt.core.ext.TreeLogger;
+import com.google.gwt.dev.cfg.BindingProperty;
+import com.google.gwt.dev.cfg.Properties;
+import com.google.gwt.dev.jjs.JJSOptionsImpl;
+import com.google.gwt.dev.util.Util;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+
+/**
+ * Tests {@link CompiledModuleCache}.
+ */
+public class CompiledModuleCacheTest extends TestCase {
+
+  private File tempDir;
+
+  public void testCreateWithoutCacheDir() {
+    String oldCacheDir = System.getProperty(
+        CompiledModuleCache.CACHE_DIR_PROPERTY);
+    System.clearProperty(CompiledModuleCache.CACHE_DIR_PROPERTY);
+    try {
+      assertNull(CompiledModuleCache.create(TreeLogger.NULL));
+    } finally {
+      if (oldCacheDir != null) {
+        System.setProperty(CompiledModuleCache.CACHE_DIR_PROPERTY, oldCacheDir);
+      }
+    }
+  }
+
+  public void testDescribeOptions() {
+    JJSOptionsImpl options = new JJSOptionsImpl();
+    String description = CompiledModuleCache.describeOptions(options);
+    assertEquals(description, CompiledModuleCache.describeOptions(
+        new JJSOptionsImpl()));
+
+    options.setEnableAssertions(!options.isEnableAssertions());
+    assertFalse(description.equals(
+        CompiledModuleCache.describeOptions(options)));
+  }
+
+  public void testDescribeProperties() {
+    Properties properties = new Properties();
+    BindingProperty userAgent = properties.createBinding("user.agent");
+    userAgent.addDefinedValue(userAgent.getRootCondition(), "gecko1_8");
+    userAgent.addDefinedValue(userAgent.getRootCondition(), "safari");
+    properties.createConfiguration("junit.moduleName", false).setValue(
+        "A.JUnit");
+    String description = CompiledModuleCache.describeProperties(properties);
+
+    userAgent.setAllowedValues(userAgent.getRootCondition(), "safari");
+    String restricted = CompiledModuleCache.describeProperties(properties);
+    assertFalse(description.equals(restricted));
+
+    properties.createConfiguration("junit.moduleName", false).setValue(
+        "B.JUnit");
+    assertFalse(restricted.equals(
+        CompiledModuleCache.describeProperties(properties)));
+  }
+
+  public void testLoadAndStore() {
+    File cacheDir = new File(tempDir, "cache");
+    assertTrue(cacheDir.mkdir());
+    CompiledModuleCache cache = new CompiledModuleCache(cacheDir);
+
+    File moduleDir = new File(tempDir, "A.JUnit");
+    assertTrue(new File(moduleDir, "deferredjs").mkdirs());
+    Util.writeStringAsFile(new File(moduleDir, "A.JUnit.nocache.js"),
+        "nocache");
+    Util.writeStringAsFile(new File(moduleDir, "deferredjs/1.cache.js"), "1");
+    assertFalse(cache.load(TreeLogger.NULL, "key", moduleDir));
+
+    cache.store(TreeLogger.NULL, "key", moduleDir);
+    assertEquals(1, cacheDir.listFiles().length);
+
+    // Loading replaces whatever was compiled before.
+    Util.recursiveDelete(moduleDir, false);
+    assertTrue(moduleDir.mkdir());
+    Util.writeStringAsFile(new File(moduleDir, "stale.js"), "stale");
+    assertTrue(cache.load(TreeLogger.NULL, "key", moduleDir));
+    assertEquals("nocache", Util.readFileAsString(new File(moduleDir,
+        "A.JUnit.nocache.js")));
+    assertEquals("1", Util.readFileAsString(new File(moduleDir,
+        "deferredjs/1.cache.js")));
+    assertFalse(new File(moduleDir, "stale.js").exists());
+
+    assertFalse(cache.load(TreeLogger.NULL, "other", moduleDir));
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    tempDir = File.createTempFile("CompiledModuleCacheTest", "");
+    tempDir.delete();
+    tempDir.mkdir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    Util.recursiveDelete(tempDir, false);
+  }
+}
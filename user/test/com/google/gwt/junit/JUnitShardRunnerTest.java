@@ -0,0 +1,206 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.junit;
+
+import com.google.gwt.core.ext.TreeLogger;
+import com.google.gwt.junit.JUnitShardWorker.TestOutcome;
+
+import junit.framework.AssertionFailedError;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the scheduling and workers of {@link JUnitShardRunner}.
+ */
+public class JUnitShardRunnerTest extends TestCase {
+
+  /**
+   * A worker which prints a line and then hangs.
+   */
+  public static class HangingWorker {
+    public static void main(String[] args) throws InterruptedException {
+      System.out.println("started");
+      Thread.sleep(10 * 60 * 1000);
+    }
+  }
+
+  private static class NotSerializable {
+  }
+
+  private static class NotSerializableException extends RuntimeException {
+    @SuppressWarnings("unused")
+    private final NotSerializable state = new NotSerializable();
+
+    NotSerializableException(String message) {
+      super(message);
+    }
+  }
+
+  public void testEnsureSerializable() {
+    AssertionFailedError failure = new AssertionFailedError("failed");
+    assertSame(failure, JUnitShardWorker.ensureSerializable(failure));
+
+    NotSerializableException error = new NotSerializableException("broken");
+    Throwable copy = JUnitShardWorker.ensureSerializable(error);
+    assertNotSame(error, copy);
+    assertEquals(error.toString(), copy.getMessage());
+    assertTrue(Arrays.equals(error.getStackTrace(), copy.getStackTrace()));
+  }
+
+  public void testEstimateCosts() {
+    Map<String, Integer> testCounts = new LinkedHashMap<String, Integer>();
+    testCounts.put("A.JUnit", 10);
+    testCounts.put("B.JUnit", 2);
+    testCounts.put("C.JUnit", 4);
+
+    // Without history, every test costs the same.
+    Map<String, Long> costs = JUnitShardRunner.estimateCosts(testCounts,
+        new Properties());
+    assertEquals(Long.valueOf(10000), costs.get("A.JUnit"));
+    assertEquals(Long.valueOf(2000), costs.get("B.JUnit"));
+
+    // Unknown modules cost the average time of a known test.
+    Properties history = new Properties();
+    history.setProperty("A.JUnit", "5000");
+    history.setProperty("B.JUnit", "7000");
+    history.setProperty("Gone.JUnit", "99999");
+    costs = JUnitShardRunner.estimateCosts(testCounts, history);
+    assertEquals(3, costs.size());
+    assertEquals(Long.valueOf(5000), costs.get("A.JUnit"));
+    assertEquals(Long.valueOf(7000), costs.get("B.JUnit"));
+    assertEquals(Long.valueOf(4000), costs.get("C.JUnit"));
+
+    // Garbage is ignored.
+    history.setProperty("B.JUnit", "soon");
+    costs = JUnitShardRunner.estimateCosts(testCounts, history);
+    assertEquals(Long.valueOf(1000), costs.get("B.JUnit"));
+  }
+
+  public void testFailedShardTimingsNotSaved() throws Exception {
+    File timingsFile = File.createTempFile("JUnitShardRunnerTest", ".timings");
+    String oldTimings = System.getProperty(JUnitShardRunner.TIMINGS_PROPERTY);
+    System.setProperty(JUnitShardRunner.TIMINGS_PROPERTY,
+        timingsFile.getPath());
+    try {
+      List<TestOutcome> results = Arrays.asList(new TestOutcome("test.Test",
+          "testA", "A.JUnit", 500));
+      new JUnitShardRunner(TreeLogger.NULL, 1).new Shard(0).finish(results,
+          "the worker exited with status 1");
+      assertNull(readTimings(timingsFile).getProperty("A.JUnit"));
+
+      new JUnitShardRunner(TreeLogger.NULL, 1).new Shard(0).finish(results,
+          null);
+      assertEquals("500", readTimings(timingsFile).getProperty("A.JUnit"));
+    } finally {
+      if (oldTimings == null) {
+        System.clearProperty(JUnitShardRunner.TIMINGS_PROPERTY);
+      } else {
+        System.setProperty(JUnitShardRunner.TIMINGS_PROPERTY, oldTimings);
+      }
+      timingsFile.delete();
+    }
+  }
+
+  public void testSchedule() {
+    Map<String, Long> costs = new LinkedHashMap<String, Long>();
+    costs.put("a", 1L);
+    costs.put("b", 7L);
+    costs.put("c", 4L);
+    costs.put("d", 5L);
+    costs.put("e", 3L);
+
+    List<List<String>> shards = JUnitShardRunner.schedule(costs, 2);
+    assertEquals(2, shards.size());
+    assertEquals(Arrays.asList("b", "e"), shards.get(0));
+    assertEquals(Arrays.asList("d", "c", "a"), shards.get(1));
+  }
+
+  public void testScheduleMoreShardsThanModules() {
+    Map<String, Long> costs = new LinkedHashMap<String, Long>();
+    costs.put("a", 1L);
+    costs.put("b", 1L);
+
+    List<List<String>> shards = JUnitShardRunner.schedule(costs, 8);
+    assertEquals(2, shards.size());
+    assertEquals(Arrays.asList("a"), shards.get(0));
+    assertEquals(Arrays.asList("b"), shards.get(1));
+  }
+
+  public void testTimeOut() throws Exception {
+    final List<String> messages =
+        Collections.synchronizedList(new ArrayList<String>());
+    final CountDownLatch logged = new CountDownLatch(1);
+    TreeLogger logger = new TreeLogger() {
+      @Override
+      public TreeLogger branch(Type type, String msg, Throwable caught,
+          HelpInfo helpInfo) {
+        return this;
+      }
+
+      @Override
+      public boolean isLoggable(Type type) {
+        return true;
+      }
+
+      @Override
+      public void log(Type type, String msg, Throwable caught,
+          HelpInfo helpInfo) {
+        messages.add(msg);
+        logged.countDown();
+      }
+    };
+    JUnitShardRunner.Shard shard = new JUnitShardRunner(logger, 1).new Shard(0);
+    File resultsFile = File.createTempFile("JUnitShardRunnerTest", ".results");
+    String java = System.getProperty("java.home") + File.separator + "bin"
+        + File.separator + "java";
+    ProcessBuilder builder = new ProcessBuilder(java, "-classpath",
+        System.getProperty("java.class.path"), HangingWorker.class.getName());
+    builder.redirectErrorStream(true);
+    shard.start(builder.start(), resultsFile);
+
+    // The worker's output goes to the runner's logger.
+    assertTrue(logged.await(60, TimeUnit.SECONDS));
+    assertEquals("[shard 0] started", messages.get(0));
+
+    shard.timeOut();
+    assertNull(shard.takeOutcome("test.Test", "testHangs"));
+    assertTrue(shard.getFailure(), shard.getFailure().contains("timed out"));
+    assertFalse(resultsFile.exists());
+  }
+
+  private Properties readTimings(File timingsFile) throws IOException {
+    Properties timings = new Properties();
+    FileInputStream in = new FileInputStream(timingsFile);
+    try {
+      timings.load(in);
+    } finally {
+      in.close();
+    }
+    return timings;
+  }
+}
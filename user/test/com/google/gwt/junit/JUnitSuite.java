@@ -40,9 +40,12 @@ public class JUnitSuite {
     suite.addTestSuite(BatchingStrategyTest.class);
     suite.addTestSuite(CompileStrategyTest.class);
 
+    suite.addTestSuite(CompiledModuleCacheTest.class);
+
     suite.addTestSuite(FakeMessagesMakerTest.class);
     suite.addTestSuite(GWTMockUtilitiesTest.class);
     suite.addTestSuite(JUnitMessageQueueTest.class);
+    suite.addTestSuite(JUnitShardRunnerTest.class);
     suite.addTestSuite(GWTTestCaseNoClientTest.class);
 
     // These two are intended only to be run manually. See class comments
@@ -0,0 +1,292 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.logging.server;
+
+import com.google.gwt.util.tools.shared.BinarySymbolMap;
+
+import junit.framework.TestCase;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Tests {@link StackTraceDeobfuscator} with symbol maps held in memory.
+ */
+public class StackTraceDeobfuscatorTest extends TestCase {
+
+  /**
+   * Serves symbol maps from memory and counts how often they are read.
+   */
+  private static class TestDeobfuscator extends StackTraceDeobfuscator {
+    final Map<String, Integer> binaryReads = new HashMap<String, Integer>();
+    final Map<String, BinarySymbolMap> binarySymbolMaps =
+        new HashMap<String, BinarySymbolMap>();
+    final Map<String, Integer> reads = new HashMap<String, Integer>();
+    final Map<String, String> symbolMaps = new HashMap<String, String>();
+
+    TestDeobfuscator() {
+      super("");
+    }
+
+    int getBinaryReads(String strongName) {
+      Integer count = binaryReads.get(strongName);
+      return count == null ? 0 : count;
+    }
+
+    int getReads(String strongName) {
+      Integer count = reads.get(strongName);
+      return count == null ? 0 : count;
+    }
+
+    @Override
+    protected synchronized BinarySymbolMap getBinarySymbolMap(
+        String permutationStrongName) {
+      binaryReads.put(permutationStrongName,
+          getBinaryReads(permutationStrongName) + 1);
+      return binarySymbolMaps.get(permutationStrongName);
+    }
+
+    @Override
+    protected InputStream getSourceMapInputStream(String permutationStrongName,
+        int fragmentNumber) throws IOException {
+      throw new FileNotFoundException();
+    }
+
+    @Override
+    protected synchronized InputStream getSymbolMapInputStream(
+        String permutationStrongName) throws IOException {
+      reads.put(permutationStrongName, getReads(permutationStrongName) + 1);
+      String contents = symbolMaps.get(permutationStrongName);
+      if (contents == null) {
+        throw new FileNotFoundException(permutationStrongName);
+      }
+      return new ByteArrayInputStream(contents.getBytes("UTF-8"));
+    }
+  }
+
+  private static final String SYMBOL_MAP = "# jsName, jsniIdent, className, "
+      + "memberName, sourceUri, sourceLine, fragmentId\n"
+      + "\n"
+      + "a,com.foo.Bar::baz(),com.foo.Bar,baz,file:/src/com/foo/Bar.java,12,0\n"
+      + "b,com.foo.Bar::qux(I),com.foo.Bar,qux,file:/src/com/foo/Bar.java,34,0\n"
+      + "c,com.foo.Baz::quux(),com.foo.Baz,quux,Unknown,56,0\n";
+
+  private TestDeobfuscator deobfuscator;
+
+  public void testBatch() {
+    List<LogRecord> result = deobfuscator.deobfuscateLogRecords(
+        createRecords(), "P1");
+    assertEquals(3, result.size());
+    assertEquals(1, deobfuscator.getReads("P1"));
+    assertFrame("com.foo.Bar", "baz", "Bar.java", 12,
+        result.get(0).getThrown().getStackTrace()[0]);
+    assertNull(result.get(1).getThrown());
+    StackTraceElement[] st = result.get(2).getThrown().getStackTrace();
+    assertFrame("com.foo.Baz", "quux", null, 56, st[0]);
+    st = result.get(2).getThrown().getCause().getStackTrace();
+    assertFrame("com.foo.Bar", "qux", "Bar.java", 34, st[0]);
+    assertEquals("unknown", st[1].getMethodName());
+
+    // Everything, including the missing name, is now known.
+    deobfuscator.deobfuscateLogRecords(createRecords(), "P1");
+    assertEquals(1, deobfuscator.getReads("P1"));
+  }
+
+  public void testBinarySymbolMap() throws IOException {
+    deobfuscator.binarySymbolMaps.put("P4", createBinarySymbolMap());
+
+    StackTraceElement[] st = deobfuscator.deobfuscateStackTrace(
+        createStackTrace("b", "unknown", "c"), "P4");
+    assertFrame("com.foo.Bar", "qux", "Bar.java", 34, st[0]);
+    assertEquals("unknown", st[1].getMethodName());
+    assertFrame("com.foo.Baz", "quux", null, 56, st[2]);
+    assertEquals(0, deobfuscator.getReads("P4"));
+  }
+
+  public void testBinarySymbolMapEviction() throws IOException {
+    deobfuscator.binarySymbolMaps.put("P4", createBinarySymbolMap());
+    deobfuscator.setMaxCachedSymbols(3);
+
+    deobfuscator.deobfuscateStackTrace(createStackTrace("a"), "P4");
+    deobfuscator.deobfuscateStackTrace(createStackTrace("b"), "P4");
+    assertEquals(1, deobfuscator.getBinaryReads("P4"));
+
+    // The binary symbol map counts as its three symbols, so a symbol of P1
+    // evicts it.
+    deobfuscator.deobfuscateStackTrace(createStackTrace("a"), "P1");
+    StackTraceElement[] st = deobfuscator.deobfuscateStackTrace(
+        createStackTrace("c"), "P4");
+    assertFrame("com.foo.Baz", "quux", null, 56, st[0]);
+    assertEquals(2, deobfuscator.getBinaryReads("P4"));
+  }
+
+  public void testCorruptBinarySymbolMap() throws IOException {
+    File dir = File.createTempFile("StackTraceDeobfuscatorTest", "");
+    dir.delete();
+    dir.mkdir();
+    File binary = new File(dir, "P5" + BinarySymbolMap.SUFFIX);
+    File text = new File(dir, "P5.symbolMap");
+    try {
+      // A truncated binary symbol map is ignored in favor of the text one.
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      new BinarySymbolMap.Builder().readText(
+          new BufferedReader(new StringReader(SYMBOL_MAP))).write(out);
+      byte[] bytes = out.toByteArray();
+      writeFile(binary, Arrays.copyOf(bytes, bytes.length - 1));
+      writeFile(text, SYMBOL_MAP.getBytes("UTF-8"));
+
+      StackTraceElement[] st = new StackTraceDeobfuscator(dir.getPath())
+          .deobfuscateStackTrace(createStackTrace("b"), "P5");
+      assertFrame("com.foo.Bar", "qux", "Bar.java", 34, st[0]);
+    } finally {
+      binary.delete();
+      text.delete();
+      dir.delete();
+    }
+  }
+
+  public void testEviction() {
+    deobfuscator.symbolMaps.put("P2", SYMBOL_MAP);
+    deobfuscator.setMaxCachedSymbols(2);
+
+    deobfuscator.deobfuscateStackTrace(createStackTrace("a", "b"), "P1");
+    deobfuscator.deobfuscateStackTrace(createStackTrace("a", "b"), "P1");
+    assertEquals(1, deobfuscator.getReads("P1"));
+
+    // Loading P2 evicts P1, which is read again when it is next used.
+    deobfuscator.deobfuscateStackTrace(createStackTrace("c"), "P2");
+    StackTraceElement[] st = deobfuscator.deobfuscateStackTrace(
+        createStackTrace("a"), "P1");
+    assertFrame("com.foo.Bar", "baz", "Bar.java", 12, st[0]);
+    assertEquals(2, deobfuscator.getReads("P1"));
+  }
+
+  public void testLookupOnDemand() {
+    StackTraceElement ste = deobfuscator.resymbolize(
+        new StackTraceElement("Unknown", "b", null, -1), "P1");
+    assertFrame("com.foo.Bar", "qux", "Bar.java", 34, ste);
+    ste = deobfuscator.resymbolize(
+        new StackTraceElement("Unknown", "b", null, 40), "P1");
+    assertFrame("com.foo.Bar", "qux", "Bar.java", 40, ste);
+    assertEquals(1, deobfuscator.getReads("P1"));
+
+    // A symbol which was not needed yet causes a new read.
+    ste = deobfuscator.resymbolize(
+        new StackTraceElement("Unknown", "a", null, -1), "P1");
+    assertFrame("com.foo.Bar", "baz", "Bar.java", 12, ste);
+    assertEquals(2, deobfuscator.getReads("P1"));
+  }
+
+  public void testMissingNamesNotRead() {
+    deobfuscator.setMaxCachedSymbols(2);
+    deobfuscator.deobfuscateStackTrace(createStackTrace("a"), "P1");
+    assertEquals(1, deobfuscator.getReads("P1"));
+
+    // The names of P1 are indexed, so names it doesn't have are neither read
+    // nor cached, and don't evict the symbols of P1.
+    for (int i = 0; i < 100; i++) {
+      StackTraceElement[] st = createStackTrace("x" + i);
+      assertSame(st[0], deobfuscator.deobfuscateStackTrace(st, "P1")[0]);
+    }
+    StackTraceElement[] st = deobfuscator.deobfuscateStackTrace(
+        createStackTrace("a"), "P1");
+    assertFrame("com.foo.Bar", "baz", "Bar.java", 12, st[0]);
+    assertEquals(1, deobfuscator.getReads("P1"));
+  }
+
+  public void testMissingSymbolMap() {
+    StackTraceElement[] st = createStackTrace("a");
+    StackTraceElement[] result = deobfuscator.deobfuscateStackTrace(st, "P3");
+    assertSame(st[0], result[0]);
+    deobfuscator.deobfuscateStackTrace(createStackTrace("b"), "P3");
+    assertEquals(1, deobfuscator.getReads("P3"));
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    deobfuscator = new TestDeobfuscator();
+    deobfuscator.symbolMaps.put("P1", SYMBOL_MAP);
+  }
+
+  private void assertFrame(String className, String methodName,
+      String fileName, int lineNumber, StackTraceElement ste) {
+    assertEquals(className, ste.getClassName());
+    assertEquals(methodName, ste.getMethodName());
+    assertEquals(fileName, ste.getFileName());
+    assertEquals(lineNumber, ste.getLineNumber());
+  }
+
+  private BinarySymbolMap createBinarySymbolMap() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new BinarySymbolMap.Builder().readText(
+        new BufferedReader(new StringReader(SYMBOL_MAP))).write(out);
+    return new BinarySymbolMap(ByteBuffer.wrap(out.toByteArray()));
+  }
+
+  private LogRecord createRecord(Throwable thrown) {
+    LogRecord lr = new LogRecord(Level.SEVERE, "message");
+    lr.setThrown(thrown);
+    return lr;
+  }
+
+  private List<LogRecord> createRecords() {
+    List<LogRecord> records = new ArrayList<LogRecord>();
+    records.add(createRecord(createThrowable("a")));
+    records.add(createRecord(null));
+    Throwable t = createThrowable("c");
+    t.initCause(createThrowable("b", "unknown"));
+    records.add(createRecord(t));
+    return records;
+  }
+
+  private StackTraceElement[] createStackTrace(String... methodNames) {
+    StackTraceElement[] st = new StackTraceElement[methodNames.length];
+    for (int i = 0; i < st.length; i++) {
+      st[i] = new StackTraceElement("Unknown", methodNames[i], null, -1);
+    }
+    return st;
+  }
+
+  private Throwable createThrowable(String... methodNames) {
+    Throwable t = new Throwable("message");
+    t.setStackTrace(createStackTrace(methodNames));
+    return t;
+  }
+
+  private void writeFile(File file, byte[] contents) throws IOException {
+    FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(contents);
+    } finally {
+      out.close();
+    }
+  }
+}
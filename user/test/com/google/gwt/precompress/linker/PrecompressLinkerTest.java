@@ -29,6 +29,8 @@ import junit.framework.TestCase;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
@@ -84,8 +86,12 @@ public class PrecompressLinkerTest extends TestCase {
 
   private class MockLinkerContext implements LinkerContext {
     public SortedSet<ConfigurationProperty> getConfigurationProperties() {
-      return new TreeSet<ConfigurationProperty>(Arrays.asList(
-          propLeaveOriginals, propPathRegexes));
+      TreeSet<ConfigurationProperty> props = new TreeSet<ConfigurationProperty>(
+          Arrays.asList(propLeaveOriginals, propPathRegexes));
+      if (propMaxRatio != null) {
+        props.add(propMaxRatio);
+      }
+      return props;
     }
 
     public String getModuleFunctionName() {
@@ -224,8 +230,12 @@ public class PrecompressLinkerTest extends TestCase {
   private ArtifactSet artifacts;
   private LinkerContext context = new MockLinkerContext();
 
+  private File cacheDir;
+
   private MockConfigurationProperty propLeaveOriginals;
 
+  private MockConfigurationProperty propMaxRatio;
+
   private MockConfigurationProperty propPathRegexes;
 
   /**
@@ -251,6 +261,73 @@ public class PrecompressLinkerTest extends TestCase {
         uncompressibleGz);
   }
 
+  /**
+   * Tests that a file compressed by a previous link is reused.
+   */
+  public void testCache() throws UnableToCompleteException, IOException {
+    PrecompressLinker linker = new PrecompressLinker();
+    linker.setCacheDir(cacheDir);
+    ArtifactSet updated = linker.link(TreeLogger.NULL, context, artifacts,
+        true);
+    byte[] fooGz = contents(findArtifact(updated, "foo.js.gz"));
+    // foo.js and uncompressible.js are cached.
+    File[] cached = cacheDir.listFiles();
+    assertEquals(2, cached.length);
+    File fooCached = null;
+    for (File file : cached) {
+      assertTrue(file.getName().endsWith(".gz"));
+      if (file.length() == fooGz.length) {
+        fooCached = file;
+      }
+    }
+    assertNotNull(fooCached);
+
+    // Replace the cached file, to see that it is used rather than compressing
+    // foo.js again.
+    byte[] replacement = compress("replaced".getBytes("UTF-8"));
+    FileOutputStream out = new FileOutputStream(fooCached);
+    out.write(replacement);
+    out.close();
+    updated = linker.link(TreeLogger.NULL, context, artifacts, true);
+    assertEqualBytes(replacement, contents(findArtifact(updated, "foo.js.gz")));
+
+    // Compressing at another level doesn't use the same file.
+    propMaxRatio.setValue("true");
+    updated = linker.link(TreeLogger.NULL, context, artifacts, true);
+    assertEquals(4, cacheDir.listFiles().length);
+    assertTrue(fooGz.length >= contents(findArtifact(updated, "foo.js.gz")).length);
+  }
+
+  /**
+   * Tests that the final link deletes cached files which have not been used
+   * for a long time, and that reusing a file keeps it.
+   */
+  public void testCacheCleanup() throws UnableToCompleteException,
+      IOException {
+    PrecompressLinker linker = new PrecompressLinker();
+    linker.setCacheDir(cacheDir);
+    linker.link(TreeLogger.NULL, context, artifacts, true);
+    File[] cached = cacheDir.listFiles();
+    assertEquals(2, cached.length);
+    File unused = new File(cacheDir, "unused.gz");
+    File leftover = new File(cacheDir, "leftover.gz123.tmp");
+    File other = new File(cacheDir, "other.txt");
+    for (File file : new File[] {unused, leftover, other, cached[0],
+        cached[1]}) {
+      new FileOutputStream(file, true).close();
+      assertTrue(file.setLastModified(0));
+    }
+
+    // The files of the current artifacts are reused before the final link.
+    linker.link(TreeLogger.NULL, context, artifacts, true);
+    linker.link(TreeLogger.NULL, context, artifacts, false);
+    assertFalse(unused.exists());
+    assertFalse(leftover.exists());
+    assertTrue(other.exists());
+    assertTrue(cached[0].exists());
+    assertTrue(cached[1].exists());
+  }
+
   /**
    * Test that the blacklist takes effect.
    */
@@ -267,6 +344,60 @@ public class PrecompressLinkerTest extends TestCase {
     assertNull("foo.js should not have been compressed", fooGz);
   }
 
+  /**
+   * Tests that precompress.max.ratio produces valid and no larger files.
+   */
+  public void testMaxRatio() throws UnableToCompleteException, IOException {
+    byte[] fooGz = contents(findArtifact(linkArtifacts(), "foo.js.gz"));
+    propMaxRatio.setValue("true");
+    ArtifactSet updated = linkArtifacts();
+    byte[] fooMaxGz = contents(findArtifact(updated, "foo.js.gz"));
+    assertTrue(fooMaxGz.length <= fooGz.length);
+    assertEqualBytes(contents(findArtifact(updated, "foo.js")),
+        decompress(fooMaxGz));
+    assertNull(findArtifact(updated, "uncompressible.js.gz"));
+  }
+
+  /**
+   * Tests that the max ratio property is optional.
+   */
+  public void testMissingMaxRatio() throws UnableToCompleteException {
+    propMaxRatio = null;
+    assertNotNull(findArtifact(linkArtifacts(), "foo.js.gz"));
+  }
+
+  /**
+   * Tests compressing many files on several threads.
+   */
+  public void testParallel() throws UnableToCompleteException, IOException {
+    ArtifactSet many = new ArtifactSet();
+    for (int i = 0; i < 50; i++) {
+      many.add(emit("file" + i + ".js", i + fooFileContents() + i));
+    }
+    PrecompressLinker linker = new PrecompressLinker();
+    linker.setThreads(4);
+    ArtifactSet updated = linker.link(TreeLogger.NULL, context, many, true);
+    assertEquals(100, updated.size());
+    for (int i = 0; i < 50; i++) {
+      EmittedArtifact gz = findArtifact(updated, "file" + i + ".js.gz");
+      assertEqualBytes(contents(findArtifact(updated, "file" + i + ".js")),
+          decompress(contents(gz)));
+    }
+  }
+
+  /**
+   * Tests the default number of threads when it isn't set.
+   */
+  public void testThreads() {
+    PrecompressLinker linker = new PrecompressLinker();
+    linker.setThreads(0);
+    int processors = Runtime.getRuntime().availableProcessors();
+    assertEquals(processors, linker.getThreads(context, true));
+    assertEquals(processors, linker.getThreads(context, false));
+    linker.setThreads(3);
+    assertEquals(3, linker.getThreads(context, true));
+  }
+
   /**
    * Tests that if precompress.leave.original if false, the originals are
    * removed.
@@ -279,7 +410,7 @@ public class PrecompressLinkerTest extends TestCase {
   }
 
   @Override
-  protected void setUp() {
+  protected void setUp() throws IOException {
     // add some artifacts to test with
     artifacts = new ArtifactSet();
     artifacts.add(emit("foo.js", fooFileContents()));
@@ -293,6 +424,13 @@ public class PrecompressLinkerTest extends TestCase {
         "precompress.leave.originals", false);
     propLeaveOriginals.setValue("true");
 
+    propMaxRatio = new MockConfigurationProperty("precompress.max.ratio", false);
+    propMaxRatio.setValue("false");
+
+    cacheDir = File.createTempFile("PrecompressLinkerTest", "");
+    cacheDir.delete();
+    cacheDir.mkdir();
+
     propPathRegexes = new MockConfigurationProperty("precompress.path.regexes",
         true);
     propPathRegexes.values.add(".*\\.html");
@@ -300,6 +438,14 @@ public class PrecompressLinkerTest extends TestCase {
     propPathRegexes.values.add(".*\\.css");
   }
 
+  @Override
+  protected void tearDown() {
+    for (File file : cacheDir.listFiles()) {
+      file.delete();
+    }
+    cacheDir.delete();
+  }
+
   private ArtifactSet linkArtifacts() throws UnableToCompleteException {
     return new PrecompressLinker().link(TreeLogger.NULL, context, artifacts,
         true);
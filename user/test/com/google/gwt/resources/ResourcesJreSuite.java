@@ -17,6 +17,7 @@ package com.google.gwt.resources;
 
 import com.google.gwt.junit.tools.GWTTestSuite;
 import com.google.gwt.resources.rg.CssOutputTestCase;
+import com.google.gwt.resources.rg.ImageBundleBuilderTest;
 
 import junit.framework.Test;
 
@@ -28,6 +29,7 @@ public class ResourcesJreSuite {
 
     GWTTestSuite suite = new GWTTestSuite("JRE test for com.google.gwt.resources");
     suite.addTestSuite(CssOutputTestCase.class);
+    suite.addTestSuite(ImageBundleBuilderTest.class);
     return suite;
   }
 }
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.resources.rg;
+
+import com.google.gwt.core.ext.TreeLogger;
+import com.google.gwt.dev.util.Util;
+import com.google.gwt.resources.rg.ImageBundleBuilder.BestFitArranger;
+import com.google.gwt.resources.rg.ImageBundleBuilder.DecodedImage;
+import com.google.gwt.resources.rg.ImageBundleBuilder.ImageRect;
+
+import junit.framework.TestCase;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.net.URL;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Tests the {@link ImageCache} use of {@link ImageBundleBuilder}.
+ */
+public class ImageBundleBuilderTest extends TestCase {
+
+  private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+
+  private File cacheDir;
+
+  private String oldCacheDir;
+
+  private File tempDir;
+
+  public void testDecode() throws Exception {
+    URL red = writePng("red", 4, 3, 0xffff0000);
+    DecodedImage decoded = ImageBundleBuilder.decode(TreeLogger.NULL, "red.png",
+        red);
+    assertEquals(1, decoded.getImages().length);
+    assertEquals(4, decoded.getImages()[0].getWidth());
+    assertFalse(decoded.isLossy());
+    assertEquals(Util.computeStrongName(Util.readURLAsBytes(red)),
+        decoded.getContentHash());
+  }
+
+  public void testReadTouchesEntry() throws Exception {
+    URL red = writePng("red", 4, 3, 0xffff0000);
+    ImageRect rect = new ImageBundleBuilder().assimilate(TreeLogger.NULL,
+        "red", red);
+    ImageBundleBuilder.toPng(TreeLogger.NULL, rect);
+    File cacheFile = cacheDir.listFiles()[0];
+    long old = System.currentTimeMillis() - 10 * DAY_MILLIS;
+    assertTrue(cacheFile.setLastModified(old));
+
+    ImageBundleBuilder.toPng(TreeLogger.NULL, rect);
+    assertTrue(cacheFile.lastModified() > old + DAY_MILLIS);
+  }
+
+  public void testRenderIsCached() throws Exception {
+    URL red = writePng("red", 4, 3, 0xffff0000);
+    URL blue = writePng("blue", 5, 7, 0xff0000ff);
+
+    ImageBundleBuilder builder = new ImageBundleBuilder();
+    builder.assimilate(TreeLogger.NULL, "red", red);
+    builder.assimilate(TreeLogger.NULL, "blue", blue);
+    byte[] rendered = builder.render(TreeLogger.NULL, new BestFitArranger());
+    assertEquals(1, cacheDir.listFiles().length);
+
+    // The cached sprite sheet and positions are used, without drawing it.
+    ImageBundleBuilder cached = new ImageBundleBuilder();
+    cached.assimilate(TreeLogger.NULL, "red", red);
+    cached.assimilate(TreeLogger.NULL, "blue", blue);
+    assertTrue(Arrays.equals(rendered, cached.render(TreeLogger.NULL,
+        new BestFitArranger())));
+    assertEquals(1, cacheDir.listFiles().length);
+    assertPosition(builder.getMapping("red"), cached.getMapping("red"));
+    assertPosition(builder.getMapping("blue"), cached.getMapping("blue"));
+
+    // Another arranger is another entry.
+    cached.render(TreeLogger.NULL, new ImageBundleBuilder.VerticalArranger());
+    assertEquals(2, cacheDir.listFiles().length);
+  }
+
+  public void testToPngIsCached() throws Exception {
+    URL red = writePng("red", 4, 3, 0xffff0000);
+    ImageRect rect = new ImageBundleBuilder().assimilate(TreeLogger.NULL,
+        "red", red);
+    byte[] png = ImageBundleBuilder.toPng(TreeLogger.NULL, rect);
+    assertEquals(1, cacheDir.listFiles().length);
+    assertTrue(Arrays.equals(png, ImageBundleBuilder.toPng(TreeLogger.NULL,
+        rect)));
+    assertEquals(1, cacheDir.listFiles().length);
+  }
+
+  public void testTruncatedEntryIsIgnored() throws Exception {
+    URL red = writePng("red", 4, 3, 0xffff0000);
+    ImageBundleBuilder builder = new ImageBundleBuilder();
+    builder.assimilate(TreeLogger.NULL, "red", red);
+    byte[] rendered = builder.render(TreeLogger.NULL, new BestFitArranger());
+
+    File[] cacheFiles = cacheDir.listFiles();
+    assertEquals(1, cacheFiles.length);
+    Util.writeStringAsFile(cacheFiles[0], "GW");
+    assertTrue(Arrays.equals(rendered, builder.render(TreeLogger.NULL,
+        new BestFitArranger())));
+  }
+
+  public void testUnusedEntriesDeleted() throws Exception {
+    assertTrue(cacheDir.mkdir());
+    File unused = new File(cacheDir, "unused.png.cache");
+    File recent = new File(cacheDir, "recent.png.cache");
+    File temp = new File(cacheDir, "unused.png.cache123.tmp");
+    File other = new File(cacheDir, "other");
+    long old = System.currentTimeMillis() - 31 * DAY_MILLIS;
+    for (File file : new File[] {unused, recent, temp, other}) {
+      Util.writeStringAsFile(file, "GW");
+      if (file != recent) {
+        assertTrue(file.setLastModified(old));
+      }
+    }
+
+    URL red = writePng("red", 4, 3, 0xffff0000);
+    ImageBundleBuilder.toPng(TreeLogger.NULL, new ImageBundleBuilder()
+        .assimilate(TreeLogger.NULL, "red", red));
+    assertFalse(unused.exists());
+    assertFalse(temp.exists());
+    assertTrue(recent.exists());
+    assertTrue(other.exists());
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    tempDir = File.createTempFile("ImageBundleBuilderTest", "");
+    tempDir.delete();
+    tempDir.mkdir();
+    cacheDir = new File(tempDir, "cache");
+    oldCacheDir = System.getProperty(ImageCache.CACHE_DIR_PROPERTY);
+    System.setProperty(ImageCache.CACHE_DIR_PROPERTY, cacheDir.getPath());
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    if (oldCacheDir == null) {
+      System.clearProperty(ImageCache.CACHE_DIR_PROPERTY);
+    } else {
+      System.setProperty(ImageCache.CACHE_DIR_PROPERTY, oldCacheDir);
+    }
+    Util.recursiveDelete(tempDir, false);
+  }
+
+  private void assertPosition(ImageRect expected, ImageRect actual) {
+    assertTrue(actual.hasBeenPositioned());
+    assertEquals(expected.getLeft(), actual.getLeft());
+    assertEquals(expected.getTop(), actual.getTop());
+  }
+
+  private URL writePng(String name, int width, int height, int argb)
+      throws Exception {
+    BufferedImage image = new BufferedImage(width, height,
+        BufferedImage.TYPE_INT_ARGB);
+    for (int x = 0; x < width; ++x) {
+      for (int y = 0; y < height; ++y) {
+        image.setRGB(x, y, argb);
+      }
+    }
+    File file = new File(tempDir, name + ".png");
+    ImageIO.write(image, "png", file);
+    return file.toURI().toURL();
+  }
+}
@@ -17,6 +17,7 @@ package com.google.gwt.user;
 
 import com.google.gwt.dev.BootStrapPlatform;
 import com.google.gwt.junit.tools.GWTTestSuite;
+import com.google.gwt.logging.server.StackTraceDeobfuscatorTest;
 import com.google.gwt.user.client.rpc.LoggingRPCTest;
 
 
@@ -43,6 +44,9 @@ public class LoggingRPCSuite {
     // GWTTestCases
     suite.addTestSuite(LoggingRPCTest.class);
 
+    // Non GWTTestCases
+    suite.addTestSuite(StackTraceDeobfuscatorTest.class);
+
     return suite;
   }
 }
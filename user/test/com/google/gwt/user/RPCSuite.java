@@ -59,8 +59,11 @@ import com.google.gwt.user.server.rpc.AbstractXsrfProtectedServiceServletTest;
 import com.google.gwt.user.server.rpc.RPCRequestTest;
 import com.google.gwt.user.server.rpc.RPCServletUtilsTest;
 import com.google.gwt.user.server.rpc.RPCTest;
+import com.google.gwt.user.server.rpc.SerializationPolicyCacheTest;
 import com.google.gwt.user.server.rpc.SerializationPolicyLoaderTest;
 import com.google.gwt.user.server.rpc.impl.LegacySerializationPolicyTest;
+import com.google.gwt.user.server.rpc.impl.SerializableFieldAccessorTest;
+import com.google.gwt.user.server.rpc.impl.ServerSerializationStreamReaderTest;
 import com.google.gwt.user.server.rpc.impl.ServerSerializationStreamWriterTest;
 import com.google.gwt.user.server.rpc.impl.StandardSerializationPolicyTest;
 
@@ -93,6 +96,7 @@ public class RPCSuite {
     suite.addTestSuite(LegacySerializationPolicyTest.class);
     suite.addTestSuite(StandardSerializationPolicyTest.class);
     suite.addTestSuite(SerializationPolicyLoaderTest.class);
+    suite.addTestSuite(SerializationPolicyCacheTest.class);
     suite.addTestSuite(RPCServletUtilsTest.class);
     suite.addTestSuite(RPCRequestTest.class);
     suite.addTestSuite(FailedRequestTest.class);
@@ -101,7 +105,9 @@ public class RPCSuite {
     suite.addTestSuite(UtilTest.class);
     suite.addTestSuite(AbstractXsrfProtectedServiceServletTest.class);
     suite.addTestSuite(ClientSerializationStreamReaderTest.class);
+    suite.addTestSuite(ServerSerializationStreamReaderTest.class);
     suite.addTestSuite(ServerSerializationStreamWriterTest.class);
+    suite.addTestSuite(SerializableFieldAccessorTest.class);
 
     // GWTTestCases
     suite.addTestSuite(ValueTypesTest.class);
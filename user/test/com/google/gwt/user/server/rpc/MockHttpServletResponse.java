@@ -0,0 +1,194 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.user.server.rpc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A dummy class for testing methods that require an HttpServletResponse. It
+ * keeps the status, headers and content written to its output stream.
+ */
+public class MockHttpServletResponse implements HttpServletResponse {
+
+  private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+  private String contentType;
+  private final Map<String, String> headers = new HashMap<String, String>();
+  private int status = SC_OK;
+
+  public void addCookie(Cookie arg0) {
+    throw new UnsupportedOperationException();
+  }
+
+  public void addDateHeader(String arg0, long arg1) {
+    throw new UnsupportedOperationException();
+  }
+
+  public void addHeader(String arg0, String arg1) {
+    throw new UnsupportedOperationException();
+  }
+
+  public void addIntHeader(String arg0, int arg1) {
+    throw new UnsupportedOperationException();
+  }
+
+  public boolean containsHeader(String name) {
+    return headers.containsKey(name);
+  }
+
+  public String encodeRedirectUrl(String arg0) {
+    throw new UnsupportedOperationException();
+  }
+
+  public String encodeRedirectURL(String arg0) {
+    throw new UnsupportedOperationException();
+  }
+
+  public String encodeUrl(String arg0) {
+    throw new UnsupportedOperationException();
+  }
+
+  public String encodeURL(String arg0) {
+    throw new UnsupportedOperationException();
+  }
+
+  public void flushBuffer() {
+  }
+
+  public int getBufferSize() {
+    throw new UnsupportedOperationException();
+  }
+
+  public String getCharacterEncoding() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Returns the bytes written to the output stream.
+   */
+  public byte[] getContent() {
+    return content.toByteArray();
+  }
+
+  public String getContentType() {
+    return contentType;
+  }
+
+  public String getHeader(String name) {
+    return headers.get(name);
+  }
+
+  public Locale getLocale() {
+    throw new UnsupportedOperationException();
+  }
+
+  public ServletOutputStream getOutputStream() {
+    return new ServletOutputStream() {
+      @Override
+      public void write(byte[] b, int off, int len) {
+        content.write(b, off, len);
+      }
+
+      @Override
+      public void write(int b) {
+        content.write(b);
+      }
+    };
+  }
+
+  public int getStatus() {
+    return status;
+  }
+
+  public PrintWriter getWriter() throws IOException {
+    throw new UnsupportedOperationException();
+  }
+
+  public boolean isCommitted() {
+    return content.size() > 0;
+  }
+
+  public void reset() {
+    content.reset();
+    contentType = null;
+    headers.clear();
+    status = SC_OK;
+  }
+
+  public void resetBuffer() {
+    content.reset();
+  }
+
+  public void sendError(int arg0) {
+    throw new UnsupportedOperationException();
+  }
+
+  public void sendError(int arg0, String arg1) {
+    throw new UnsupportedOperationException();
+  }
+
+  public void sendRedirect(String arg0) {
+    throw new UnsupportedOperationException();
+  }
+
+  public void setBufferSize(int arg0) {
+    throw new UnsupportedOperationException();
+  }
+
+  public void setCharacterEncoding(String arg0) {
+    throw new UnsupportedOperationException();
+  }
+
+  public void setContentLength(int arg0) {
+    throw new UnsupportedOperationException();
+  }
+
+  public void setContentType(String contentType) {
+    this.contentType = contentType;
+  }
+
+  public void setDateHeader(String arg0, long arg1) {
+    throw new UnsupportedOperationException();
+  }
+
+  public void setHeader(String name, String value) {
+    headers.put(name, value);
+  }
+
+  public void setIntHeader(String arg0, int arg1) {
+    throw new UnsupportedOperationException();
+  }
+
+  public void setLocale(Locale arg0) {
+    throw new UnsupportedOperationException();
+  }
+
+  public void setStatus(int status) {
+    this.status = status;
+  }
+
+  public void setStatus(int arg0, String arg1) {
+    throw new UnsupportedOperationException();
+  }
+}
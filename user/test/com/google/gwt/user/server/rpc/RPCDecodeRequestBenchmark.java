@@ -0,0 +1,144 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.user.server.rpc;
+
+import static com.google.gwt.user.client.rpc.impl.AbstractSerializationStream.RPC_SEPARATOR_CHAR;
+
+import com.google.gwt.user.client.rpc.RemoteService;
+import com.google.gwt.user.client.rpc.impl.AbstractSerializationStream;
+import com.google.gwt.user.server.Base64Utils;
+import com.google.gwt.user.server.rpc.impl.SerializabilityUtil;
+
+/**
+ * Measures the time and garbage of {@link RPC#decodeRequest(String, Class)}
+ * for small and large requests, as seen by a busy RPC servlet.
+ *
+ * <p>
+ * Usage: <code>RPCDecodeRequestBenchmark [arrayLength] [iterations]</code>.
+ * Each iteration decodes the request for one second; the first iteration warms
+ * up the JIT and is not counted. Allocation is sampled from the heap, so run it
+ * with a large, fixed young generation (e.g. <code>-Xmn512m</code>) for stable
+ * numbers.
+ * </p>
+ */
+public class RPCDecodeRequestBenchmark {
+
+  /**
+   * A service whose arguments are mostly numbers, like a typical reporting
+   * call.
+   */
+  @SuppressWarnings("rpc-validation")
+  interface RecordService extends RemoteService {
+    void record(String name, long id, int[] counts, double[] values, boolean flush);
+  }
+
+  public static void main(String[] args) throws Exception {
+    int arrayLength = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+    run("small request", createRequest(4), iterations);
+    run("large request", createRequest(arrayLength), iterations);
+  }
+
+  /**
+   * Creates the request a client would send to
+   * {@link RecordService#record(String, long, int[], double[], boolean)} with
+   * arrays of the given length.
+   */
+  static String createRequest(int arrayLength) {
+    StringBuilder sb = new StringBuilder();
+    append(sb, AbstractSerializationStream.SERIALIZATION_STREAM_VERSION);
+    append(sb, 0); // flags
+
+    String[] strings = {
+        RecordService.class.getName(), "record", "moduleBaseURL", "strongName",
+        SerializabilityUtil.getSerializedTypeName(String.class),
+        SerializabilityUtil.getSerializedTypeName(long.class),
+        SerializabilityUtil.getSerializedTypeName(int[].class),
+        SerializabilityUtil.getSerializedTypeName(double[].class),
+        SerializabilityUtil.getSerializedTypeName(boolean.class),
+        SerializabilityUtil.encodeSerializedInstanceReference(int[].class,
+            RPC.getDefaultSerializationPolicy()),
+        SerializabilityUtil.encodeSerializedInstanceReference(double[].class,
+            RPC.getDefaultSerializationPolicy()), "report name"};
+    append(sb, strings.length);
+    for (String string : strings) {
+      append(sb, string);
+    }
+
+    append(sb, 3); // module base URL
+    append(sb, 4); // strong name
+    append(sb, 1); // interface name
+    append(sb, 2); // method name
+    append(sb, 5); // param count
+    for (int i = 5; i <= 9; i++) {
+      append(sb, i); // param types
+    }
+
+    append(sb, 12); // name
+    append(sb, Base64Utils.toBase64(1234567890123L)); // id
+    append(sb, 10); // int[] type
+    append(sb, arrayLength);
+    for (int i = 0; i < arrayLength; i++) {
+      append(sb, i * 17);
+    }
+    append(sb, 11); // double[] type
+    append(sb, arrayLength);
+    for (int i = 0; i < arrayLength; i++) {
+      append(sb, (i % 2 == 0) ? String.valueOf(i) : String.valueOf(i + 0.25));
+    }
+    append(sb, 1); // flush
+    return sb.toString();
+  }
+
+  private static void append(StringBuilder sb, Object token) {
+    sb.append(token).append(RPC_SEPARATOR_CHAR);
+  }
+
+  private static void run(String name, String request, int iterations) {
+    Runtime runtime = Runtime.getRuntime();
+    long decodes = 0;
+    long nanos = 0;
+    long allocated = 0;
+    for (int i = 0; i <= iterations; i++) {
+      long start = System.nanoTime();
+      long end = start + 1000000000L;
+      long iterationDecodes = 0;
+      long iterationAllocated = 0;
+      long lastFree = runtime.freeMemory();
+      while (System.nanoTime() < end) {
+        RPC.decodeRequest(request, RecordService.class);
+        ++iterationDecodes;
+        // A rise in free memory means a collection happened, so the sample is
+        // skipped.
+        long free = runtime.freeMemory();
+        if (free < lastFree) {
+          iterationAllocated += lastFree - free;
+        }
+        lastFree = free;
+      }
+      if (i > 0) {
+        decodes += iterationDecodes;
+        nanos += System.nanoTime() - start;
+        allocated += iterationAllocated;
+      }
+    }
+
+    System.out.println(String.format("%-14s %8d chars  %10.0f ns/decode  %10.0f bytes/decode",
+        name, request.length(), (double) nanos / Math.max(1, decodes),
+        (double) allocated / Math.max(1, decodes)));
+  }
+}
@@ -95,6 +95,21 @@ public class RPCServletUtilsTest extends TestCase {
     }
   }
 
+  /**
+   * A Content-Length header claiming far more content than is sent should not
+   * cause a buffer of that size to be allocated.
+   */
+  public void testContentLengthHuge() throws IOException, ServletException {
+    String content = "abcdefg";
+    HttpServletRequest request = new MockReqContentType(null, content) {
+      @Override
+      public int getContentLength() {
+        return Integer.MAX_VALUE;
+      }
+    };
+    assertEquals(content, RPCServletUtils.readContent(request, null, null));
+  }
+
   /**
    * Large content length should be read correctly.
    */
@@ -106,6 +121,19 @@ public class RPCServletUtilsTest extends TestCase {
     assertEquals(content, result);
   }
 
+  /**
+   * Content larger than the initial buffer should be read correctly.
+   */
+  public void testContentLengthLargerThanInitialBuffer() throws IOException, ServletException {
+    int contentLength = RPCServletUtils.MAX_INITIAL_CONTENT_BUFFER_SIZE * 2 + 1;
+    StringBuilder content = new StringBuilder(contentLength);
+    for (int i = 0; i < contentLength; i++) {
+      content.append((char) ('a' + i % 26));
+    }
+    String result = readContentAsUtf8(content.toString());
+    assertEquals(content.toString(), result);
+  }
+
   /**
    * Content length smaller than the buffer size should be read correctly.
    */
@@ -15,25 +15,39 @@
  */
 package com.google.gwt.user.server.rpc;
 
+import static com.google.gwt.user.client.rpc.impl.AbstractSerializationStream.RPC_SEPARATOR_CHAR;
+
 import com.google.gwt.user.client.rpc.IsSerializable;
+import com.google.gwt.user.client.rpc.RemoteService;
+import com.google.gwt.user.client.rpc.RpcRequestBuilder;
 import com.google.gwt.user.client.rpc.SerializationException;
+import com.google.gwt.user.client.rpc.impl.AbstractSerializationStream;
+import com.google.gwt.user.server.rpc.RPCServletUtilsTest.MockServletInputStream;
+import com.google.gwt.user.server.rpc.impl.ServerSerializationStreamWriter.LengthConstrainedArray;
 
 import junit.framework.TestCase;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.Set;
+import java.util.zip.GZIPInputStream;
 
 import javax.servlet.RequestDispatcher;
 import javax.servlet.Servlet;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
 
 /**
  * Test some of the failure modes associated with
@@ -62,6 +76,52 @@ public class RemoteServiceServletTest extends TestCase {
     }
   }
 
+  /**
+   * Mocks a GWT-RPC request from a client that accepts gzip encoding.
+   */
+  private static class MockRpcRequest extends MockHttpServletRequest {
+    private final String payload;
+
+    public MockRpcRequest(String payload) {
+      this.payload = payload;
+    }
+
+    @Override
+    public String getCharacterEncoding() {
+      return "utf-8";
+    }
+
+    @Override
+    public int getContentLength() {
+      return payload.length();
+    }
+
+    @Override
+    public String getContentType() {
+      return "text/x-gwt-rpc";
+    }
+
+    @Override
+    public String getContextPath() {
+      return "";
+    }
+
+    @Override
+    public String getHeader(String name) {
+      if ("Accept-Encoding".equals(name)) {
+        return "gzip, deflate";
+      } else if (RpcRequestBuilder.STRONG_NAME_HEADER.equals(name)) {
+        return "12345";
+      }
+      return null;
+    }
+
+    @Override
+    public ServletInputStream getInputStream() throws IOException {
+      return new MockServletInputStream(payload);
+    }
+  }
+
   private static class MockServletConfig implements ServletConfig {
     private ServletContext context;
 
@@ -70,7 +130,7 @@ public class RemoteServiceServletTest extends TestCase {
     }
 
     public String getInitParameter(String arg0) {
-      throw new UnsupportedOperationException();
+      return null;
     }
 
     public Enumeration<String> getInitParameterNames() {
@@ -86,6 +146,11 @@ public class RemoteServiceServletTest extends TestCase {
     }
   }
 
+  @SuppressWarnings("rpc-validation")
+  private static interface ValuesService extends RemoteService {
+    int[] getValues();
+  }
+
   private class MockServletContext implements ServletContext {
     private String messageLogged;
 
@@ -109,7 +174,7 @@ public class RemoteServiceServletTest extends TestCase {
     }
 
     public String getInitParameter(String arg0) {
-      throw new UnsupportedOperationException();
+      return null;
     }
 
     public Enumeration<String> getInitParameterNames() {
@@ -239,6 +304,68 @@ public class RemoteServiceServletTest extends TestCase {
     assertNull(serializationPolicy);
   }
 
+  /**
+   * Tests that policy files are read when the servlet is initialized if
+   * {@link SerializationPolicyCache#PRELOAD_PARAM} is set, and that the
+   * preloaded policy is used by
+   * {@link RemoteServiceServlet#doGetSerializationPolicy(javax.servlet.http.HttpServletRequest, java.lang.String, java.lang.String)}.
+   */
+  public void testDoGetSerializationPolicy_Preloaded() throws ServletException,
+      SerializationException {
+    final String resourceHash = "12345";
+    final String resourcePath = "/MyModule/"
+        + SerializationPolicyLoader.getSerializationPolicyFileName(resourceHash);
+    final int[] reads = new int[1];
+    MockServletContext mockContext = new MockServletContext() {
+      @Override
+      public String getInitParameter(String name) {
+        return SerializationPolicyCache.PRELOAD_PARAM.equals(name) ? "true" : null;
+      }
+
+      @Override
+      public InputStream getResourceAsStream(String resource) {
+        if (resourcePath.equals(resource)) {
+          ++reads[0];
+          try {
+            String payLoad = Foo.class.getName() + ",true\n";
+            return new ByteArrayInputStream(
+                payLoad.getBytes(SerializationPolicyLoader.SERIALIZATION_POLICY_FILE_ENCODING));
+          } catch (UnsupportedEncodingException e) {
+            return null;
+          }
+        }
+        return null;
+      }
+
+      @Override
+      public Set<String> getResourcePaths(String path) {
+        if ("/".equals(path)) {
+          return new HashSet<String>(Arrays.asList("/MyModule/", "/WEB-INF/"));
+        } else if ("/MyModule/".equals(path)) {
+          return new HashSet<String>(Arrays.asList(resourcePath, "/MyModule/MyModule.nocache.js"));
+        }
+        throw new AssertionError("Unexpected path " + path);
+      }
+    };
+    MockServletConfig mockConfig = new MockServletConfig(mockContext);
+
+    RemoteServiceServlet rss = new RemoteServiceServlet();
+
+    MockHttpServletRequestContextPath mockRequest = new MockHttpServletRequestContextPath();
+    rss.init(mockConfig);
+    assertEquals(1, reads[0]);
+    assertEquals(1, rss.getSerializationPolicyCache().getPreloadedCount());
+
+    mockRequest.contextPath = "";
+
+    SerializationPolicy serializationPolicy = rss.doGetSerializationPolicy(
+        mockRequest, "http://www.google.com/MyModule/", resourceHash);
+    assertNotNull(serializationPolicy);
+    assertValidDeserialize(serializationPolicy, Foo.class);
+    assertEquals(1, reads[0]);
+    assertEquals(0, rss.getSerializationPolicyCache().getPreloadedCount());
+  }
+
   /**
    * Test method for
    * {@link com.google.gwt.user.server.rpc.RemoteServiceServlet#doGetSerializationPolicy(javax.servlet.http.HttpServletRequest, java.lang.String, java.lang.String)}.
@@ -289,6 +416,70 @@ public class RemoteServiceServletTest extends TestCase {
     assertNotValidDeserialize(serializationPolicy, Baz.class);
   }
 
+  /**
+   * Tests that a streamed response is gzip compressed as it is written, and
+   * that it decompresses to the same text as an unstreamed response.
+   */
+  public void testStreamResponseWithGzip() throws Exception {
+    // Enough values for the response array to be split.
+    final int[] values =
+        new int[LengthConstrainedArray.MAXIMUM_ARRAY_LENGTH + 10];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = i;
+    }
+    ValuesService service = new ValuesService() {
+      public int[] getValues() {
+        return values;
+      }
+    };
+    MockServletContext mockContext = new MockServletContext() {
+      @Override
+      public InputStream getResourceAsStream(String resource) {
+        // No policy file, so the legacy policy is used.
+        return null;
+      }
+    };
+    RemoteServiceServlet rss = new RemoteServiceServlet(service) {
+      @Override
+      protected boolean shouldStreamResponse(HttpServletRequest request) {
+        return true;
+      }
+    };
+    rss.init(new MockServletConfig(mockContext));
+
+    String payload = ""
+        + AbstractSerializationStream.SERIALIZATION_STREAM_VERSION
+        + RPC_SEPARATOR_CHAR + // version
+        "0" + RPC_SEPARATOR_CHAR + // flags
+        "4" + RPC_SEPARATOR_CHAR + // string table entry count
+        "http://www.google.com/MyModule/" + RPC_SEPARATOR_CHAR + // entry #1
+        "12345" + RPC_SEPARATOR_CHAR + // string table entry #2
+        ValuesService.class.getName() + RPC_SEPARATOR_CHAR + // entry #3
+        "getValues" + RPC_SEPARATOR_CHAR + // string table entry #4
+        "1" + RPC_SEPARATOR_CHAR + // module base URL
+        "2" + RPC_SEPARATOR_CHAR + // whitelist hashcode
+        "3" + RPC_SEPARATOR_CHAR + // interface name
+        "4" + RPC_SEPARATOR_CHAR + // method name
+        "0" + RPC_SEPARATOR_CHAR; // param count
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    rss.doPost(new MockRpcRequest(payload), response);
+
+    assertEquals(200, response.getStatus());
+    assertEquals("gzip", response.getHeader("Content-Encoding"));
+    String expected = RPC.invokeAndEncodeResponse(service,
+        ValuesService.class.getMethod("getValues"), null,
+        RPC.getDefaultSerializationPolicy(), 0);
+    InputStream in = new GZIPInputStream(new ByteArrayInputStream(
+        response.getContent()));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    int count;
+    while ((count = in.read(buffer)) >= 0) {
+      out.write(buffer, 0, count);
+    }
+    assertEquals(expected, out.toString("UTF-8"));
+  }
+
   private void assertDeserializeFields(SerializationPolicy policy,
       Class<?> clazz) {
     assertTrue(policy.shouldDeserializeFields(clazz));
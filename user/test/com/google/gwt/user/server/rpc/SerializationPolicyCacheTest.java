@@ -0,0 +1,88 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.user.server.rpc;
+
+import com.google.gwt.user.server.rpc.impl.LegacySerializationPolicy;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link SerializationPolicyCache}.
+ */
+public class SerializationPolicyCacheTest extends TestCase {
+
+  /**
+   * A clock that only moves when told to.
+   */
+  private static class ManualClock implements SerializationPolicyCache.Clock {
+    long now;
+
+    public long currentTimeMillis() {
+      return now;
+    }
+  }
+
+  private static final SerializationPolicy POLICY = LegacySerializationPolicy.getInstance();
+
+  public void testEviction() {
+    ManualClock clock = new ManualClock();
+    SerializationPolicyCache cache = new SerializationPolicyCache(clock);
+    cache.setMaxSize(2);
+    cache.put("http://host/module/", "A", POLICY);
+    clock.now++;
+    cache.put("http://host/module/", "B", POLICY);
+    clock.now++;
+
+    // Using A makes B the least recently used policy.
+    assertSame(POLICY, cache.get("http://host/module/", "A"));
+    clock.now++;
+    cache.put("http://host/module/", "C", POLICY);
+    assertEquals(2, cache.size());
+    assertEquals(1, cache.getEvictionCount());
+    assertNotNull(cache.get("http://host/module/", "A"));
+    assertNull(cache.get("http://host/module/", "B"));
+    assertNotNull(cache.get("http://host/module/", "C"));
+
+    cache.setMaxSize(1);
+    assertEquals(1, cache.size());
+    assertEquals(2, cache.getEvictionCount());
+  }
+
+  public void testInvalidMaxSize() {
+    try {
+      new SerializationPolicyCache().setMaxSize(0);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+
+  public void testMetrics() {
+    SerializationPolicyCache cache = new SerializationPolicyCache();
+    assertEquals(SerializationPolicyCache.DEFAULT_MAX_SIZE, cache.getMaxSize());
+    assertNull(cache.get("http://host/module/", "A"));
+    cache.put("http://host/module/", "A", POLICY);
+    assertSame(POLICY, cache.get("http://host/module/", "A"));
+    assertSame(POLICY, cache.get("http://host/module/", "A"));
+    assertNull(cache.get("http://host/other/", "A"));
+
+    assertEquals(2, cache.getHitCount());
+    assertEquals(2, cache.getMissCount());
+    assertEquals(1, cache.getLoadCount());
+    assertEquals(0, cache.getEvictionCount());
+    assertEquals(1, cache.size());
+  }
+}
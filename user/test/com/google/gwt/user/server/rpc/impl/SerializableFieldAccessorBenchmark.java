@@ -0,0 +1,121 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.user.server.rpc.impl;
+
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+/**
+ * Compares reading and writing serializable fields through reflection, as
+ * {@link ServerSerializationStreamReader} and
+ * {@link ServerSerializationStreamWriter} do by default, with
+ * {@link SerializableFieldAccessor}.
+ *
+ * <p>
+ * Usage: <code>SerializableFieldAccessorBenchmark [objects] [iterations]</code>.
+ * </p>
+ */
+public class SerializableFieldAccessorBenchmark {
+
+  /**
+   * A typical value object with private fields.
+   */
+  static class Bean implements Serializable {
+    private boolean active;
+    private double balance;
+    private int count;
+    private long id;
+    private String name;
+    private Object owner;
+    private short rank;
+    private String title;
+  }
+
+  private interface Access {
+    void copy(Bean from, Bean to, Field[] fields) throws IllegalAccessException;
+  }
+
+  private static final Access ACCESSOR = new Access() {
+    private final SerializableFieldAccessor accessor =
+        SerializableFieldAccessor.getAccessor(Bean.class);
+
+    public void copy(Bean from, Bean to, Field[] fields) {
+      for (int i = 0; i < fields.length; i++) {
+        accessor.set(to, i, accessor.get(from, i));
+      }
+    }
+  };
+
+  /**
+   * Mirrors the access override the stream reader and writer perform for every
+   * field.
+   */
+  private static final Access REFLECTION = new Access() {
+    public void copy(Bean from, Bean to, Field[] fields) throws IllegalAccessException {
+      for (Field field : fields) {
+        if (!field.isAccessible() && !Modifier.isPublic(field.getModifiers())) {
+          field.setAccessible(true);
+        }
+        field.set(to, field.get(from));
+      }
+    }
+  };
+
+  public static void main(String[] args) throws Exception {
+    int objects = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+    Bean[] from = new Bean[objects];
+    Bean[] to = new Bean[objects];
+    for (int i = 0; i < objects; i++) {
+      from[i] = new Bean();
+      from[i].active = (i & 1) == 0;
+      from[i].balance = i * 1.5;
+      from[i].count = i;
+      from[i].id = i * 31L;
+      from[i].name = "name" + i;
+      from[i].owner = from[i / 2];
+      from[i].rank = (short) i;
+      from[i].title = "title";
+      to[i] = new Bean();
+    }
+
+    run("reflection", REFLECTION, from, to, iterations);
+    run("accessor", ACCESSOR, from, to, iterations);
+  }
+
+  private static void run(String name, Access access, Bean[] from, Bean[] to, int iterations)
+      throws IllegalAccessException {
+    Field[] fields = SerializabilityUtil.applyFieldSerializationPolicy(Bean.class);
+
+    // The first iteration warms up the JIT and is not counted.
+    long nanos = 0;
+    for (int i = 0; i <= iterations; i++) {
+      long start = System.nanoTime();
+      for (int j = 0; j < from.length; j++) {
+        access.copy(from[j], to[j], fields);
+      }
+      if (i > 0) {
+        nanos += System.nanoTime() - start;
+      }
+    }
+
+    long fieldCopies = (long) iterations * from.length * fields.length;
+    System.out.println(String.format("%-12s %8d ms  %6.1f ns/field", name, nanos / 1000000,
+        (double) nanos / Math.max(1, fieldCopies)));
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.user.server.rpc.impl;
+
+import junit.framework.TestCase;
+
+import java.io.Serializable;
+import java.lang.reflect.Field;
+
+/**
+ * Tests {@link SerializableFieldAccessor}.
+ */
+public class SerializableFieldAccessorTest extends TestCase {
+
+  /**
+   * A class with one serializable field of each kind.
+   */
+  static class AllKinds implements Serializable {
+    boolean booleanField;
+    byte byteField;
+    char charField;
+    double doubleField;
+    float floatField;
+    int intField;
+    long longField;
+    short shortField;
+    private String stringField;
+    transient int transientField;
+  }
+
+  private static final Object[] VALUES = {
+      true, (byte) 1, 'c', 2.5d, 3.5f, 4, 5L, (short) 6, "seven"};
+
+  public void testGetAndSet() throws IllegalAccessException {
+    Field[] fields = SerializabilityUtil.applyFieldSerializationPolicy(AllKinds.class);
+    assertEquals(VALUES.length, fields.length);
+
+    SerializableFieldAccessor accessor = SerializableFieldAccessor.getAccessor(AllKinds.class);
+    AllKinds instance = new AllKinds();
+    for (int i = 0; i < fields.length; i++) {
+      accessor.set(instance, i, VALUES[i]);
+    }
+    for (int i = 0; i < fields.length; i++) {
+      fields[i].setAccessible(true);
+      assertEquals(fields[i].getName(), VALUES[i], fields[i].get(instance));
+      assertEquals(fields[i].getName(), VALUES[i], accessor.get(instance, i));
+    }
+  }
+
+  public void testWrongType() {
+    SerializableFieldAccessor accessor = SerializableFieldAccessor.getAccessor(AllKinds.class);
+    AllKinds instance = new AllKinds();
+    try {
+      // intField
+      accessor.set(instance, 5, 5L);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      // intField
+      accessor.set(instance, 5, null);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      // stringField
+      accessor.set(instance, 8, Integer.valueOf(8));
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException expected) {
+    }
+    accessor.set(instance, 8, null);
+    assertNull(instance.stringField);
+  }
+}
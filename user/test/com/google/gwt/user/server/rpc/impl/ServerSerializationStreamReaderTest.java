@@ -0,0 +1,136 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.user.server.rpc.impl;
+
+import static com.google.gwt.user.client.rpc.impl.AbstractSerializationStream.RPC_SEPARATOR_CHAR;
+
+import com.google.gwt.user.client.rpc.SerializationException;
+import com.google.gwt.user.client.rpc.impl.AbstractSerializationStream;
+import com.google.gwt.user.server.Base64Utils;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests reading primitive values with {@link ServerSerializationStreamReader},
+ * which parses tokens in place.
+ */
+public class ServerSerializationStreamReaderTest extends TestCase {
+
+  private static ServerSerializationStreamReader createReader(String... tokens)
+      throws SerializationException {
+    StringBuilder sb = new StringBuilder();
+    sb.append(AbstractSerializationStream.SERIALIZATION_STREAM_VERSION).append(RPC_SEPARATOR_CHAR);
+    sb.append("0").append(RPC_SEPARATOR_CHAR); // flags
+    sb.append("3").append(RPC_SEPARATOR_CHAR); // string table entry count
+    sb.append("moduleBaseURL").append(RPC_SEPARATOR_CHAR);
+    sb.append("strongName").append(RPC_SEPARATOR_CHAR);
+    sb.append("a\\!b").append(RPC_SEPARATOR_CHAR);
+    sb.append("1").append(RPC_SEPARATOR_CHAR); // module base URL
+    sb.append("2").append(RPC_SEPARATOR_CHAR); // strong name
+    for (String token : tokens) {
+      sb.append(token).append(RPC_SEPARATOR_CHAR);
+    }
+    ServerSerializationStreamReader reader = new ServerSerializationStreamReader(
+        ServerSerializationStreamReaderTest.class.getClassLoader(), null);
+    reader.prepareToRead(sb.toString());
+    return reader;
+  }
+
+  public void testReadBoolean() throws SerializationException {
+    ServerSerializationStreamReader reader = createReader("0", "1", "00");
+    assertFalse(reader.readBoolean());
+    assertTrue(reader.readBoolean());
+    assertTrue(reader.readBoolean());
+  }
+
+  public void testReadDouble() throws SerializationException {
+    ServerSerializationStreamReader reader =
+        createReader("0", "-42", "1.5", "-0", "1e300", "NaN", "123456789012345678", "2.5");
+    assertEquals(0.0, reader.readDouble());
+    assertEquals(-42.0, reader.readDouble());
+    assertEquals(1.5, reader.readDouble());
+    assertEquals(Double.doubleToLongBits(-0.0), Double.doubleToLongBits(reader.readDouble()));
+    assertEquals(1e300, reader.readDouble());
+    assertTrue(Double.isNaN(reader.readDouble()));
+    assertEquals(123456789012345678.0, reader.readDouble());
+    assertEquals(2.5f, reader.readFloat());
+  }
+
+  public void testReadInt() throws SerializationException {
+    ServerSerializationStreamReader reader = createReader("0", "-1", "2147483647",
+        "-2147483648", "127", "-32768", "65");
+    assertEquals(0, reader.readInt());
+    assertEquals(-1, reader.readInt());
+    assertEquals(Integer.MAX_VALUE, reader.readInt());
+    assertEquals(Integer.MIN_VALUE, reader.readInt());
+    assertEquals(Byte.MAX_VALUE, reader.readByte());
+    assertEquals(Short.MIN_VALUE, reader.readShort());
+    assertEquals('A', reader.readChar());
+  }
+
+  public void testReadIntInvalid() throws SerializationException {
+    assertInvalidInt("out-of-range", createReader("2147483648"));
+    assertInvalidInt("fractional", createReader("1.5"));
+    assertInvalidInt("non-numerical", createReader("abc"));
+    assertInvalidInt("non-numerical", createReader(""));
+    assertInvalidInt("non-numerical", createReader("-"));
+
+    try {
+      createReader("128").readByte();
+      fail("Expected NumberFormatException");
+    } catch (NumberFormatException e) {
+      assertTrue(e.getMessage().contains("'byte'"));
+      assertTrue(e.getMessage().contains("out-of-range"));
+    }
+  }
+
+  public void testReadLong() throws SerializationException {
+    ServerSerializationStreamReader reader = createReader(Base64Utils.toBase64(0L),
+        Base64Utils.toBase64(-1L), Base64Utils.toBase64(Long.MAX_VALUE));
+    assertEquals(0L, reader.readLong());
+    assertEquals(-1L, reader.readLong());
+    assertEquals(Long.MAX_VALUE, reader.readLong());
+  }
+
+  public void testReadString() throws SerializationException {
+    ServerSerializationStreamReader reader = createReader("3", "0");
+    assertEquals("a|b", reader.readString());
+    assertNull(reader.readString());
+  }
+
+  public void testTokenCount() throws SerializationException {
+    ServerSerializationStreamReader reader = createReader("1", "2");
+    assertEquals(10, reader.getNumberOfTokens());
+    assertEquals(1, reader.readInt());
+    assertEquals(2, reader.readInt());
+    try {
+      reader.readInt();
+      fail("Expected SerializationException");
+    } catch (SerializationException e) {
+      // Expected.
+    }
+  }
+
+  private void assertInvalidInt(String message, ServerSerializationStreamReader reader)
+      throws SerializationException {
+    try {
+      reader.readInt();
+      fail("Expected NumberFormatException");
+    } catch (NumberFormatException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains(message));
+    }
+  }
+}
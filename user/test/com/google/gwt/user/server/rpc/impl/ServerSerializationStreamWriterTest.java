@@ -16,8 +16,15 @@
 
 package com.google.gwt.user.server.rpc.impl;
 
+import com.google.gwt.user.client.rpc.SerializationException;
+import com.google.gwt.user.server.rpc.RPC;
+import com.google.gwt.user.server.rpc.impl.ServerSerializationStreamWriter.LengthConstrainedArray;
+
 import junit.framework.TestCase;
 
+import java.io.IOException;
+import java.io.StringWriter;
+
 /**
  * Tests {@link ServerSerializationStreamWriter}.
  */
@@ -114,4 +121,19 @@ public class ServerSerializationStreamWriterTest extends TestCase {
         escaped);
   }
 
+  public void testWriteTo() throws IOException, SerializationException {
+    // Small enough for a single array literal, and large enough to be split.
+    for (int count : new int[] {10, LengthConstrainedArray.MAXIMUM_ARRAY_LENGTH + 10}) {
+      ServerSerializationStreamWriter writer =
+          new ServerSerializationStreamWriter(RPC.getDefaultSerializationPolicy());
+      writer.prepareToWrite();
+      for (int i = 0; i < count; i++) {
+        writer.writeInt(i);
+        writer.writeString("string " + i);
+      }
+      StringWriter out = new StringWriter();
+      writer.writeTo(out);
+      assertEquals(writer.toString(), out.toString());
+    }
+  }
 }